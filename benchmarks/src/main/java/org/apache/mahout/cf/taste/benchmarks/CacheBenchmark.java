@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.mahout.cf.taste.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.Cache;
+import org.apache.mahout.cf.taste.impl.common.Retriever;
+import org.apache.mahout.common.RandomUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Cache#get(Object)} from several threads at once, with power-law distributed keys so that some are hit
+ * far more often than others. Run with {@code -t} to change the number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Threads(4)
+@Fork(1)
+public class CacheBenchmark {
+
+  private static final int NUM_GETS = 1024;
+
+  @Param({"1000", "100000"})
+  public int maxEntries;
+
+  @Param("100000")
+  public int numKeys;
+
+  @Param("1.0")
+  public double exponent;
+
+  private Cache<Long,Long> cache;
+
+  @State(Scope.Thread)
+  public static class Keys {
+
+    Long[] keys;
+
+    @Setup
+    public void setUp(CacheBenchmark benchmark) {
+      Random random = RandomUtils.getRandom(System.identityHashCode(this));
+      PowerLawData.ZipfSampler sampler = new PowerLawData.ZipfSampler(benchmark.numKeys, benchmark.exponent);
+      keys = new Long[NUM_GETS];
+      for (int i = 0; i < NUM_GETS; i++) {
+        keys[i] = (long) sampler.sample(random);
+      }
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    cache = new Cache<Long,Long>(new Retriever<Long,Long>() {
+      @Override
+      public Long get(Long key) {
+        return key * 31L;
+      }
+    }, maxEntries);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_GETS)
+  public long get(Keys keys) throws TasteException {
+    long sum = 0L;
+    for (Long key : keys.keys) {
+      sum += cache.get(key);
+    }
+    return sum;
+  }
+
+}
@@ -0,0 +1,202 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.mahout.cf.taste.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.common.RandomUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups, insertions and iteration in {@link FastByIDMap} and {@link FastIDSet}, and bulk operations between
+ * large sets and between many small ones.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FastIDCollectionsBenchmark {
+
+  private static final int NUM_LOOKUPS = 1024;
+  private static final int NUM_SMALL_SETS = 1024;
+  private static final int SMALL_SET_SIZE = 6;
+
+  @Param({"1000", "1000000"})
+  public int size;
+
+  private long[] ids;
+  private long[] presentIDs;
+  private long[] absentIDs;
+  private FastByIDMap<Long> map;
+  private FastIDSet set;
+  private FastIDSet otherSet;
+  private FastIDSet[] smallSets;
+
+  @Setup
+  public void setUp() {
+    Random random = RandomUtils.getRandom(1234L);
+    ids = new long[size];
+    map = new FastByIDMap<Long>(size);
+    set = new FastIDSet(size);
+    for (int i = 0; i < size; i++) {
+      // Even IDs are present, odd ones absent
+      ids[i] = random.nextLong() & ~1L;
+      map.put(ids[i], ids[i]);
+      set.add(ids[i]);
+    }
+    // Shares half of its IDs with set
+    otherSet = new FastIDSet(size);
+    for (int i = 0; i < size; i++) {
+      otherSet.add(i % 2 == 0 ? ids[i] : random.nextLong() & ~1L);
+    }
+    smallSets = new FastIDSet[NUM_SMALL_SETS];
+    for (int i = 0; i < NUM_SMALL_SETS; i++) {
+      smallSets[i] = new FastIDSet();
+      for (int j = 0; j < SMALL_SET_SIZE; j++) {
+        smallSets[i].add(random.nextInt(4 * SMALL_SET_SIZE));
+      }
+    }
+    presentIDs = new long[NUM_LOOKUPS];
+    absentIDs = new long[NUM_LOOKUPS];
+    for (int i = 0; i < NUM_LOOKUPS; i++) {
+      presentIDs[i] = ids[random.nextInt(size)];
+      absentIDs[i] = random.nextLong() | 1L;
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_LOOKUPS)
+  public long mapGet() {
+    long sum = 0L;
+    for (long id : presentIDs) {
+      sum += map.get(id);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_LOOKUPS)
+  public int mapGetAbsent() {
+    int found = 0;
+    for (long id : absentIDs) {
+      if (map.get(id) != null) {
+        found++;
+      }
+    }
+    return found;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_LOOKUPS)
+  public int setContains() {
+    int found = 0;
+    for (long id : presentIDs) {
+      if (set.contains(id)) {
+        found++;
+      }
+    }
+    for (long id : absentIDs) {
+      if (set.contains(id)) {
+        found++;
+      }
+    }
+    return found;
+  }
+
+  /** Per inserted ID, including the growing of the map. */
+  @Benchmark
+  public FastByIDMap<Long> mapPut() {
+    FastByIDMap<Long> newMap = new FastByIDMap<Long>();
+    for (long id : ids) {
+      newMap.put(id, id);
+    }
+    return newMap;
+  }
+
+  @Benchmark
+  public FastIDSet setAdd() {
+    FastIDSet newSet = new FastIDSet();
+    for (long id : ids) {
+      newSet.add(id);
+    }
+    return newSet;
+  }
+
+  @Benchmark
+  public long setIterate() {
+    long sum = 0L;
+    LongPrimitiveIterator it = set.iterator();
+    while (it.hasNext()) {
+      sum += it.nextLong();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public FastIDSet setAddAll() {
+    FastIDSet newSet = new FastIDSet();
+    newSet.addAll(ids);
+    return newSet;
+  }
+
+  @Benchmark
+  public FastIDSet setUnion() {
+    FastIDSet union = set.clone();
+    union.addAll(otherSet);
+    return union;
+  }
+
+  @Benchmark
+  public FastIDSet setRetainAll() {
+    FastIDSet intersection = set.clone();
+    intersection.retainAll(otherSet);
+    return intersection;
+  }
+
+  @Benchmark
+  public int setIntersectionSize() {
+    return set.intersectionSize(otherSet);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_SMALL_SETS)
+  public int smallSetIntersectionSize() {
+    int count = 0;
+    for (int i = 1; i < NUM_SMALL_SETS; i++) {
+      count += smallSets[i].intersectionSize(smallSets[i - 1]);
+    }
+    return count;
+  }
+
+}
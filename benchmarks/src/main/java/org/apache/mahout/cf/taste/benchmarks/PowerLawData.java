@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.mahout.cf.taste.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.RandomUtils;
+
+/**
+ * Synthetic ratings in which both how many ratings users give and how many ratings items get follow a power
+ * law, as in real data: a few users and items account for much of it. Ratings are whole numbers 1 to 5. The
+ * same arguments always give the same data.
+ */
+public final class PowerLawData {
+
+  private PowerLawData() { }
+
+  /**
+   * @param exponent
+   *          exponent of the power law; larger is more skewed, 0 is uniform
+   */
+  public static FastByIDMap<PreferenceArray> generate(int numUsers,
+                                                      int numItems,
+                                                      int meanPrefsPerUser,
+                                                      double exponent,
+                                                      long seed) {
+    Random random = RandomUtils.getRandom(seed);
+    ZipfSampler itemSampler = new ZipfSampler(numItems, exponent);
+    double[] activity = new double[numUsers];
+    double totalActivity = 0.0;
+    for (int i = 0; i < numUsers; i++) {
+      activity[i] = Math.pow(i + 1, -exponent);
+      totalActivity += activity[i];
+    }
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>(numUsers);
+    for (int userID = 0; userID < numUsers; userID++) {
+      // Users are ranked by activity in random order of ID
+      double userActivity = activity[random.nextInt(numUsers)];
+      int numPrefs = (int) Math.max(1L, Math.min(numItems / 2,
+          Math.round(userActivity / totalActivity * numUsers * meanPrefsPerUser)));
+      FastIDSet itemIDs = new FastIDSet(numPrefs);
+      while (itemIDs.size() < numPrefs) {
+        itemIDs.add(itemSampler.sample(random));
+      }
+      long[] sortedItemIDs = itemIDs.toArray();
+      Arrays.sort(sortedItemIDs);
+      PreferenceArray prefs = new GenericUserPreferenceArray(numPrefs);
+      prefs.setUserID(0, userID);
+      for (int i = 0; i < numPrefs; i++) {
+        prefs.setItemID(i, sortedItemIDs[i]);
+        prefs.setValue(i, 1 + random.nextInt(5));
+      }
+      userData.put(userID, prefs);
+    }
+    return userData;
+  }
+
+  public static DataModel generateDataModel(int numUsers,
+                                            int numItems,
+                                            int meanPrefsPerUser,
+                                            double exponent,
+                                            long seed) {
+    return new GenericDataModel(generate(numUsers, numItems, meanPrefsPerUser, exponent, seed));
+  }
+
+  /** Writes data in the format {@link org.apache.mahout.cf.taste.impl.model.file.FileDataModel} reads. */
+  public static void write(FastByIDMap<PreferenceArray> userData, File file) throws IOException {
+    Writer writer = Files.newWriter(file, Charsets.UTF_8);
+    try {
+      LongPrimitiveIterator it = userData.keySetIterator();
+      while (it.hasNext()) {
+        PreferenceArray prefs = userData.get(it.nextLong());
+        for (int i = 0; i < prefs.length(); i++) {
+          writer.write(prefs.getUserID(i) + "," + prefs.getItemID(i) + ',' + prefs.getValue(i) + '\n');
+        }
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /** Samples {@code 0 .. n-1}, value {@code k} with probability proportional to {@code (k+1)^-exponent}. */
+  public static final class ZipfSampler {
+
+    private final double[] cumulative;
+
+    public ZipfSampler(int n, double exponent) {
+      cumulative = new double[n];
+      double sum = 0.0;
+      for (int i = 0; i < n; i++) {
+        sum += Math.pow(i + 1, -exponent);
+        cumulative[i] = sum;
+      }
+    }
+
+    public int sample(Random random) {
+      double target = random.nextDouble() * cumulative[cumulative.length - 1];
+      int index = Arrays.binarySearch(cumulative, target);
+      return index >= 0 ? index : Math.min(-index - 1, cumulative.length - 1);
+    }
+
+  }
+
+}
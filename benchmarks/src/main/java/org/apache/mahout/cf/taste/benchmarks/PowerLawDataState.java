@@ -0,0 +1,64 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.mahout.cf.taste.benchmarks;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A {@link PowerLawData} data set shared by all threads of a benchmark. Its size can be changed on the command
+ * line, like {@code -p numUsers=100000}.
+ */
+@State(Scope.Benchmark)
+public class PowerLawDataState {
+
+  @Param("10000")
+  public int numUsers;
+
+  @Param("2000")
+  public int numItems;
+
+  @Param("50")
+  public int meanPrefsPerUser;
+
+  @Param("1.0")
+  public double exponent;
+
+  private FastByIDMap<PreferenceArray> userData;
+  private DataModel dataModel;
+
+  @Setup
+  public void setUp() {
+    userData = PowerLawData.generate(numUsers, numItems, meanPrefsPerUser, exponent, 1234L);
+    dataModel = new GenericDataModel(userData);
+  }
+
+  public FastByIDMap<PreferenceArray> getUserData() {
+    return userData;
+  }
+
+  public DataModel getDataModel() {
+    return dataModel;
+  }
+
+}
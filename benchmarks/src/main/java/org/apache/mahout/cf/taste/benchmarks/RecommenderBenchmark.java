@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.mahout.cf.taste.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender;
+import org.apache.mahout.cf.taste.impl.recommender.svd.ALSWRFactorizer;
+import org.apache.mahout.cf.taste.impl.recommender.svd.SVDRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code recommend()} of {@link GenericItemBasedRecommender} and {@link SVDRecommender}, for users taken in turn.
+ * Models are built during setup and not timed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RecommenderBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class ItemBasedState {
+
+    Recommender recommender;
+
+    @Setup
+    public void setUp(PowerLawDataState data) throws TasteException {
+      DataModel dataModel = data.getDataModel();
+      recommender = new GenericItemBasedRecommender(dataModel, new PearsonCorrelationSimilarity(dataModel));
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class SVDState {
+
+    @Param("20")
+    public int numFeatures;
+
+    Recommender recommender;
+
+    @Setup
+    public void setUp(PowerLawDataState data) throws TasteException {
+      DataModel dataModel = data.getDataModel();
+      recommender = new SVDRecommender(dataModel, new ALSWRFactorizer(dataModel, numFeatures, 0.065, 5));
+    }
+  }
+
+  /** Each thread's position in the users. */
+  @State(Scope.Thread)
+  public static class UserCursor {
+
+    private int next;
+
+    long nextUserID(PowerLawDataState data) {
+      // PowerLawData numbers users from 0
+      long userID = next;
+      next = (next + 1) % data.numUsers;
+      return userID;
+    }
+  }
+
+  @Param("10")
+  public int howMany;
+
+  @Benchmark
+  public List<RecommendedItem> itemBased(ItemBasedState state, PowerLawDataState data, UserCursor cursor)
+    throws TasteException {
+    return state.recommender.recommend(cursor.nextUserID(data), howMany);
+  }
+
+  @Benchmark
+  public List<RecommendedItem> svd(SVDState state, PowerLawDataState data, UserCursor cursor)
+    throws TasteException {
+    return state.recommender.recommend(cursor.nextUserID(data), howMany);
+  }
+
+}
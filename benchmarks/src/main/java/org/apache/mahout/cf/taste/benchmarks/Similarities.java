@@ -0,0 +1,59 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.mahout.cf.taste.benchmarks;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.similarity.CityBlockSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.EuclideanDistanceSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.LogLikelihoodSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.SpearmanCorrelationSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.UncenteredCosineSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+
+/** Creates the similarity implementations benchmarks are parameterized with, by simple class name. */
+final class Similarities {
+
+  private Similarities() { }
+
+  static Object create(String name, DataModel dataModel) throws TasteException {
+    if ("PearsonCorrelationSimilarity".equals(name)) {
+      return new PearsonCorrelationSimilarity(dataModel);
+    }
+    if ("EuclideanDistanceSimilarity".equals(name)) {
+      return new EuclideanDistanceSimilarity(dataModel);
+    }
+    if ("UncenteredCosineSimilarity".equals(name)) {
+      return new UncenteredCosineSimilarity(dataModel);
+    }
+    if ("SpearmanCorrelationSimilarity".equals(name)) {
+      return new SpearmanCorrelationSimilarity(dataModel);
+    }
+    if ("TanimotoCoefficientSimilarity".equals(name)) {
+      return new TanimotoCoefficientSimilarity(dataModel);
+    }
+    if ("LogLikelihoodSimilarity".equals(name)) {
+      return new LogLikelihoodSimilarity(dataModel);
+    }
+    if ("CityBlockSimilarity".equals(name)) {
+      return new CityBlockSimilarity(dataModel);
+    }
+    throw new IllegalArgumentException("Unknown similarity: " + name);
+  }
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.mahout.cf.taste.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.common.RandomUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Similarity between random pairs of users and of items, for each implementation. Popular items and active
+ * users are as likely to be picked as any other, as in neighborhood computations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SimilarityBenchmark {
+
+  private static final int NUM_PAIRS = 256;
+
+  @State(Scope.Benchmark)
+  public static class UserSimilarityState {
+
+    @Param({"PearsonCorrelationSimilarity", "EuclideanDistanceSimilarity", "UncenteredCosineSimilarity",
+            "SpearmanCorrelationSimilarity", "TanimotoCoefficientSimilarity", "LogLikelihoodSimilarity",
+            "CityBlockSimilarity"})
+    public String similarity;
+
+    UserSimilarity userSimilarity;
+    long[] pairs;
+
+    @Setup
+    public void setUp(PowerLawDataState data) throws TasteException {
+      userSimilarity = (UserSimilarity) Similarities.create(similarity, data.getDataModel());
+      pairs = randomPairs(data.getDataModel().getUserIDs(), data.getDataModel().getNumUsers());
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class ItemSimilarityState {
+
+    @Param({"PearsonCorrelationSimilarity", "EuclideanDistanceSimilarity", "UncenteredCosineSimilarity",
+            "TanimotoCoefficientSimilarity", "LogLikelihoodSimilarity", "CityBlockSimilarity"})
+    public String similarity;
+
+    ItemSimilarity itemSimilarity;
+    long[] pairs;
+
+    @Setup
+    public void setUp(PowerLawDataState data) throws TasteException {
+      DataModel dataModel = data.getDataModel();
+      itemSimilarity = (ItemSimilarity) Similarities.create(similarity, dataModel);
+      pairs = randomPairs(dataModel.getItemIDs(), dataModel.getNumItems());
+    }
+  }
+
+  private static long[] randomPairs(LongPrimitiveIterator it, int numIDs) {
+    long[] ids = new long[numIDs];
+    for (int i = 0; i < numIDs; i++) {
+      ids[i] = it.nextLong();
+    }
+    Random random = RandomUtils.getRandom(1234L);
+    long[] pairs = new long[2 * NUM_PAIRS];
+    for (int i = 0; i < pairs.length; i++) {
+      pairs[i] = ids[random.nextInt(numIDs)];
+    }
+    return pairs;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_PAIRS)
+  public double userSimilarity(UserSimilarityState state) throws TasteException {
+    double sum = 0.0;
+    long[] pairs = state.pairs;
+    for (int i = 0; i < pairs.length; i += 2) {
+      sum += state.userSimilarity.userSimilarity(pairs[i], pairs[i + 1]);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_PAIRS)
+  public double itemSimilarity(ItemSimilarityState state) throws TasteException {
+    double sum = 0.0;
+    long[] pairs = state.pairs;
+    for (int i = 0; i < pairs.length; i += 2) {
+      sum += state.itemSimilarity.itemSimilarity(pairs[i], pairs[i + 1]);
+    }
+    return sum;
+  }
+
+}
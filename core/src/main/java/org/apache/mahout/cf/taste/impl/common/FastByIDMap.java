@@ -26,11 +26,12 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
-import org.apache.mahout.common.RandomUtils;
-
 import com.google.common.base.Preconditions;
 
 /**
+ * A map from {@code long} IDs to objects: an open-addressed hash table with linear probing over a
+ * power-of-two number of slots, like {@link FastIDSet}.
+ *
  * @see FastMap
  * @see FastIDSet
  */
@@ -38,6 +39,7 @@ public final class FastByIDMap<V> implements Serializable, Cloneable {
   
   public static final int NO_MAX_SIZE = Integer.MAX_VALUE;
   private static final float DEFAULT_LOAD_FACTOR = 1.5f;
+  private static final int MAX_CAPACITY = 1 << 30;
   
   /** Dummy object used to represent a key that has been removed. */
   private static final long REMOVED = Long.MAX_VALUE;
@@ -48,6 +50,7 @@ public final class FastByIDMap<V> implements Serializable, Cloneable {
   private float loadFactor;
   private int numEntries;
   private int numSlotsUsed;
+  private int maxSlotsUsed;
   private final int maxSize;
   private BitSet recentlyAccessed;
   private final boolean countingAccesses;
@@ -76,66 +79,77 @@ public final class FastByIDMap<V> implements Serializable, Cloneable {
    * @param maxSize max capacity
    * @param loadFactor ratio of internal hash table size to current size
    * @throws IllegalArgumentException if size is less than 0, maxSize is less than 1
-   *  or at least half of {@link RandomUtils#MAX_INT_SMALLER_TWIN_PRIME}, or
-   *  loadFactor is less than 1
+   *  or at least 2<sup>30</sup> divided by loadFactor, or loadFactor is less than 1
    */
   public FastByIDMap(int size, int maxSize, float loadFactor) {
     Preconditions.checkArgument(size >= 0, "size must be at least 0");
     Preconditions.checkArgument(loadFactor >= 1.0f, "loadFactor must be at least 1.0");
     this.loadFactor = loadFactor;
-    int max = (int) (RandomUtils.MAX_INT_SMALLER_TWIN_PRIME / loadFactor);
+    int max = (int) (MAX_CAPACITY / loadFactor);
     Preconditions.checkArgument(size < max, "size must be less than " + max);
     Preconditions.checkArgument(maxSize >= 1, "maxSize must be at least 1");
-    int hashSize = RandomUtils.nextTwinPrime((int) (loadFactor * size));
-    keys = new long[hashSize];
-    Arrays.fill(keys, NULL);
-    values = (V[]) new Object[hashSize];
     this.maxSize = maxSize;
     this.countingAccesses = maxSize != Integer.MAX_VALUE;
-    this.recentlyAccessed = countingAccesses ? new BitSet(hashSize) : null;
+    allocate(capacityFor(size));
+  }
+  
+  /**
+   * @return power of two number of slots to hold the given number of entries
+   */
+  private int capacityFor(int size) {
+    double slots = (double) loadFactor * size + 1.0;
+    if (slots > MAX_CAPACITY) {
+      throw new IllegalStateException("Can't grow any more");
+    }
+    return Math.max(2, Integer.highestOneBit((int) slots - 1) << 1);
+  }
+  
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    Arrays.fill(keys, NULL);
+    values = (V[]) new Object[capacity];
+    maxSlotsUsed = Math.min((int) (capacity / loadFactor), capacity - 1);
+    recentlyAccessed = countingAccesses ? new BitSet(capacity) : null;
+  }
+  
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
   }
   
   /**
    * @see #findForAdd(long)
    */
   private int find(long key) {
-    int theHashCode = (int) key & 0x7FFFFFFF; // make sure it's positive
     long[] keys = this.keys;
-    int hashSize = keys.length;
-    int jump = 1 + theHashCode % (hashSize - 2);
-    int index = theHashCode % hashSize;
+    int mask = keys.length - 1;
+    int index = hash(key) & mask;
     long currentKey = keys[index];
     while (currentKey != NULL && key != currentKey) {
-      if (index < jump) {
-        index += hashSize - jump;
-      } else {
-        index -= jump;
-      }
+      index = (index + 1) & mask;
       currentKey = keys[index];
     }
     return index;
   }
   
   /**
+   * @return index of the key if present, or else of the first removed or empty slot where it can be put
    * @see #find(long)
    */
   private int findForAdd(long key) {
-    int theHashCode = (int) key & 0x7FFFFFFF; // make sure it's positive
     long[] keys = this.keys;
-    int hashSize = keys.length;
-    int jump = 1 + theHashCode % (hashSize - 2);
-    int index = theHashCode % hashSize;
+    int mask = keys.length - 1;
+    int index = hash(key) & mask;
+    int firstRemoved = -1;
     long currentKey = keys[index];
-    while (currentKey != NULL && currentKey != REMOVED && key != currentKey) { // Different
-                                                                                                             // here
-      if (index < jump) {
-        index += hashSize - jump;
-      } else {
-        index -= jump;
+    while (currentKey != NULL && key != currentKey) {
+      if (currentKey == REMOVED && firstRemoved < 0) {
+        firstRemoved = index;
       }
+      index = (index + 1) & mask;
       currentKey = keys[index];
     }
-    return index;
+    return currentKey == NULL && firstRemoved >= 0 ? firstRemoved : index;
   }
   
   public V get(long key) {
@@ -176,17 +190,10 @@ public final class FastByIDMap<V> implements Serializable, Cloneable {
   public V put(long key, V value) {
     Preconditions.checkArgument(key != NULL && key != REMOVED);
     Preconditions.checkNotNull(value);
-    // If less than half the slots are open, let's clear it up
-    if (numSlotsUsed * loadFactor >= keys.length) {
-      // If over half the slots used are actual entries, let's grow
-      if (numEntries * loadFactor >= numSlotsUsed) {
-        growAndRehash();
-      } else {
-        // Otherwise just rehash to clear REMOVED entries and don't grow
-        rehash();
-      }
+    // If too many slots are used, by entries or removed entries, clear it up and grow as needed
+    if (numSlotsUsed >= maxSlotsUsed) {
+      rehash(capacityFor(numEntries + 1));
     }
-    // Here we may later consider implementing Brent's variation described on page 532
     int index = findForAdd(key);
     long keyIndex = keys[index];
     if (keyIndex == key) {
@@ -268,35 +275,36 @@ public final class FastByIDMap<V> implements Serializable, Cloneable {
     return new EntrySet();
   }
   
+  /**
+   * Shrinks the map to fit its current size and clears out removed entries.
+   */
   public void rehash() {
-    rehash(RandomUtils.nextTwinPrime((int) (loadFactor * numEntries)));
+    rehash(capacityFor(numEntries));
   }
   
-  private void growAndRehash() {
-    if (keys.length * loadFactor >= RandomUtils.MAX_INT_SMALLER_TWIN_PRIME) {
-      throw new IllegalStateException("Can't grow any more");
-    }
-    rehash(RandomUtils.nextTwinPrime((int) (loadFactor * keys.length)));
-  }
-  
-  private void rehash(int newHashSize) {
+  private void rehash(int newCapacity) {
     long[] oldKeys = keys;
     V[] oldValues = values;
-    numEntries = 0;
-    numSlotsUsed = 0;
-    if (countingAccesses) {
-      recentlyAccessed = new BitSet(newHashSize);
-    }
-    keys = new long[newHashSize];
-    Arrays.fill(keys, NULL);
-    values = (V[]) new Object[newHashSize];
+    allocate(newCapacity);
+    long[] keys = this.keys;
+    V[] values = this.values;
+    int mask = keys.length - 1;
+    int count = 0;
     int length = oldKeys.length;
     for (int i = 0; i < length; i++) {
       long key = oldKeys[i];
       if (key != NULL && key != REMOVED) {
-        put(key, oldValues[i]);
+        int index = hash(key) & mask;
+        while (keys[index] != NULL) {
+          index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = oldValues[i];
+        count++;
       }
     }
+    numEntries = count;
+    numSlotsUsed = count;
   }
   
   void iteratorRemove(int lastNext) {
@@ -350,8 +358,7 @@ public final class FastByIDMap<V> implements Serializable, Cloneable {
     for (int i = 0; i < max; i++) {
       long key = keys[i];
       if (key != NULL && key != REMOVED) {
-        hash = 31 * hash + ((int) (key >> 32) ^ (int) key);
-        hash = 31 * hash + values[i].hashCode();
+        hash += ((int) (key >> 32) ^ (int) key) ^ values[i].hashCode();
       }
     }
     return hash;
@@ -363,40 +370,20 @@ public final class FastByIDMap<V> implements Serializable, Cloneable {
       return false;
     }
     FastByIDMap<V> otherMap = (FastByIDMap<V>) other;
+    if (numEntries != otherMap.numEntries) {
+      return false;
+    }
     long[] otherKeys = otherMap.keys;
     V[] otherValues = otherMap.values;
     int length = keys.length;
-    int otherLength = otherKeys.length;
-    int max = Math.min(length, otherLength);
-
-    int i = 0;
-    while (i < max) {
+    for (int i = 0; i < length; i++) {
       long key = keys[i];
-      long otherKey = otherKeys[i];
-      if (key == NULL || key == REMOVED) {
-        if (otherKey != NULL && otherKey != REMOVED) {
-          return false;
-        }
-      } else {
-        if (key != otherKey || !values[i].equals(otherValues[i])) {
+      if (key != NULL && key != REMOVED) {
+        int otherIndex = otherMap.find(key);
+        if (otherKeys[otherIndex] == NULL || !values[i].equals(otherValues[otherIndex])) {
           return false;
         }
       }
-      i++;
-    }
-    while (i < length) {
-      long key = keys[i];
-      if (key != NULL && key != REMOVED) {
-        return false;
-      }
-      i++;
-    }
-    while (i < otherLength) {
-      long key = otherKeys[i];
-      if (key != NULL && key != REMOVED) {
-        return false;
-      }
-      i++;
     }
     return true;
   }
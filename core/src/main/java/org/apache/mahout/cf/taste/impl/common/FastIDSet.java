@@ -22,16 +22,24 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
-import org.apache.mahout.common.RandomUtils;
-
 import com.google.common.base.Preconditions;
 
 /**
+ * <p>
+ * A set of {@code long} IDs. Large sets are open-addressed hash tables with linear probing over a power-of-two
+ * number of slots, so that a lookup usually reads one or two adjacent slots; sets of up to eight
+ * IDs are kept as a small sorted array instead, which is both more compact and quicker to search and intersect
+ * at that size.
+ * </p>
+ *
  * @see FastByIDMap
  */
 public final class FastIDSet implements Serializable, Cloneable, Iterable<Long> {
   
   private static final float DEFAULT_LOAD_FACTOR = 1.5f;
+  /** Sets with at most this many slots keep their IDs sorted at the start of the array. */
+  private static final int MAX_SORTED_SIZE = 8;
+  private static final int MAX_CAPACITY = 1 << 30;
   
   /** Dummy object used to represent a key that has been removed. */
   private static final long REMOVED = Long.MAX_VALUE;
@@ -41,6 +49,7 @@ public final class FastIDSet implements Serializable, Cloneable, Iterable<Long>
   private float loadFactor;
   private int numEntries;
   private int numSlotsUsed;
+  private int maxSlotsUsed;
   
   /** Creates a new  with default capacity. */
   public FastIDSet() {
@@ -60,53 +69,74 @@ public final class FastIDSet implements Serializable, Cloneable, Iterable<Long>
     Preconditions.checkArgument(size >= 0, "size must be at least 0");
     Preconditions.checkArgument(loadFactor >= 1.0f, "loadFactor must be at least 1.0");
     this.loadFactor = loadFactor;
-    int max = (int) (RandomUtils.MAX_INT_SMALLER_TWIN_PRIME / loadFactor);
+    int max = (int) (MAX_CAPACITY / loadFactor);
     Preconditions.checkArgument(size < max, "size must be less than %d", max);
-    int hashSize = RandomUtils.nextTwinPrime((int) (loadFactor * size));
-    keys = new long[hashSize];
+    allocate(capacityFor(size));
+  }
+  
+  private boolean isSorted() {
+    return keys.length <= MAX_SORTED_SIZE;
+  }
+  
+  /**
+   * @return number of slots to hold the given number of IDs: a power of two, and small enough to keep them
+   *  sorted if possible
+   */
+  private int capacityFor(int size) {
+    if (size <= MAX_SORTED_SIZE) {
+      return size <= 2 ? 2 : Integer.highestOneBit(size - 1) << 1;
+    }
+    double slots = (double) loadFactor * size + 1.0;
+    if (slots > MAX_CAPACITY) {
+      throw new IllegalStateException("Can't grow any more");
+    }
+    return Math.max(2 * MAX_SORTED_SIZE, Integer.highestOneBit((int) slots - 1) << 1);
+  }
+  
+  private void allocate(int capacity) {
+    keys = new long[capacity];
     Arrays.fill(keys, NULL);
+    maxSlotsUsed = capacity <= MAX_SORTED_SIZE ? capacity : Math.min((int) (capacity / loadFactor), capacity - 1);
+  }
+  
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
   }
   
   /**
    * @see #findForAdd(long)
    */
   private int find(long key) {
-    int theHashCode = (int) key & 0x7FFFFFFF; // make sure it's positive
     long[] keys = this.keys;
-    int hashSize = keys.length;
-    int jump = 1 + theHashCode % (hashSize - 2);
-    int index = theHashCode % hashSize;
+    int mask = keys.length - 1;
+    int index = hash(key) & mask;
     long currentKey = keys[index];
     while (currentKey != NULL && key != currentKey) { // note: true when currentKey == REMOVED
-      if (index < jump) {
-        index += hashSize - jump;
-      } else {
-        index -= jump;
-      }
+      index = (index + 1) & mask;
       currentKey = keys[index];
     }
     return index;
   }
   
   /**
+   * @return index of the key if present, or else of the first removed or empty slot where it can be put
    * @see #find(long)
    */
   private int findForAdd(long key) {
-    int theHashCode = (int) key & 0x7FFFFFFF; // make sure it's positive
     long[] keys = this.keys;
-    int hashSize = keys.length;
-    int jump = 1 + theHashCode % (hashSize - 2);
-    int index = theHashCode % hashSize;
+    int mask = keys.length - 1;
+    int index = hash(key) & mask;
+    int firstRemoved = -1;
     long currentKey = keys[index];
-    while (currentKey != NULL && currentKey != REMOVED && key != currentKey) { // Different here
-      if (index < jump) {
-        index += hashSize - jump;
-      } else {
-        index -= jump;
+    while (currentKey != NULL && key != currentKey) {
+      if (currentKey == REMOVED && firstRemoved < 0) {
+        firstRemoved = index;
       }
+      index = (index + 1) & mask;
       currentKey = keys[index];
     }
-    return index;
+    return currentKey == NULL && firstRemoved >= 0 ? firstRemoved : index;
   }
   
   public int size() {
@@ -118,23 +148,47 @@ public final class FastIDSet implements Serializable, Cloneable, Iterable<Long>
   }
   
   public boolean contains(long key) {
-    return key != NULL && key != REMOVED && keys[find(key)] != NULL;
+    return key != NULL && key != REMOVED && containsValid(key);
+  }
+  
+  private boolean containsValid(long key) {
+    if (isSorted()) {
+      return Arrays.binarySearch(keys, 0, numEntries, key) >= 0;
+    }
+    return keys[find(key)] != NULL;
   }
   
   public boolean add(long key) {
     Preconditions.checkArgument(key != NULL && key != REMOVED);
-
-    // If less than half the slots are open, let's clear it up
-    if (numSlotsUsed * loadFactor >= keys.length) {
-      // If over half the slots used are actual entries, let's grow
-      if (numEntries * loadFactor >= numSlotsUsed) {
-        growAndRehash();
-      } else {
-        // Otherwise just rehash to clear REMOVED entries and don't grow
-        rehash();
+    if (isSorted()) {
+      int index = Arrays.binarySearch(keys, 0, numEntries, key);
+      if (index >= 0) {
+        return false;
+      }
+      if (numEntries == keys.length) {
+        rehash(capacityFor(numEntries + 1));
+        if (!isSorted()) {
+          return addToTable(key);
+        }
+      }
+      index = -index - 1;
+      System.arraycopy(keys, index, keys, index + 1, numEntries - index);
+      keys[index] = key;
+      numEntries++;
+      numSlotsUsed++;
+      return true;
+    }
+    return addToTable(key);
+  }
+  
+  private boolean addToTable(long key) {
+    // If too many slots are used, by entries or removed entries, clear it up and grow as needed
+    if (numSlotsUsed >= maxSlotsUsed) {
+      rehash(capacityFor(numEntries + 1));
+      if (isSorted()) {
+        return add(key);
       }
     }
-    // Here we may later consider implementing Brent's variation described on page 532
     int index = findForAdd(key);
     long keyIndex = keys[index];
     if (keyIndex != key) {
@@ -168,17 +222,30 @@ public final class FastIDSet implements Serializable, Cloneable, Iterable<Long>
     if (key == NULL || key == REMOVED) {
       return false;
     }
-    int index = find(key);
-    if (keys[index] == NULL) {
+    int index = isSorted() ? Arrays.binarySearch(keys, 0, numEntries, key) : find(key);
+    if (index < 0 || keys[index] == NULL) {
       return false;
+    }
+    removeAt(index);
+    return true;
+  }
+  
+  private void removeAt(int index) {
+    if (isSorted()) {
+      System.arraycopy(keys, index + 1, keys, index, numEntries - index - 1);
+      keys[numEntries - 1] = NULL;
+      numSlotsUsed--;
     } else {
       keys[index] = REMOVED;
-      numEntries--;
-      return true;
     }
+    numEntries--;
   }
   
+  /**
+   * Adds all of the given IDs, growing the set at most once for all of them.
+   */
   public boolean addAll(long[] c) {
+    reserve((long) numEntries + c.length);
     boolean changed = false;
     for (long k : c) {
       if (add(k)) {
@@ -188,9 +255,23 @@ public final class FastIDSet implements Serializable, Cloneable, Iterable<Long>
     return changed;
   }
   
+  /**
+   * Adds all IDs of the other set. If this set is empty, this just copies the other set's table.
+   */
   public boolean addAll(FastIDSet c) {
+    if (numEntries == 0 && loadFactor == c.loadFactor) {
+      keys = c.keys.clone();
+      numEntries = c.numEntries;
+      numSlotsUsed = c.numSlotsUsed;
+      maxSlotsUsed = c.maxSlotsUsed;
+      return numEntries > 0;
+    }
+    reserve((long) numEntries + c.numEntries);
+    long[] otherKeys = c.keys;
+    int length = c.isSorted() ? c.numEntries : otherKeys.length;
     boolean changed = false;
-    for (long k : c.keys) {
+    for (int i = 0; i < length; i++) {
+      long k = otherKeys[i];
       if (k != NULL && k != REMOVED && add(k)) {
         changed = true;
       }
@@ -198,6 +279,17 @@ public final class FastIDSet implements Serializable, Cloneable, Iterable<Long>
     return changed;
   }
   
+  /**
+   * Makes room for the given number of IDs in all, so that adding up to that many does not rehash. Beyond the
+   * most the table can hold, room is made for as many as it can, and adding more fails as usual.
+   */
+  private void reserve(long size) {
+    int cappedSize = (int) Math.min(size, (long) (MAX_CAPACITY / loadFactor) - 1L);
+    if (numSlotsUsed - numEntries + cappedSize > maxSlotsUsed) {
+      rehash(capacityFor(cappedSize));
+    }
+  }
+  
   public boolean removeAll(long[] c) {
     boolean changed = false;
     for (long o : c) {
@@ -209,8 +301,17 @@ public final class FastIDSet implements Serializable, Cloneable, Iterable<Long>
   }
   
   public boolean removeAll(FastIDSet c) {
+    if (c == this) {
+      // Removing from a sorted array while reading it would skip IDs
+      boolean changed = !isEmpty();
+      clear();
+      return changed;
+    }
+    long[] otherKeys = c.keys;
+    int length = c.isSorted() ? c.numEntries : otherKeys.length;
     boolean changed = false;
-    for (long k : c.keys) {
+    for (int i = 0; i < length; i++) {
+      long k = otherKeys[i];
       if (k != NULL && k != REMOVED && remove(k)) {
         changed = true;
       }
@@ -219,10 +320,26 @@ public final class FastIDSet implements Serializable, Cloneable, Iterable<Long>
   }
   
   public boolean retainAll(FastIDSet c) {
+    if (isSorted()) {
+      int retained = 0;
+      for (int i = 0; i < numEntries; i++) {
+        long k = keys[i];
+        if (c.containsValid(k)) {
+          keys[retained++] = k;
+        }
+      }
+      if (retained == numEntries) {
+        return false;
+      }
+      Arrays.fill(keys, retained, numEntries, NULL);
+      numEntries = retained;
+      numSlotsUsed = retained;
+      return true;
+    }
     boolean changed = false;
     for (int i = 0; i < keys.length; i++) {
       long k = keys[i];
-      if (k != NULL && k != REMOVED && !c.contains(k)) {
+      if (k != NULL && k != REMOVED && !c.containsValid(k)) {
         keys[i] = REMOVED;
         numEntries--;
         changed = true;
@@ -237,41 +354,89 @@ public final class FastIDSet implements Serializable, Cloneable, Iterable<Long>
     Arrays.fill(keys, NULL);
   }
   
-  private void growAndRehash() {
-    if (keys.length * loadFactor >= RandomUtils.MAX_INT_SMALLER_TWIN_PRIME) {
-      throw new IllegalStateException("Can't grow any more");
-    }
-    rehash(RandomUtils.nextTwinPrime((int) (loadFactor * keys.length)));
-  }
-  
+  /**
+   * Shrinks the set to fit its current size and clears out removed entries.
+   */
   public void rehash() {
-    rehash(RandomUtils.nextTwinPrime((int) (loadFactor * numEntries)));
+    rehash(capacityFor(numEntries));
   }
   
-  private void rehash(int newHashSize) {
+  private void rehash(int newCapacity) {
     long[] oldKeys = keys;
-    numEntries = 0;
-    numSlotsUsed = 0;
-    keys = new long[newHashSize];
-    Arrays.fill(keys, NULL);
-    for (long key : oldKeys) {
-      if (key != NULL && key != REMOVED) {
-        add(key);
+    int oldLength = isSorted() ? numEntries : oldKeys.length;
+    allocate(newCapacity);
+    long[] keys = this.keys;
+    int count = 0;
+    if (isSorted()) {
+      for (int i = 0; i < oldLength; i++) {
+        long key = oldKeys[i];
+        if (key != NULL && key != REMOVED) {
+          keys[count++] = key;
+        }
+      }
+      Arrays.sort(keys, 0, count);
+    } else {
+      int mask = keys.length - 1;
+      for (int i = 0; i < oldLength; i++) {
+        long key = oldKeys[i];
+        if (key != NULL && key != REMOVED) {
+          int index = hash(key) & mask;
+          while (keys[index] != NULL) {
+            index = (index + 1) & mask;
+          }
+          keys[index] = key;
+          count++;
+        }
       }
     }
+    numEntries = count;
+    numSlotsUsed = count;
   }
   
   /**
-   * Convenience method to quickly compute just the size of the intersection with another .
+   * Convenience method to quickly compute just the size of the intersection with another . This looks
+   * up the IDs of the smaller set in the larger one, or merges the two if both are small sorted sets.
    * 
    * @param other
    *           to intersect with
    * @return number of elements in intersection
    */
   public int intersectionSize(FastIDSet other) {
+    FastIDSet smaller = numEntries <= other.numEntries ? this : other;
+    FastIDSet larger = smaller == this ? other : this;
+    long[] smallerKeys = smaller.keys;
     int count = 0;
-    for (long key : other.keys) {
-      if (key != NULL && key != REMOVED && keys[find(key)] != NULL) {
+    if (smaller.isSorted()) {
+      int smallerSize = smaller.numEntries;
+      if (larger.isSorted()) {
+        long[] largerKeys = larger.keys;
+        int largerSize = larger.numEntries;
+        int i = 0;
+        int j = 0;
+        while (i < smallerSize && j < largerSize) {
+          long a = smallerKeys[i];
+          long b = largerKeys[j];
+          if (a == b) {
+            count++;
+            i++;
+            j++;
+          } else if (a < b) {
+            i++;
+          } else {
+            j++;
+          }
+        }
+        return count;
+      }
+      for (int i = 0; i < smallerSize; i++) {
+        if (larger.containsValid(smallerKeys[i])) {
+          count++;
+        }
+      }
+      return count;
+    }
+    for (long key : smallerKeys) {
+      if (key != NULL && key != REMOVED && larger.containsValid(key)) {
         count++;
       }
     }
@@ -296,7 +461,7 @@ public final class FastIDSet implements Serializable, Cloneable, Iterable<Long>
     long[] keys = this.keys;
     for (long key : keys) {
       if (key != NULL && key != REMOVED) {
-        hash = 31 * hash + ((int) (key >> 32) ^ (int) key);
+        hash += (int) (key >> 32) ^ (int) key;
       }
     }
     return hash;
@@ -307,42 +472,8 @@ public final class FastIDSet implements Serializable, Cloneable, Iterable<Long>
     if (!(other instanceof FastIDSet)) {
       return false;
     }
-    FastIDSet otherMap = (FastIDSet) other;
-    long[] otherKeys = otherMap.keys;
-    int length = keys.length;
-    int otherLength = otherKeys.length;
-    int max = Math.min(length, otherLength);
-
-    int i = 0;
-    while (i < max) {
-      long key = keys[i];
-      long otherKey = otherKeys[i];
-      if (key == NULL || key == REMOVED) {
-        if (otherKey != NULL && otherKey != REMOVED) {
-          return false;
-        }
-      } else {
-        if (key != otherKey) {
-          return false;
-        }
-      }
-      i++;
-    }
-    while (i < length) {
-      long key = keys[i];
-      if (key != NULL && key != REMOVED) {
-        return false;
-      }
-      i++;
-    }
-    while (i < otherLength) {
-      long key = otherKeys[i];
-      if (key != NULL && key != REMOVED) {
-        return false;
-      }
-      i++;
-    }
-    return true;
+    FastIDSet otherSet = (FastIDSet) other;
+    return numEntries == otherSet.numEntries && intersectionSize(otherSet) == numEntries;
   }
   
   @Override
@@ -407,8 +538,13 @@ public final class FastIDSet implements Serializable, Cloneable, Iterable<Long>
       if (lastNext < 0) {
         throw new IllegalStateException();
       }
-      keys[lastNext] = REMOVED;
-      numEntries--;
+      boolean sorted = isSorted();
+      removeAt(lastNext);
+      if (sorted) {
+        // the next IDs moved down by one
+        position = lastNext;
+      }
+      lastNext = -1;
     }
     
     public Iterator<Long> iterator() {
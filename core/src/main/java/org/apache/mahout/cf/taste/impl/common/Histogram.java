@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * A histogram of non-negative values, such as latencies in nanoseconds or counts, in the style of HdrHistogram: values
+ * below 128 are counted exactly, and larger ones in buckets no wider than 1/64 of their value, so any
+ * percentile is accurate to within about 1.6% over the whole range of {@code long} in a fixed 30KB.
+ * </p>
+ *
+ * <p>
+ * Recording is thread-safe and lock-free.
+ * </p>
+ */
+public final class Histogram {
+
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKET_HALF = 1 << SUB_BUCKET_BITS;
+  private static final int NUM_COUNTS = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF;
+
+  private final AtomicLongArray counts;
+  private final AtomicLong totalCount;
+  private final AtomicLong sum;
+  private final AtomicLong max;
+
+  public Histogram() {
+    counts = new AtomicLongArray(NUM_COUNTS);
+    totalCount = new AtomicLong();
+    sum = new AtomicLong();
+    max = new AtomicLong();
+  }
+
+  public void recordValue(long value) {
+    Preconditions.checkArgument(value >= 0L, "Negative value: " + value);
+    counts.incrementAndGet(indexOf(value));
+    totalCount.incrementAndGet();
+    sum.addAndGet(value);
+    long currentMax;
+    while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+      // retry
+    }
+  }
+
+  public long getCount() {
+    return totalCount.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /** @return mean of the recorded values, or {@link Double#NaN} if there are none */
+  public double getMean() {
+    long count = totalCount.get();
+    return count == 0L ? Double.NaN : (double) sum.get() / count;
+  }
+
+  /**
+   * @param percentile
+   *          between 0 and 100
+   * @return the largest value that is equivalent to the value at this percentile, or 0 if there are no values
+   */
+  public long getValueAtPercentile(double percentile) {
+    Preconditions.checkArgument(percentile >= 0.0 && percentile <= 100.0, "Invalid percentile: " + percentile);
+    long count = totalCount.get();
+    if (count == 0L) {
+      return 0L;
+    }
+    long countAtPercentile = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+    long seen = 0L;
+    for (int i = 0; i < NUM_COUNTS; i++) {
+      seen += counts.get(i);
+      if (seen >= countAtPercentile) {
+        return Math.min(highestEquivalentValue(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  static int indexOf(long value) {
+    if (value < 2 * SUB_BUCKET_HALF) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+  }
+
+  static long highestEquivalentValue(int index) {
+    if (index < 2 * SUB_BUCKET_HALF) {
+      return index;
+    }
+    int shift = (index >> SUB_BUCKET_BITS) - 1;
+    long subBucket = (index & (SUB_BUCKET_HALF - 1)) + SUB_BUCKET_HALF;
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  @Override
+  public String toString() {
+    return "Histogram[count:" + getCount() + ", mean:" + getMean() + ", p50:" + getValueAtPercentile(50.0)
+        + ", p99:" + getValueAtPercentile(99.0) + ", max:" + getMax() + ']';
+  }
+
+}
@@ -21,6 +21,9 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
 import com.google.common.collect.Lists;
@@ -33,6 +36,19 @@ import org.slf4j.LoggerFactory;
  * {@link Refreshable} to implement {@link Refreshable#refresh(Collection)}. It execute the class's own
  * supplied update logic, after updating all the object's dependencies. This also ensures that dependencies
  * are not updated multiple times.
+ *
+ * <p>
+ * By default the refresh runs on the caller's thread. If an {@link Executor} is set with
+ * {@link #setExecutor(Executor)}, {@link #refresh(Collection)} instead schedules the refresh on that executor
+ * and returns immediately; a refresh requested while another is pending or running is skipped. This is only
+ * useful if the encapsulating object builds its new state off to the side and publishes it with a single
+ * reference swap, so that readers keep using the old state until the new one is complete.
+ * </p>
+ *
+ * <p>
+ * The helper also records how long the last successful refresh took and when it finished, so callers can
+ * monitor refresh cost and how stale the encapsulating object's state is.
+ * </p>
  */
 public final class RefreshHelper implements Refreshable {
   
@@ -41,6 +57,10 @@ public final class RefreshHelper implements Refreshable {
   private final List<Refreshable> dependencies;
   private final ReentrantLock refreshLock;
   private final Callable<?> refreshRunnable;
+  private final AtomicBoolean backgroundRefreshPending;
+  private volatile Executor executor;
+  private volatile long lastRefreshDurationMillis;
+  private volatile long lastRefreshTime;
   
   /**
    * @param refreshRunnable
@@ -50,6 +70,10 @@ public final class RefreshHelper implements Refreshable {
     this.dependencies = Lists.newArrayListWithCapacity(3);
     this.refreshLock = new ReentrantLock();
     this.refreshRunnable = refreshRunnable;
+    this.backgroundRefreshPending = new AtomicBoolean();
+    this.lastRefreshDurationMillis = -1L;
+    // encapsulating objects build their initial state when constructed
+    this.lastRefreshTime = System.currentTimeMillis();
   }
   
   /** Add a dependency to be refreshed first when the encapsulating object does. */
@@ -65,14 +89,83 @@ public final class RefreshHelper implements Refreshable {
     }
   }
   
+  /**
+   * @param executor
+   *          executor to run refreshes on, or {@code null} to refresh on the caller's thread
+   */
+  public void setExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * @return true if a refresh is currently running or, in background mode, waiting to run
+   */
+  public boolean isRefreshing() {
+    return refreshLock.isLocked() || backgroundRefreshPending.get();
+  }
+
+  /**
+   * @return wall-clock duration of the last successful refresh in milliseconds, or -1 if there was none yet
+   */
+  public long getLastRefreshDurationMillis() {
+    return lastRefreshDurationMillis;
+  }
+
+  /**
+   * @return time in milliseconds since the epoch at which the last successful refresh finished, or at which
+   *         this helper was created if there was none yet
+   */
+  public long getLastRefreshTime() {
+    return lastRefreshTime;
+  }
+
+  /**
+   * @return milliseconds elapsed since the last successful refresh finished
+   */
+  public long getStalenessMillis() {
+    return System.currentTimeMillis() - lastRefreshTime;
+  }
+  
   /**
    * Typically this is called in  and is the entire body of
    * that method.
    */
   @Override
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    Executor theExecutor = executor;
+    if (theExecutor == null) {
+      doRefresh(alreadyRefreshed);
+    } else if (backgroundRefreshPending.compareAndSet(false, true)) {
+      // the caller may keep using its collection, so work on a copy
+      final Collection<Refreshable> refreshed = new HashSet<Refreshable>(buildRefreshed(alreadyRefreshed));
+      try {
+        theExecutor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              doRefresh(refreshed);
+            } finally {
+              backgroundRefreshPending.set(false);
+            }
+          }
+        });
+      } catch (RejectedExecutionException ree) {
+        backgroundRefreshPending.set(false);
+        log.warn("Background refresh was rejected", ree);
+      }
+    } else {
+      log.debug("Background refresh already pending; skipping");
+    }
+  }
+
+  private void doRefresh(Collection<Refreshable> alreadyRefreshed) {
     if (refreshLock.tryLock()) {
       try {
+        long start = System.currentTimeMillis();
         alreadyRefreshed = buildRefreshed(alreadyRefreshed);
         for (Refreshable dependency : dependencies) {
           maybeRefresh(alreadyRefreshed, dependency);
@@ -82,8 +175,12 @@ public final class RefreshHelper implements Refreshable {
             refreshRunnable.call();
           } catch (Exception e) {
             log.warn("Unexpected exception while refreshing", e);
+            return;
           }
         }
+        long end = System.currentTimeMillis();
+        lastRefreshDurationMillis = end - start;
+        lastRefreshTime = end;
       } finally {
         refreshLock.unlock();
       }
@@ -19,7 +19,6 @@ package org.apache.mahout.cf.taste.impl.eval;
 
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -59,6 +58,8 @@ public abstract class AbstractDifferenceRecommenderEvaluator implements Recommen
   
   private static final Logger log = LoggerFactory.getLogger(AbstractDifferenceRecommenderEvaluator.class);
   
+  private static final int USER_BLOCK_SIZE = 50;
+
   private final Random random;
   private float maxPreference;
   private float minPreference;
@@ -128,6 +129,53 @@ public abstract class AbstractDifferenceRecommenderEvaluator implements Recommen
     return result;
   }
   
+  /**
+   * Like {@link #evaluate(RecommenderBuilder, DataModelBuilder, DataModel, double, double)}, but trains on a view
+   * of all folds but one, and compares estimates to the preferences in that fold. Nothing is copied, and the same
+   * folds always give the same split. For a split like the one
+   * {@link #evaluate(RecommenderBuilder, DataModelBuilder, DataModel, double, double)} makes, use
+   * {@link PreferenceFolds#split(DataModel, double, double, long)} and fold 1.
+   */
+  public double evaluate(RecommenderBuilder recommenderBuilder, PreferenceFolds folds, int testFold)
+    throws TasteException {
+    Preconditions.checkNotNull(recommenderBuilder);
+    Preconditions.checkNotNull(folds);
+    reset();
+    evaluateFold(recommenderBuilder, folds, testFold);
+    double result = computeFinalEvaluation();
+    log.info("Evaluation result: {}", result);
+    return result;
+  }
+
+  /**
+   * Cross-validates: evaluates each fold in turn as in {@link #evaluate(RecommenderBuilder, PreferenceFolds, int)}
+   * and returns the evaluation of all the estimates together.
+   */
+  public double crossValidate(RecommenderBuilder recommenderBuilder, PreferenceFolds folds) throws TasteException {
+    Preconditions.checkNotNull(recommenderBuilder);
+    Preconditions.checkNotNull(folds);
+    reset();
+    for (int fold = 0; fold < folds.getNumFolds(); fold++) {
+      evaluateFold(recommenderBuilder, folds, fold);
+    }
+    double result = computeFinalEvaluation();
+    log.info("Cross-validation result: {}", result);
+    return result;
+  }
+
+  private void evaluateFold(RecommenderBuilder recommenderBuilder, final PreferenceFolds folds, final int testFold)
+    throws TasteException {
+    log.info("Beginning evaluation of fold {} of {}", testFold, folds.getNumFolds());
+    Recommender recommender = recommenderBuilder.buildRecommender(folds.getTrainingModel(testFold));
+    // Users with all their preferences in the test fold are not in the training model, but still count
+    estimateInBlocks(recommender, folds.getUserIDsInFold(testFold), new TestPreferences() {
+      @Override
+      public PreferenceArray getTestPreferences(long userID) throws TasteException {
+        return folds.getPreferencesInFold(userID, testFold);
+      }
+    });
+  }
+
   private void splitOneUsersPrefs(double trainingPercentage,
                                   FastByIDMap<PreferenceArray> trainingPrefs,
                                   FastByIDMap<PreferenceArray> testPrefs,
@@ -169,29 +217,56 @@ public abstract class AbstractDifferenceRecommenderEvaluator implements Recommen
     return estimate;
   }
 
-  private double getEvaluation(FastByIDMap<PreferenceArray> testPrefs, Recommender recommender)
+  private double getEvaluation(final FastByIDMap<PreferenceArray> testPrefs, Recommender recommender)
     throws TasteException {
     reset();
-    Collection<Callable<Void>> estimateCallables = Lists.newArrayList();
-    AtomicInteger noEstimateCounter = new AtomicInteger();
-    for (Map.Entry<Long,PreferenceArray> entry : testPrefs.entrySet()) {
-      estimateCallables.add(
-          new PreferenceEstimateCallable(recommender, entry.getKey(), entry.getValue(), noEstimateCounter));
+    long[] userIDs = new long[testPrefs.size()];
+    int i = 0;
+    LongPrimitiveIterator it = testPrefs.keySetIterator();
+    while (it.hasNext()) {
+      userIDs[i++] = it.nextLong();
     }
-    log.info("Beginning evaluation of {} users", estimateCallables.size());
-    RunningAverageAndStdDev timing = new FullRunningAverageAndStdDev();
-    execute(estimateCallables, noEstimateCounter, timing);
+    estimateInBlocks(recommender, userIDs, new TestPreferences() {
+      @Override
+      public PreferenceArray getTestPreferences(long userID) {
+        return testPrefs.get(userID);
+      }
+    });
     return computeFinalEvaluation();
   }
-  
+
+  /**
+   * Estimates all the users' test preferences. Rather than a task per user, one task per thread takes the next
+   * block of users until there are none left, so threads that get cheap users simply do more blocks.
+   */
+  private void estimateInBlocks(Recommender recommender, long[] userIDs, TestPreferences testPrefs)
+    throws TasteException {
+    int numProcessors = Runtime.getRuntime().availableProcessors();
+    AtomicInteger nextUser = new AtomicInteger();
+    AtomicInteger noEstimateCounter = new AtomicInteger();
+    RunningAverageAndStdDev timing = new FullRunningAverageAndStdDev();
+    Collection<Callable<Void>> callables = Lists.newArrayListWithCapacity(numProcessors);
+    for (int i = 0; i < numProcessors; i++) {
+      callables.add(new BlockEstimateCallable(recommender, userIDs, testPrefs, nextUser, noEstimateCounter, timing));
+    }
+    log.info("Beginning evaluation of {} users in {} threads", userIDs.length, numProcessors);
+    invokeAll(callables);
+    log.info("Unable to recommend in {} cases", noEstimateCounter.get());
+  }
+
   protected static void execute(Collection<Callable<Void>> callables,
                                 AtomicInteger noEstimateCounter,
                                 RunningAverageAndStdDev timing) throws TasteException {
 
     callables = wrapWithStatsCallables(callables, noEstimateCounter, timing);
+    log.info("Starting timing of {} tasks in {} threads", callables.size(),
+             Runtime.getRuntime().availableProcessors());
+    invokeAll(callables);
+  }
+
+  private static void invokeAll(Collection<Callable<Void>> callables) throws TasteException {
     int numProcessors = Runtime.getRuntime().availableProcessors();
     ExecutorService executor = Executors.newFixedThreadPool(numProcessors);
-    log.info("Starting timing of {} tasks in {} threads", callables.size(), numProcessors);
     try {
       List<Future<Void>> futures = executor.invokeAll(callables);
       // Go look for exceptions here, really
@@ -243,22 +318,80 @@ public abstract class AbstractDifferenceRecommenderEvaluator implements Recommen
 
     @Override
     public Void call() throws TasteException {
-      for (Preference realPref : prefs) {
-        float estimatedPreference = Float.NaN;
-        try {
-          estimatedPreference = recommender.estimatePreference(testUserID, realPref.getItemID());
-        } catch (NoSuchUserException nsue) {
-          // It's possible that an item exists in the test data but not training data in which case
-          // NSEE will be thrown. Just ignore it and move on.
-          log.info("User exists in test data but not training data: {}", testUserID);
-        } catch (NoSuchItemException nsie) {
-          log.info("Item exists in test data but not training data: {}", realPref.getItemID());
+      estimateAll(recommender, testUserID, prefs, noEstimateCounter);
+      return null;
+    }
+
+  }
+
+  private void estimateAll(Recommender recommender,
+                           long testUserID,
+                           PreferenceArray prefs,
+                           AtomicInteger noEstimateCounter) throws TasteException {
+    for (Preference realPref : prefs) {
+      float estimatedPreference = Float.NaN;
+      try {
+        estimatedPreference = recommender.estimatePreference(testUserID, realPref.getItemID());
+      } catch (NoSuchUserException nsue) {
+        // It's possible that an item exists in the test data but not training data in which case
+        // NSEE will be thrown. Just ignore it and move on.
+        log.info("User exists in test data but not training data: {}", testUserID);
+      } catch (NoSuchItemException nsie) {
+        log.info("Item exists in test data but not training data: {}", realPref.getItemID());
+      }
+      if (Float.isNaN(estimatedPreference)) {
+        noEstimateCounter.incrementAndGet();
+      } else {
+        estimatedPreference = capEstimatedPreference(estimatedPreference);
+        processOneEstimate(estimatedPreference, realPref);
+      }
+    }
+  }
+
+  private interface TestPreferences {
+    /** @return the user's preferences to compare estimates to, or {@code null} if there are none */
+    PreferenceArray getTestPreferences(long userID) throws TasteException;
+  }
+
+  private final class BlockEstimateCallable implements Callable<Void> {
+
+    private final Recommender recommender;
+    private final long[] userIDs;
+    private final TestPreferences testPrefs;
+    private final AtomicInteger nextUser;
+    private final AtomicInteger noEstimateCounter;
+    private final RunningAverageAndStdDev timing;
+
+    private BlockEstimateCallable(Recommender recommender,
+                                  long[] userIDs,
+                                  TestPreferences testPrefs,
+                                  AtomicInteger nextUser,
+                                  AtomicInteger noEstimateCounter,
+                                  RunningAverageAndStdDev timing) {
+      this.recommender = recommender;
+      this.userIDs = userIDs;
+      this.testPrefs = testPrefs;
+      this.nextUser = nextUser;
+      this.noEstimateCounter = noEstimateCounter;
+      this.timing = timing;
+    }
+
+    @Override
+    public Void call() throws TasteException {
+      int start;
+      while ((start = nextUser.getAndAdd(USER_BLOCK_SIZE)) < userIDs.length) {
+        int end = Math.min(start + USER_BLOCK_SIZE, userIDs.length);
+        long blockStart = System.currentTimeMillis();
+        for (int i = start; i < end; i++) {
+          PreferenceArray prefs = testPrefs.getTestPreferences(userIDs[i]);
+          if (prefs != null) {
+            estimateAll(recommender, userIDs[i], prefs, noEstimateCounter);
+          }
         }
-        if (Float.isNaN(estimatedPreference)) {
-          noEstimateCounter.incrementAndGet();
-        } else {
-          estimatedPreference = capEstimatedPreference(estimatedPreference);
-          processOneEstimate(estimatedPreference, realPref);
+        timing.addDatum((double) (System.currentTimeMillis() - blockStart) / (end - start));
+        if (start % 1000 < USER_BLOCK_SIZE) { // log every 1000 or so users
+          log.info("Evaluated {} of {} users, average time per user: {}ms",
+                   new Object[] {end, userIDs.length, timing.getAverage()});
         }
       }
       return null;
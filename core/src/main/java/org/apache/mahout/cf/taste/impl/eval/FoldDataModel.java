@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.AbstractDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * A read-only view of the preferences of a {@link PreferenceFolds}' evaluated users that are not in one fold.
+ * Preference arrays are filtered from the underlying model when asked for.
+ */
+final class FoldDataModel extends AbstractDataModel {
+
+  private final PreferenceFolds folds;
+  private final DataModel delegate;
+  private final int heldOutFold;
+  private final long[] userIDs;
+  private final long[] itemIDs;
+
+  FoldDataModel(PreferenceFolds folds, int heldOutFold) {
+    this.folds = folds;
+    this.delegate = folds.getDataModel();
+    this.heldOutFold = heldOutFold;
+    userIDs = idsOutsideFold(folds.getUserFoldCounts());
+    itemIDs = idsOutsideFold(folds.getItemFoldCounts());
+    setMaxPreference(delegate.getMaxPreference());
+    setMinPreference(delegate.getMinPreference());
+  }
+
+  private long[] idsOutsideFold(FastByIDMap<int[]> foldCounts) {
+    long[] ids = new long[foldCounts.size()];
+    int size = 0;
+    LongPrimitiveIterator it = foldCounts.keySetIterator();
+    while (it.hasNext()) {
+      long id = it.nextLong();
+      if (folds.getNumPreferencesOutsideFold(foldCounts, id, heldOutFold) > 0) {
+        ids[size++] = id;
+      }
+    }
+    long[] result = Arrays.copyOf(ids, size);
+    Arrays.sort(result);
+    return result;
+  }
+
+  private boolean isInModel(long userID, long itemID) {
+    return folds.isEvaluated(userID) && folds.foldOf(userID, itemID) != heldOutFold;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    return new LongPrimitiveArrayIterator(userIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+    int numPrefs = folds.getNumPreferencesOutsideFold(folds.getUserFoldCounts(), userID, heldOutFold);
+    if (numPrefs == 0) {
+      throw new NoSuchUserException(userID);
+    }
+    PreferenceArray prefs = delegate.getPreferencesFromUser(userID);
+    PreferenceArray result = new GenericUserPreferenceArray(numPrefs);
+    result.setUserID(0, userID);
+    int length = prefs.length();
+    for (int i = 0, j = 0; i < length; i++) {
+      long itemID = prefs.getItemID(i);
+      if (folds.foldOf(userID, itemID) != heldOutFold) {
+        result.setItemID(j, itemID);
+        result.setValue(j, prefs.getValue(i));
+        j++;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    PreferenceArray prefs = getPreferencesFromUser(userID);
+    int length = prefs.length();
+    FastIDSet result = new FastIDSet(length);
+    for (int i = 0; i < length; i++) {
+      result.add(prefs.getItemID(i));
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    return new LongPrimitiveArrayIterator(itemIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    int numPrefs = folds.getNumPreferencesOutsideFold(folds.getItemFoldCounts(), itemID, heldOutFold);
+    if (numPrefs == 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    PreferenceArray prefs = delegate.getPreferencesForItem(itemID);
+    PreferenceArray result = new GenericItemPreferenceArray(numPrefs);
+    result.setItemID(0, itemID);
+    int length = prefs.length();
+    for (int i = 0, j = 0; i < length; i++) {
+      long userID = prefs.getUserID(i);
+      if (isInModel(userID, itemID)) {
+        result.setUserID(j, userID);
+        result.setValue(j, prefs.getValue(i));
+        j++;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    if (folds.getNumPreferencesOutsideFold(folds.getUserFoldCounts(), userID, heldOutFold) == 0) {
+      throw new NoSuchUserException(userID);
+    }
+    return folds.foldOf(userID, itemID) == heldOutFold ? null : delegate.getPreferenceValue(userID, itemID);
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    if (folds.getNumPreferencesOutsideFold(folds.getUserFoldCounts(), userID, heldOutFold) == 0) {
+      throw new NoSuchUserException(userID);
+    }
+    return folds.foldOf(userID, itemID) == heldOutFold ? null : delegate.getPreferenceTime(userID, itemID);
+  }
+
+  @Override
+  public int getNumItems() {
+    return itemIDs.length;
+  }
+
+  @Override
+  public int getNumUsers() {
+    return userIDs.length;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) throws TasteException {
+    int numPrefs = folds.getNumPreferencesOutsideFold(folds.getItemFoldCounts(), itemID, heldOutFold);
+    if (numPrefs == 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    return numPrefs;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) throws TasteException {
+    PreferenceArray prefs1 = getPreferencesForItem(itemID1);
+    getNumUsersWithPreferenceFor(itemID2);
+    int count = 0;
+    int length = prefs1.length();
+    for (int i = 0; i < length; i++) {
+      long userID = prefs1.getUserID(i);
+      if (folds.foldOf(userID, itemID2) != heldOutFold && delegate.getPreferenceValue(userID, itemID2) != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return delegate.hasPreferenceValues();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // Does nothing; the underlying model must not change
+  }
+
+  @Override
+  public String toString() {
+    return "FoldDataModel[fold:" + heldOutFold + " of " + folds.getNumFolds() + ']';
+  }
+
+}
@@ -17,8 +17,14 @@
 
 package org.apache.mahout.cf.taste.impl.eval;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.TasteException;
@@ -45,6 +51,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 
 /**
  * <p>
@@ -54,6 +61,12 @@ import com.google.common.base.Preconditions;
  * preferences for a user and then finding the percentage of those 5 items included in the top 5
  * recommendations for that user.
  * </p>
+ *
+ * <p>
+ * With the default {@link GenericRelevantItemsDataSplitter} and no {@link DataModelBuilder}, the preferences are
+ * hidden in a {@link LeaveOutDataModel} view of the given model rather than copied, and users are evaluated in
+ * parallel. The recommender must then be safe to build over a model that other threads read at the same time.
+ * </p>
  */
 public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRStatsEvaluator {
   
@@ -96,7 +109,34 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
     Preconditions.checkArgument(evaluationPercentage > 0.0 && evaluationPercentage <= 1.0,
       "Invalid evaluationPercentage: %s", evaluationPercentage);
 
+    // Hiding the relevant items in a view of the shared model is equivalent to copying the model without them,
+    // as long as the splitter and the resulting model are the default ones
+    boolean useView = dataModelBuilder == null && dataSplitter instanceof GenericRelevantItemsDataSplitter;
     int numItems = dataModel.getNumItems();
+
+    List<UserEvaluationCallable> callables = Lists.newArrayList();
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      if (random.nextDouble() >= evaluationPercentage) {
+        // Skipped
+        continue;
+      }
+      callables.add(new UserEvaluationCallable(recommenderBuilder, dataModelBuilder, dataModel, useView, rescorer,
+          userID, at, relevanceThreshold, numItems));
+    }
+
+    List<UserIRStatistics> results;
+    if (useView) {
+      results = execute(callables);
+    } else {
+      // Arbitrary splitters and model builders may not be thread-safe
+      results = Lists.newArrayListWithCapacity(callables.size());
+      for (UserEvaluationCallable callable : callables) {
+        results.add(callable.call());
+      }
+    }
+
     RunningAverage precision = new FullRunningAverage();
     RunningAverage recall = new FullRunningAverage();
     RunningAverage fallOut = new FullRunningAverage();
@@ -104,15 +144,98 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
     int numUsersRecommendedFor = 0;
     int numUsersWithRecommendations = 0;
 
-    LongPrimitiveIterator it = dataModel.getUserIDs();
-    while (it.hasNext()) {
+    // Add up in sampling order so that the result does not depend on the order users finished in
+    for (UserIRStatistics result : results) {
+      if (result == null) {
+        continue;
+      }
+      if (!Double.isNaN(result.precision)) {
+        precision.addDatum(result.precision);
+      }
+      recall.addDatum(result.recall);
+      if (!Double.isNaN(result.fallOut)) {
+        fallOut.addDatum(result.fallOut);
+      }
+      nDCG.addDatum(result.nDCG);
 
-      long userID = it.nextLong();
+      // Reach
+      numUsersRecommendedFor++;
+      if (result.numRecommendedItems > 0) {
+        numUsersWithRecommendations++;
+      }
 
-      if (random.nextDouble() >= evaluationPercentage) {
-        // Skipped
-        continue;
+      log.info("Evaluated with user {} in {}ms", result.userID, result.time);
+      log.info("Precision/recall/fall-out/nDCG: {} / {} / {} / {}", new Object[] {
+          precision.getAverage(), recall.getAverage(), fallOut.getAverage(), nDCG.getAverage()
+      });
+    }
+
+    double reach = (double) numUsersWithRecommendations / (double) numUsersRecommendedFor;
+
+    return new IRStatisticsImpl(
+        precision.getAverage(),
+        recall.getAverage(),
+        fallOut.getAverage(),
+        nDCG.getAverage(),
+        reach);
+  }
+
+  private static List<UserIRStatistics> execute(Collection<UserEvaluationCallable> callables)
+    throws TasteException {
+    int numProcessors = Runtime.getRuntime().availableProcessors();
+    ExecutorService executor = Executors.newFixedThreadPool(numProcessors);
+    log.info("Evaluating {} users in {} threads", callables.size(), numProcessors);
+    try {
+      List<Future<UserIRStatistics>> futures = executor.invokeAll(callables);
+      List<UserIRStatistics> results = Lists.newArrayListWithCapacity(futures.size());
+      for (Future<UserIRStatistics> future : futures) {
+        results.add(future.get());
       }
+      return results;
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      throw new TasteException(ee.getCause());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private final class UserEvaluationCallable implements Callable<UserIRStatistics> {
+
+    private final RecommenderBuilder recommenderBuilder;
+    private final DataModelBuilder dataModelBuilder;
+    private final DataModel dataModel;
+    private final boolean useView;
+    private final IDRescorer rescorer;
+    private final long userID;
+    private final int at;
+    private final double relevanceThreshold;
+    private final int numItems;
+
+    private UserEvaluationCallable(RecommenderBuilder recommenderBuilder,
+                                   DataModelBuilder dataModelBuilder,
+                                   DataModel dataModel,
+                                   boolean useView,
+                                   IDRescorer rescorer,
+                                   long userID,
+                                   int at,
+                                   double relevanceThreshold,
+                                   int numItems) {
+      this.recommenderBuilder = recommenderBuilder;
+      this.dataModelBuilder = dataModelBuilder;
+      this.dataModel = dataModel;
+      this.useView = useView;
+      this.rescorer = rescorer;
+      this.userID = userID;
+      this.at = at;
+      this.relevanceThreshold = relevanceThreshold;
+      this.numItems = numItems;
+    }
+
+    /** @return statistics for the user, or {@code null} if the user could not be evaluated */
+    @Override
+    public UserIRStatistics call() throws TasteException {
 
       long start = System.currentTimeMillis();
 
@@ -124,27 +247,36 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
 
       int numRelevantItems = relevantItemIDs.size();
       if (numRelevantItems <= 0) {
-        continue;
+        return null;
       }
 
-      FastByIDMap<PreferenceArray> trainingUsers = new FastByIDMap<PreferenceArray>(dataModel.getNumUsers());
-      LongPrimitiveIterator it2 = dataModel.getUserIDs();
-      while (it2.hasNext()) {
-        dataSplitter.processOtherUser(userID, relevantItemIDs, trainingUsers, it2.nextLong(), dataModel);
-      }
+      DataModel trainingModel;
+      if (useView) {
+        LeaveOutDataModel leaveOutModel = new LeaveOutDataModel(dataModel, userID, relevantItemIDs);
+        if (!leaveOutModel.hasUser()) {
+          return null; // Oops we excluded all prefs for the user -- just move on
+        }
+        trainingModel = leaveOutModel;
+      } else {
+        FastByIDMap<PreferenceArray> trainingUsers = new FastByIDMap<PreferenceArray>(dataModel.getNumUsers());
+        LongPrimitiveIterator it2 = dataModel.getUserIDs();
+        while (it2.hasNext()) {
+          dataSplitter.processOtherUser(userID, relevantItemIDs, trainingUsers, it2.nextLong(), dataModel);
+        }
 
-      DataModel trainingModel = dataModelBuilder == null ? new GenericDataModel(trainingUsers)
-          : dataModelBuilder.buildDataModel(trainingUsers);
-      try {
-        trainingModel.getPreferencesFromUser(userID);
-      } catch (NoSuchUserException nsee) {
-        continue; // Oops we excluded all prefs for the user -- just move on
+        trainingModel = dataModelBuilder == null ? new GenericDataModel(trainingUsers)
+            : dataModelBuilder.buildDataModel(trainingUsers);
+        try {
+          trainingModel.getPreferencesFromUser(userID);
+        } catch (NoSuchUserException nsee) {
+          return null; // Oops we excluded all prefs for the user -- just move on
+        }
       }
 
       int size = relevantItemIDs.size() + trainingModel.getItemIDsFromUser(userID).size();
       if (size < 2 * at) {
         // Really not enough prefs to meaningfully evaluate this user
-        continue;
+        return null;
       }
 
       Recommender recommender = recommenderBuilder.buildRecommender(trainingModel);
@@ -160,18 +292,16 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
       int numRecommendedItems = recommendedItems.size();
 
       // Precision
-      if (numRecommendedItems > 0) {
-        precision.addDatum((double) intersectionSize / (double) numRecommendedItems);
-      }
+      double precision = numRecommendedItems > 0 ? (double) intersectionSize / (double) numRecommendedItems
+          : Double.NaN;
 
       // Recall
-      recall.addDatum((double) intersectionSize / (double) numRelevantItems);
+      double recall = (double) intersectionSize / (double) numRelevantItems;
 
       // Fall-out
-      if (numRelevantItems < size) {
-        fallOut.addDatum((double) (numRecommendedItems - intersectionSize)
-                         / (double) (numItems - numRelevantItems));
-      }
+      double fallOut = numRelevantItems < size
+          ? (double) (numRecommendedItems - intersectionSize) / (double) (numItems - numRelevantItems)
+          : Double.NaN;
 
       // nDCG
       // In computing, assume relevant IDs have relevance 1 and others 0
@@ -191,32 +321,42 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
           idealizedGain += discount;
         }
       }
-      nDCG.addDatum(cumulativeGain / idealizedGain);
-      
-      // Reach
-      numUsersRecommendedFor++;
-      if (numRecommendedItems > 0) {
-        numUsersWithRecommendations++;
-      }
+      double nDCG = cumulativeGain / idealizedGain;
 
       long end = System.currentTimeMillis();
 
-      log.info("Evaluated with user {} in {}ms", userID, end - start);
-      log.info("Precision/recall/fall-out/nDCG: {} / {} / {} / {}", new Object[] {
-          precision.getAverage(), recall.getAverage(), fallOut.getAverage(), nDCG.getAverage()
-      });
+      return new UserIRStatistics(userID, precision, recall, fallOut, nDCG, numRecommendedItems, end - start);
     }
+  }
 
-    double reach = (double) numUsersWithRecommendations / (double) numUsersRecommendedFor;
-
-    return new IRStatisticsImpl(
-        precision.getAverage(),
-        recall.getAverage(),
-        fallOut.getAverage(),
-        nDCG.getAverage(),
-        reach);
+  /** One user's results; precision and fall-out are {@link Double#NaN} when undefined. */
+  private static final class UserIRStatistics {
+
+    private final long userID;
+    private final double precision;
+    private final double recall;
+    private final double fallOut;
+    private final double nDCG;
+    private final int numRecommendedItems;
+    private final long time;
+
+    private UserIRStatistics(long userID,
+                             double precision,
+                             double recall,
+                             double fallOut,
+                             double nDCG,
+                             int numRecommendedItems,
+                             long time) {
+      this.userID = userID;
+      this.precision = precision;
+      this.recall = recall;
+      this.fallOut = fallOut;
+      this.nDCG = nDCG;
+      this.numRecommendedItems = numRecommendedItems;
+      this.time = time;
+    }
   }
-  
+
   private static double computeThreshold(PreferenceArray prefs) {
     if (prefs.length() < 2) {
       // Not enough data points -- return a threshold that allows everything
@@ -41,7 +41,8 @@ public final class GenericRelevantItemsDataSplitter implements RelevantItemsData
                                        int at,
                                        double relevanceThreshold,
                                        DataModel dataModel) throws TasteException {
-    PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+    // Sort a copy; the model's own array may be shared with other threads
+    PreferenceArray prefs = dataModel.getPreferencesFromUser(userID).clone();
     FastIDSet relevantItemIDs = new FastIDSet(at);
     prefs.sortByValueReversed();
     for (int i = 0; i < prefs.length() && relevantItemIDs.size() < at; i++) {
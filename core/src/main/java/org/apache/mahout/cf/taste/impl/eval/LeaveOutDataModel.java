@@ -0,0 +1,267 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.AbstractDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * <p>
+ * A read-only view of a {@link DataModel} in which some of one user's preferences are hidden. It looks like a
+ * copy of the underlying model without these preferences, but only copies the affected user's and items'
+ * preferences when they are asked for, so creating one for every user to evaluate is cheap. If all of the
+ * user's preferences are hidden, the user does not exist in this model; likewise an item only the user
+ * had a preference for does not exist either if that preference is hidden.
+ * </p>
+ *
+ * <p>
+ * The underlying model must not change while this view is in use.
+ * </p>
+ */
+public final class LeaveOutDataModel extends AbstractDataModel {
+
+  private final DataModel delegate;
+  private final long userID;
+  private final FastIDSet hiddenItemIDs;
+  private final PreferenceArray remainingPrefs;
+  private final FastIDSet remainingItemIDs;
+  private final FastIDSet removedItemIDs;
+  private long[] itemIDs;
+
+  /**
+   * @param userID
+   *          user whose preferences to hide
+   * @param hiddenItemIDs
+   *          items whose preferences from that user to hide
+   */
+  public LeaveOutDataModel(DataModel delegate, long userID, FastIDSet hiddenItemIDs) throws TasteException {
+    Preconditions.checkArgument(delegate != null, "delegate is null");
+    this.delegate = delegate;
+    this.userID = userID;
+    this.hiddenItemIDs = new FastIDSet();
+    this.removedItemIDs = new FastIDSet();
+    PreferenceArray prefs = delegate.getPreferencesFromUser(userID);
+    List<Preference> remaining = Lists.newArrayListWithCapacity(prefs.length());
+    for (Preference pref : prefs) {
+      long itemID = pref.getItemID();
+      if (hiddenItemIDs.contains(itemID)) {
+        this.hiddenItemIDs.add(itemID);
+        if (delegate.getNumUsersWithPreferenceFor(itemID) == 1) {
+          removedItemIDs.add(itemID);
+        }
+      } else {
+        remaining.add(pref);
+      }
+    }
+    remainingPrefs = remaining.isEmpty() ? null : new GenericUserPreferenceArray(remaining);
+    remainingItemIDs = new FastIDSet(remaining.size());
+    for (Preference pref : remaining) {
+      remainingItemIDs.add(pref.getItemID());
+    }
+    setMaxPreference(delegate.getMaxPreference());
+    setMinPreference(delegate.getMinPreference());
+  }
+
+  /** @return true if the user still has preferences in this model */
+  public boolean hasUser() {
+    return remainingPrefs != null;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() throws TasteException {
+    if (remainingPrefs != null) {
+      return delegate.getUserIDs();
+    }
+    long[] userIDs = new long[delegate.getNumUsers() - 1];
+    int i = 0;
+    LongPrimitiveIterator it = delegate.getUserIDs();
+    while (it.hasNext()) {
+      long otherUserID = it.nextLong();
+      if (otherUserID != userID) {
+        userIDs[i++] = otherUserID;
+      }
+    }
+    return new LongPrimitiveArrayIterator(userIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long theUserID) throws TasteException {
+    if (theUserID != userID) {
+      return delegate.getPreferencesFromUser(theUserID);
+    }
+    if (remainingPrefs == null) {
+      throw new NoSuchUserException(theUserID);
+    }
+    return remainingPrefs;
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long theUserID) throws TasteException {
+    if (theUserID != userID) {
+      return delegate.getItemIDsFromUser(theUserID);
+    }
+    if (remainingPrefs == null) {
+      throw new NoSuchUserException(theUserID);
+    }
+    return remainingItemIDs;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() throws TasteException {
+    if (removedItemIDs.isEmpty()) {
+      return delegate.getItemIDs();
+    }
+    return new LongPrimitiveArrayIterator(getRemainingItemIDs());
+  }
+
+  private synchronized long[] getRemainingItemIDs() throws TasteException {
+    if (itemIDs == null) {
+      long[] remaining = new long[delegate.getNumItems() - removedItemIDs.size()];
+      int i = 0;
+      LongPrimitiveIterator it = delegate.getItemIDs();
+      while (it.hasNext()) {
+        long itemID = it.nextLong();
+        if (!removedItemIDs.contains(itemID)) {
+          remaining[i++] = itemID;
+        }
+      }
+      itemIDs = remaining;
+    }
+    return itemIDs;
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    if (!hiddenItemIDs.contains(itemID)) {
+      return delegate.getPreferencesForItem(itemID);
+    }
+    if (removedItemIDs.contains(itemID)) {
+      throw new NoSuchItemException(itemID);
+    }
+    PreferenceArray prefs = delegate.getPreferencesForItem(itemID);
+    int length = prefs.length();
+    PreferenceArray result = new GenericItemPreferenceArray(length - 1);
+    for (int i = 0, j = 0; i < length; i++) {
+      if (prefs.getUserID(i) != userID) {
+        result.set(j++, prefs.get(i));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Float getPreferenceValue(long theUserID, long itemID) throws TasteException {
+    if (isHidden(theUserID, itemID)) {
+      return null;
+    }
+    return delegate.getPreferenceValue(theUserID, itemID);
+  }
+
+  @Override
+  public Long getPreferenceTime(long theUserID, long itemID) throws TasteException {
+    if (isHidden(theUserID, itemID)) {
+      return null;
+    }
+    return delegate.getPreferenceTime(theUserID, itemID);
+  }
+
+  private boolean isHidden(long theUserID, long itemID) throws NoSuchUserException {
+    if (theUserID != userID) {
+      return false;
+    }
+    if (remainingPrefs == null) {
+      throw new NoSuchUserException(theUserID);
+    }
+    return hiddenItemIDs.contains(itemID);
+  }
+
+  @Override
+  public int getNumItems() throws TasteException {
+    return delegate.getNumItems() - removedItemIDs.size();
+  }
+
+  @Override
+  public int getNumUsers() throws TasteException {
+    return remainingPrefs == null ? delegate.getNumUsers() - 1 : delegate.getNumUsers();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) throws TasteException {
+    if (removedItemIDs.contains(itemID)) {
+      throw new NoSuchItemException(itemID);
+    }
+    int numUsers = delegate.getNumUsersWithPreferenceFor(itemID);
+    return hiddenItemIDs.contains(itemID) ? numUsers - 1 : numUsers;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) throws TasteException {
+    int numUsers = delegate.getNumUsersWithPreferenceFor(itemID1, itemID2);
+    boolean hidden1 = hiddenItemIDs.contains(itemID1);
+    boolean hidden2 = hiddenItemIDs.contains(itemID2);
+    if ((hidden1 || hidden2)
+        && (hidden1 || remainingItemIDs.contains(itemID1))
+        && (hidden2 || remainingItemIDs.contains(itemID2))) {
+      // the user had both and lost at least one
+      numUsers--;
+    }
+    return numUsers;
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return delegate.hasPreferenceValues();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // Does nothing; the underlying model must not change
+  }
+
+  @Override
+  public String toString() {
+    return "LeaveOutDataModel[user:" + userID + ", hidden:" + hiddenItemIDs + ']';
+  }
+
+}
@@ -17,24 +17,109 @@
 
 package org.apache.mahout.cf.taste.impl.eval;
 
-import org.apache.mahout.cf.taste.recommender.Recommender;
-
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+import org.apache.mahout.cf.taste.impl.common.Histogram;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+
+/**
+ * Makes requests until {@code numRequests} have been taken from a counter shared by all threads, recording
+ * their latencies unless {@code latencies} is null.
+ */
 final class LoadCallable implements Callable<Void> {
 
   private final Recommender recommender;
-  private final long userID;
+  private final int howMany;
+  private final long[] userIDs;
+  private final int firstUser;
+  private final int numRequests;
+  private final AtomicInteger nextRequest;
+  private final long startNanos;
+  private final double nanosBetweenRequests;
+  private final Histogram latencies;
+  private final RunningAverage timing;
+  private final AtomicLong allocatedBytes;
 
-  LoadCallable(Recommender recommender, long userID) {
+  /**
+   * @param nanosBetweenRequests
+   *          if positive, request {@code i} is due at {@code startNanos + i * nanosBetweenRequests} and its latency
+   *          counts from then, even if it could only start later; otherwise from when it starts
+   * @param allocatedBytes
+   *          bytes allocated by this thread while making requests are added here, if not null; see
+   *          {@link #isAllocationMeasured()}
+   */
+  LoadCallable(Recommender recommender,
+               int howMany,
+               long[] userIDs,
+               int firstUser,
+               int numRequests,
+               AtomicInteger nextRequest,
+               long startNanos,
+               double nanosBetweenRequests,
+               Histogram latencies,
+               RunningAverage timing,
+               AtomicLong allocatedBytes) {
     this.recommender = recommender;
-    this.userID = userID;
+    this.howMany = howMany;
+    this.userIDs = userIDs;
+    this.firstUser = firstUser;
+    this.numRequests = numRequests;
+    this.nextRequest = nextRequest;
+    this.startNanos = startNanos;
+    this.nanosBetweenRequests = nanosBetweenRequests;
+    this.latencies = latencies;
+    this.timing = timing;
+    this.allocatedBytes = allocatedBytes;
   }
 
   @Override
   public Void call() throws Exception {
-    recommender.recommend(userID, 10);
+    long allocatedBefore = allocatedBytes == null ? 0L : getAllocatedBytes();
+    int request;
+    while ((request = nextRequest.getAndIncrement()) < numRequests) {
+      long userID = userIDs[(firstUser + request) % userIDs.length];
+      long start;
+      if (nanosBetweenRequests > 0.0) {
+        start = startNanos + (long) (request * nanosBetweenRequests);
+        long wait;
+        while ((wait = start - System.nanoTime()) > 0L) {
+          LockSupport.parkNanos(wait);
+        }
+      } else {
+        start = System.nanoTime();
+      }
+      recommender.recommend(userID, howMany);
+      long latency = System.nanoTime() - start;
+      if (latencies != null) {
+        latencies.recordValue(latency);
+        timing.addDatum(latency / 1000000.0);
+      }
+    }
+    if (allocatedBytes != null) {
+      allocatedBytes.addAndGet(getAllocatedBytes() - allocatedBefore);
+    }
     return null;
   }
 
+  /** @return true if the JVM can tell how many bytes a thread allocated */
+  static boolean isAllocationMeasured() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+      return sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled();
+    }
+    return false;
+  }
+
+  private static long getAllocatedBytes() {
+    com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
 }
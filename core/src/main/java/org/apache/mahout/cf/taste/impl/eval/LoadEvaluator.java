@@ -18,44 +18,153 @@
 package org.apache.mahout.cf.taste.impl.eval;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.impl.common.Histogram;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
-import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
 import org.apache.mahout.cf.taste.impl.common.SamplingLongPrimitiveIterator;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Simple helper class for running load on a Recommender.
  */
 public final class LoadEvaluator {
-  
+
+  private static final Logger log = LoggerFactory.getLogger(LoadEvaluator.class);
+
   private LoadEvaluator() { }
 
   public static LoadStatistics runLoad(Recommender recommender) throws TasteException {
     return runLoad(recommender, 10);
   }
-  
+
+  /**
+   * Requests recommendations once for each of about 1000 sampled users, from as many threads as there are
+   * processors, after one request to warm up.
+   */
   public static LoadStatistics runLoad(Recommender recommender, int howMany) throws TasteException {
-    DataModel dataModel = recommender.getDataModel();
+    long[] userIDs = sampleUserIDs(recommender.getDataModel(), 1000);
+    return runLoad(recommender, howMany, userIDs, Runtime.getRuntime().availableProcessors(), 1,
+                   userIDs.length - 1, 0.0);
+  }
+
+  /**
+   * @param userIDs
+   *          users to request recommendations for, in turn
+   * @param concurrency
+   *          number of threads making requests
+   * @param numWarmUpRequests
+   *          requests to make before the timed ones, to let caches fill and the JIT compile
+   * @param numRequests
+   *          timed requests to make
+   * @param requestsPerSecond
+   *          if positive, requests are started at this fixed rate however long earlier ones take ("open loop"), and
+   *          latency counts from when a request was due, including any time it waited for a free thread.
+   *          Otherwise each thread starts its next request as soon as its last one finishes ("closed loop").
+   */
+  public static LoadStatistics runLoad(Recommender recommender,
+                                       int howMany,
+                                       long[] userIDs,
+                                       int concurrency,
+                                       int numWarmUpRequests,
+                                       int numRequests,
+                                       double requestsPerSecond) throws TasteException {
+    Preconditions.checkArgument(userIDs.length > 0, "No users");
+    Preconditions.checkArgument(concurrency >= 1, "concurrency must be at least 1");
+    Preconditions.checkArgument(numWarmUpRequests >= 0 && numRequests >= 0, "Negative number of requests");
+
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    try {
+      log.info("Warming up with {} requests", numWarmUpRequests);
+      execute(executor, createCallables(recommender, howMany, userIDs, 0, numWarmUpRequests, concurrency, 0.0,
+                                        null, null, null));
+
+      Histogram latencies = new Histogram();
+      RunningAverage timing = new FullRunningAverageAndStdDev();
+      AtomicLong allocatedBytes = LoadCallable.isAllocationMeasured() ? new AtomicLong() : null;
+      double nanosBetweenRequests = requestsPerSecond > 0.0 ? 1.0e9 / requestsPerSecond : 0.0;
+      log.info("Starting timing of {} requests in {} threads", numRequests, concurrency);
+      long start = System.nanoTime();
+      execute(executor, createCallables(recommender, howMany, userIDs, numWarmUpRequests, numRequests, concurrency,
+                                        nanosBetweenRequests, latencies, timing, allocatedBytes));
+      double seconds = (System.nanoTime() - start) / 1.0e9;
+
+      LoadStatistics stats = new LoadStatistics(timing, latencies, numRequests / seconds,
+          allocatedBytes == null ? Double.NaN : allocatedBytes.get() / seconds);
+      log.info("Load statistics: {}", stats);
+      return stats;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /** @return IDs of about {@code howMany} users sampled from the model, but at least one */
+  public static long[] sampleUserIDs(DataModel dataModel, int howMany) throws TasteException {
     int numUsers = dataModel.getNumUsers();
-    double sampleRate = 1000.0 / numUsers;
     LongPrimitiveIterator userSampler =
-        SamplingLongPrimitiveIterator.maybeWrapIterator(dataModel.getUserIDs(), sampleRate);
-    recommender.recommend(userSampler.next(), howMany); // Warm up
-    Collection<Callable<Void>> callables = Lists.newArrayList();
+        SamplingLongPrimitiveIterator.maybeWrapIterator(dataModel.getUserIDs(), (double) howMany / numUsers);
+    List<Long> sampled = Lists.newArrayList();
     while (userSampler.hasNext()) {
-      callables.add(new LoadCallable(recommender, userSampler.next()));
+      sampled.add(userSampler.next());
+    }
+    if (sampled.isEmpty()) {
+      sampled.add(dataModel.getUserIDs().next());
+    }
+    long[] userIDs = new long[sampled.size()];
+    for (int i = 0; i < userIDs.length; i++) {
+      userIDs[i] = sampled.get(i);
+    }
+    return userIDs;
+  }
+
+  private static Collection<Callable<Void>> createCallables(Recommender recommender,
+                                                            int howMany,
+                                                            long[] userIDs,
+                                                            int firstUser,
+                                                            int numRequests,
+                                                            int concurrency,
+                                                            double nanosBetweenRequests,
+                                                            Histogram latencies,
+                                                            RunningAverage timing,
+                                                            AtomicLong allocatedBytes) {
+    AtomicInteger nextRequest = new AtomicInteger();
+    long startNanos = System.nanoTime();
+    Collection<Callable<Void>> callables = Lists.newArrayListWithCapacity(concurrency);
+    for (int i = 0; i < concurrency; i++) {
+      callables.add(new LoadCallable(recommender, howMany, userIDs, firstUser, numRequests, nextRequest, startNanos,
+                                     nanosBetweenRequests, latencies, timing, allocatedBytes));
+    }
+    return callables;
+  }
+
+  private static void execute(ExecutorService executor, Collection<Callable<Void>> callables)
+    throws TasteException {
+    try {
+      List<Future<Void>> futures = executor.invokeAll(callables);
+      // Go look for exceptions here, really
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      throw new TasteException(ee.getCause());
     }
-    AtomicInteger noEstimateCounter = new AtomicInteger();
-    RunningAverageAndStdDev timing = new FullRunningAverageAndStdDev();
-    AbstractDifferenceRecommenderEvaluator.execute(callables, noEstimateCounter, timing);
-    return new LoadStatistics(timing);
   }
 
-}
\ No newline at end of file
+}
@@ -17,18 +17,65 @@
 
 package org.apache.mahout.cf.taste.impl.eval;
 
+import org.apache.mahout.cf.taste.impl.common.Histogram;
 import org.apache.mahout.cf.taste.impl.common.RunningAverage;
 
+/**
+ * Results of {@link LoadEvaluator}. {@link #toString()} gives them as a one-line JSON object, in milliseconds,
+ * for tools that compare runs.
+ */
 public final class LoadStatistics {
-  
+
+  private static final double NANOS_PER_MILLI = 1000000.0;
+
   private final RunningAverage timing;
+  private final Histogram latencies;
+  private final double throughput;
+  private final double allocationRate;
 
-  LoadStatistics(RunningAverage timing) {
+  LoadStatistics(RunningAverage timing, Histogram latencies, double throughput, double allocationRate) {
     this.timing = timing;
+    this.latencies = latencies;
+    this.throughput = throughput;
+    this.allocationRate = allocationRate;
   }
 
+  /** @return average time per request in milliseconds */
   public RunningAverage getTiming() {
     return timing;
   }
-  
+
+  /** @return distribution of request latencies in nanoseconds */
+  public Histogram getLatencies() {
+    return latencies;
+  }
+
+  /** @return completed requests per second */
+  public double getThroughput() {
+    return throughput;
+  }
+
+  /** @return bytes allocated per second by the threads making requests, or {@link Double#NaN} if unknown */
+  public double getAllocationRate() {
+    return allocationRate;
+  }
+
+  @Override
+  public String toString() {
+    return "{\"requests\":" + latencies.getCount()
+        + ",\"meanMillis\":" + toJSON(latencies.getMean() / NANOS_PER_MILLI)
+        + ",\"p50Millis\":" + toJSON(latencies.getValueAtPercentile(50.0) / NANOS_PER_MILLI)
+        + ",\"p90Millis\":" + toJSON(latencies.getValueAtPercentile(90.0) / NANOS_PER_MILLI)
+        + ",\"p99Millis\":" + toJSON(latencies.getValueAtPercentile(99.0) / NANOS_PER_MILLI)
+        + ",\"p999Millis\":" + toJSON(latencies.getValueAtPercentile(99.9) / NANOS_PER_MILLI)
+        + ",\"maxMillis\":" + toJSON(latencies.getMax() / NANOS_PER_MILLI)
+        + ",\"throughputPerSecond\":" + toJSON(throughput)
+        + ",\"allocatedBytesPerSecond\":" + toJSON(allocationRate)
+        + '}';
+  }
+
+  private static String toJSON(double value) {
+    return Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.valueOf(value);
+  }
+
 }
@@ -0,0 +1,225 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * <p>
+ * Assigns each preference in a {@link DataModel} to one of several folds by hashing its user and item IDs with
+ * a seed, so the same seed always gives the same folds and nothing needs to be copied. Users are likewise
+ * sampled for evaluation by a hash of their ID; preferences of other users are in no fold at all.
+ * </p>
+ *
+ * <p>
+ * One pass over the model counts each user's and item's preferences per fold. After that,
+ * {@link #getTrainingModel(int)} returns a view without one fold's preferences, for any fold.
+ * </p>
+ *
+ * <p>
+ * The underlying model must not change while this object is in use.
+ * </p>
+ */
+public final class PreferenceFolds {
+
+  private final DataModel dataModel;
+  private final double[] boundaries;
+  private final double evaluationPercentage;
+  private final long seed;
+  private final FastByIDMap<int[]> userFoldCounts;
+  private final FastByIDMap<int[]> itemFoldCounts;
+
+  private PreferenceFolds(DataModel dataModel, double[] boundaries, double evaluationPercentage, long seed)
+    throws TasteException {
+    Preconditions.checkArgument(dataModel != null, "dataModel is null");
+    Preconditions.checkArgument(evaluationPercentage >= 0.0 && evaluationPercentage <= 1.0,
+        "Invalid evaluationPercentage: " + evaluationPercentage);
+    this.dataModel = dataModel;
+    this.boundaries = boundaries;
+    this.evaluationPercentage = evaluationPercentage;
+    this.seed = seed;
+    userFoldCounts = new FastByIDMap<int[]>();
+    itemFoldCounts = new FastByIDMap<int[]>(dataModel.getNumItems());
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      if (!isEvaluated(userID)) {
+        continue;
+      }
+      int[] userCounts = new int[boundaries.length + 1];
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+      int length = prefs.length();
+      for (int i = 0; i < length; i++) {
+        long itemID = prefs.getItemID(i);
+        int fold = foldOf(userID, itemID);
+        userCounts[fold]++;
+        userCounts[boundaries.length]++;
+        int[] itemCounts = itemFoldCounts.get(itemID);
+        if (itemCounts == null) {
+          itemCounts = new int[boundaries.length + 1];
+          itemFoldCounts.put(itemID, itemCounts);
+        }
+        itemCounts[fold]++;
+        itemCounts[boundaries.length]++;
+      }
+      userFoldCounts.put(userID, userCounts);
+    }
+  }
+
+  /**
+   * Splits preferences in two folds: fold 0 with about {@code trainingPercentage} of each user's preferences,
+   * and fold 1 with the rest.
+   */
+  public static PreferenceFolds split(DataModel dataModel,
+                                      double trainingPercentage,
+                                      double evaluationPercentage,
+                                      long seed) throws TasteException {
+    Preconditions.checkArgument(trainingPercentage >= 0.0 && trainingPercentage <= 1.0,
+        "Invalid trainingPercentage: " + trainingPercentage);
+    return new PreferenceFolds(dataModel, new double[] {trainingPercentage, 1.0}, evaluationPercentage, seed);
+  }
+
+  /** Splits preferences in {@code numFolds} folds of about the same size, for cross-validation. */
+  public static PreferenceFolds kFold(DataModel dataModel,
+                                      int numFolds,
+                                      double evaluationPercentage,
+                                      long seed) throws TasteException {
+    Preconditions.checkArgument(numFolds >= 2, "numFolds must be at least 2");
+    double[] boundaries = new double[numFolds];
+    for (int i = 0; i < numFolds - 1; i++) {
+      boundaries[i] = (double) (i + 1) / numFolds;
+    }
+    boundaries[numFolds - 1] = 1.0;
+    return new PreferenceFolds(dataModel, boundaries, evaluationPercentage, seed);
+  }
+
+  public DataModel getDataModel() {
+    return dataModel;
+  }
+
+  public int getNumFolds() {
+    return boundaries.length;
+  }
+
+  /** @return true if the user's preferences are in the folds */
+  public boolean isEvaluated(long userID) {
+    return toUnitInterval(mix(userID ^ mix(seed))) < evaluationPercentage;
+  }
+
+  /** @return fold the preference belongs to, if its user is evaluated */
+  public int foldOf(long userID, long itemID) {
+    double position = toUnitInterval(mix(mix(userID ^ seed) + itemID));
+    int fold = Arrays.binarySearch(boundaries, position);
+    // Boundaries are exclusive upper bounds of each fold
+    return fold >= 0 ? fold + 1 : -fold - 1;
+  }
+
+  /** @return the evaluated user's preferences in the given fold, or {@code null} if there are none */
+  public PreferenceArray getPreferencesInFold(long userID, int fold) throws TasteException {
+    int[] userCounts = userFoldCounts.get(userID);
+    if (userCounts == null || userCounts[fold] == 0) {
+      return null;
+    }
+    PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+    PreferenceArray result = new GenericUserPreferenceArray(userCounts[fold]);
+    result.setUserID(0, userID);
+    int length = prefs.length();
+    for (int i = 0, j = 0; i < length; i++) {
+      long itemID = prefs.getItemID(i);
+      if (foldOf(userID, itemID) == fold) {
+        result.setItemID(j, itemID);
+        result.setValue(j, prefs.getValue(i));
+        j++;
+      }
+    }
+    return result;
+  }
+
+  /** @return IDs of the evaluated users, in no particular order */
+  public long[] getEvaluatedUserIDs() {
+    long[] userIDs = new long[userFoldCounts.size()];
+    int i = 0;
+    LongPrimitiveIterator it = userFoldCounts.keySetIterator();
+    while (it.hasNext()) {
+      userIDs[i++] = it.nextLong();
+    }
+    return userIDs;
+  }
+
+  /**
+   * @return IDs of the evaluated users with preferences in the given fold, in no particular order; these include
+   *  users with no preferences in any other fold, who are not in that fold's training model
+   */
+  public long[] getUserIDsInFold(int fold) {
+    Preconditions.checkArgument(fold >= 0 && fold < boundaries.length, "Invalid fold: " + fold);
+    long[] userIDs = new long[userFoldCounts.size()];
+    int numUserIDs = 0;
+    LongPrimitiveIterator it = userFoldCounts.keySetIterator();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      if (userFoldCounts.get(userID)[fold] > 0) {
+        userIDs[numUserIDs++] = userID;
+      }
+    }
+    return Arrays.copyOf(userIDs, numUserIDs);
+  }
+
+  /** @return a view of the evaluated users' preferences, without those in the given fold */
+  public DataModel getTrainingModel(int heldOutFold) throws TasteException {
+    Preconditions.checkArgument(heldOutFold >= 0 && heldOutFold < boundaries.length,
+        "Invalid fold: " + heldOutFold);
+    return new FoldDataModel(this, heldOutFold);
+  }
+
+  int getNumPreferencesOutsideFold(FastByIDMap<int[]> foldCounts, long id, int fold) {
+    int[] counts = foldCounts.get(id);
+    return counts == null ? 0 : counts[boundaries.length] - counts[fold];
+  }
+
+  FastByIDMap<int[]> getUserFoldCounts() {
+    return userFoldCounts;
+  }
+
+  FastByIDMap<int[]> getItemFoldCounts() {
+    return itemFoldCounts;
+  }
+
+  private static long mix(long value) {
+    // Finalizer of MurmurHash3's 64-bit variant
+    long h = value;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private static double toUnitInterval(long hash) {
+    return (hash >>> 11) * 0x1.0p-53;
+  }
+
+}
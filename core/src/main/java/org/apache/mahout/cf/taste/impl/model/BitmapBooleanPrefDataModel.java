@@ -0,0 +1,246 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.impl.common.CompressedBitmap;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.model.UserItemCountingDataModel;
+
+/**
+ * <p>
+ * A {@link org.apache.mahout.cf.taste.model.DataModel} like {@link GenericBooleanPrefDataModel}, which instead of
+ * {@link FastIDSet}s stores each user's items and each item's users as {@link CompressedBitmap}s of indices into
+ * the sorted user and item IDs. It takes a fraction of the memory, and counts co-occurrences for
+ * {@link #getNumUsersWithPreferenceFor(long, long)} a word at a time.
+ * </p>
+ *
+ * <p>
+ * {@link #getNumItemsWithPreferenceFrom(long, long)} likewise counts items two users both have a preference for;
+ * similarities which only need such counts, like
+ * {@link org.apache.mahout.cf.taste.impl.similarity.LogLikelihoodSimilarity}, use it through
+ * {@link UserItemCountingDataModel}.
+ * {@link #getItemIDsFromUser(long)} builds a new {@link FastIDSet} on each call.
+ * </p>
+ */
+public final class BitmapBooleanPrefDataModel extends AbstractDataModel implements UserItemCountingDataModel {
+
+  private final long[] userIDs;
+  private final long[] itemIDs;
+  private final CompressedBitmap[] itemsFromUsers;
+  private final CompressedBitmap[] usersForItems;
+
+  public BitmapBooleanPrefDataModel(FastByIDMap<FastIDSet> userData) {
+    Preconditions.checkArgument(userData != null, "userData is null");
+
+    userIDs = new long[userData.size()];
+    int numUsers = 0;
+    FastIDSet itemIDSet = new FastIDSet();
+    for (Map.Entry<Long,FastIDSet> entry : userData.entrySet()) {
+      userIDs[numUsers++] = entry.getKey();
+      itemIDSet.addAll(entry.getValue());
+    }
+    Arrays.sort(userIDs);
+    itemIDs = itemIDSet.toArray();
+    itemIDSet = null; // Might help GC -- this is big
+    Arrays.sort(itemIDs);
+
+    itemsFromUsers = new CompressedBitmap[userIDs.length];
+    int[] numUsersForItems = new int[itemIDs.length];
+    int[] indices = new int[0];
+    for (int u = 0; u < userIDs.length; u++) {
+      FastIDSet userItemIDs = userData.get(userIDs[u]);
+      if (indices.length < userItemIDs.size()) {
+        indices = new int[userItemIDs.size()];
+      }
+      int size = 0;
+      LongPrimitiveIterator it = userItemIDs.iterator();
+      while (it.hasNext()) {
+        int itemIndex = Arrays.binarySearch(itemIDs, it.nextLong());
+        indices[size++] = itemIndex;
+        numUsersForItems[itemIndex]++;
+      }
+      Arrays.sort(indices, 0, size);
+      itemsFromUsers[u] = CompressedBitmap.of(indices, size);
+    }
+
+    // Users are added in increasing order of index
+    int[][] userIndices = new int[itemIDs.length][];
+    for (int i = 0; i < itemIDs.length; i++) {
+      userIndices[i] = new int[numUsersForItems[i]];
+    }
+    Arrays.fill(numUsersForItems, 0);
+    for (int u = 0; u < userIDs.length; u++) {
+      for (int itemIndex : itemsFromUsers[u].toArray()) {
+        userIndices[itemIndex][numUsersForItems[itemIndex]++] = u;
+      }
+    }
+    usersForItems = new CompressedBitmap[itemIDs.length];
+    for (int i = 0; i < itemIDs.length; i++) {
+      usersForItems[i] = CompressedBitmap.of(userIndices[i], userIndices[i].length);
+      userIndices[i] = null;
+    }
+  }
+
+  private int userIndex(long userID) throws NoSuchUserException {
+    int userIndex = Arrays.binarySearch(userIDs, userID);
+    if (userIndex < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    return userIndex;
+  }
+
+  private int itemIndex(long itemID) throws NoSuchItemException {
+    int itemIndex = Arrays.binarySearch(itemIDs, itemID);
+    if (itemIndex < 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    return itemIndex;
+  }
+
+  @Override
+  public LongPrimitiveArrayIterator getUserIDs() {
+    return new LongPrimitiveArrayIterator(userIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws NoSuchUserException {
+    int[] itemIndices = itemsFromUsers[userIndex(userID)].toArray();
+    PreferenceArray prefArray = new BooleanUserPreferenceArray(itemIndices.length);
+    prefArray.setUserID(0, userID);
+    for (int i = 0; i < itemIndices.length; i++) {
+      prefArray.setItemID(i, itemIDs[itemIndices[i]]);
+    }
+    return prefArray;
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws NoSuchUserException {
+    int[] itemIndices = itemsFromUsers[userIndex(userID)].toArray();
+    FastIDSet result = new FastIDSet(itemIndices.length);
+    for (int itemIndex : itemIndices) {
+      result.add(itemIDs[itemIndex]);
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveArrayIterator getItemIDs() {
+    return new LongPrimitiveArrayIterator(itemIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws NoSuchItemException {
+    int[] userIndices = usersForItems[itemIndex(itemID)].toArray();
+    PreferenceArray prefArray = new BooleanItemPreferenceArray(userIndices.length);
+    prefArray.setItemID(0, itemID);
+    for (int i = 0; i < userIndices.length; i++) {
+      prefArray.setUserID(i, userIDs[userIndices[i]]);
+    }
+    return prefArray;
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws NoSuchUserException {
+    CompressedBitmap userItems = itemsFromUsers[userIndex(userID)];
+    int itemIndex = Arrays.binarySearch(itemIDs, itemID);
+    return itemIndex >= 0 && userItems.contains(itemIndex) ? 1.0f : null;
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws NoSuchUserException {
+    userIndex(userID);
+    return null;
+  }
+
+  @Override
+  public int getNumItems() {
+    return itemIDs.length;
+  }
+
+  @Override
+  public int getNumUsers() {
+    return userIDs.length;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) {
+    int itemIndex = Arrays.binarySearch(itemIDs, itemID);
+    return itemIndex < 0 ? 0 : usersForItems[itemIndex].cardinality();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
+    int itemIndex1 = Arrays.binarySearch(itemIDs, itemID1);
+    if (itemIndex1 < 0) {
+      return 0;
+    }
+    int itemIndex2 = Arrays.binarySearch(itemIDs, itemID2);
+    if (itemIndex2 < 0) {
+      return 0;
+    }
+    return usersForItems[itemIndex1].intersectionSize(usersForItems[itemIndex2]);
+  }
+
+  @Override
+  public int getNumItemsWithPreferenceFrom(long userID) throws NoSuchUserException {
+    return itemsFromUsers[userIndex(userID)].cardinality();
+  }
+
+  @Override
+  public int getNumItemsWithPreferenceFrom(long userID1, long userID2) throws NoSuchUserException {
+    return itemsFromUsers[userIndex(userID1)].intersectionSize(itemsFromUsers[userIndex(userID2)]);
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // Does nothing
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return "BitmapBooleanPrefDataModel[users:" + userIDs.length + ", items:" + itemIDs.length + ']';
+  }
+
+}
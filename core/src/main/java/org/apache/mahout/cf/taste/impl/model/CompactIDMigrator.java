@@ -0,0 +1,590 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.model.UpdatableIDMigrator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * An {@link UpdatableIDMigrator} which keeps the reverse long-to-String mapping outside the heap, in about
+ * 12 bytes per mapping plus the strings' UTF-8 bytes, instead of a {@link String} object per mapping as in
+ * {@link MemoryIDMigrator}. Mappings are held in buffers as a sorted array of long IDs, an array of offsets,
+ * and the strings' bytes one after another; lookups are binary searches.
+ * </p>
+ *
+ * <p>
+ * New mappings are first kept in a small map on the heap, and are moved into a new buffer by {@link #compact()},
+ * which runs by itself once that map holds a given number of mappings, or by {@link #initialize(Iterable)}.
+ * A new buffer is merged with the newest buffers of up to twice its size, so that there are few buffers to search
+ * and loading many mappings copies each only a few times. Merging reads buffers in order, so it never needs their
+ * mappings on the heap.
+ * </p>
+ *
+ * <p>
+ * {@link #writeTo(File)} saves all mappings in a file which the {@link #CompactIDMigrator(File)} constructor
+ * memory-maps, so that loading it takes no time and no heap. If that file changes, {@link #refresh(Collection)}
+ * maps it again, and merges in mappings added since they were last written.
+ * </p>
+ *
+ * <p>
+ * One buffer holds at most 2GB, which is enough for about 100 million IDs of 10 characters.
+ * </p>
+ */
+public final class CompactIDMigrator extends AbstractIDMigrator implements UpdatableIDMigrator {
+
+  private static final Logger log = LoggerFactory.getLogger(CompactIDMigrator.class);
+
+  private static final int MAGIC = 0x4D494431; // "MID1"
+  private static final int HEADER_SIZE = 16;
+  private static final int MAX_BYTES = Integer.MAX_VALUE - 8;
+  private static final int DEFAULT_COMPACTION_THRESHOLD = 100000;
+  private static final Mappings[] NO_MAPPINGS = new Mappings[0];
+
+  // Oldest and largest first; each more than twice as large as the next
+  private volatile Mappings[] levels;
+  private volatile int numMappings;
+  private final FastByIDMap<String> newMappings;
+  private final int compactionThreshold;
+  private final Object compactionLock;
+  private final File file;
+  private long lastModified;
+  // Whether there are mappings which were not written since the file was mapped
+  private boolean unwritten;
+
+  public CompactIDMigrator() {
+    this(DEFAULT_COMPACTION_THRESHOLD);
+  }
+
+  /**
+   * @param compactionThreshold number of new mappings kept on the heap before they are compacted
+   */
+  public CompactIDMigrator(int compactionThreshold) {
+    Preconditions.checkArgument(compactionThreshold > 0, "compactionThreshold must be positive");
+    levels = NO_MAPPINGS;
+    newMappings = new FastByIDMap<String>();
+    this.compactionThreshold = compactionThreshold;
+    compactionLock = new Object();
+    file = null;
+  }
+
+  /**
+   * Memory-maps mappings saved by {@link #writeTo(File)}.
+   */
+  public CompactIDMigrator(File file) throws IOException {
+    this(file, DEFAULT_COMPACTION_THRESHOLD);
+  }
+
+  /**
+   * Memory-maps mappings saved by {@link #writeTo(File)}.
+   *
+   * @param compactionThreshold number of new mappings kept on the heap before they are compacted
+   */
+  public CompactIDMigrator(File file, int compactionThreshold) throws IOException {
+    Preconditions.checkArgument(compactionThreshold > 0, "compactionThreshold must be positive");
+    this.file = Preconditions.checkNotNull(file);
+    newMappings = new FastByIDMap<String>();
+    this.compactionThreshold = compactionThreshold;
+    compactionLock = new Object();
+    lastModified = file.lastModified();
+    Mappings mapped = map(file);
+    levels = new Mappings[] {mapped};
+    numMappings = mapped.size();
+  }
+
+  private static Mappings map(File file) throws IOException {
+    FileInputStream in = new FileInputStream(file);
+    try {
+      FileChannel channel = in.getChannel();
+      Mappings mappings = new Mappings(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      log.info("Mapped {} ID mappings from {}", mappings.size(), file);
+      return mappings;
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+  }
+
+  @Override
+  public void storeMapping(long longID, String stringID) {
+    boolean full;
+    synchronized (newMappings) {
+      newMappings.put(longID, stringID);
+      full = newMappings.size() >= compactionThreshold;
+    }
+    if (full) {
+      compact();
+    }
+  }
+
+  @Override
+  public String toStringID(long longID) {
+    // New mappings first, as they replace any in the buffers. compact() only removes them once the buffer
+    // holding them is published.
+    String stringID;
+    synchronized (newMappings) {
+      stringID = newMappings.get(longID);
+    }
+    if (stringID == null) {
+      Mappings[] current = levels;
+      for (int i = current.length - 1; i >= 0 && stringID == null; i--) {
+        stringID = current[i].get(longID);
+      }
+    }
+    return stringID;
+  }
+
+  /**
+   * Moves the mappings of all given IDs straight into a new buffer.
+   */
+  @Override
+  public void initialize(Iterable<String> stringIDs) {
+    Builder builder = new Builder(16);
+    for (String stringID : stringIDs) {
+      builder.add(toLongID(stringID), stringID.getBytes(Charsets.UTF_8));
+    }
+    Mappings added = new Mappings(builder.build());
+    synchronized (compactionLock) {
+      addLevel(added);
+    }
+  }
+
+  /**
+   * Moves mappings stored since the last call into a new buffer.
+   */
+  public void compact() {
+    synchronized (compactionLock) {
+      FastByIDMap<String> toMove;
+      synchronized (newMappings) {
+        if (newMappings.isEmpty()) {
+          return;
+        }
+        toMove = newMappings.clone();
+      }
+      Builder builder = new Builder(toMove.size());
+      for (Map.Entry<Long,String> entry : toMove.entrySet()) {
+        builder.add(entry.getKey(), entry.getValue().getBytes(Charsets.UTF_8));
+      }
+      addLevel(new Mappings(builder.build()));
+      synchronized (newMappings) {
+        for (Map.Entry<Long,String> entry : toMove.entrySet()) {
+          // Unless it was stored again meanwhile
+          if (entry.getValue().equals(newMappings.get(entry.getKey()))) {
+            newMappings.remove(entry.getKey());
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Publishes a buffer of new mappings, merging it with the newest buffers which are not much larger.
+   * Callers hold {@link #compactionLock}.
+   */
+  private void addLevel(Mappings added) {
+    Mappings[] current = levels;
+    int numReplaced = 0;
+    for (int i = 0; i < added.size(); i++) {
+      long longID = added.idAt(i);
+      for (Mappings level : current) {
+        if (level.indexOf(longID) >= 0) {
+          numReplaced++;
+          break;
+        }
+      }
+    }
+    int numLevels = current.length;
+    Mappings newest = added;
+    while (numLevels > 0 && current[numLevels - 1].size() <= 2 * newest.size()) {
+      newest = new Mappings(Mappings.merge(current[--numLevels], newest));
+    }
+    Mappings[] newLevels = Arrays.copyOf(current, numLevels + 1);
+    newLevels[numLevels] = newest;
+    levels = newLevels;
+    numMappings += added.size() - numReplaced;
+    unwritten = true;
+  }
+
+  /** @return all mappings in one buffer. Callers hold {@link #compactionLock}. */
+  private Mappings mergeLevels() {
+    Mappings[] current = levels;
+    if (current.length == 0) {
+      return new Mappings(new Builder(0).build());
+    }
+    Mappings merged = current[0];
+    for (int i = 1; i < current.length; i++) {
+      merged = new Mappings(Mappings.merge(merged, current[i]));
+    }
+    return merged;
+  }
+
+  /**
+   * Compacts, and saves all mappings for the {@link #CompactIDMigrator(File)} constructor.
+   */
+  public void writeTo(File target) throws IOException {
+    ByteBuffer buffer;
+    synchronized (compactionLock) {
+      compact();
+      Mappings merged = mergeLevels();
+      levels = new Mappings[] {merged};
+      buffer = merged.buffer.duplicate();
+      if (target.equals(file)) {
+        unwritten = false;
+      }
+    }
+    buffer.clear();
+    FileOutputStream out = new FileOutputStream(target);
+    try {
+      FileChannel channel = out.getChannel();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } finally {
+      Closeables.close(out, false);
+    }
+  }
+
+  /** @return number of mappings, not counting those stored since the last compaction */
+  public int size() {
+    return numMappings;
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    if (file != null && file.lastModified() != lastModified) {
+      synchronized (compactionLock) {
+        try {
+          lastModified = file.lastModified();
+          Mappings mapped = map(file);
+          // Keep mappings which the file may not have; they replace the file's
+          Mappings inMemory = unwritten ? mergeLevels() : null;
+          levels = new Mappings[] {mapped};
+          numMappings = mapped.size();
+          if (inMemory != null) {
+            addLevel(inMemory);
+          }
+        } catch (IOException ioe) {
+          log.warn("Error while mapping {}; keeping current mappings", file, ioe);
+        }
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "CompactIDMigrator[size:" + size() + (file == null ? "" : ", file:" + file) + ']';
+  }
+
+  /**
+   * Read-only view of a buffer: a header, n sorted long IDs, n + 1 offsets of their strings, and the strings'
+   * UTF-8 bytes.
+   */
+  private static final class Mappings {
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int offsetsStart;
+    private final int bytesStart;
+
+    private Mappings(ByteBuffer buffer) {
+      Preconditions.checkArgument(buffer.capacity() >= HEADER_SIZE && buffer.getInt(0) == MAGIC,
+          "Not saved ID mappings");
+      this.buffer = buffer;
+      size = buffer.getInt(4);
+      offsetsStart = HEADER_SIZE + 8 * size;
+      bytesStart = offsetsStart + 4 * (size + 1);
+      Preconditions.checkArgument(buffer.capacity() == bytesStart + buffer.getInt(offsetsStart + 4 * size),
+          "Truncated ID mappings");
+    }
+
+    int size() {
+      return size;
+    }
+
+    long idAt(int index) {
+      return buffer.getLong(HEADER_SIZE + 8 * index);
+    }
+
+    /** @return start of the index-th string within the strings' bytes; its end at index {@link #size()} */
+    int offsetAt(int index) {
+      return buffer.getInt(offsetsStart + 4 * index);
+    }
+
+    private int lengthAt(int index) {
+      return offsetAt(index + 1) - offsetAt(index);
+    }
+
+    /** @return index of the given ID, or -1 if it is not here */
+    int indexOf(long longID) {
+      int low = 0;
+      int high = size - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        long midID = idAt(mid);
+        if (midID < longID) {
+          low = mid + 1;
+        } else if (midID > longID) {
+          high = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return -1;
+    }
+
+    String get(long longID) {
+      int index = indexOf(longID);
+      return index < 0 ? null : new String(getBytes(index), Charsets.UTF_8);
+    }
+
+    private byte[] getBytes(int index) {
+      byte[] bytes = new byte[lengthAt(index)];
+      // Absolute bulk reads need a view with its own position, for thread safety
+      ByteBuffer view = buffer.duplicate();
+      view.position(bytesStart + offsetAt(index));
+      view.get(bytes);
+      return bytes;
+    }
+
+    /**
+     * @return a new buffer with the mappings of both, those of {@code newer} replacing those of {@code older}
+     *  with the same ID
+     */
+    static ByteBuffer merge(Mappings older, Mappings newer) {
+      // Count first, reading only the IDs
+      long numMerged = 0;
+      long numMergedBytes = 0;
+      int i = 0;
+      int k = 0;
+      while (i < older.size || k < newer.size) {
+        if (k == newer.size || (i < older.size && older.idAt(i) < newer.idAt(k))) {
+          numMergedBytes += older.lengthAt(i);
+          i++;
+        } else {
+          if (i < older.size && older.idAt(i) == newer.idAt(k)) {
+            i++;
+          }
+          numMergedBytes += newer.lengthAt(k);
+          k++;
+        }
+        numMerged++;
+      }
+      long capacity = HEADER_SIZE + 8L * numMerged + 4L * (numMerged + 1) + numMergedBytes;
+      Preconditions.checkState(capacity <= Integer.MAX_VALUE, "Too many ID mappings for one buffer");
+
+      int size = (int) numMerged;
+      ByteBuffer buffer = ByteBuffer.allocateDirect((int) capacity);
+      buffer.putInt(0, MAGIC);
+      buffer.putInt(4, size);
+      int offsetsStart = HEADER_SIZE + 8 * size;
+      ByteBuffer bytesView = buffer.duplicate();
+      bytesView.position(offsetsStart + 4 * (size + 1));
+      ByteBuffer olderBytes = older.buffer.duplicate();
+      ByteBuffer newerBytes = newer.buffer.duplicate();
+      int offset = 0;
+      i = 0;
+      k = 0;
+      for (int m = 0; m < size; m++) {
+        Mappings from;
+        ByteBuffer fromBytes;
+        int index;
+        if (k == newer.size || (i < older.size && older.idAt(i) < newer.idAt(k))) {
+          from = older;
+          fromBytes = olderBytes;
+          index = i++;
+        } else {
+          if (i < older.size && older.idAt(i) == newer.idAt(k)) {
+            i++;
+          }
+          from = newer;
+          fromBytes = newerBytes;
+          index = k++;
+        }
+        int start = from.bytesStart + from.offsetAt(index);
+        int length = from.lengthAt(index);
+        fromBytes.limit(start + length);
+        fromBytes.position(start);
+        bytesView.put(fromBytes);
+        buffer.putLong(HEADER_SIZE + 8 * m, from.idAt(index));
+        buffer.putInt(offsetsStart + 4 * m, offset);
+        offset += length;
+      }
+      buffer.putInt(offsetsStart + 4 * size, offset);
+      return buffer;
+    }
+
+  }
+
+  /**
+   * Collects mappings in insertion order, then writes them sorted by ID to a direct buffer. Of mappings with the
+   * same ID, the last added is kept.
+   */
+  private static final class Builder {
+
+    private long[] longIDs;
+    private int[] starts;
+    private byte[] bytes;
+    private int size;
+    private int numBytes;
+    private int[] order;
+
+    private Builder(int expectedSize) {
+      longIDs = new long[Math.max(16, expectedSize)];
+      starts = new int[longIDs.length + 1];
+      bytes = new byte[Math.max(256, 16 * expectedSize)];
+    }
+
+    void add(long longID, byte[] stringBytes) {
+      if (size == longIDs.length) {
+        longIDs = Arrays.copyOf(longIDs, 2 * size);
+        starts = Arrays.copyOf(starts, 2 * size + 1);
+      }
+      long newNumBytes = (long) numBytes + stringBytes.length;
+      Preconditions.checkState(newNumBytes <= MAX_BYTES, "Too many ID bytes for one buffer");
+      if (newNumBytes > bytes.length) {
+        bytes = Arrays.copyOf(bytes, (int) Math.min(MAX_BYTES, Math.max(newNumBytes, 2L * bytes.length)));
+      }
+      System.arraycopy(stringBytes, 0, bytes, numBytes, stringBytes.length);
+      longIDs[size] = longID;
+      starts[size] = numBytes;
+      size++;
+      numBytes = (int) newNumBytes;
+      starts[size] = numBytes;
+    }
+
+    ByteBuffer build() {
+      int numDistinct = sortDistinct();
+      long numDistinctBytes = 0;
+      for (int k = 0; k < numDistinct; k++) {
+        numDistinctBytes += starts[order[k] + 1] - starts[order[k]];
+      }
+      long capacity = HEADER_SIZE + 8L * numDistinct + 4L * (numDistinct + 1) + numDistinctBytes;
+      Preconditions.checkState(capacity <= Integer.MAX_VALUE, "Too many ID mappings for one buffer");
+      ByteBuffer buffer = ByteBuffer.allocateDirect((int) capacity);
+      buffer.putInt(0, MAGIC);
+      buffer.putInt(4, numDistinct);
+      int offsetsStart = HEADER_SIZE + 8 * numDistinct;
+      ByteBuffer bytesView = buffer.duplicate();
+      bytesView.position(offsetsStart + 4 * (numDistinct + 1));
+      int offset = 0;
+      for (int k = 0; k < numDistinct; k++) {
+        int i = order[k];
+        int length = starts[i + 1] - starts[i];
+        buffer.putLong(HEADER_SIZE + 8 * k, longIDs[i]);
+        buffer.putInt(offsetsStart + 4 * k, offset);
+        bytesView.put(bytes, starts[i], length);
+        offset += length;
+      }
+      buffer.putInt(offsetsStart + 4 * numDistinct, offset);
+      return buffer;
+    }
+
+    /**
+     * Sorts the indexes of the mappings into {@link #order}, keeping only the last added of each ID.
+     *
+     * @return number of distinct IDs
+     */
+    private int sortDistinct() {
+      order = new int[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      sort(order, 0, size - 1);
+      // Keep the last added of each run of equal IDs, which sorts last
+      int numDistinct = 0;
+      for (int k = 0; k < size; k++) {
+        int i = order[k];
+        if (k == size - 1 || longIDs[order[k + 1]] != longIDs[i]) {
+          order[numDistinct++] = i;
+        }
+      }
+      return numDistinct;
+    }
+
+    /** Sorts indexes by ID, then by insertion order. */
+    private void sort(int[] order, int from, int to) {
+      while (to - from > 16) {
+        int pivot = medianOfThree(order[from], order[(from + to) >>> 1], order[to]);
+        int i = from;
+        int j = to;
+        while (i <= j) {
+          while (compare(order[i], pivot) < 0) {
+            i++;
+          }
+          while (compare(order[j], pivot) > 0) {
+            j--;
+          }
+          if (i <= j) {
+            int temp = order[i];
+            order[i] = order[j];
+            order[j] = temp;
+            i++;
+            j--;
+          }
+        }
+        // Recurse into the smaller part, loop over the larger, to bound the stack depth
+        if (j - from < to - i) {
+          sort(order, from, j);
+          from = i;
+        } else {
+          sort(order, i, to);
+          to = j;
+        }
+      }
+      for (int i = from + 1; i <= to; i++) {
+        int value = order[i];
+        int j = i - 1;
+        while (j >= from && compare(order[j], value) > 0) {
+          order[j + 1] = order[j];
+          j--;
+        }
+        order[j + 1] = value;
+      }
+    }
+
+    private int medianOfThree(int a, int b, int c) {
+      if (compare(a, b) < 0) {
+        return compare(b, c) < 0 ? b : compare(a, c) < 0 ? c : a;
+      }
+      return compare(a, c) < 0 ? a : compare(b, c) < 0 ? c : b;
+    }
+
+    private int compare(int i, int j) {
+      long a = longIDs[i];
+      long b = longIDs[j];
+      return a < b ? -1 : a > b ? 1 : i < j ? -1 : i > j ? 1 : 0;
+    }
+
+  }
+
+}
@@ -18,18 +18,17 @@
 package org.apache.mahout.cf.taste.impl.model;
 
 import com.google.common.base.Preconditions;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.mahout.cf.taste.common.NoSuchItemException;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.model.DataModel;
-import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 
 /**
@@ -39,15 +38,20 @@ import org.apache.mahout.cf.taste.model.PreferenceArray;
  * </p>
  *
  * <p>
- * To use it, you have to estimate the number of concurrent anonymous users of your application.
- * The pool of users with the given size will be created. For each anonymous recommendations request,
- * a user has to be taken from the pool and returned back immediately afterwars.
+ * For each anonymous recommendations request, a user has to be taken from the pool and returned back
+ * immediately afterwars. The pool grows as users are taken, up to an optional maximum number of
+ * concurrent anonymous users; released users are reused.
  * </p>
  *
  * <p>
  * If no more users are available in the pool, anonymous recommendations cannot be produced.
  * </p>
  *
+ * <p>
+ * Anonymous users' preferences are also indexed by item, so reading an item's preferences costs the same
+ * however many anonymous users there are. Neither taking users nor setting their preferences locks the model.
+ * </p>
+ *
  * </p>
  *
  * Setup:
@@ -87,32 +91,38 @@ public final class PlusAnonymousConcurrentUserDataModel extends PlusAnonymousUse
   private final Map<Long,PreferenceArray> tempPrefs;
   /** Item IDs set for all anonymous users */
   private final Map<Long,FastIDSet> prefItemIDs;
-  /** Pool of the users (FIFO) */
-  private Queue<Long> usersPool;
+  /** Anonymous users' preferences for each item, never modified once in the map */
+  private final ConcurrentMap<Long,PreferenceArray> itemOverlays;
+  /** Pool of the released users (FIFO) */
+  private final Queue<Long> usersPool;
+  /** Number of user IDs created so far */
+  private final AtomicInteger numUsersCreated;
+  private final int maxConcurrentUsers;
+
+  /**
+   * Creates a model whose pool of anonymous users grows as needed.
+   *
+   * @param delegate Real model where anonymous users will be added to
+   */
+  public PlusAnonymousConcurrentUserDataModel(DataModel delegate) {
+    this(delegate, Integer.MAX_VALUE);
+  }
 
   /**
    * @param delegate Real model where anonymous users will be added to
-   * @param maxConcurrentUsers Maximum allowed number of concurrent anonymous users
+   * @param maxConcurrentUsers Maximum allowed number of concurrent anonymous users. The pool grows up to this
+   *  size as users are taken, so a generous limit costs nothing.
    */
   public PlusAnonymousConcurrentUserDataModel(DataModel delegate, int maxConcurrentUsers) {
     super(delegate);
+    Preconditions.checkArgument(maxConcurrentUsers > 0, "maxConcurrentUsers must be positive");
 
     tempPrefs = new ConcurrentHashMap<Long, PreferenceArray>();
     prefItemIDs = new ConcurrentHashMap<Long, FastIDSet>();
-
-    initializeUsersPools(maxConcurrentUsers);
-  }
-
-  /**
-   * Initialize the pool of concurrent anonymous users.
-   *
-   * @param usersPoolSize Maximum allowed number of concurrent anonymous user. Depends on the consumer system.
-   */
-  private void initializeUsersPools(int usersPoolSize) {
+    itemOverlays = new ConcurrentHashMap<Long, PreferenceArray>();
     usersPool = new ConcurrentLinkedQueue<Long>();
-    for (int i = 0; i < usersPoolSize; i++) {
-      usersPool.add(TEMP_USER_ID + i);
-    }
+    numUsersCreated = new AtomicInteger();
+    this.maxConcurrentUsers = maxConcurrentUsers;
   }
 
   /**
@@ -122,12 +132,21 @@ public final class PlusAnonymousConcurrentUserDataModel extends PlusAnonymousUse
    */
   public Long takeAvailableUser() {
     Long takenUserID = usersPool.poll();
-    if (takenUserID != null) {
-      // Initialize the preferences array to indicate that the user is taken.
-      tempPrefs.put(takenUserID, new GenericUserPreferenceArray(0));
-      return takenUserID;
+    if (takenUserID == null) {
+      // Grow the pool, unless it's at its maximum size
+      int numCreated;
+      do {
+        numCreated = numUsersCreated.get();
+        if (numCreated >= maxConcurrentUsers) {
+          return null;
+        }
+      } while (!numUsersCreated.compareAndSet(numCreated, numCreated + 1));
+      takenUserID = TEMP_USER_ID + numCreated;
     }
-    return null;
+    // Initialize the preferences array to indicate that the user is taken.
+    tempPrefs.put(takenUserID, new GenericUserPreferenceArray(0));
+    prefItemIDs.put(takenUserID, new FastIDSet());
+    return takenUserID;
   }
 
   /**
@@ -137,8 +156,10 @@ public final class PlusAnonymousConcurrentUserDataModel extends PlusAnonymousUse
    * @return true if the user was previously taken, false otherwise
    */
   public boolean releaseUser(Long userID) {
-    if (tempPrefs.containsKey(userID)) {
-      this.clearTempPrefs(userID);
+    PreferenceArray prefs = tempPrefs.remove(userID);
+    if (prefs != null) {
+      removeFromOverlays(prefs, userID);
+      prefItemIDs.remove(userID);
       // Return previously taken user to the pool
       usersPool.offer(userID);
       return true;
@@ -154,27 +175,93 @@ public final class PlusAnonymousConcurrentUserDataModel extends PlusAnonymousUse
   }
 
   /**
-   * Sets temporary preferences for a given anonymous user.
+   * Sets temporary preferences for a given anonymous user. Only the thread which took the user should set or
+   * clear its preferences.
    */
   public void setTempPrefs(PreferenceArray prefs, long anonymousUserID) {
     Preconditions.checkArgument(prefs != null && prefs.length() > 0, "prefs is null or empty");
 
-    this.tempPrefs.put(anonymousUserID, prefs);
-    FastIDSet userPrefItemIDs = new FastIDSet();
-
+    FastIDSet userPrefItemIDs = new FastIDSet(prefs.length());
     for (int i = 0; i < prefs.length(); i++) {
       userPrefItemIDs.add(prefs.getItemID(i));
     }
 
+    PreferenceArray oldPrefs = this.tempPrefs.put(anonymousUserID, prefs);
     this.prefItemIDs.put(anonymousUserID, userPrefItemIDs);
+    if (oldPrefs != null) {
+      removeFromOverlays(oldPrefs, anonymousUserID);
+    }
+    addToOverlays(prefs, anonymousUserID);
   }
 
   /**
    * Clears temporary preferences for a given anonymous user.
    */
   public void clearTempPrefs(long anonymousUserID) {
-    this.tempPrefs.remove(anonymousUserID);
+    PreferenceArray oldPrefs = this.tempPrefs.remove(anonymousUserID);
     this.prefItemIDs.remove(anonymousUserID);
+    if (oldPrefs != null) {
+      removeFromOverlays(oldPrefs, anonymousUserID);
+    }
+  }
+
+  private void addToOverlays(PreferenceArray prefs, long anonymousUserID) {
+    for (int i = 0; i < prefs.length(); i++) {
+      long itemID = prefs.getItemID(i);
+      float value = prefs.getValue(i);
+      // Copy on write; retry if another user's preferences for the item changed meanwhile
+      boolean updated;
+      do {
+        PreferenceArray overlay = itemOverlays.get(itemID);
+        int length = overlay == null ? 0 : overlay.length();
+        PreferenceArray newOverlay = new GenericItemPreferenceArray(length + 1);
+        newOverlay.setItemID(0, itemID);
+        for (int j = 0; j < length; j++) {
+          newOverlay.setUserID(j, overlay.getUserID(j));
+          newOverlay.setValue(j, overlay.getValue(j));
+        }
+        newOverlay.setUserID(length, anonymousUserID);
+        newOverlay.setValue(length, value);
+        updated = overlay == null
+            ? itemOverlays.putIfAbsent(itemID, newOverlay) == null
+            : itemOverlays.replace(itemID, overlay, newOverlay);
+      } while (!updated);
+    }
+  }
+
+  private void removeFromOverlays(PreferenceArray prefs, long anonymousUserID) {
+    for (int i = 0; i < prefs.length(); i++) {
+      long itemID = prefs.getItemID(i);
+      boolean updated;
+      do {
+        PreferenceArray overlay = itemOverlays.get(itemID);
+        if (overlay == null) {
+          break;
+        }
+        int length = overlay.length();
+        int index = 0;
+        while (index < length && overlay.getUserID(index) != anonymousUserID) {
+          index++;
+        }
+        if (index == length) {
+          break;
+        }
+        if (length == 1) {
+          updated = itemOverlays.remove(itemID, overlay);
+        } else {
+          PreferenceArray newOverlay = new GenericItemPreferenceArray(length - 1);
+          newOverlay.setItemID(0, itemID);
+          for (int j = 0, k = 0; j < length; j++) {
+            if (j != index) {
+              newOverlay.setUserID(k, overlay.getUserID(j));
+              newOverlay.setValue(k, overlay.getValue(j));
+              k++;
+            }
+          }
+          updated = itemOverlays.replace(itemID, overlay, newOverlay);
+        }
+      } while (!updated);
+    }
   }
 
   @Override
@@ -202,49 +289,32 @@ public final class PlusAnonymousConcurrentUserDataModel extends PlusAnonymousUse
 
   @Override
   public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
-    if (tempPrefs.isEmpty()) {
+    PreferenceArray overlay = itemOverlays.get(itemID);
+    if (overlay == null) {
       return getDelegate().getPreferencesForItem(itemID);
     }
 
-    PreferenceArray delegatePrefs = null;
-
+    PreferenceArray delegatePrefs;
     try {
       delegatePrefs = getDelegate().getPreferencesForItem(itemID);
     } catch (NoSuchItemException nsie) {
-      // OK. Probably an item that only the anonymous user has
-    }
-
-    List<Preference> anonymousPreferences = new ArrayList<Preference>();
-
-    for (Map.Entry<Long, PreferenceArray> prefsMap : tempPrefs.entrySet()) {
-      PreferenceArray singleUserTempPrefs = prefsMap.getValue();
-      for (int i = 0; i < singleUserTempPrefs.length(); i++) {
-        if (singleUserTempPrefs.getItemID(i) == itemID) {
-          anonymousPreferences.add(singleUserTempPrefs.get(i));
-        }
-      }
+      // OK. An item that only anonymous users have
+      return overlay;
     }
 
-    int delegateLength = delegatePrefs == null ? 0 : delegatePrefs.length();
-    int anonymousPrefsLength = anonymousPreferences.size();
-    int prefsCounter = 0;
-
     // Merge the delegate and anonymous preferences into a single array
-    PreferenceArray newPreferenceArray = new GenericItemPreferenceArray(delegateLength + anonymousPrefsLength);
-
+    int delegateLength = delegatePrefs.length();
+    int overlayLength = overlay.length();
+    PreferenceArray newPreferenceArray = new GenericItemPreferenceArray(delegateLength + overlayLength);
+    newPreferenceArray.setItemID(0, itemID);
     for (int i = 0; i < delegateLength; i++) {
-      newPreferenceArray.set(prefsCounter++, delegatePrefs.get(i));
+      newPreferenceArray.setUserID(i, delegatePrefs.getUserID(i));
+      newPreferenceArray.setValue(i, delegatePrefs.getValue(i));
     }
-
-    for (Preference anonymousPreference : anonymousPreferences) {
-      newPreferenceArray.set(prefsCounter++, anonymousPreference);
-    }
-
-    if (newPreferenceArray.length() == 0) {
-      // No, didn't find it among the anonymous user prefs
-      throw new NoSuchItemException(itemID);
+    for (int i = 0; i < overlayLength; i++) {
+      newPreferenceArray.setUserID(delegateLength + i, overlay.getUserID(i));
+      newPreferenceArray.setValue(delegateLength + i, overlay.getValue(i));
     }
-
     return newPreferenceArray;
   }
 
@@ -280,50 +350,45 @@ public final class PlusAnonymousConcurrentUserDataModel extends PlusAnonymousUse
 
   @Override
   public int getNumUsersWithPreferenceFor(long itemID) throws TasteException {
-    if (tempPrefs.isEmpty()) {
+    PreferenceArray overlay = itemOverlays.get(itemID);
+    if (overlay == null) {
       return getDelegate().getNumUsersWithPreferenceFor(itemID);
     }
-
-    int countAnonymousUsersWithPreferenceFor = 0;
-
-    for (Map.Entry<Long, PreferenceArray> singleUserTempPrefs : tempPrefs.entrySet()) {
-      for (int i = 0; i < singleUserTempPrefs.getValue().length(); i++) {
-        if (singleUserTempPrefs.getValue().getItemID(i) == itemID) {
-          countAnonymousUsersWithPreferenceFor++;
-          break;
-        }
-      }
+    int numDelegateUsers;
+    try {
+      numDelegateUsers = getDelegate().getNumUsersWithPreferenceFor(itemID);
+    } catch (NoSuchItemException nsie) {
+      numDelegateUsers = 0;
     }
-    return getDelegate().getNumUsersWithPreferenceFor(itemID) + countAnonymousUsersWithPreferenceFor;
+    return numDelegateUsers + overlay.length();
   }
 
   @Override
   public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) throws TasteException {
-    if (tempPrefs.isEmpty()) {
+    PreferenceArray overlay1 = itemOverlays.get(itemID1);
+    PreferenceArray overlay2 = itemOverlays.get(itemID2);
+    if (overlay1 == null || overlay2 == null) {
       return getDelegate().getNumUsersWithPreferenceFor(itemID1, itemID2);
     }
 
+    // Anonymous users with both; their item sets say whether a user in one overlay is in the other
+    PreferenceArray smaller = overlay1.length() <= overlay2.length() ? overlay1 : overlay2;
+    long otherItemID = smaller == overlay1 ? itemID2 : itemID1;
     int countAnonymousUsersWithPreferenceFor = 0;
-
-    for (Map.Entry<Long, PreferenceArray> singleUserTempPrefs : tempPrefs.entrySet()) {
-      boolean found1 = false;
-      boolean found2 = false;
-      for (int i = 0; i < singleUserTempPrefs.getValue().length() && !(found1 && found2); i++) {
-        long itemID = singleUserTempPrefs.getValue().getItemID(i);
-        if (itemID == itemID1) {
-          found1 = true;
-        }
-        if (itemID == itemID2) {
-          found2 = true;
-        }
-      }
-
-      if (found1 && found2) {
+    for (int i = 0; i < smaller.length(); i++) {
+      FastIDSet itemIDs = prefItemIDs.get(smaller.getUserID(i));
+      if (itemIDs != null && itemIDs.contains(otherItemID)) {
         countAnonymousUsersWithPreferenceFor++;
       }
     }
 
-    return getDelegate().getNumUsersWithPreferenceFor(itemID1, itemID2) + countAnonymousUsersWithPreferenceFor;
+    int numDelegateUsers;
+    try {
+      numDelegateUsers = getDelegate().getNumUsersWithPreferenceFor(itemID1, itemID2);
+    } catch (NoSuchItemException nsie) {
+      numDelegateUsers = 0;
+    }
+    return numDelegateUsers + countAnonymousUsersWithPreferenceFor;
   }
 
   @Override
@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.Map;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * A batch of added, updated and removed preferences, applied to a copy of user data all at once. Later changes
+ * to the same preference override earlier ones. Data models which reload or update their data in memory use this
+ * to build the new data off to the side, while the old data stays in use.
+ */
+public final class PreferenceChanges {
+
+  /** Marks a removed preference */
+  private static final float REMOVED = Float.NaN;
+
+  private final FastByIDMap<FastByIDMap<Float>> changesByUser;
+  private int size;
+
+  public PreferenceChanges() {
+    changesByUser = new FastByIDMap<FastByIDMap<Float>>();
+  }
+
+  /** Adds or updates a preference. */
+  public void add(long userID, long itemID, float value) {
+    put(userID, itemID, value);
+  }
+
+  /** Removes a preference, if there is one. */
+  public void remove(long userID, long itemID) {
+    put(userID, itemID, REMOVED);
+  }
+
+  private void put(long userID, long itemID, float value) {
+    FastByIDMap<Float> userChanges = changesByUser.get(userID);
+    if (userChanges == null) {
+      userChanges = new FastByIDMap<Float>();
+      changesByUser.put(userID, userChanges);
+    }
+    userChanges.put(itemID, value);
+    size++;
+  }
+
+  /** @return number of changes, counting repeated changes to the same preference */
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @return a copy of the given user data with these changes applied; only arrays of changed users are copied,
+   *  and the given map and arrays are left as they were. Users left without preferences are removed.
+   */
+  public FastByIDMap<PreferenceArray> applyTo(FastByIDMap<PreferenceArray> userData) {
+    FastByIDMap<PreferenceArray> result = userData.clone();
+    LongPrimitiveIterator it = changesByUser.keySetIterator();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      FastByIDMap<Float> userChanges = changesByUser.get(userID);
+      PreferenceArray oldPrefs = userData.get(userID);
+      int oldLength = oldPrefs == null ? 0 : oldPrefs.length();
+      int newLength = 0;
+      for (int i = 0; i < oldLength; i++) {
+        if (!userChanges.containsKey(oldPrefs.getItemID(i))) {
+          newLength++;
+        }
+      }
+      for (Map.Entry<Long,Float> change : userChanges.entrySet()) {
+        if (!Float.isNaN(change.getValue())) {
+          newLength++;
+        }
+      }
+      if (newLength == 0) {
+        result.remove(userID);
+        continue;
+      }
+      PreferenceArray newPrefs = new GenericUserPreferenceArray(newLength);
+      newPrefs.setUserID(0, userID);
+      int j = 0;
+      for (int i = 0; i < oldLength; i++) {
+        long itemID = oldPrefs.getItemID(i);
+        if (!userChanges.containsKey(itemID)) {
+          newPrefs.setItemID(j, itemID);
+          newPrefs.setValue(j, oldPrefs.getValue(i));
+          j++;
+        }
+      }
+      for (Map.Entry<Long,Float> change : userChanges.entrySet()) {
+        if (!Float.isNaN(change.getValue())) {
+          newPrefs.setItemID(j, change.getKey());
+          newPrefs.setValue(j, change.getValue());
+          j++;
+        }
+      }
+      newPrefs.sortByItem();
+      result.put(userID, newPrefs);
+    }
+    return result;
+  }
+
+}
@@ -26,6 +26,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.locks.ReentrantLock;
 
 import com.google.common.base.Splitter;
@@ -36,6 +37,7 @@ import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.impl.model.AbstractDataModel;
 import org.apache.mahout.cf.taste.impl.model.GenericBooleanPrefDataModel;
 import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
@@ -126,15 +128,18 @@ public class FileDataModel extends AbstractDataModel {
   private static final char[] DELIMIETERS = {',', '\t'};
 
   private final File dataFile;
-  private long lastModified;
-  private long lastUpdateFileModified;
+  private volatile long lastModified;
+  private volatile long lastUpdateFileModified;
   private final char delimiter;
   private final Splitter delimiterPattern;
   private final boolean hasPrefValues;
-  private DataModel delegate;
+  private volatile DataModel delegate;
   private final ReentrantLock reloadLock;
+  private final RefreshHelper refreshHelper;
   private final boolean transpose;
   private final long minReloadIntervalMS;
+  /** Users whose data was copied during an incremental reload, or {@code null} when loading fresh data */
+  private FastIDSet copiedUserIDs;
 
   /**
    * @param dataFile
@@ -190,6 +195,17 @@ public class FileDataModel extends AbstractDataModel {
     this.reloadLock = new ReentrantLock();
     this.transpose = transpose;
     this.minReloadIntervalMS = minReloadIntervalMS;
+    this.refreshHelper = new RefreshHelper(new Callable<Void>() {
+      @Override
+      public Void call() {
+        if (dataFile.lastModified() > lastModified + FileDataModel.this.minReloadIntervalMS
+            || readLastUpdateFileModified() > lastUpdateFileModified + FileDataModel.this.minReloadIntervalMS) {
+          log.debug("File has changed; reloading...");
+          reload();
+        }
+        return null;
+      }
+    });
 
     reload();
   }
@@ -202,6 +218,14 @@ public class FileDataModel extends AbstractDataModel {
     return delimiter;
   }
 
+  /**
+   * @return helper used to {@link #refresh(Collection)} this model; set an executor on it to reload in the
+   *  background, or query it for reload duration and staleness
+   */
+  public RefreshHelper getRefreshHelper() {
+    return refreshHelper;
+  }
+
   protected void reload() {
     if (reloadLock.tryLock()) {
       try {
@@ -243,10 +267,17 @@ public class FileDataModel extends AbstractDataModel {
 
       } else {
 
-        FastByIDMap<PreferenceArray> rawData = ((GenericDataModel) delegate).getRawUserData();
+        // copy the user map, and each user's preferences before changing them, so that the update files don't
+        // disturb readers of the current model
+        FastByIDMap<PreferenceArray> rawData = ((GenericDataModel) delegate).getRawUserData().clone();
 
-        for (File updateFile : findUpdateFilesAfter(Math.max(oldLastUpdateFileModifieid, newLastModified))) {
-          processFile(new FileLineIterator(updateFile, false), rawData, timestamps, true);
+        copiedUserIDs = new FastIDSet();
+        try {
+          for (File updateFile : findUpdateFilesAfter(Math.max(oldLastUpdateFileModifieid, newLastModified))) {
+            processFile(new FileLineIterator(updateFile, false), rawData, timestamps, true);
+          }
+        } finally {
+          copiedUserIDs = null;
         }
 
         return new GenericDataModel(rawData, timestamps);
@@ -269,10 +300,15 @@ public class FileDataModel extends AbstractDataModel {
 
       } else {
 
-        FastByIDMap<FastIDSet> rawData = ((GenericBooleanPrefDataModel) delegate).getRawUserData();
+        FastByIDMap<FastIDSet> rawData = ((GenericBooleanPrefDataModel) delegate).getRawUserData().clone();
 
-        for (File updateFile : findUpdateFilesAfter(Math.max(oldLastUpdateFileModifieid, newLastModified))) {
-          processFileWithoutID(new FileLineIterator(updateFile, false), rawData, timestamps);
+        copiedUserIDs = new FastIDSet();
+        try {
+          for (File updateFile : findUpdateFilesAfter(Math.max(oldLastUpdateFileModifieid, newLastModified))) {
+            processFileWithoutID(new FileLineIterator(updateFile, false), rawData, timestamps);
+          }
+        } finally {
+          copiedUserIDs = null;
         }
 
         return new GenericBooleanPrefDataModel(rawData, timestamps);
@@ -424,6 +460,8 @@ public class FileDataModel extends AbstractDataModel {
                   newPrefs.set(j, prefs.get(i));
                 }
               }
+              ((FastByIDMap<PreferenceArray>) data).put(userID, newPrefs);
+              markCopied(userID);
             }
           }
         }
@@ -439,6 +477,10 @@ public class FileDataModel extends AbstractDataModel {
           for (int i = 0; i < prefs.length(); i++) {
             if (prefs.getItemID(i) == itemID) {
               exists = true;
+              if (markCopied(userID)) {
+                prefs = prefs.clone();
+                ((FastByIDMap<PreferenceArray>) data).put(userID, prefs);
+              }
               prefs.setValue(i, preferenceValue);
               break;
             }
@@ -458,7 +500,8 @@ public class FileDataModel extends AbstractDataModel {
           prefs.setUserID(0, userID);
           prefs.setItemID(0, itemID);
           prefs.setValue(0, preferenceValue);
-          ((FastByIDMap<PreferenceArray>) data).put(userID, prefs);          
+          ((FastByIDMap<PreferenceArray>) data).put(userID, prefs);
+          markCopied(userID);
         }
       }
 
@@ -562,6 +605,10 @@ public class FileDataModel extends AbstractDataModel {
 
       FastIDSet itemIDs = data.get(userID);
       if (itemIDs != null) {
+        if (markCopied(userID)) {
+          itemIDs = itemIDs.clone();
+          data.put(userID, itemIDs);
+        }
         itemIDs.remove(itemID);
       }
 
@@ -573,6 +620,10 @@ public class FileDataModel extends AbstractDataModel {
       if (itemIDs == null) {
         itemIDs = new FastIDSet(2);
         data.put(userID, itemIDs);
+        markCopied(userID);
+      } else if (markCopied(userID)) {
+        itemIDs = itemIDs.clone();
+        data.put(userID, itemIDs);
       }
       itemIDs.add(itemID);
 
@@ -581,6 +632,15 @@ public class FileDataModel extends AbstractDataModel {
     }
   }
 
+  /**
+   * Notes that the user's data in the map being built is no longer shared with the current model.
+   *
+   * @return true if it still was, and so must be copied before being changed
+   */
+  private boolean markCopied(long userID) {
+    return copiedUserIDs != null && copiedUserIDs.add(userID);
+  }
+
   private void addTimestamp(long userID,
                             long itemID,
                             String timestampString,
@@ -705,11 +765,7 @@ public class FileDataModel extends AbstractDataModel {
 
   @Override
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
-    if (dataFile.lastModified() > lastModified + minReloadIntervalMS
-        || readLastUpdateFileModified() > lastUpdateFileModified + minReloadIntervalMS) {
-      log.debug("File has changed; reloading...");
-      reload();
-    }
+    refreshHelper.refresh(alreadyRefreshed);
   }
 
   @Override
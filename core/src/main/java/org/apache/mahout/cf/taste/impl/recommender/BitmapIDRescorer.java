@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.recommender.BatchIDRescorer;
+
+/**
+ * <p>
+ * A {@link BatchIDRescorer} for business rules computed ahead of time, such as items out of stock or unavailable
+ * in a region. Items are indexed by their position in a sorted array of item IDs; a {@link BitSet} of indices
+ * says which are filtered, and an optional array of factors by index boosts their scores. Several rules are
+ * combined by combining their {@link BitSet}s and multiplying their factors before creating the rescorer.
+ * </p>
+ *
+ * <p>
+ * IDs which are not in the array are neither filtered nor boosted.
+ * </p>
+ */
+public final class BitmapIDRescorer implements BatchIDRescorer {
+
+  private final long[] ids;
+  private final BitSet filtered;
+  private final float[] boosts;
+
+  /**
+   * @param ids
+   *          IDs in increasing order; the index of an ID in this array is its index in the other two arguments
+   * @param filtered
+   *          indices of filtered IDs
+   * @param boosts
+   *          factors to multiply scores of each ID by, or {@code null} to leave scores unchanged
+   */
+  public BitmapIDRescorer(long[] ids, BitSet filtered, float[] boosts) {
+    Preconditions.checkArgument(ids != null, "ids is null");
+    Preconditions.checkArgument(filtered != null, "filtered is null");
+    Preconditions.checkArgument(boosts == null || boosts.length == ids.length, "boosts must have one factor per ID");
+    for (int i = 1; i < ids.length; i++) {
+      Preconditions.checkArgument(ids[i - 1] < ids[i], "ids must be in increasing order");
+    }
+    this.ids = ids;
+    this.filtered = filtered;
+    this.boosts = boosts;
+  }
+
+  @Override
+  public double rescore(long id, double originalScore) {
+    if (boosts == null) {
+      return originalScore;
+    }
+    int index = Arrays.binarySearch(ids, id);
+    return index < 0 ? originalScore : originalScore * boosts[index];
+  }
+
+  @Override
+  public boolean isFiltered(long id) {
+    int index = Arrays.binarySearch(ids, id);
+    return index >= 0 && filtered.get(index);
+  }
+
+  @Override
+  public int retainUnfiltered(long[] theIDs, int length) {
+    // In order, each is searched for only after the previous one
+    Arrays.sort(theIDs, 0, length);
+    int from = 0;
+    int numUnfiltered = 0;
+    for (int i = 0; i < length; i++) {
+      long id = theIDs[i];
+      int index = Arrays.binarySearch(ids, from, ids.length, id);
+      if (index >= 0) {
+        from = index + 1;
+        if (filtered.get(index)) {
+          continue;
+        }
+      } else {
+        from = -index - 1;
+      }
+      theIDs[numUnfiltered++] = id;
+    }
+    return numUnfiltered;
+  }
+
+  @Override
+  public String toString() {
+    return "BitmapIDRescorer[ids:" + ids.length + ", filtered:" + filtered.cardinality() + ']';
+  }
+
+}
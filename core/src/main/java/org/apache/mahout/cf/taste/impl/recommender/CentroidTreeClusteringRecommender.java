@@ -0,0 +1,875 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.ClusteringRecommender;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A {@link org.apache.mahout.cf.taste.recommender.Recommender} that clusters users like
+ * {@link TreeClusteringRecommender}, but in time about linear in the number of preferences rather than quadratic
+ * in the number of users, so that it can cluster millions of users.
+ * </p>
+ *
+ * <p>
+ * Each user is represented by their preferences as a vector of unit length, and each cluster by its centroid, the
+ * sum of its users' vectors. Users are first put in at most {@code maxSeeds} seed clusters: users with the same
+ * MinHash signature of their items share a seed, the largest such groups become the seeds, and every other user
+ * joins the seed with the most similar centroid. Seeds are then merged, most similar pair by cosine similarity of
+ * centroids first, until {@code numClusters} remain. Similarities between clusters are kept in a priority queue,
+ * so that each merge only computes those of the new cluster. Last, each cluster's top recommendations are
+ * computed, in the same way as {@link TreeClusteringRecommender2} does.
+ * </p>
+ *
+ * <p>
+ * Clusters are built when the recommender is created and when it is refreshed, in parallel if given an executor.
+ * They can be saved to a file and read from it when the recommender is created, so that a new instance serves
+ * recommendations without clustering users first.
+ * </p>
+ *
+ * <p>
+ * As with the other clustering recommenders, all users in a cluster get the same recommendations.
+ * </p>
+ */
+public final class CentroidTreeClusteringRecommender extends AbstractRecommender implements ClusteringRecommender {
+
+  private static final Logger log = LoggerFactory.getLogger(CentroidTreeClusteringRecommender.class);
+
+  private static final int NUM_CLUSTER_RECS = 100;
+  private static final int DEFAULT_MAX_SEEDS = 1000;
+  private static final long[] SIGNATURE_HASH_SEEDS = {0x9e3779b97f4a7c15L, 0xc2b2ae3d27d4eb4fL};
+  private static final int USERS_PER_TASK = 1000;
+  private static final int SEEDS_PER_TASK = 100;
+  private static final int CLUSTERING_FILE_MAGIC = 0x43545243;
+
+  private final int numClusters;
+  private final int maxSeeds;
+  private final ExecutorService executor;
+  private final File clusteringFile;
+  private final RefreshHelper refreshHelper;
+  private volatile Clustering clustering;
+
+  /**
+   * @param dataModel
+   *          {@link DataModel} which provides users
+   * @param numClusters
+   *          desired number of clusters to create
+   * @throws IllegalArgumentException
+   *           if {@code numClusters} is less than 2
+   */
+  public CentroidTreeClusteringRecommender(DataModel dataModel, int numClusters) throws TasteException {
+    this(dataModel, numClusters, Math.max(DEFAULT_MAX_SEEDS, numClusters), null, null);
+  }
+
+  /**
+   * @param dataModel
+   *          {@link DataModel} which provides users
+   * @param numClusters
+   *          desired number of clusters to create
+   * @param maxSeeds
+   *          maximum number of seed clusters to merge; merging takes time quadratic in this number
+   * @param executor
+   *          executor to build clusters on in parallel, or {@code null} to build them on the caller's thread
+   * @param clusteringFile
+   *          file to read clusters from if it exists, and to save them to whenever they are built, or
+   *          {@code null}
+   * @throws IllegalArgumentException
+   *           if {@code numClusters} is less than 2, or {@code maxSeeds} is less than {@code numClusters}
+   */
+  public CentroidTreeClusteringRecommender(DataModel dataModel,
+                                           int numClusters,
+                                           int maxSeeds,
+                                           ExecutorService executor,
+                                           File clusteringFile) throws TasteException {
+    super(dataModel);
+    Preconditions.checkArgument(numClusters >= 2, "numClusters must be at least 2");
+    Preconditions.checkArgument(maxSeeds >= numClusters, "maxSeeds must be at least numClusters");
+    this.numClusters = numClusters;
+    this.maxSeeds = maxSeeds;
+    this.executor = executor;
+    this.clusteringFile = clusteringFile;
+    this.refreshHelper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() throws TasteException {
+        buildAndSaveClustering();
+        return null;
+      }
+    });
+    refreshHelper.addDependency(dataModel);
+    if (clusteringFile != null && clusteringFile.exists()) {
+      try {
+        clustering = readClustering(clusteringFile);
+        log.info("Read {} clusters from {}", clustering.clusters.length, clusteringFile);
+      } catch (IOException ioe) {
+        throw new TasteException(ioe);
+      }
+    } else {
+      buildAndSaveClustering();
+    }
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
+    Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
+    log.debug("Recommending items for user ID '{}'", userID);
+
+    List<RecommendedItem> recommended = clustering.topRecsByUserID.get(userID);
+    if (recommended == null) {
+      return Collections.emptyList();
+    }
+
+    DataModel dataModel = getDataModel();
+    List<RecommendedItem> rescored = Lists.newArrayListWithCapacity(recommended.size());
+    // Only add items the user doesn't already have a preference for, and that the rescorer doesn't "reject"
+    for (RecommendedItem recommendedItem : recommended) {
+      long itemID = recommendedItem.getItemID();
+      if (rescorer != null && rescorer.isFiltered(itemID)) {
+        continue;
+      }
+      if (dataModel.getPreferenceValue(userID, itemID) == null
+          && (rescorer == null || !Double.isNaN(rescorer.rescore(itemID, recommendedItem.getValue())))) {
+        rescored.add(recommendedItem);
+      }
+    }
+    Collections.sort(rescored, new ByRescoreComparator(rescorer));
+    return rescored.size() > howMany ? Lists.newArrayList(rescored.subList(0, howMany)) : rescored;
+  }
+
+  @Override
+  public float estimatePreference(long userID, long itemID) throws TasteException {
+    Float actualPref = getDataModel().getPreferenceValue(userID, itemID);
+    if (actualPref != null) {
+      return actualPref;
+    }
+    List<RecommendedItem> topRecsForUser = clustering.topRecsByUserID.get(userID);
+    if (topRecsForUser != null) {
+      for (RecommendedItem item : topRecsForUser) {
+        if (itemID == item.getItemID()) {
+          return item.getValue();
+        }
+      }
+    }
+    // The item is not in the user's cluster's top recommendations
+    return Float.NaN;
+  }
+
+  @Override
+  public FastIDSet getCluster(long userID) {
+    FastIDSet cluster = clustering.clustersByUserID.get(userID);
+    return cluster == null ? new FastIDSet() : cluster;
+  }
+
+  @Override
+  public FastIDSet[] getClusters() {
+    return clustering.clusters;
+  }
+
+  private void buildAndSaveClustering() throws TasteException {
+    long start = System.currentTimeMillis();
+    Clustering newClustering = buildClustering();
+    log.info("Built {} clusters in {}ms", newClustering.clusters.length, System.currentTimeMillis() - start);
+    clustering = newClustering;
+    if (clusteringFile != null) {
+      try {
+        writeClustering(newClustering, clusteringFile);
+      } catch (IOException ioe) {
+        log.warn("Error while saving clusters to {}", clusteringFile, ioe);
+      }
+    }
+  }
+
+  private Clustering buildClustering() throws TasteException {
+    final DataModel dataModel = getDataModel();
+    long[] userIDs = new long[dataModel.getNumUsers()];
+    int numUsers = 0;
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext() && numUsers < userIDs.length) {
+      userIDs[numUsers++] = it.nextLong();
+    }
+    userIDs = Arrays.copyOf(userIDs, numUsers);
+    if (numUsers == 0) {
+      return new Clustering(new FastIDSet[0], Collections.<List<RecommendedItem>>emptyList());
+    }
+
+    final long[] signatures = new long[numUsers];
+    forEachUser(userIDs, new UserTask() {
+      @Override
+      void process(int index, long userID) throws TasteException {
+        signatures[index] = signature(dataModel.getPreferencesFromUser(userID));
+      }
+    });
+    final int[] assignments = seed(signatures);
+    int numSeeds = 0;
+    for (int assignment : assignments) {
+      numSeeds = Math.max(numSeeds, assignment + 1);
+    }
+
+    // Users not in a seed join the one with the most similar centroid
+    SparseVector[] seedCentroids = centroids(userIDs, assignments, numSeeds);
+    final CentroidIndex index = new CentroidIndex(seedCentroids);
+    forEachUser(userIDs, new UserTask() {
+      @Override
+      void process(int i, long userID) throws TasteException {
+        if (assignments[i] < 0) {
+          assignments[i] = index.mostSimilar(SparseVector.unitVectorOf(dataModel.getPreferencesFromUser(userID)));
+        }
+      }
+    });
+    seedCentroids = centroids(userIDs, assignments, numSeeds);
+
+    int[][] seedsOfClusters = mergeSeeds(seedCentroids);
+    int[] clusterOfSeed = new int[numSeeds];
+    for (int i = 0; i < seedsOfClusters.length; i++) {
+      for (int seed : seedsOfClusters[i]) {
+        clusterOfSeed[seed] = i;
+      }
+    }
+    final FastIDSet[] clusters = new FastIDSet[seedsOfClusters.length];
+    for (int i = 0; i < clusters.length; i++) {
+      clusters[i] = new FastIDSet();
+    }
+    for (int i = 0; i < numUsers; i++) {
+      clusters[clusterOfSeed[assignments[i]]].add(userIDs[i]);
+    }
+
+    List<Callable<List<RecommendedItem>>> callables = Lists.newArrayListWithCapacity(clusters.length);
+    for (final FastIDSet cluster : clusters) {
+      callables.add(new Callable<List<RecommendedItem>>() {
+        @Override
+        public List<RecommendedItem> call() throws TasteException {
+          return computeTopRecsForCluster(cluster);
+        }
+      });
+    }
+    return new Clustering(clusters, execute(callables));
+  }
+
+  /**
+   * @return index of the seed each user is in, or -1 for users who are not in one
+   */
+  private int[] seed(long[] signatures) {
+    // Count users per signature
+    FastByIDMap<int[]> countsAndSeeds = new FastByIDMap<int[]>();
+    for (long signature : signatures) {
+      int[] countAndSeed = countsAndSeeds.get(signature);
+      if (countAndSeed == null) {
+        countsAndSeeds.put(signature, new int[] {1, -1});
+      } else {
+        countAndSeed[0]++;
+      }
+    }
+    // The largest groups become the seeds
+    long[] distinct = new long[countsAndSeeds.size()];
+    int numDistinct = 0;
+    LongPrimitiveIterator it = countsAndSeeds.keySetIterator();
+    while (it.hasNext()) {
+      distinct[numDistinct++] = it.nextLong();
+    }
+    Arrays.sort(distinct);
+    int numSeeds = Math.min(maxSeeds, numDistinct);
+    PriorityQueue<long[]> largest = new PriorityQueue<long[]>(numSeeds + 1, new Comparator<long[]>() {
+      @Override
+      public int compare(long[] a, long[] b) {
+        return a[0] < b[0] ? -1 : a[0] > b[0] ? 1 : a[1] < b[1] ? 1 : a[1] > b[1] ? -1 : 0;
+      }
+    });
+    for (long signature : distinct) {
+      largest.add(new long[] {countsAndSeeds.get(signature)[0], signature});
+      if (largest.size() > numSeeds) {
+        largest.poll();
+      }
+    }
+    // Largest first
+    for (int seed = largest.size() - 1; seed >= 0; seed--) {
+      countsAndSeeds.get(largest.poll()[1])[1] = seed;
+    }
+    int[] assignments = new int[signatures.length];
+    for (int i = 0; i < signatures.length; i++) {
+      assignments[i] = countsAndSeeds.get(signatures[i])[1];
+    }
+    return assignments;
+  }
+
+  private SparseVector[] centroids(long[] userIDs, int[] assignments, int numSeeds) throws TasteException {
+    int[] sizes = new int[numSeeds];
+    for (int assignment : assignments) {
+      if (assignment >= 0) {
+        sizes[assignment]++;
+      }
+    }
+    final long[][] members = new long[numSeeds][];
+    for (int seed = 0; seed < numSeeds; seed++) {
+      members[seed] = new long[sizes[seed]];
+    }
+    Arrays.fill(sizes, 0);
+    for (int i = 0; i < assignments.length; i++) {
+      int seed = assignments[i];
+      if (seed >= 0) {
+        members[seed][sizes[seed]++] = userIDs[i];
+      }
+    }
+    final DataModel dataModel = getDataModel();
+    List<Callable<SparseVector>> callables = Lists.newArrayListWithCapacity(numSeeds);
+    for (final long[] seedMembers : members) {
+      callables.add(new Callable<SparseVector>() {
+        @Override
+        public SparseVector call() throws TasteException {
+          FastByIDMap<double[]> sums = new FastByIDMap<double[]>();
+          for (long userID : seedMembers) {
+            SparseVector.unitVectorOf(dataModel.getPreferencesFromUser(userID)).addTo(sums);
+          }
+          return SparseVector.of(sums);
+        }
+      });
+    }
+    List<SparseVector> centroids = execute(callables);
+    return centroids.toArray(new SparseVector[numSeeds]);
+  }
+
+  /**
+   * Merges the most similar pair of clusters, starting from the seeds, until {@code numClusters} remain.
+   *
+   * @return seeds in each cluster
+   */
+  private int[][] mergeSeeds(final SparseVector[] seedCentroids) throws TasteException {
+    int numSeeds = seedCentroids.length;
+    // Merged clusters come after the seeds; each merge removes one
+    SparseVector[] centroids = Arrays.copyOf(seedCentroids, Math.max(1, 2 * numSeeds - 1));
+    int[] children = new int[2 * centroids.length];
+    Arrays.fill(children, -1);
+    boolean[] merged = new boolean[centroids.length];
+
+    List<Callable<List<ClusterPair>>> callables = Lists.newArrayList();
+    for (int start = 0; start < numSeeds; start += SEEDS_PER_TASK) {
+      final int from = start;
+      final int to = Math.min(numSeeds, start + SEEDS_PER_TASK);
+      callables.add(new Callable<List<ClusterPair>>() {
+        @Override
+        public List<ClusterPair> call() {
+          List<ClusterPair> pairs = Lists.newArrayList();
+          for (int i = from; i < to; i++) {
+            for (int j = i + 1; j < seedCentroids.length; j++) {
+              double similarity = seedCentroids[i].cosineSimilarity(seedCentroids[j]);
+              if (!Double.isNaN(similarity)) {
+                pairs.add(new ClusterPair(i, j, similarity));
+              }
+            }
+          }
+          return pairs;
+        }
+      });
+    }
+    PriorityQueue<ClusterPair> queue = new PriorityQueue<ClusterPair>();
+    for (List<ClusterPair> pairs : execute(callables)) {
+      queue.addAll(pairs);
+    }
+
+    int numLive = numSeeds;
+    int numNodes = numSeeds;
+    while (numLive > numClusters && !queue.isEmpty()) {
+      ClusterPair top = queue.poll();
+      if (merged[top.cluster1] || merged[top.cluster2]) {
+        continue;
+      }
+      int node = numNodes++;
+      centroids[node] = centroids[top.cluster1].plus(centroids[top.cluster2]);
+      children[2 * node] = top.cluster1;
+      children[2 * node + 1] = top.cluster2;
+      merged[top.cluster1] = true;
+      merged[top.cluster2] = true;
+      centroids[top.cluster1] = null;
+      centroids[top.cluster2] = null;
+      numLive--;
+      for (int other = 0; other < node; other++) {
+        if (!merged[other]) {
+          double similarity = centroids[node].cosineSimilarity(centroids[other]);
+          if (!Double.isNaN(similarity)) {
+            queue.add(new ClusterPair(other, node, similarity));
+          }
+        }
+      }
+    }
+
+    int[][] seedsOfClusters = new int[numLive][];
+    int numFound = 0;
+    int[] stack = new int[numNodes];
+    for (int node = 0; node < numNodes; node++) {
+      if (merged[node]) {
+        continue;
+      }
+      int[] seeds = new int[numSeeds];
+      int numClusterSeeds = 0;
+      int stackSize = 0;
+      stack[stackSize++] = node;
+      while (stackSize > 0) {
+        int current = stack[--stackSize];
+        if (current < numSeeds) {
+          seeds[numClusterSeeds++] = current;
+        } else {
+          stack[stackSize++] = children[2 * current];
+          stack[stackSize++] = children[2 * current + 1];
+        }
+      }
+      seedsOfClusters[numFound++] = Arrays.copyOf(seeds, numClusterSeeds);
+    }
+    return seedsOfClusters;
+  }
+
+  private List<RecommendedItem> computeTopRecsForCluster(FastIDSet cluster) throws TasteException {
+    DataModel dataModel = getDataModel();
+    // Sum and count of preference values for each item
+    final FastByIDMap<double[]> sums = new FastByIDMap<double[]>();
+    LongPrimitiveIterator it = cluster.iterator();
+    while (it.hasNext()) {
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(it.nextLong());
+      int length = prefs.length();
+      for (int i = 0; i < length; i++) {
+        long itemID = prefs.getItemID(i);
+        double[] sum = sums.get(itemID);
+        if (sum == null) {
+          sum = new double[2];
+          sums.put(itemID, sum);
+        }
+        sum[0] += prefs.getValue(i);
+        sum[1]++;
+      }
+    }
+    TopItems.Estimator<Long> estimator = new TopItems.Estimator<Long>() {
+      @Override
+      public double estimate(Long itemID) {
+        double[] sum = sums.get(itemID);
+        return sum[0] / sum[1];
+      }
+    };
+    return Collections.unmodifiableList(
+        TopItems.getTopItems(NUM_CLUSTER_RECS, sums.keySetIterator(), null, estimator));
+  }
+
+  private void forEachUser(final long[] userIDs, final UserTask task) throws TasteException {
+    List<Callable<Object>> callables = Lists.newArrayList();
+    for (int start = 0; start < userIDs.length; start += USERS_PER_TASK) {
+      final int from = start;
+      final int to = Math.min(userIDs.length, start + USERS_PER_TASK);
+      callables.add(new Callable<Object>() {
+        @Override
+        public Object call() throws TasteException {
+          for (int i = from; i < to; i++) {
+            task.process(i, userIDs[i]);
+          }
+          return null;
+        }
+      });
+    }
+    execute(callables);
+  }
+
+  private <T> List<T> execute(List<Callable<T>> callables) throws TasteException {
+    List<T> results = Lists.newArrayListWithCapacity(callables.size());
+    if (executor == null) {
+      for (Callable<T> callable : callables) {
+        try {
+          results.add(callable.call());
+        } catch (TasteException te) {
+          throw te;
+        } catch (Exception e) {
+          throw new TasteException(e);
+        }
+      }
+      return results;
+    }
+    try {
+      for (Future<T> future : executor.invokeAll(callables)) {
+        results.add(future.get());
+      }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      throw new TasteException(ee.getCause());
+    }
+    return results;
+  }
+
+  private static long signature(PreferenceArray prefs) {
+    long signature = 0L;
+    for (long hashSeed : SIGNATURE_HASH_SEEDS) {
+      long minHash = Long.MAX_VALUE;
+      int length = prefs.length();
+      for (int i = 0; i < length; i++) {
+        minHash = Math.min(minHash, mix(prefs.getItemID(i) ^ hashSeed));
+      }
+      signature = 31L * signature + minHash;
+    }
+    return signature;
+  }
+
+  private static long mix(long value) {
+    // Finalizer of MurmurHash3's 64-bit variant
+    long h = value;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private static void writeClustering(Clustering clustering, File file) throws IOException {
+    // Write to a temporary file first so that readers never see half of it
+    File tempFile = new File(file.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+    try {
+      out.writeInt(CLUSTERING_FILE_MAGIC);
+      out.writeInt(clustering.clusters.length);
+      for (int i = 0; i < clustering.clusters.length; i++) {
+        FastIDSet cluster = clustering.clusters[i];
+        out.writeInt(cluster.size());
+        LongPrimitiveIterator it = cluster.iterator();
+        while (it.hasNext()) {
+          out.writeLong(it.nextLong());
+        }
+        List<RecommendedItem> recs = clustering.topRecs.get(i);
+        out.writeInt(recs.size());
+        for (RecommendedItem rec : recs) {
+          out.writeLong(rec.getItemID());
+          out.writeFloat(rec.getValue());
+        }
+      }
+    } finally {
+      Closeables.close(out, false);
+    }
+    if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+      throw new IOException("Can't rename " + tempFile + " to " + file);
+    }
+  }
+
+  private static Clustering readClustering(File file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (in.readInt() != CLUSTERING_FILE_MAGIC) {
+        throw new IOException("Not a clustering file: " + file);
+      }
+      FastIDSet[] clusters = new FastIDSet[in.readInt()];
+      List<List<RecommendedItem>> topRecs = Lists.newArrayListWithCapacity(clusters.length);
+      for (int i = 0; i < clusters.length; i++) {
+        int size = in.readInt();
+        clusters[i] = new FastIDSet(size);
+        for (int j = 0; j < size; j++) {
+          clusters[i].add(in.readLong());
+        }
+        int numRecs = in.readInt();
+        List<RecommendedItem> recs = Lists.newArrayListWithCapacity(numRecs);
+        for (int j = 0; j < numRecs; j++) {
+          recs.add(new GenericRecommendedItem(in.readLong(), in.readFloat()));
+        }
+        topRecs.add(Collections.unmodifiableList(recs));
+      }
+      return new Clustering(clusters, topRecs);
+    } finally {
+      Closeables.close(in, true);
+    }
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public String toString() {
+    return "CentroidTreeClusteringRecommender[numClusters:" + numClusters + ", maxSeeds:" + maxSeeds + ']';
+  }
+
+  private abstract static class UserTask {
+    abstract void process(int index, long userID) throws TasteException;
+  }
+
+  /** Clusters and their top recommendations, which never change once built. */
+  private static final class Clustering {
+
+    private final FastIDSet[] clusters;
+    private final List<List<RecommendedItem>> topRecs;
+    private final FastByIDMap<FastIDSet> clustersByUserID;
+    private final FastByIDMap<List<RecommendedItem>> topRecsByUserID;
+
+    private Clustering(FastIDSet[] clusters, List<List<RecommendedItem>> topRecs) {
+      this.clusters = clusters;
+      this.topRecs = topRecs;
+      int numUsers = 0;
+      for (FastIDSet cluster : clusters) {
+        numUsers += cluster.size();
+      }
+      clustersByUserID = new FastByIDMap<FastIDSet>(numUsers);
+      topRecsByUserID = new FastByIDMap<List<RecommendedItem>>(numUsers);
+      for (int i = 0; i < clusters.length; i++) {
+        LongPrimitiveIterator it = clusters[i].iterator();
+        while (it.hasNext()) {
+          long userID = it.nextLong();
+          clustersByUserID.put(userID, clusters[i]);
+          topRecsByUserID.put(userID, topRecs.get(i));
+        }
+      }
+    }
+  }
+
+  private static final class ClusterPair implements Comparable<ClusterPair> {
+
+    private final int cluster1;
+    private final int cluster2;
+    private final double similarity;
+
+    private ClusterPair(int cluster1, int cluster2, double similarity) {
+      this.cluster1 = cluster1;
+      this.cluster2 = cluster2;
+      this.similarity = similarity;
+    }
+
+    /** Most similar first, then the earliest clusters, so that merging is deterministic. */
+    @Override
+    public int compareTo(ClusterPair other) {
+      if (similarity != other.similarity) {
+        return similarity > other.similarity ? -1 : 1;
+      }
+      if (cluster1 != other.cluster1) {
+        return cluster1 < other.cluster1 ? -1 : 1;
+      }
+      return cluster2 < other.cluster2 ? -1 : cluster2 > other.cluster2 ? 1 : 0;
+    }
+  }
+
+  /** A sparse vector indexed by item ID, with its entries sorted by item ID. */
+  private static final class SparseVector {
+
+    private final long[] itemIDs;
+    private final double[] values;
+    private final double norm;
+
+    private SparseVector(long[] itemIDs, double[] values) {
+      this.itemIDs = itemIDs;
+      this.values = values;
+      double sumOfSquares = 0.0;
+      for (double value : values) {
+        sumOfSquares += value * value;
+      }
+      norm = Math.sqrt(sumOfSquares);
+    }
+
+    static SparseVector unitVectorOf(PreferenceArray prefs) {
+      int length = prefs.length();
+      long[] itemIDs = new long[length];
+      boolean sorted = true;
+      for (int i = 0; i < length; i++) {
+        itemIDs[i] = prefs.getItemID(i);
+        sorted &= i == 0 || itemIDs[i - 1] < itemIDs[i];
+      }
+      PreferenceArray sortedPrefs = prefs;
+      if (!sorted) {
+        sortedPrefs = prefs.clone();
+        sortedPrefs.sortByItem();
+        for (int i = 0; i < length; i++) {
+          itemIDs[i] = sortedPrefs.getItemID(i);
+        }
+      }
+      double[] values = new double[length];
+      double sumOfSquares = 0.0;
+      for (int i = 0; i < length; i++) {
+        values[i] = sortedPrefs.getValue(i);
+        sumOfSquares += values[i] * values[i];
+      }
+      if (sumOfSquares > 0.0) {
+        double norm = Math.sqrt(sumOfSquares);
+        for (int i = 0; i < length; i++) {
+          values[i] /= norm;
+        }
+      }
+      return new SparseVector(itemIDs, values);
+    }
+
+    static SparseVector of(FastByIDMap<double[]> sums) {
+      long[] itemIDs = new long[sums.size()];
+      int i = 0;
+      LongPrimitiveIterator it = sums.keySetIterator();
+      while (it.hasNext()) {
+        itemIDs[i++] = it.nextLong();
+      }
+      Arrays.sort(itemIDs);
+      double[] values = new double[itemIDs.length];
+      for (int j = 0; j < itemIDs.length; j++) {
+        values[j] = sums.get(itemIDs[j])[0];
+      }
+      return new SparseVector(itemIDs, values);
+    }
+
+    void addTo(FastByIDMap<double[]> sums) {
+      for (int i = 0; i < itemIDs.length; i++) {
+        double[] sum = sums.get(itemIDs[i]);
+        if (sum == null) {
+          sums.put(itemIDs[i], new double[] {values[i]});
+        } else {
+          sum[0] += values[i];
+        }
+      }
+    }
+
+    SparseVector plus(SparseVector other) {
+      long[] sumItemIDs = new long[itemIDs.length + other.itemIDs.length];
+      double[] sumValues = new double[sumItemIDs.length];
+      int i = 0;
+      int j = 0;
+      int k = 0;
+      while (i < itemIDs.length || j < other.itemIDs.length) {
+        if (j == other.itemIDs.length || (i < itemIDs.length && itemIDs[i] < other.itemIDs[j])) {
+          sumItemIDs[k] = itemIDs[i];
+          sumValues[k++] = values[i++];
+        } else if (i == itemIDs.length || other.itemIDs[j] < itemIDs[i]) {
+          sumItemIDs[k] = other.itemIDs[j];
+          sumValues[k++] = other.values[j++];
+        } else {
+          sumItemIDs[k] = itemIDs[i];
+          sumValues[k++] = values[i++] + other.values[j++];
+        }
+      }
+      return new SparseVector(Arrays.copyOf(sumItemIDs, k), Arrays.copyOf(sumValues, k));
+    }
+
+    /** @return cosine similarity, or {@link Double#NaN} if either vector is zero */
+    double cosineSimilarity(SparseVector other) {
+      if (norm == 0.0 || other.norm == 0.0) {
+        return Double.NaN;
+      }
+      double dot = 0.0;
+      int i = 0;
+      int j = 0;
+      while (i < itemIDs.length && j < other.itemIDs.length) {
+        if (itemIDs[i] < other.itemIDs[j]) {
+          i++;
+        } else if (itemIDs[i] > other.itemIDs[j]) {
+          j++;
+        } else {
+          dot += values[i++] * other.values[j++];
+        }
+      }
+      return dot / (norm * other.norm);
+    }
+  }
+
+  /** Finds the most similar of some centroids to a vector, through an index of the centroids by item. */
+  private static final class CentroidIndex {
+
+    private final FastByIDMap<double[]> postings;
+    private final double[] norms;
+
+    private CentroidIndex(SparseVector[] centroids) {
+      // Postings interleave centroid index and value
+      FastByIDMap<int[]> sizes = new FastByIDMap<int[]>();
+      for (SparseVector centroid : centroids) {
+        for (long itemID : centroid.itemIDs) {
+          int[] size = sizes.get(itemID);
+          if (size == null) {
+            sizes.put(itemID, new int[] {1});
+          } else {
+            size[0]++;
+          }
+        }
+      }
+      postings = new FastByIDMap<double[]>(sizes.size());
+      norms = new double[centroids.length];
+      for (int c = 0; c < centroids.length; c++) {
+        SparseVector centroid = centroids[c];
+        norms[c] = centroid.norm;
+        for (int i = 0; i < centroid.itemIDs.length; i++) {
+          long itemID = centroid.itemIDs[i];
+          double[] itemPostings = postings.get(itemID);
+          if (itemPostings == null) {
+            itemPostings = new double[2 * sizes.get(itemID)[0]];
+            postings.put(itemID, itemPostings);
+          }
+          int at = --sizes.get(itemID)[0];
+          itemPostings[2 * at] = c;
+          itemPostings[2 * at + 1] = centroid.values[i];
+        }
+      }
+    }
+
+    /** @return index of the most similar centroid, or 0 if none shares an item with the vector */
+    int mostSimilar(SparseVector vector) {
+      FastByIDMap<double[]> dots = new FastByIDMap<double[]>();
+      for (int i = 0; i < vector.itemIDs.length; i++) {
+        double[] itemPostings = postings.get(vector.itemIDs[i]);
+        if (itemPostings == null) {
+          continue;
+        }
+        for (int p = 0; p < itemPostings.length; p += 2) {
+          long c = (long) itemPostings[p];
+          double[] dot = dots.get(c);
+          if (dot == null) {
+            dots.put(c, new double[] {vector.values[i] * itemPostings[p + 1]});
+          } else {
+            dot[0] += vector.values[i] * itemPostings[p + 1];
+          }
+        }
+      }
+      int best = 0;
+      double bestSimilarity = Double.NEGATIVE_INFINITY;
+      LongPrimitiveIterator it = dots.keySetIterator();
+      while (it.hasNext()) {
+        int c = (int) it.nextLong();
+        double similarity = dots.get(c)[0] / norms[c];
+        if (similarity > bestSimilarity || (similarity == bestSimilarity && c < best)) {
+          best = c;
+          bestSimilarity = similarity;
+        }
+      }
+      return best;
+    }
+  }
+
+}
@@ -0,0 +1,292 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.Histogram;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.common.SamplingLongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.common.iterator.FixedSizeSamplingIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Returns items that often co-occur with the user's items, from an index of the {@code itemsPerIndex} items
+ * most often co-occurring with each item. The index is built from a {@link DataModel} when the strategy is
+ * created and whenever that model is refreshed, so requests never walk the users of the user's items like
+ * {@link PreferredItemsNeighborhoodCandidateItemsStrategy} does.</p>
+ *
+ * <p>Co-occurrence of item B with item A is scored as the fraction of A's users who also prefer B. A candidate's
+ * score is the sum of its scores with each of the user's items, and no more than {@code maxCandidates} candidates
+ * with the highest scores are returned. Cost per request is therefore bounded by the number of the user's items
+ * considered, at most {@code maxPreferredItems}, times {@code itemsPerIndex}.</p>
+ *
+ * <p>Building the index samples at most {@code maxUsersPerItem} users of each item, and at most
+ * {@code maxItemsPerUser} items of each of those users, as {@link SamplingCandidateItemsStrategy} does.</p>
+ *
+ * <p>The number of candidates returned for each request is recorded in {@link #getCandidateCounts()}.</p>
+ */
+public final class CooccurrenceCandidateItemsStrategy extends AbstractCandidateItemsStrategy {
+
+  private static final Logger log = LoggerFactory.getLogger(CooccurrenceCandidateItemsStrategy.class);
+
+  public static final int DEFAULT_MAX_USERS_PER_ITEM = 1000;
+  public static final int DEFAULT_MAX_ITEMS_PER_USER = 200;
+  public static final int DEFAULT_MAX_PREFERRED_ITEMS = 500;
+
+  private final DataModel dataModel;
+  private final int itemsPerIndex;
+  private final int maxCandidates;
+  private final int maxUsersPerItem;
+  private final int maxItemsPerUser;
+  private final int maxPreferredItems;
+  private final RefreshHelper refreshHelper;
+  private final Histogram candidateCounts;
+  private volatile FastByIDMap<Cooccurrences> index;
+
+  /**
+   * @param dataModel model to index
+   * @param itemsPerIndex number of most co-occurring items to index for each item
+   * @param maxCandidates maximum number of candidates to return
+   */
+  public CooccurrenceCandidateItemsStrategy(DataModel dataModel, int itemsPerIndex, int maxCandidates)
+    throws TasteException {
+    this(dataModel, itemsPerIndex, maxCandidates, DEFAULT_MAX_USERS_PER_ITEM, DEFAULT_MAX_ITEMS_PER_USER,
+        DEFAULT_MAX_PREFERRED_ITEMS);
+  }
+
+  /**
+   * @param dataModel model to index
+   * @param itemsPerIndex number of most co-occurring items to index for each item
+   * @param maxCandidates maximum number of candidates to return
+   * @param maxUsersPerItem maximum number of users of each item to sample when indexing
+   * @param maxItemsPerUser maximum number of items of each of those users to sample when indexing
+   * @param maxPreferredItems maximum number of the user's items to sample for each request
+   */
+  public CooccurrenceCandidateItemsStrategy(DataModel dataModel,
+                                            int itemsPerIndex,
+                                            int maxCandidates,
+                                            int maxUsersPerItem,
+                                            int maxItemsPerUser,
+                                            int maxPreferredItems) throws TasteException {
+    Preconditions.checkArgument(dataModel != null, "dataModel is null");
+    Preconditions.checkArgument(itemsPerIndex > 0, "itemsPerIndex must be positive");
+    Preconditions.checkArgument(maxCandidates > 0, "maxCandidates must be positive");
+    Preconditions.checkArgument(maxUsersPerItem > 0, "maxUsersPerItem must be positive");
+    Preconditions.checkArgument(maxItemsPerUser > 0, "maxItemsPerUser must be positive");
+    Preconditions.checkArgument(maxPreferredItems > 0, "maxPreferredItems must be positive");
+    this.dataModel = dataModel;
+    this.itemsPerIndex = itemsPerIndex;
+    this.maxCandidates = maxCandidates;
+    this.maxUsersPerItem = maxUsersPerItem;
+    this.maxItemsPerUser = maxItemsPerUser;
+    this.maxPreferredItems = maxPreferredItems;
+    this.candidateCounts = new Histogram();
+    this.refreshHelper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() throws TasteException {
+        index = buildIndex();
+        return null;
+      }
+    });
+    refreshHelper.addDependency(dataModel);
+    index = buildIndex();
+  }
+
+  /** @return number of candidates returned for each request so far */
+  public Histogram getCandidateCounts() {
+    return candidateCounts;
+  }
+
+  @Override
+  FastIDSet doGetCandidateItems(long[] preferredItemIDs, DataModel dataModel) {
+    FastByIDMap<Cooccurrences> index = this.index;
+    LongPrimitiveIterator preferredItemIDsIterator = new LongPrimitiveArrayIterator(preferredItemIDs);
+    if (preferredItemIDs.length > maxPreferredItems) {
+      preferredItemIDsIterator = new SamplingLongPrimitiveIterator(preferredItemIDsIterator,
+          (double) maxPreferredItems / preferredItemIDs.length);
+    }
+    FastIDSet preferred = new FastIDSet(preferredItemIDs);
+    FastByIDMap<float[]> scores = new FastByIDMap<float[]>();
+    while (preferredItemIDsIterator.hasNext()) {
+      Cooccurrences cooccurrences = index.get(preferredItemIDsIterator.nextLong());
+      if (cooccurrences == null) {
+        continue;
+      }
+      for (int i = 0; i < cooccurrences.itemIDs.length; i++) {
+        long itemID = cooccurrences.itemIDs[i];
+        if (preferred.contains(itemID)) {
+          continue;
+        }
+        float[] score = scores.get(itemID);
+        if (score == null) {
+          scores.put(itemID, new float[] {cooccurrences.scores[i]});
+        } else {
+          score[0] += cooccurrences.scores[i];
+        }
+      }
+    }
+
+    FastIDSet candidates = new FastIDSet(Math.min(scores.size(), maxCandidates));
+    if (scores.size() <= maxCandidates) {
+      LongPrimitiveIterator it = scores.keySetIterator();
+      while (it.hasNext()) {
+        candidates.add(it.nextLong());
+      }
+    } else {
+      // Keep those scoring above the maxCandidates-th highest score, then enough of those scoring just that
+      float[] sorted = new float[scores.size()];
+      int n = 0;
+      LongPrimitiveIterator scored = scores.keySetIterator();
+      while (scored.hasNext()) {
+        sorted[n++] = scores.get(scored.nextLong())[0];
+      }
+      Arrays.sort(sorted);
+      float threshold = sorted[sorted.length - maxCandidates];
+      int numAtThreshold = 0;
+      for (int i = sorted.length - maxCandidates; i < sorted.length && sorted[i] == threshold; i++) {
+        numAtThreshold++;
+      }
+      LongPrimitiveIterator it = scores.keySetIterator();
+      while (it.hasNext()) {
+        long itemID = it.nextLong();
+        float score = scores.get(itemID)[0];
+        if (score > threshold || (score == threshold && numAtThreshold-- > 0)) {
+          candidates.add(itemID);
+        }
+      }
+    }
+    candidateCounts.recordValue(candidates.size());
+    log.debug("{} candidates from {} preferred items", candidates.size(), preferredItemIDs.length);
+    return candidates;
+  }
+
+  private FastByIDMap<Cooccurrences> buildIndex() throws TasteException {
+    long start = System.currentTimeMillis();
+    FastByIDMap<Cooccurrences> newIndex = new FastByIDMap<Cooccurrences>(dataModel.getNumItems());
+    LongPrimitiveIterator itemIDs = dataModel.getItemIDs();
+    while (itemIDs.hasNext()) {
+      long itemID = itemIDs.nextLong();
+      Cooccurrences cooccurrences = computeCooccurrences(itemID);
+      if (cooccurrences != null) {
+        newIndex.put(itemID, cooccurrences);
+      }
+    }
+    log.info("Indexed co-occurrences of {} items in {}ms", newIndex.size(), System.currentTimeMillis() - start);
+    return newIndex;
+  }
+
+  private Cooccurrences computeCooccurrences(long itemID) throws TasteException {
+    PreferenceArray prefs = dataModel.getPreferencesForItem(itemID);
+    int numUsers = Math.min(prefs.length(), maxUsersPerItem);
+    Iterator<Preference> users = prefs.length() > maxUsersPerItem
+        ? new FixedSizeSamplingIterator<Preference>(maxUsersPerItem, prefs.iterator())
+        : prefs.iterator();
+    // Estimated number of sampled users who also prefer each item
+    FastByIDMap<float[]> counts = new FastByIDMap<float[]>();
+    while (users.hasNext()) {
+      FastIDSet userItemIDs = dataModel.getItemIDsFromUser(users.next().getUserID());
+      LongPrimitiveIterator it = userItemIDs.iterator();
+      float weight = 1.0f;
+      if (userItemIDs.size() > maxItemsPerUser) {
+        double samplingRate = (double) maxItemsPerUser / userItemIDs.size();
+        it = new SamplingLongPrimitiveIterator(it, samplingRate);
+        weight = (float) (1.0 / samplingRate);
+      }
+      while (it.hasNext()) {
+        long otherItemID = it.nextLong();
+        if (otherItemID == itemID) {
+          continue;
+        }
+        float[] count = counts.get(otherItemID);
+        if (count == null) {
+          counts.put(otherItemID, new float[] {weight});
+        } else {
+          count[0] += weight;
+        }
+      }
+    }
+    if (counts.isEmpty()) {
+      return null;
+    }
+
+    TopItems.Estimator<Long> estimator = new CountEstimator(counts);
+    List<RecommendedItem> top = TopItems.getTopItems(itemsPerIndex, counts.keySetIterator(), null, estimator);
+    long[] topItemIDs = new long[top.size()];
+    float[] topScores = new float[top.size()];
+    for (int i = 0; i < topItemIDs.length; i++) {
+      topItemIDs[i] = top.get(i).getItemID();
+      topScores[i] = top.get(i).getValue() / numUsers;
+    }
+    return new Cooccurrences(topItemIDs, topScores);
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public String toString() {
+    return "CooccurrenceCandidateItemsStrategy[itemsPerIndex:" + itemsPerIndex + ", maxCandidates:"
+        + maxCandidates + ']';
+  }
+
+  private static final class CountEstimator implements TopItems.Estimator<Long> {
+
+    private final FastByIDMap<float[]> counts;
+
+    private CountEstimator(FastByIDMap<float[]> counts) {
+      this.counts = counts;
+    }
+
+    @Override
+    public double estimate(Long itemID) {
+      return counts.get(itemID)[0];
+    }
+  }
+
+  /** Items most often co-occurring with an item, and their scores. */
+  private static final class Cooccurrences {
+
+    private final long[] itemIDs;
+    private final float[] scores;
+
+    private Cooccurrences(long[] itemIDs, float[] scores) {
+      this.itemIDs = itemIDs;
+      this.scores = scores;
+    }
+  }
+
+}
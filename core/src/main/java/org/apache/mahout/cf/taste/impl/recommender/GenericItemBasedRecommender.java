@@ -73,7 +73,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   private final ItemSimilarity similarity;
   private final MostSimilarItemsCandidateItemsStrategy mostSimilarItemsCandidateItemsStrategy;
   private final RefreshHelper refreshHelper;
-  private EstimatedPreferenceCapper capper;
+  private volatile EstimatedPreferenceCapper capper;
 
   private static final boolean EXCLUDE_ITEM_IF_NOT_SIMILAR_TO_ALL_BY_DEFAULT = true;
 
@@ -130,7 +130,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
 
     TopItems.Estimator<Long> estimator = new Estimator(userID, preferencesFromUser);
 
-    List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
+    List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs, rescorer,
       estimator);
 
     log.debug("Recommendations are: {}", topItems);
@@ -209,12 +209,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     DataModel model = getDataModel();
     TopItems.Estimator<Long> estimator = new RecommendedBecauseEstimator(userID, itemID);
 
-    PreferenceArray prefs = model.getPreferencesFromUser(userID);
-    int size = prefs.length();
-    FastIDSet allUserItems = new FastIDSet(size);
-    for (int i = 0; i < size; i++) {
-      allUserItems.add(prefs.getItemID(i));
-    }
+    FastIDSet allUserItems = new FastIDSet(model.getPreferencesFromUser(userID).getIDs());
     allUserItems.remove(itemID);
 
     return TopItems.getTopItems(howMany, allUserItems.iterator(), null, estimator);
@@ -261,6 +256,14 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
     refreshHelper.refresh(alreadyRefreshed);
   }
+
+  /**
+   * @return helper used to {@link #refresh(Collection)} this recommender; set an executor on it to refresh its
+   *  dependencies in the background, or query it for refresh duration and staleness
+   */
+  public RefreshHelper getRefreshHelper() {
+    return refreshHelper;
+  }
   
   @Override
   public String toString() {
@@ -95,7 +95,7 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     TopItems.Estimator<Long> estimator = new Estimator(userID, theNeighborhood);
 
     List<RecommendedItem> topItems = TopItems
-        .getTopItems(howMany, allItemIDs.iterator(), rescorer, estimator);
+        .getTopItems(howMany, allItemIDs, rescorer, estimator);
 
     log.debug("Recommendations are: {}", topItems);
     return topItems;
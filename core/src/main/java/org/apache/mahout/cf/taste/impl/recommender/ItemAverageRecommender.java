@@ -81,7 +81,7 @@ public final class ItemAverageRecommender extends AbstractRecommender {
 
     TopItems.Estimator<Long> estimator = new Estimator();
 
-    List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
+    List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs, rescorer,
       estimator);
 
     log.debug("Recommendations are: {}", topItems);
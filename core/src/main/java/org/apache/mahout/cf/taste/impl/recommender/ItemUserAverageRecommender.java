@@ -86,7 +86,7 @@ public final class ItemUserAverageRecommender extends AbstractRecommender {
 
     TopItems.Estimator<Long> estimator = new Estimator(userID);
 
-    List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
+    List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs, rescorer,
       estimator);
 
     log.debug("Recommendations are: {}", topItems);
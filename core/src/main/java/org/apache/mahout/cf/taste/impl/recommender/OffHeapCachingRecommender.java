@@ -0,0 +1,332 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.Cache;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.common.Retriever;
+import org.apache.mahout.cf.taste.impl.model.PlusAnonymousUserDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.common.LongPair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A {@link Recommender} which, like {@link CachingRecommender}, caches the results from another
+ * {@link Recommender}, but keeps them outside the heap and keeps them over refreshes.
+ * </p>
+ *
+ * <p>
+ * Each user's top recommendations are stored as item ID and value arrays in a fixed amount of direct memory,
+ * about 28 bytes plus 12 bytes per item for each user, so a large cache adds nothing to garbage collection.
+ * When full, storing a user's recommendations evicts those of another user which were computed earlier.
+ * </p>
+ *
+ * <p>
+ * Cached recommendations become stale when the underlying recommender is refreshed, or when they are older than
+ * a time to live. If an {@link Executor} is given, stale recommendations are returned right away and computed
+ * again on that executor, so that refreshing the data does not slow down requests; otherwise they are computed
+ * again before returning. Either way, recommendations for one user are only computed by one thread at a time.
+ * Changing a user's preferences through this recommender removes that user's recommendations; changing the
+ * {@link IDRescorer} removes all of them.
+ * </p>
+ */
+public final class OffHeapCachingRecommender implements Recommender {
+
+  private static final Logger log = LoggerFactory.getLogger(OffHeapCachingRecommender.class);
+
+  public static final int DEFAULT_MAX_USERS = 100000;
+  public static final int DEFAULT_MAX_ITEMS = 20;
+  public static final long NO_TTL = Long.MAX_VALUE;
+
+  private final Recommender recommender;
+  private final OffHeapRecommendationCache recommendationCache;
+  private final long ttlMillis;
+  private final Executor executor;
+  private final ConcurrentMap<Long,FutureTask<List<RecommendedItem>>> computations;
+  private final AtomicInteger generation;
+  private final AtomicInteger maxHowMany;
+  private final Cache<LongPair,Float> estimatedPrefCache;
+  private final RefreshHelper refreshHelper;
+  private volatile IDRescorer currentRescorer;
+
+  /**
+   * Caches up to {@link #DEFAULT_MAX_ITEMS} recommendations for as many users as the model has, but at most
+   * {@link #DEFAULT_MAX_USERS}, since the whole cache is allocated up front. There is no time to live, and stale
+   * recommendations are computed again before returning them.
+   */
+  public OffHeapCachingRecommender(Recommender recommender) throws TasteException {
+    this(recommender,
+         Math.max(1, Math.min(recommender.getDataModel().getNumUsers(), DEFAULT_MAX_USERS)),
+         DEFAULT_MAX_ITEMS,
+         NO_TTL,
+         null);
+  }
+
+  /**
+   * @param maxUsers
+   *          number of users whose recommendations fit in the cache
+   * @param maxItems
+   *          maximum number of recommendations cached per user; requests for more are not cached
+   * @param ttlMillis
+   *          time after which cached recommendations are stale, or {@link #NO_TTL}
+   * @param executor
+   *          executor on which to compute stale recommendations again while returning them, or {@code null}
+   *          to compute them before returning
+   */
+  public OffHeapCachingRecommender(Recommender recommender,
+                                   int maxUsers,
+                                   int maxItems,
+                                   long ttlMillis,
+                                   Executor executor) {
+    Preconditions.checkArgument(recommender != null, "recommender is null");
+    Preconditions.checkArgument(ttlMillis >= 0L, "ttlMillis must be at least 0");
+    this.recommender = recommender;
+    recommendationCache = new OffHeapRecommendationCache(maxUsers, maxItems);
+    this.ttlMillis = ttlMillis;
+    this.executor = executor;
+    computations = Maps.newConcurrentMap();
+    generation = new AtomicInteger();
+    maxHowMany = new AtomicInteger(1);
+    estimatedPrefCache = new Cache<LongPair,Float>(new EstimatedPrefRetriever(), maxUsers);
+    refreshHelper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() {
+        // Cached recommendations are kept, but computed again when next asked for
+        generation.incrementAndGet();
+        estimatedPrefCache.clear();
+        return null;
+      }
+    });
+    refreshHelper.addDependency(recommender);
+    log.info("Caching recommendations in {} bytes outside the heap", recommendationCache.getCapacityBytes());
+  }
+
+  private void setCurrentRescorer(IDRescorer rescorer) {
+    IDRescorer current = currentRescorer;
+    if (rescorer == null ? current != null : !rescorer.equals(current)) {
+      currentRescorer = rescorer;
+      clear();
+    }
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany) throws TasteException {
+    return recommend(userID, howMany, null);
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
+    Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
+
+    // Special case, avoid caching an anonymous user, and results which do not fit
+    if (userID == PlusAnonymousUserDataModel.TEMP_USER_ID || howMany > recommendationCache.getMaxItems()) {
+      return rescorer == null
+          ? recommender.recommend(userID, howMany)
+          : recommender.recommend(userID, howMany, rescorer);
+    }
+
+    int currentMax;
+    while (howMany > (currentMax = maxHowMany.get()) && !maxHowMany.compareAndSet(currentMax, howMany)) {
+      // retry
+    }
+    setCurrentRescorer(rescorer);
+
+    List<RecommendedItem> recommendedItems;
+    OffHeapRecommendationCache.Entry entry = recommendationCache.get(userID);
+    if (entry == null || (entry.getItems().size() < howMany && !entry.isNoMoreRecommendableItems())) {
+      recommendedItems = compute(userID);
+    } else if (isStale(entry)) {
+      if (executor == null) {
+        recommendedItems = compute(userID);
+      } else {
+        computeInBackground(userID);
+        recommendedItems = entry.getItems();
+      }
+    } else {
+      recommendedItems = entry.getItems();
+    }
+    return recommendedItems.size() > howMany ? recommendedItems.subList(0, howMany) : recommendedItems;
+  }
+
+  private boolean isStale(OffHeapRecommendationCache.Entry entry) {
+    return entry.getGeneration() != generation.get()
+        || System.currentTimeMillis() - entry.getComputedAt() > ttlMillis;
+  }
+
+  private List<RecommendedItem> compute(long userID) throws TasteException {
+    FutureTask<List<RecommendedItem>> computation =
+        new FutureTask<List<RecommendedItem>>(new RecommendationComputation(userID));
+    FutureTask<List<RecommendedItem>> existing = computations.putIfAbsent(userID, computation);
+    if (existing == null) {
+      existing = computation;
+      try {
+        computation.run();
+      } finally {
+        computations.remove(userID, computation);
+      }
+    }
+    try {
+      return existing.get();
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof TasteException) {
+        throw (TasteException) cause;
+      }
+      throw new TasteException(cause);
+    }
+  }
+
+  private void computeInBackground(final long userID) {
+    final FutureTask<List<RecommendedItem>> computation =
+        new FutureTask<List<RecommendedItem>>(new RecommendationComputation(userID));
+    if (computations.putIfAbsent(userID, computation) != null) {
+      return;
+    }
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            computation.run();
+            computation.get();
+          } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+          } catch (ExecutionException ee) {
+            log.warn("Could not compute recommendations for user ID " + userID, ee.getCause());
+          } finally {
+            computations.remove(userID, computation);
+          }
+        }
+      });
+    } catch (RejectedExecutionException ree) {
+      computations.remove(userID, computation);
+      log.debug("Computing recommendations for user ID '{}' was rejected", userID);
+    }
+  }
+
+  @Override
+  public float estimatePreference(long userID, long itemID) throws TasteException {
+    return estimatedPrefCache.get(new LongPair(userID, itemID));
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) throws TasteException {
+    recommender.setPreference(userID, itemID, value);
+    clear(userID);
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) throws TasteException {
+    recommender.removePreference(userID, itemID);
+    clear(userID);
+  }
+
+  @Override
+  public DataModel getDataModel() {
+    return recommender.getDataModel();
+  }
+
+  /**
+   * Marks all cached recommendations stale after refreshing the underlying recommender.
+   */
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  /**
+   * Clears cached recommendations and estimates for the given user.
+   */
+  public void clear(final long userID) {
+    log.debug("Clearing recommendations for user ID '{}'", userID);
+    recommendationCache.remove(userID);
+    estimatedPrefCache.removeKeysMatching(new Cache.MatchPredicate<LongPair>() {
+      @Override
+      public boolean matches(LongPair userItemPair) {
+        return userItemPair.getFirst() == userID;
+      }
+    });
+  }
+
+  /**
+   * Clears all cached recommendations and estimates.
+   */
+  public void clear() {
+    log.debug("Clearing all recommendations...");
+    recommendationCache.clear();
+    estimatedPrefCache.clear();
+  }
+
+  @Override
+  public String toString() {
+    return "OffHeapCachingRecommender[recommender:" + recommender + ", cache:" + recommendationCache + ']';
+  }
+
+  private final class RecommendationComputation implements Callable<List<RecommendedItem>> {
+
+    private final long userID;
+
+    private RecommendationComputation(long userID) {
+      this.userID = userID;
+    }
+
+    @Override
+    public List<RecommendedItem> call() throws TasteException {
+      log.debug("Computing recommendations for user ID '{}'", userID);
+      int atGeneration = generation.get();
+      int atEpoch = recommendationCache.getEpoch();
+      int howMany = Math.min(maxHowMany.get(), recommendationCache.getMaxItems());
+      IDRescorer rescorer = currentRescorer;
+      List<RecommendedItem> recommendations =
+          rescorer == null ? recommender.recommend(userID, howMany) : recommender.recommend(userID, howMany, rescorer);
+      recommendationCache.put(userID, recommendations, recommendations.size() < howMany,
+          System.currentTimeMillis(), atGeneration, atEpoch);
+      return Collections.unmodifiableList(recommendations);
+    }
+  }
+
+  private final class EstimatedPrefRetriever implements Retriever<LongPair,Float> {
+    @Override
+    public Float get(LongPair key) throws TasteException {
+      return recommender.estimatePreference(key.getFirst(), key.getSecond());
+    }
+  }
+
+}
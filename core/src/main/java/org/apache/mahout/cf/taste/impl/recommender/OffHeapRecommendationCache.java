@@ -0,0 +1,260 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+
+/**
+ * <p>
+ * A fixed-size store of users' top recommendations outside the heap, for {@link OffHeapCachingRecommender}.
+ * Slots of equal size are laid out in direct buffers; each holds a user ID, when and in which generation its
+ * recommendations were computed, and up to a fixed number of item IDs and values. The store is two-way
+ * set-associative: a user's recommendations can only be in one of two slots chosen by hashing the user ID,
+ * and storing them there evicts the older of the two occupants. There is no index on the heap.
+ * </p>
+ *
+ * <p>
+ * {@link #clear()} takes constant time: slots written before it count as empty. Slots are grouped in segments
+ * that are locked separately.
+ * </p>
+ */
+final class OffHeapRecommendationCache {
+
+  private static final int USER_ID = 0;
+  private static final int COMPUTED_AT = 8;
+  private static final int EPOCH = 16;
+  private static final int GENERATION = 20;
+  /** Number of items, or its complement if the user has no more recommendable items. */
+  private static final int COUNT = 24;
+  private static final int HEADER_SIZE = 28;
+  private static final int ITEM_SIZE = 12;
+  private static final int MIN_SEGMENTS = 16;
+  private static final int MAX_SEGMENT_BYTES = 1 << 30;
+
+  private final ByteBuffer[] segments;
+  private final int maxItems;
+  private final int slotSize;
+  private final int slotsPerSegment;
+  private final int numBuckets;
+  private final AtomicInteger epoch;
+
+  /**
+   * @param maxUsers
+   *          number of users whose recommendations fit in the store
+   * @param maxItems
+   *          maximum number of recommendations stored per user
+   */
+  OffHeapRecommendationCache(int maxUsers, int maxItems) {
+    Preconditions.checkArgument(maxUsers >= 1, "maxUsers must be at least 1");
+    Preconditions.checkArgument(maxItems >= 1, "maxItems must be at least 1");
+    this.maxItems = maxItems;
+    slotSize = HEADER_SIZE + ITEM_SIZE * maxItems;
+    Preconditions.checkArgument(slotSize <= MAX_SEGMENT_BYTES / 2, "maxItems is too large");
+    int maxSlotsPerSegment = (MAX_SEGMENT_BYTES / slotSize) & ~1;
+    int slotsWanted = (maxUsers + 1) & ~1;
+    // Both slots of a bucket are in the same segment
+    slotsPerSegment = Math.min(maxSlotsPerSegment, Math.max(2, ((slotsWanted / MIN_SEGMENTS) + 1) & ~1));
+    int numSegments = (slotsWanted + slotsPerSegment - 1) / slotsPerSegment;
+    Preconditions.checkArgument((long) numSegments * slotsPerSegment / 2 <= Integer.MAX_VALUE,
+        "maxUsers is too large");
+    numBuckets = numSegments * slotsPerSegment / 2;
+    segments = new ByteBuffer[numSegments];
+    for (int i = 0; i < numSegments; i++) {
+      segments[i] = ByteBuffer.allocateDirect(slotsPerSegment * slotSize);
+    }
+    // Newly allocated slots are all zeroes, so epoch 0 marks them empty
+    epoch = new AtomicInteger(1);
+  }
+
+  int getMaxItems() {
+    return maxItems;
+  }
+
+  int getEpoch() {
+    return epoch.get();
+  }
+
+  /** @return number of bytes allocated outside the heap */
+  long getCapacityBytes() {
+    return (long) segments.length * slotsPerSegment * slotSize;
+  }
+
+  /**
+   * @return the user's stored recommendations, or {@code null} if there are none
+   */
+  Entry get(long userID) {
+    int bucket = bucketOf(userID);
+    ByteBuffer segment = segmentOf(bucket);
+    int offset = offsetOf(bucket);
+    int currentEpoch = epoch.get();
+    synchronized (segment) {
+      for (int way = 0; way < 2; way++, offset += slotSize) {
+        if (segment.getInt(offset + EPOCH) == currentEpoch && segment.getLong(offset + USER_ID) == userID) {
+          return read(segment, offset);
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Stores the user's recommendations, of which at most {@link #getMaxItems()} are kept.
+   *
+   * @param atEpoch
+   *          value of {@link #getEpoch()} when computing the recommendations started; if the store has been
+   *          cleared since, they are not stored
+   */
+  void put(long userID,
+           List<RecommendedItem> items,
+           boolean noMoreRecommendableItems,
+           long computedAt,
+           int generation,
+           int atEpoch) {
+    int bucket = bucketOf(userID);
+    ByteBuffer segment = segmentOf(bucket);
+    int offset = offsetOf(bucket);
+    int count = Math.min(items.size(), maxItems);
+    synchronized (segment) {
+      if (atEpoch != epoch.get()) {
+        return;
+      }
+      int slot = chooseSlot(segment, offset, userID, atEpoch);
+      segment.putLong(slot + USER_ID, userID);
+      segment.putLong(slot + COMPUTED_AT, computedAt);
+      segment.putInt(slot + EPOCH, atEpoch);
+      segment.putInt(slot + GENERATION, generation);
+      segment.putInt(slot + COUNT, noMoreRecommendableItems ? ~count : count);
+      int position = slot + HEADER_SIZE;
+      for (int i = 0; i < count; i++) {
+        RecommendedItem item = items.get(i);
+        segment.putLong(position, item.getItemID());
+        segment.putFloat(position + 8, item.getValue());
+        position += ITEM_SIZE;
+      }
+    }
+  }
+
+  private int chooseSlot(ByteBuffer segment, int offset, long userID, int currentEpoch) {
+    int other = offset + slotSize;
+    boolean firstValid = segment.getInt(offset + EPOCH) == currentEpoch;
+    boolean otherValid = segment.getInt(other + EPOCH) == currentEpoch;
+    if (firstValid && segment.getLong(offset + USER_ID) == userID) {
+      return offset;
+    }
+    if (otherValid && segment.getLong(other + USER_ID) == userID) {
+      return other;
+    }
+    if (!firstValid) {
+      return offset;
+    }
+    if (!otherValid) {
+      return other;
+    }
+    return segment.getLong(offset + COMPUTED_AT) <= segment.getLong(other + COMPUTED_AT) ? offset : other;
+  }
+
+  void remove(long userID) {
+    int bucket = bucketOf(userID);
+    ByteBuffer segment = segmentOf(bucket);
+    int offset = offsetOf(bucket);
+    synchronized (segment) {
+      for (int way = 0; way < 2; way++, offset += slotSize) {
+        if (segment.getLong(offset + USER_ID) == userID) {
+          segment.putInt(offset + EPOCH, 0);
+        }
+      }
+    }
+  }
+
+  void clear() {
+    epoch.incrementAndGet();
+  }
+
+  private Entry read(ByteBuffer segment, int offset) {
+    int count = segment.getInt(offset + COUNT);
+    boolean noMoreRecommendableItems = count < 0;
+    if (noMoreRecommendableItems) {
+      count = ~count;
+    }
+    List<RecommendedItem> items = Lists.newArrayListWithCapacity(count);
+    int position = offset + HEADER_SIZE;
+    for (int i = 0; i < count; i++) {
+      items.add(new GenericRecommendedItem(segment.getLong(position), segment.getFloat(position + 8)));
+      position += ITEM_SIZE;
+    }
+    return new Entry(Collections.unmodifiableList(items), noMoreRecommendableItems,
+        segment.getLong(offset + COMPUTED_AT), segment.getInt(offset + GENERATION));
+  }
+
+  private int bucketOf(long userID) {
+    long h = userID * 0x9E3779B97F4A7C15L;
+    return (int) (((h ^ (h >>> 32)) & 0x7FFFFFFFL) % numBuckets);
+  }
+
+  private ByteBuffer segmentOf(int bucket) {
+    return segments[(int) (2L * bucket / slotsPerSegment)];
+  }
+
+  private int offsetOf(int bucket) {
+    return (int) (2L * bucket % slotsPerSegment) * slotSize;
+  }
+
+  @Override
+  public String toString() {
+    return "OffHeapRecommendationCache[users:" + 2 * numBuckets + ", maxItems:" + maxItems + ']';
+  }
+
+  static final class Entry {
+
+    private final List<RecommendedItem> items;
+    private final boolean noMoreRecommendableItems;
+    private final long computedAt;
+    private final int generation;
+
+    private Entry(List<RecommendedItem> items, boolean noMoreRecommendableItems, long computedAt, int generation) {
+      this.items = items;
+      this.noMoreRecommendableItems = noMoreRecommendableItems;
+      this.computedAt = computedAt;
+      this.generation = generation;
+    }
+
+    List<RecommendedItem> getItems() {
+      return items;
+    }
+
+    boolean isNoMoreRecommendableItems() {
+      return noMoreRecommendableItems;
+    }
+
+    long getComputedAt() {
+      return computedAt;
+    }
+
+    int getGeneration() {
+      return generation;
+    }
+  }
+
+}
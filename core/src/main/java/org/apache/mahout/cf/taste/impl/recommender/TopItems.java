@@ -17,6 +17,7 @@
 
 package org.apache.mahout.cf.taste.impl.recommender;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -27,9 +28,12 @@ import com.google.common.collect.Lists;
 import org.apache.mahout.cf.taste.common.NoSuchItemException;
 import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
 import org.apache.mahout.cf.taste.impl.similarity.GenericUserSimilarity;
+import org.apache.mahout.cf.taste.recommender.BatchIDRescorer;
 import org.apache.mahout.cf.taste.recommender.IDRescorer;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 
@@ -50,6 +54,32 @@ public final class TopItems {
                                                   LongPrimitiveIterator possibleItemIDs,
                                                   IDRescorer rescorer,
                                                   Estimator<Long> estimator) throws TasteException {
+    return getTopItems(howMany, possibleItemIDs, rescorer, true, estimator);
+  }
+
+  /**
+   * Like {@link #getTopItems(int, LongPrimitiveIterator, IDRescorer, Estimator)}, but when {@code rescorer} is a
+   * {@link BatchIDRescorer}, filtered items are removed all at once before any item is estimated.
+   */
+  public static List<RecommendedItem> getTopItems(int howMany,
+                                                  FastIDSet possibleItemIDs,
+                                                  IDRescorer rescorer,
+                                                  Estimator<Long> estimator) throws TasteException {
+    Preconditions.checkArgument(possibleItemIDs != null, "argument is null");
+    if (!(rescorer instanceof BatchIDRescorer)) {
+      return getTopItems(howMany, possibleItemIDs.iterator(), rescorer, true, estimator);
+    }
+    long[] itemIDs = possibleItemIDs.toArray();
+    int numUnfiltered = ((BatchIDRescorer) rescorer).retainUnfiltered(itemIDs, itemIDs.length);
+    LongPrimitiveIterator unfilteredItemIDs = new LongPrimitiveArrayIterator(Arrays.copyOf(itemIDs, numUnfiltered));
+    return getTopItems(howMany, unfilteredItemIDs, rescorer, false, estimator);
+  }
+
+  private static List<RecommendedItem> getTopItems(int howMany,
+                                                   LongPrimitiveIterator possibleItemIDs,
+                                                   IDRescorer rescorer,
+                                                   boolean checkFiltered,
+                                                   Estimator<Long> estimator) throws TasteException {
     Preconditions.checkArgument(possibleItemIDs != null, "argument is null");
     Preconditions.checkArgument(estimator != null, "argument is null");
 
@@ -59,7 +89,7 @@ public final class TopItems {
     double lowestTopValue = Double.NEGATIVE_INFINITY;
     while (possibleItemIDs.hasNext()) {
       long itemID = possibleItemIDs.next();
-      if (rescorer == null || !rescorer.isFiltered(itemID)) {
+      if (rescorer == null || !checkFiltered || !rescorer.isFiltered(itemID)) {
         double preference;
         try {
           preference = estimator.estimate(itemID);
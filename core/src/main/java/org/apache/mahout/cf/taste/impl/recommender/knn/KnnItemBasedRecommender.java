@@ -17,18 +17,31 @@
 
 package org.apache.mahout.cf.taste.impl.recommender.knn;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.Cache;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.Retriever;
+import org.apache.mahout.cf.taste.impl.recommender.ByValueRecommendedItemComparator;
 import org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender;
 import org.apache.mahout.cf.taste.impl.recommender.TopItems;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
 import org.apache.mahout.cf.taste.recommender.MostSimilarItemsCandidateItemsStrategy;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.cf.taste.recommender.Rescorer;
@@ -40,13 +53,27 @@ import org.apache.mahout.common.LongPair;
  * The weights to compute the final predicted preferences are calculated using linear interpolation, through
  * an {@link Optimizer}. This algorithm is based in the paper of Robert M. Bell and Yehuda Koren in ICDM '07.
  * </p>
+ *
+ * <p>
+ * The interpolation weights of an item only depend on the item and its neighborhood among the items the user
+ * rated, so users with the same neighborhood for an item share them. If {@code maxCachedInterpolations} is
+ * positive, that many sets of weights are cached until the next {@link #refresh(Collection)}. If an
+ * {@link ExecutorService} is given, candidate items are scored in parallel on it by
+ * {@link #recommend(long, int, IDRescorer)}.
+ * </p>
  */
 public final class KnnItemBasedRecommender extends GenericItemBasedRecommender {
   
   private static final double BETA = 500.0;
 
+  /** below this many candidate items, parallel scoring is not worth the overhead */
+  private static final int MIN_CANDIDATES_PER_PARTITION = 16;
+
   private final Optimizer optimizer;
   private final int neighborhoodSize;
+  private final Cache<Neighborhood,double[]> interpolationCache;
+  private final ExecutorService executor;
+  private final ThreadLocal<Workspace> workspaces;
   
   public KnnItemBasedRecommender(DataModel dataModel,
                                  ItemSimilarity similarity,
@@ -54,9 +81,8 @@ public final class KnnItemBasedRecommender extends GenericItemBasedRecommender {
                                  CandidateItemsStrategy candidateItemsStrategy,
                                  MostSimilarItemsCandidateItemsStrategy mostSimilarItemsCandidateItemsStrategy,
                                  int neighborhoodSize) {
-    super(dataModel, similarity, candidateItemsStrategy, mostSimilarItemsCandidateItemsStrategy);
-    this.optimizer = optimizer;
-    this.neighborhoodSize = neighborhoodSize;
+    this(dataModel, similarity, optimizer, candidateItemsStrategy, mostSimilarItemsCandidateItemsStrategy,
+        neighborhoodSize, 0, null);
   }
 
   public KnnItemBasedRecommender(DataModel dataModel,
@@ -66,6 +92,51 @@ public final class KnnItemBasedRecommender extends GenericItemBasedRecommender {
     this(dataModel, similarity, optimizer, getDefaultCandidateItemsStrategy(),
         getDefaultMostSimilarItemsCandidateItemsStrategy(), neighborhoodSize);
   }
+
+  /**
+   * @param maxCachedInterpolations
+   *          maximum number of neighborhoods to cache interpolation weights for, or 0 to not cache them
+   * @param executor
+   *          executor to score candidate items on in parallel, or {@code null} to score them on the caller's
+   *          thread
+   */
+  public KnnItemBasedRecommender(DataModel dataModel,
+                                 ItemSimilarity similarity,
+                                 Optimizer optimizer,
+                                 CandidateItemsStrategy candidateItemsStrategy,
+                                 MostSimilarItemsCandidateItemsStrategy mostSimilarItemsCandidateItemsStrategy,
+                                 int neighborhoodSize,
+                                 int maxCachedInterpolations,
+                                 ExecutorService executor) {
+    super(dataModel, similarity, candidateItemsStrategy, mostSimilarItemsCandidateItemsStrategy);
+    Preconditions.checkArgument(maxCachedInterpolations >= 0, "maxCachedInterpolations must be non-negative");
+    this.optimizer = optimizer;
+    this.neighborhoodSize = neighborhoodSize;
+    this.executor = executor;
+    this.workspaces = new ThreadLocal<Workspace>() {
+      @Override
+      protected Workspace initialValue() {
+        return new Workspace();
+      }
+    };
+    if (maxCachedInterpolations > 0) {
+      interpolationCache = new Cache<Neighborhood,double[]>(new Retriever<Neighborhood,double[]>() {
+        @Override
+        public double[] get(Neighborhood key) throws TasteException {
+          return getInterpolations(key.userID, key.itemIDs);
+        }
+      }, maxCachedInterpolations);
+      // dependencies are refreshed in order, so this runs after the data model and similarity were refreshed
+      getRefreshHelper().addDependency(new Refreshable() {
+        @Override
+        public void refresh(Collection<Refreshable> alreadyRefreshed) {
+          interpolationCache.clear();
+        }
+      });
+    } else {
+      interpolationCache = null;
+    }
+  }
   
   private List<RecommendedItem> mostSimilarItems(long itemID,
                                                  LongPrimitiveIterator possibleItemIDs,
@@ -74,73 +145,108 @@ public final class KnnItemBasedRecommender extends GenericItemBasedRecommender {
     TopItems.Estimator<Long> estimator = new MostSimilarEstimator(itemID, getSimilarity(), rescorer);
     return TopItems.getTopItems(howMany, possibleItemIDs, null, estimator);
   }
-  
-  private double[] getInterpolations(long itemID, 
-                                     long[] itemNeighborhood,
-                                     Collection<Long> usersRatedNeighborhood) throws TasteException {
-    
-    int length = 0;
-    for (int i = 0; i < itemNeighborhood.length; i++) {
-      if (itemNeighborhood[i] == itemID) {
-        itemNeighborhood[i] = -1;
-        length = itemNeighborhood.length - 1;
-        break;
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
+    if (executor == null) {
+      return super.recommend(userID, howMany, rescorer);
+    }
+    Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
+
+    final PreferenceArray preferencesFromUser = getDataModel().getPreferencesFromUser(userID);
+    if (preferencesFromUser.length() == 0) {
+      return Collections.emptyList();
+    }
+    FastIDSet possibleItemIDs = getAllOtherItems(userID, preferencesFromUser);
+    final TopItems.Estimator<Long> estimator = new Estimator(userID, preferencesFromUser);
+
+    int numPartitions = Math.min(Runtime.getRuntime().availableProcessors(),
+                                 possibleItemIDs.size() / MIN_CANDIDATES_PER_PARTITION);
+    if (numPartitions <= 1) {
+      return TopItems.getTopItems(howMany, possibleItemIDs, rescorer, estimator);
+    }
+    FastIDSet[] partitions = new FastIDSet[numPartitions];
+    for (int i = 0; i < numPartitions; i++) {
+      partitions[i] = new FastIDSet(possibleItemIDs.size() / numPartitions + 1);
+    }
+    LongPrimitiveIterator it = possibleItemIDs.iterator();
+    for (int i = 0; it.hasNext(); i++) {
+      partitions[i % numPartitions].add(it.nextLong());
+    }
+
+    List<Callable<List<RecommendedItem>>> callables = Lists.newArrayListWithCapacity(numPartitions);
+    for (final FastIDSet partition : partitions) {
+      final int theHowMany = howMany;
+      final IDRescorer theRescorer = rescorer;
+      callables.add(new Callable<List<RecommendedItem>>() {
+        @Override
+        public List<RecommendedItem> call() throws TasteException {
+          return TopItems.getTopItems(theHowMany, partition, theRescorer, estimator);
+        }
+      });
+    }
+
+    List<RecommendedItem> topItems = Lists.newArrayList();
+    try {
+      for (Future<List<RecommendedItem>> future : executor.invokeAll(callables)) {
+        topItems.addAll(future.get());
       }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      throw new TasteException(ee.getCause());
     }
+    Collections.sort(topItems, ByValueRecommendedItemComparator.getInstance());
+    return topItems.size() > howMany ? Lists.newArrayList(topItems.subList(0, howMany)) : topItems;
+  }
+  
+  /**
+   * @param theUserID
+   *          user whose own preferences must not be used
+   * @param itemNeighborhood
+   *          the neighbors, followed by the item to compute weights for
+   */
+  private double[] getInterpolations(long theUserID, long[] itemNeighborhood) throws TasteException {
     
-    int k = length;
-    double[][] aMatrix = new double[k][k];
-    double[] b = new double[k];
-    int i = 0;
-    
-    DataModel dataModel = getDataModel();
+    int k = itemNeighborhood.length - 1;
+    Workspace workspace = workspaces.get();
+    float[][] values = workspace.getValues(k + 1, itemNeighborhood, theUserID, getDataModel());
+    int numUsers = workspace.numUsers;
+
+    double[][] aMatrix = workspace.getMatrix(k);
+    double[] b = workspace.getVector(k);
     
-    int numUsers = usersRatedNeighborhood.size();
-    for (long iitem : itemNeighborhood) {
-      if (iitem == -1) {
-        break;
-      }
-      int j = 0;
+    for (int i = 0; i < k; i++) {
+      float[] valuesI = values[i];
       double value = 0.0;
-      for (long jitem : itemNeighborhood) {
-        if (jitem == -1) {
-          continue;
-        }
-        for (long user : usersRatedNeighborhood) {
-          float prefVJ = dataModel.getPreferenceValue(user, iitem);
-          float prefVK = dataModel.getPreferenceValue(user, jitem);
-          value += prefVJ * prefVK;
+      for (int j = 0; j < k; j++) {
+        float[] valuesJ = values[j];
+        for (int user = 0; user < numUsers; user++) {
+          value += valuesI[user] * valuesJ[user];
         }
         aMatrix[i][j] = value / numUsers;
-        j++;
       }
-      i++;
     }
     
-    i = 0;
-    for (long jitem : itemNeighborhood) {
-      if (jitem == -1) {
-        break;
-      }
+    float[] valuesItem = values[k];
+    for (int i = 0; i < k; i++) {
+      float[] valuesI = values[i];
       double value = 0.0;
-      for (long user : usersRatedNeighborhood) {
-        float prefVJ = dataModel.getPreferenceValue(user, jitem);
-        float prefVI = dataModel.getPreferenceValue(user, itemID);
-        value += prefVJ * prefVI;
+      for (int user = 0; user < numUsers; user++) {
+        value += valuesI[user] * valuesItem[user];
       }
       b[i] = value / numUsers;
-      i++;
     }
     
     // Find the larger diagonal and calculate the average
     double avgDiagonal = 0.0;
     if (k > 1) {
       double diagonalA = 0.0;
-      for (i = 0; i < k; i++) {
+      for (int i = 0; i < k; i++) {
         diagonalA += aMatrix[i][i];
       }
       double diagonalB = 0.0;
-      for (i = k - 1; i >= 0; i--) {
+      for (int i = k - 1; i >= 0; i--) {
         for (int j = 0; j < k; j++) {
           diagonalB += aMatrix[i--][j];
         }
@@ -150,7 +256,7 @@ public final class KnnItemBasedRecommender extends GenericItemBasedRecommender {
     // Calculate the average of non-diagonal values
     double avgMatrixA = 0.0;
     double avgVectorB = 0.0;
-    for (i = 0; i < k; i++) {
+    for (int i = 0; i < k; i++) {
       for (int j = 0; j < k; j++) {
         if (i != j || k <= 1) {
           avgMatrixA += aMatrix[i][j];
@@ -164,7 +270,7 @@ public final class KnnItemBasedRecommender extends GenericItemBasedRecommender {
     avgVectorB /= k;
 
     double numUsersPlusBeta = numUsers + BETA;
-    for (i = 0; i < k; i++) {
+    for (int i = 0; i < k; i++) {
       for (int j = 0; j < k; j++) {
         double average;
         if (i == j && k > 1) {
@@ -190,62 +296,164 @@ public final class KnnItemBasedRecommender extends GenericItemBasedRecommender {
     for (int i = 0; i < size; i++) {
       possibleItemIDs.add(preferencesFromUser.getItemID(i));
     }
-    possibleItemIDs.remove(itemID);
+    boolean ratedByUser = possibleItemIDs.remove(itemID);
     
     List<RecommendedItem> mostSimilar = mostSimilarItems(itemID, possibleItemIDs.iterator(),
       neighborhoodSize, null);
-    long[] theNeighborhood = new long[mostSimilar.size() + 1];
-    theNeighborhood[0] = -1;
-  
-    List<Long> usersRatedNeighborhood = new ArrayList<Long>();
-    int nOffset = 0;
-    for (RecommendedItem rec : mostSimilar) {
-      theNeighborhood[nOffset++] = rec.getItemID();
+    if (mostSimilar.isEmpty()) {
+      return Float.NaN;
     }
-    
-    if (!mostSimilar.isEmpty()) {
-      theNeighborhood[mostSimilar.size()] = itemID;
-      for (int i = 0; i < theNeighborhood.length; i++) {
-        PreferenceArray usersNeighborhood = dataModel.getPreferencesForItem(theNeighborhood[i]);
-        int size1 = usersRatedNeighborhood.isEmpty() ? usersNeighborhood.length() : usersRatedNeighborhood.size();
-        for (int j = 0; j < size1; j++) {
-          if (i == 0) {
-            usersRatedNeighborhood.add(usersNeighborhood.getUserID(j));
-          } else {
-            if (j >= usersRatedNeighborhood.size()) {
-              break;
-            }
-            long index = usersRatedNeighborhood.get(j);
-            if (!usersNeighborhood.hasPrefWithUserID(index) || index == theUserID) {
-              usersRatedNeighborhood.remove(index);
-              j--;
-            }
-          }
-        }
-      }
+
+    int k = mostSimilar.size();
+    long[] theNeighborhood = new long[k + 1];
+    for (int i = 0; i < k; i++) {
+      theNeighborhood[i] = mostSimilar.get(i).getItemID();
     }
+    theNeighborhood[k] = itemID;
 
-    double[] weights = null;
-    if (!mostSimilar.isEmpty()) {
-      weights = getInterpolations(itemID, theNeighborhood, usersRatedNeighborhood);
+    double[] weights;
+    if (interpolationCache == null || ratedByUser) {
+      weights = getInterpolations(theUserID, theNeighborhood);
+    } else {
+      weights = interpolationCache.get(new Neighborhood(theUserID, theNeighborhood));
     }
     
-    int i = 0;
     double preference = 0.0;
     double totalSimilarity = 0.0;
-    for (long jitem : theNeighborhood) {
-      
-      Float pref = dataModel.getPreferenceValue(theUserID, jitem);
-      
+    for (int i = 0; i < k; i++) {
+      Float pref = dataModel.getPreferenceValue(theUserID, theNeighborhood[i]);
       if (pref != null) {
         double weight = weights[i];
         preference += pref * weight;
         totalSimilarity += weight;
       }
-      i++;
-      
     }
     return totalSimilarity == 0.0 ? Float.NaN : (float) (preference / totalSimilarity);
   }
+
+  private final class Estimator implements TopItems.Estimator<Long> {
+
+    private final long userID;
+    private final PreferenceArray preferencesFromUser;
+
+    private Estimator(long userID, PreferenceArray preferencesFromUser) {
+      this.userID = userID;
+      this.preferencesFromUser = preferencesFromUser;
+    }
+
+    @Override
+    public double estimate(Long itemID) throws TasteException {
+      return doEstimatePreference(userID, preferencesFromUser, itemID);
+    }
+  }
+
+  /**
+   * Cache key for interpolation weights. The user is only carried along to compute the weights; it takes no
+   * part in equality, as only users who did not rate the item use the cache, and those don't affect them.
+   */
+  private static final class Neighborhood {
+
+    private final long userID;
+    private final long[] itemIDs;
+    private final int hashCode;
+
+    private Neighborhood(long userID, long[] itemIDs) {
+      this.userID = userID;
+      this.itemIDs = itemIDs;
+      this.hashCode = Arrays.hashCode(itemIDs);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Neighborhood && Arrays.equals(itemIDs, ((Neighborhood) o).itemIDs);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  /** Per-thread scratch space, so that computing weights doesn't allocate matrices or maps for every estimate. */
+  private static final class Workspace {
+
+    private double[][][] matrices = new double[0][][];
+    private double[][] vectors = new double[0][];
+    private float[][] values = new float[0][];
+    private int[] itemCounts = new int[0];
+    private final FastByIDMap<Integer> userIndices = new FastByIDMap<Integer>();
+    private Integer[] boxedIndices = new Integer[0];
+    private int numUsers;
+
+    private double[][] getMatrix(int k) {
+      if (k >= matrices.length) {
+        matrices = Arrays.copyOf(matrices, k + 1);
+      }
+      if (matrices[k] == null) {
+        matrices[k] = new double[k][k];
+      }
+      return matrices[k];
+    }
+
+    private double[] getVector(int k) {
+      if (k >= vectors.length) {
+        vectors = Arrays.copyOf(vectors, k + 1);
+      }
+      if (vectors[k] == null) {
+        vectors[k] = new double[k];
+      }
+      return vectors[k];
+    }
+
+    /**
+     * Collects the preference values of the users who rated all given items, except {@code theUserID}, into
+     * one row per item, in the order the users rated the first item, and sets {@link #numUsers}.
+     */
+    private float[][] getValues(int numItems, long[] itemIDs, long theUserID, DataModel dataModel)
+      throws TasteException {
+      PreferenceArray firstItemPrefs = dataModel.getPreferencesForItem(itemIDs[0]);
+      int length = firstItemPrefs.length();
+      if (numItems > values.length || length > itemCounts.length) {
+        itemCounts = new int[Math.max(length, itemCounts.length)];
+        values = new float[Math.max(numItems, values.length)][itemCounts.length];
+      }
+      if (length > boxedIndices.length) {
+        int oldLength = boxedIndices.length;
+        boxedIndices = Arrays.copyOf(boxedIndices, length);
+        for (int user = oldLength; user < length; user++) {
+          boxedIndices[user] = user;
+        }
+      }
+      userIndices.clear();
+      for (int user = 0; user < length; user++) {
+        userIndices.put(firstItemPrefs.getUserID(user), boxedIndices[user]);
+        values[0][user] = firstItemPrefs.getValue(user);
+        itemCounts[user] = 1;
+      }
+      for (int i = 1; i < numItems; i++) {
+        PreferenceArray itemPrefs = dataModel.getPreferencesForItem(itemIDs[i]);
+        int itemLength = itemPrefs.length();
+        float[] itemValues = values[i];
+        for (int j = 0; j < itemLength; j++) {
+          Integer user = userIndices.get(itemPrefs.getUserID(j));
+          if (user != null) {
+            itemValues[user] = itemPrefs.getValue(j);
+            itemCounts[user]++;
+          }
+        }
+      }
+      // compact the users who rated all items to the front
+      numUsers = 0;
+      for (int user = 0; user < length; user++) {
+        if (itemCounts[user] == numItems && firstItemPrefs.getUserID(user) != theUserID) {
+          for (int i = 0; i < numItems; i++) {
+            values[i][numUsers] = values[i][user];
+          }
+          numUsers++;
+        }
+      }
+      return values;
+    }
+  }
   
 }
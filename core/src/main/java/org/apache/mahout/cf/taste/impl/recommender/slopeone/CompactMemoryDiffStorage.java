@@ -0,0 +1,620 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.slopeone;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
+import org.apache.mahout.cf.taste.impl.common.FullRunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.slopeone.DiffStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * An implementation of {@link DiffStorage} that, like {@link MemoryDiffStorage}, keeps all diffs in memory,
+ * but packs them into primitive arrays instead of a map of {@link RunningAverage} objects. Items are
+ * numbered by their position in the sorted array of all item IDs. For each item there is one row holding,
+ * for every item with a greater index, the number of co-ratings, the average diff and, if standard deviation
+ * weighting is used, the sum of squared deviations. With the other item's index, a diff costs 12 or 16 bytes
+ * this way.
+ * </p>
+ *
+ * <p>
+ * Rows are guarded by a fixed set of striped locks, so incremental updates to different items don't
+ * contend. {@code maxDiffsPerItem} bounds memory by keeping, per row, only the diffs backed by the most
+ * co-ratings. Items that are not in the {@link DataModel} when the diffs are built are ignored by the
+ * incremental update methods until the next {@link #refresh(Collection)}, which rebuilds all diffs off to
+ * the side and swaps them in.
+ * </p>
+ */
+public final class CompactMemoryDiffStorage implements DiffStorage {
+
+  private static final Logger log = LoggerFactory.getLogger(CompactMemoryDiffStorage.class);
+
+  private static final int NUM_STRIPES = 64;
+
+  private final DataModel dataModel;
+  private final boolean stdDevWeighted;
+  private final int maxDiffsPerItem;
+  private final ReadWriteLock[] stripes;
+  private volatile Diffs diffs;
+  private final RefreshHelper refreshHelper;
+
+  public CompactMemoryDiffStorage(DataModel dataModel, Weighting stdDevWeighted) throws TasteException {
+    this(dataModel, stdDevWeighted, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @param stdDevWeighted
+   *          see {@link SlopeOneRecommender}
+   * @param maxDiffsPerItem
+   *          maximum number of diffs to keep per item; those with the most co-ratings are kept
+   * @throws IllegalArgumentException
+   *           if {@code maxDiffsPerItem} is not positive or {@code dataModel} is null
+   */
+  public CompactMemoryDiffStorage(DataModel dataModel,
+                                  Weighting stdDevWeighted,
+                                  int maxDiffsPerItem) throws TasteException {
+    Preconditions.checkArgument(dataModel != null, "dataModel is null");
+    Preconditions.checkArgument(dataModel.getNumItems() >= 1, "dataModel has no items");
+    Preconditions.checkArgument(maxDiffsPerItem > 0, "maxDiffsPerItem must be positive");
+    this.dataModel = dataModel;
+    this.stdDevWeighted = stdDevWeighted == Weighting.WEIGHTED;
+    this.maxDiffsPerItem = maxDiffsPerItem;
+    this.stripes = new ReadWriteLock[NUM_STRIPES];
+    for (int i = 0; i < NUM_STRIPES; i++) {
+      stripes[i] = new ReentrantReadWriteLock();
+    }
+    this.refreshHelper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() throws TasteException {
+        diffs = buildDiffs();
+        return null;
+      }
+    });
+    refreshHelper.addDependency(dataModel);
+    diffs = buildDiffs();
+  }
+
+  @Override
+  public RunningAverage getDiff(long itemID1, long itemID2) {
+    if (itemID1 == itemID2) {
+      return null;
+    }
+    boolean inverted = itemID1 > itemID2;
+    Diffs theDiffs = diffs;
+    int index1 = theDiffs.indexOf(inverted ? itemID2 : itemID1);
+    int index2 = theDiffs.indexOf(inverted ? itemID1 : itemID2);
+    if (index1 < 0 || index2 < 0) {
+      return null;
+    }
+    RunningAverage average;
+    ReadWriteLock lock = stripeFor(index1);
+    lock.readLock().lock();
+    try {
+      int slot = Arrays.binarySearch(theDiffs.others[index1], index2);
+      if (slot < 0 || theDiffs.counts[index1][slot] == 0) {
+        return null;
+      }
+      average = theDiffs.toRunningAverage(index1, slot);
+    } finally {
+      lock.readLock().unlock();
+    }
+    return inverted ? average.inverse() : average;
+  }
+
+  @Override
+  public RunningAverage[] getDiffs(long userID, long itemID, PreferenceArray prefs) {
+    int size = prefs.length();
+    RunningAverage[] result = new RunningAverage[size];
+    for (int i = 0; i < size; i++) {
+      result[i] = getDiff(prefs.getItemID(i), itemID);
+    }
+    return result;
+  }
+
+  @Override
+  public RunningAverage getAverageItemPref(long itemID) {
+    Diffs theDiffs = diffs;
+    int index = theDiffs.indexOf(itemID);
+    if (index < 0) {
+      return null;
+    }
+    ReadWriteLock lock = stripeFor(index);
+    lock.readLock().lock();
+    try {
+      int count = theDiffs.itemPrefCounts[index];
+      return count == 0 ? null : new FullRunningAverage(count, theDiffs.itemPrefAverages[index]);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void addItemPref(long userID, long itemIDA, float prefValue) throws TasteException {
+    PreferenceArray userPreferences = dataModel.getPreferencesFromUser(userID);
+    Diffs theDiffs = diffs;
+    int indexA = theDiffs.indexOf(itemIDA);
+    if (indexA < 0) {
+      log.debug("Item {} is not known yet, ignoring its new preference until the next refresh", itemIDA);
+      return;
+    }
+    int length = userPreferences.length();
+    for (int i = 0; i < length; i++) {
+      int indexB = theDiffs.indexOf(userPreferences.getItemID(i));
+      if (indexB < 0 || indexB == indexA) {
+        continue;
+      }
+      float bValue = userPreferences.getValue(i);
+      if (indexA < indexB) {
+        addDatum(theDiffs, indexA, indexB, bValue - prefValue);
+      } else {
+        addDatum(theDiffs, indexB, indexA, prefValue - bValue);
+      }
+    }
+    ReadWriteLock lock = stripeFor(indexA);
+    lock.writeLock().lock();
+    try {
+      int count = ++theDiffs.itemPrefCounts[indexA];
+      theDiffs.itemPrefAverages[indexA] = count == 1
+          ? prefValue
+          : (float) (theDiffs.itemPrefAverages[indexA] + (prefValue - theDiffs.itemPrefAverages[indexA]) / count);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void updateItemPref(long itemID, float prefDelta) {
+    if (stdDevWeighted) {
+      throw new UnsupportedOperationException("Can't update only when stdDevWeighted is set");
+    }
+    Diffs theDiffs = diffs;
+    int index = theDiffs.indexOf(itemID);
+    if (index < 0) {
+      return;
+    }
+    for (int row = 0; row <= index; row++) {
+      ReadWriteLock lock = stripeFor(row);
+      lock.writeLock().lock();
+      try {
+        int[] counts = theDiffs.counts[row];
+        float[] averages = theDiffs.averages[row];
+        if (row == index) {
+          // the item is the first one of all pairs in its own row
+          for (int slot = 0; slot < counts.length; slot++) {
+            if (counts[slot] > 0) {
+              averages[slot] -= prefDelta / counts[slot];
+            }
+          }
+          if (theDiffs.itemPrefCounts[index] > 0) {
+            theDiffs.itemPrefAverages[index] += prefDelta / theDiffs.itemPrefCounts[index];
+          }
+        } else {
+          int slot = Arrays.binarySearch(theDiffs.others[row], index);
+          if (slot >= 0 && counts[slot] > 0) {
+            averages[slot] += prefDelta / counts[slot];
+          }
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+
+  @Override
+  public void removeItemPref(long userID, long itemIDA, float prefValue) throws TasteException {
+    PreferenceArray userPreferences = dataModel.getPreferencesFromUser(userID);
+    Diffs theDiffs = diffs;
+    int indexA = theDiffs.indexOf(itemIDA);
+    if (indexA < 0) {
+      return;
+    }
+    int length = userPreferences.length();
+    for (int i = 0; i < length; i++) {
+      int indexB = theDiffs.indexOf(userPreferences.getItemID(i));
+      if (indexB < 0 || indexB == indexA) {
+        continue;
+      }
+      float bValue = userPreferences.getValue(i);
+      if (indexA < indexB) {
+        removeDatum(theDiffs, indexA, indexB, bValue - prefValue);
+      } else {
+        removeDatum(theDiffs, indexB, indexA, prefValue - bValue);
+      }
+    }
+    ReadWriteLock lock = stripeFor(indexA);
+    lock.writeLock().lock();
+    try {
+      int count = theDiffs.itemPrefCounts[indexA];
+      if (count > 0) {
+        theDiffs.itemPrefCounts[indexA] = --count;
+        theDiffs.itemPrefAverages[indexA] = count == 0
+            ? 0.0f
+            : (float) ((theDiffs.itemPrefAverages[indexA] * (count + 1.0) - prefValue) / count);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public FastIDSet getRecommendableItemIDs(long userID) throws TasteException {
+    FastIDSet recommendableItemIDs = diffs.recommendableItemIDs;
+    FastIDSet result;
+    synchronized (recommendableItemIDs) {
+      result = recommendableItemIDs.clone();
+    }
+    Iterator<Long> it = result.iterator();
+    while (it.hasNext()) {
+      if (dataModel.getPreferenceValue(userID, it.next()) != null) {
+        it.remove();
+      }
+    }
+    return result;
+  }
+
+  private ReadWriteLock stripeFor(int index) {
+    return stripes[index % NUM_STRIPES];
+  }
+
+  private void addDatum(Diffs theDiffs, int row, int other, double datum) {
+    ReadWriteLock lock = stripeFor(row);
+    lock.writeLock().lock();
+    try {
+      int slot = Arrays.binarySearch(theDiffs.others[row], other);
+      if (slot < 0) {
+        if (theDiffs.others[row].length < maxDiffsPerItem) {
+          slot = -slot - 1;
+          theDiffs.insertSlot(row, slot, other);
+        } else {
+          // the row is full, but a slot whose diff was removed can be taken over
+          int unused = theDiffs.unusedSlot(row);
+          if (unused < 0) {
+            return;
+          }
+          slot = theDiffs.moveSlot(row, unused, -slot - 1, other);
+        }
+      }
+      int count = ++theDiffs.counts[row][slot];
+      if (count == 1) {
+        synchronized (theDiffs.recommendableItemIDs) {
+          theDiffs.recommendableItemIDs.add(theDiffs.itemIDs[row]);
+          theDiffs.recommendableItemIDs.add(theDiffs.itemIDs[other]);
+        }
+        theDiffs.averages[row][slot] = (float) datum;
+        if (theDiffs.sks != null) {
+          theDiffs.sks[row][slot] = 0.0f;
+        }
+      } else {
+        double oldAverage = theDiffs.averages[row][slot];
+        double average = oldAverage + (datum - oldAverage) / count;
+        theDiffs.averages[row][slot] = (float) average;
+        if (theDiffs.sks != null) {
+          theDiffs.sks[row][slot] += (float) ((datum - oldAverage) * (datum - average));
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void removeDatum(Diffs theDiffs, int row, int other, double datum) {
+    ReadWriteLock lock = stripeFor(row);
+    lock.writeLock().lock();
+    try {
+      int slot = Arrays.binarySearch(theDiffs.others[row], other);
+      if (slot < 0) {
+        return;
+      }
+      int oldCount = theDiffs.counts[row][slot];
+      if (oldCount <= 1) {
+        // leave the slot in place but mark it as unused
+        theDiffs.counts[row][slot] = 0;
+        return;
+      }
+      int count = oldCount - 1;
+      double oldAverage = theDiffs.averages[row][slot];
+      double average = (oldAverage * oldCount - datum) / count;
+      theDiffs.counts[row][slot] = count;
+      theDiffs.averages[row][slot] = (float) average;
+      if (theDiffs.sks != null) {
+        theDiffs.sks[row][slot] -= (float) ((datum - average) * (datum - oldAverage));
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private Diffs buildDiffs() throws TasteException {
+    log.info("Building compact average diffs...");
+
+    int numItems = dataModel.getNumItems();
+    long[] itemIDs = new long[numItems];
+    LongPrimitiveIterator itemIDsIterator = dataModel.getItemIDs();
+    for (int i = 0; i < numItems; i++) {
+      itemIDs[i] = itemIDsIterator.nextLong();
+    }
+    Arrays.sort(itemIDs);
+
+    // each user's preferences as (item index, value) pairs packed into longs, sorted by item index
+    FastByIDMap<long[]> indexedUserPrefs = new FastByIDMap<long[]>(dataModel.getNumUsers());
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+      int length = prefs.length();
+      long[] packed = new long[length];
+      for (int i = 0; i < length; i++) {
+        int index = Arrays.binarySearch(itemIDs, prefs.getItemID(i));
+        packed[i] = pack(index, prefs.getValue(i));
+      }
+      Arrays.sort(packed);
+      indexedUserPrefs.put(userID, packed);
+    }
+
+    Diffs newDiffs = new Diffs(itemIDs, stdDevWeighted);
+    int[] scratchCounts = new int[numItems];
+    double[] scratchAverages = new double[numItems];
+    double[] scratchSks = new double[numItems];
+    int[] touched = new int[numItems];
+    FastIDSet recommendableItemIDs = new FastIDSet(numItems);
+
+    for (int row = 0; row < numItems; row++) {
+      PreferenceArray itemPrefs = dataModel.getPreferencesForItem(itemIDs[row]);
+      int numPrefs = itemPrefs.length();
+      int numTouched = 0;
+      double itemPrefAverage = 0.0;
+      for (int i = 0; i < numPrefs; i++) {
+        float rowValue = itemPrefs.getValue(i);
+        itemPrefAverage += (rowValue - itemPrefAverage) / (i + 1);
+        long[] packed = indexedUserPrefs.get(itemPrefs.getUserID(i));
+        // everything from the first entry of the next index on belongs to an item with a greater index
+        int next = Arrays.binarySearch(packed, (long) (row + 1) << 32);
+        int start = next >= 0 ? next : -next - 1;
+        for (int j = start; j < packed.length; j++) {
+          int other = (int) (packed[j] >>> 32);
+          double datum = Float.intBitsToFloat((int) packed[j]) - rowValue;
+          int count = ++scratchCounts[other];
+          if (count == 1) {
+            touched[numTouched++] = other;
+            scratchAverages[other] = datum;
+            scratchSks[other] = 0.0;
+          } else {
+            double oldAverage = scratchAverages[other];
+            double average = oldAverage + (datum - oldAverage) / count;
+            scratchAverages[other] = average;
+            scratchSks[other] += (datum - oldAverage) * (datum - average);
+          }
+        }
+      }
+      newDiffs.itemPrefCounts[row] = numPrefs;
+      newDiffs.itemPrefAverages[row] = (float) itemPrefAverage;
+
+      // drop diffs backed by a single co-rating, which are possibly unreliable, then keep the best supported
+      int numKept = 0;
+      for (int i = 0; i < numTouched; i++) {
+        if (scratchCounts[touched[i]] > 1) {
+          touched[numKept++] = touched[i];
+        } else {
+          scratchCounts[touched[i]] = 0;
+        }
+      }
+      if (numKept > maxDiffsPerItem) {
+        numKept = keepMostSupported(touched, numKept, scratchCounts);
+      }
+      Arrays.sort(touched, 0, numKept);
+
+      int[] others = Arrays.copyOf(touched, numKept);
+      int[] counts = new int[numKept];
+      float[] averages = new float[numKept];
+      float[] sks = stdDevWeighted ? new float[numKept] : null;
+      for (int slot = 0; slot < numKept; slot++) {
+        int other = others[slot];
+        counts[slot] = scratchCounts[other];
+        averages[slot] = (float) scratchAverages[other];
+        if (sks != null) {
+          sks[slot] = (float) scratchSks[other];
+        }
+        scratchCounts[other] = 0;
+        recommendableItemIDs.add(itemIDs[other]);
+      }
+      if (numKept > 0) {
+        recommendableItemIDs.add(itemIDs[row]);
+      }
+      newDiffs.others[row] = others;
+      newDiffs.counts[row] = counts;
+      newDiffs.averages[row] = averages;
+      if (sks != null) {
+        newDiffs.sks[row] = sks;
+      }
+    }
+
+    recommendableItemIDs.rehash();
+    newDiffs.recommendableItemIDs = recommendableItemIDs;
+    return newDiffs;
+  }
+
+  /**
+   * Moves the {@code maxDiffsPerItem} item indices with the greatest counts to the front of
+   * {@code indices} and resets the counts of the others.
+   */
+  private int keepMostSupported(int[] indices, int length, int[] counts) {
+    // sort by count descending, then index ascending, via packed longs
+    long[] byCount = new long[length];
+    for (int i = 0; i < length; i++) {
+      byCount[i] = ((long) (Integer.MAX_VALUE - counts[indices[i]]) << 32) | indices[i];
+    }
+    Arrays.sort(byCount);
+    for (int i = 0; i < length; i++) {
+      int index = (int) byCount[i];
+      if (i < maxDiffsPerItem) {
+        indices[i] = index;
+      } else {
+        counts[index] = 0;
+      }
+    }
+    return maxDiffsPerItem;
+  }
+
+  private static long pack(int index, float value) {
+    return ((long) index << 32) | (Float.floatToRawIntBits(value) & 0xFFFFFFFFL);
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  /**
+   * @return helper used to {@link #refresh(Collection)} the diffs; set an executor on it to rebuild them in the
+   *  background, or query it for refresh duration and staleness
+   */
+  public RefreshHelper getRefreshHelper() {
+    return refreshHelper;
+  }
+
+  @Override
+  public String toString() {
+    return "CompactMemoryDiffStorage";
+  }
+
+  /** All diffs, as built by one refresh. Rows are only read or written under their stripe's lock. */
+  private static final class Diffs {
+
+    private final long[] itemIDs;
+    private final int[][] others;
+    private final int[][] counts;
+    private final float[][] averages;
+    private final float[][] sks;
+    private final int[] itemPrefCounts;
+    private final float[] itemPrefAverages;
+    // items with diffs; guarded by its own lock, as updates to different rows may add to it
+    private FastIDSet recommendableItemIDs;
+
+    private Diffs(long[] itemIDs, boolean stdDevWeighted) {
+      int numItems = itemIDs.length;
+      this.itemIDs = itemIDs;
+      others = new int[numItems][];
+      counts = new int[numItems][];
+      averages = new float[numItems][];
+      sks = stdDevWeighted ? new float[numItems][] : null;
+      itemPrefCounts = new int[numItems];
+      itemPrefAverages = new float[numItems];
+    }
+
+    private int indexOf(long itemID) {
+      int index = Arrays.binarySearch(itemIDs, itemID);
+      return index < 0 ? -1 : index;
+    }
+
+    private RunningAverage toRunningAverage(int row, int slot) {
+      int count = counts[row][slot];
+      double average = averages[row][slot];
+      if (sks == null) {
+        return new FullRunningAverage(count, average);
+      }
+      return new FullRunningAverageAndStdDev(count, average, average, sks[row][slot]);
+    }
+
+    private void insertSlot(int row, int slot, int other) {
+      others[row] = insert(others[row], slot, other);
+      counts[row] = insert(counts[row], slot, 0);
+      averages[row] = insert(averages[row], slot);
+      if (sks != null) {
+        sks[row] = insert(sks[row], slot);
+      }
+    }
+
+    /** @return a slot of the row whose count dropped to 0, or -1 if there is none */
+    private int unusedSlot(int row) {
+      int[] rowCounts = counts[row];
+      for (int slot = 0; slot < rowCounts.length; slot++) {
+        if (rowCounts[slot] == 0) {
+          return slot;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Reuses the unused slot {@code from} for another item, which belongs before {@code to}, shifting the slots
+     * between them to keep the row sorted.
+     *
+     * @return slot of the other item
+     */
+    private int moveSlot(int row, int from, int to, int other) {
+      int slot = from < to ? to - 1 : to;
+      if (from < slot) {
+        shift(row, from + 1, from, slot - from);
+      } else if (slot < from) {
+        shift(row, slot, slot + 1, from - slot);
+      }
+      others[row][slot] = other;
+      counts[row][slot] = 0;
+      averages[row][slot] = 0.0f;
+      if (sks != null) {
+        sks[row][slot] = 0.0f;
+      }
+      return slot;
+    }
+
+    private void shift(int row, int from, int to, int length) {
+      System.arraycopy(others[row], from, others[row], to, length);
+      System.arraycopy(counts[row], from, counts[row], to, length);
+      System.arraycopy(averages[row], from, averages[row], to, length);
+      if (sks != null) {
+        System.arraycopy(sks[row], from, sks[row], to, length);
+      }
+    }
+
+    private static int[] insert(int[] array, int slot, int value) {
+      int[] result = new int[array.length + 1];
+      System.arraycopy(array, 0, result, 0, slot);
+      result[slot] = value;
+      System.arraycopy(array, slot, result, slot + 1, array.length - slot);
+      return result;
+    }
+
+    private static float[] insert(float[] array, int slot) {
+      float[] result = new float[array.length + 1];
+      System.arraycopy(array, 0, result, 0, slot);
+      System.arraycopy(array, slot, result, slot + 1, array.length - slot);
+      return result;
+    }
+
+  }
+
+}
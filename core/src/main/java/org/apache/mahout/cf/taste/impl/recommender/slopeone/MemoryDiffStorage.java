@@ -55,9 +55,9 @@ public final class MemoryDiffStorage implements DiffStorage {
   private final DataModel dataModel;
   private final boolean stdDevWeighted;
   private final long maxEntries;
-  private final FastByIDMap<FastByIDMap<RunningAverage>> averageDiffs;
-  private final FastByIDMap<RunningAverage> averageItemPref;
-  private final FastIDSet allRecommendableItemIDs;
+  private volatile FastByIDMap<FastByIDMap<RunningAverage>> averageDiffs;
+  private volatile FastByIDMap<RunningAverage> averageItemPref;
+  private volatile FastIDSet allRecommendableItemIDs;
   private final ReadWriteLock buildAverageDiffsLock;
   private final RefreshHelper refreshHelper;
   
@@ -91,10 +91,7 @@ public final class MemoryDiffStorage implements DiffStorage {
     this.dataModel = dataModel;
     this.stdDevWeighted = stdDevWeighted == Weighting.WEIGHTED;
     this.maxEntries = maxEntries;
-    this.averageDiffs = new FastByIDMap<FastByIDMap<RunningAverage>>();
-    this.averageItemPref = new FastByIDMap<RunningAverage>();
     this.buildAverageDiffsLock = new ReentrantReadWriteLock();
-    this.allRecommendableItemIDs = new FastIDSet(dataModel.getNumItems());
     this.refreshHelper = new RefreshHelper(new Callable<Object>() {
       @Override
       public Object call() throws TasteException {
@@ -292,26 +289,35 @@ public final class MemoryDiffStorage implements DiffStorage {
     return result;
   }
   
+  /**
+   * Builds the diffs into new maps without holding any lock, so readers keep using the current diffs in the
+   * meantime, and then swaps them in. Incremental updates made while the new diffs are built are lost, but
+   * are reflected in the new diffs anyway if they already reached the {@link DataModel}.
+   */
   private void buildAverageDiffs() throws TasteException {
     log.info("Building average diffs...");
+    FastByIDMap<FastByIDMap<RunningAverage>> newAverageDiffs = new FastByIDMap<FastByIDMap<RunningAverage>>();
+    FastByIDMap<RunningAverage> newAverageItemPref = new FastByIDMap<RunningAverage>();
+    long averageCount = 0L;
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      averageCount = processOneUser(averageCount, it.nextLong(), newAverageDiffs, newAverageItemPref);
+    }
+
+    pruneInconsequentialDiffs(newAverageDiffs);
+    FastIDSet newAllRecommendableItemIDs = buildAllRecommendableItems(newAverageDiffs);
+
     try {
       buildAverageDiffsLock.writeLock().lock();
-      averageDiffs.clear();
-      long averageCount = 0L;
-      LongPrimitiveIterator it = dataModel.getUserIDs();
-      while (it.hasNext()) {
-        averageCount = processOneUser(averageCount, it.nextLong());
-      }
-      
-      pruneInconsequentialDiffs();
-      updateAllRecommendableItems();
-      
+      averageDiffs = newAverageDiffs;
+      averageItemPref = newAverageItemPref;
+      allRecommendableItemIDs = newAllRecommendableItemIDs;
     } finally {
       buildAverageDiffsLock.writeLock().unlock();
     }
   }
   
-  private void pruneInconsequentialDiffs() {
+  private static void pruneInconsequentialDiffs(FastByIDMap<FastByIDMap<RunningAverage>> averageDiffs) {
     // Go back and prune inconsequential diffs. "Inconsequential" means, here, only represented by one
     // data point, so possibly unreliable
     Iterator<Map.Entry<Long,FastByIDMap<RunningAverage>>> it1 = averageDiffs.entrySet().iterator();
@@ -333,7 +339,8 @@ public final class MemoryDiffStorage implements DiffStorage {
     averageDiffs.rehash();
   }
   
-  private void updateAllRecommendableItems() throws TasteException {
+  private FastIDSet buildAllRecommendableItems(FastByIDMap<FastByIDMap<RunningAverage>> averageDiffs)
+    throws TasteException {
     FastIDSet ids = new FastIDSet(dataModel.getNumItems());
     for (Map.Entry<Long,FastByIDMap<RunningAverage>> entry : averageDiffs.entrySet()) {
       ids.add(entry.getKey());
@@ -342,12 +349,14 @@ public final class MemoryDiffStorage implements DiffStorage {
         ids.add(it.next());
       }
     }
-    allRecommendableItemIDs.clear();
-    allRecommendableItemIDs.addAll(ids);
-    allRecommendableItemIDs.rehash();
+    ids.rehash();
+    return ids;
   }
   
-  private long processOneUser(long averageCount, long userID) throws TasteException {
+  private long processOneUser(long averageCount,
+                              long userID,
+                              FastByIDMap<FastByIDMap<RunningAverage>> averageDiffs,
+                              FastByIDMap<RunningAverage> averageItemPref) throws TasteException {
     log.debug("Processing prefs for user {}", userID);
     // Save off prefs for the life of this loop iteration
     PreferenceArray userPreferences = dataModel.getPreferencesFromUser(userID);
@@ -391,6 +400,14 @@ public final class MemoryDiffStorage implements DiffStorage {
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
     refreshHelper.refresh(alreadyRefreshed);
   }
+
+  /**
+   * @return helper used to {@link #refresh(Collection)} the diffs; set an executor on it to rebuild them in the
+   *  background, or query it for refresh duration and staleness
+   */
+  public RefreshHelper getRefreshHelper() {
+    return refreshHelper;
+  }
   
   @Override
   public String toString() {
@@ -18,10 +18,12 @@
 package org.apache.mahout.cf.taste.impl.recommender.svd;
 
 import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
@@ -37,6 +39,7 @@ import org.slf4j.LoggerFactory;
 import org.apache.mahout.math.map.OpenIntObjectHashMap;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -49,8 +52,11 @@ import java.util.concurrent.TimeUnit;
  *
  *  also supports the implicit feedback variant of this approach as described in "Collaborative Filtering for Implicit Feedback Datasets"
  *  available at http://research.yahoo.com/pub/2433
+ *
+ *  single users can be folded into an existing factorization by solving for their features with the item features
+ *  fixed, exactly like one half of an iteration does for all users
  */
-public class ALSWRFactorizer extends AbstractFactorizer {
+public class ALSWRFactorizer extends AbstractFactorizer implements FoldInFactorizer {
 
   private final DataModel dataModel;
 
@@ -69,6 +75,9 @@ public class ALSWRFactorizer extends AbstractFactorizer {
 
   private static final double DEFAULT_ALPHA = 40;
 
+  /** solver for folding in users with implicit feedback, bound to the factorization it was built for */
+  private volatile FoldInSolver foldInSolver;
+
   private static final Logger log = LoggerFactory.getLogger(ALSWRFactorizer.class);
 
   public ALSWRFactorizer(DataModel dataModel, int numFeatures, double lambda, int numIterations,
@@ -255,6 +264,79 @@ public class ALSWRFactorizer extends AbstractFactorizer {
     return createFactorization(features.getU(), features.getM());
   }
 
+  /**
+   * solves for the features of a user with the item features of the given factorization fixed, items that are not part
+   * of the factorization are ignored. A user without any known items gets the average user features.
+   */
+  @Override
+  public double[] foldInUser(PreferenceArray userPrefs, Factorization factorization) throws TasteException {
+    List<Vector> featureVectors = Lists.newArrayListWithCapacity(userPrefs.length());
+    List<Preference> knownPrefs = Lists.newArrayListWithCapacity(userPrefs.length());
+    for (Preference pref : userPrefs) {
+      try {
+        featureVectors.add(new DenseVector(factorization.getItemFeatures(pref.getItemID()), true));
+        knownPrefs.add(pref);
+      } catch (NoSuchItemException nsie) {
+        // the item was added after the factorization was computed
+      }
+    }
+
+    if (knownPrefs.isEmpty()) {
+      return averageUserFeatures(factorization);
+    }
+
+    PreferenceArray knownUserPrefs = new GenericUserPreferenceArray(knownPrefs);
+    Vector userFeatures = usesImplicitFeedback ?
+        implicitFoldInSolver(factorization).solve(sparseUserRatingVector(knownUserPrefs)) :
+        AlternatingLeastSquaresSolver.solve(featureVectors, ratingVector(knownUserPrefs), lambda,
+            factorization.numFeatures());
+
+    double[] features = new double[factorization.numFeatures()];
+    for (int feature = 0; feature < features.length; feature++) {
+      features[feature] = userFeatures.get(feature);
+    }
+    return features;
+  }
+
+  private ImplicitFeedbackAlternatingLeastSquaresSolver implicitFoldInSolver(Factorization factorization) {
+    FoldInSolver solver = foldInSolver;
+    if (solver == null || solver.factorization != factorization) {
+      /* Y'Y only depends on the item features, so it is computed once per factorization */
+      OpenIntObjectHashMap<Vector> itemY = new OpenIntObjectHashMap<Vector>(factorization.numItems());
+      double[][] itemFeatures = factorization.allItemFeatures();
+      for (Map.Entry<Long,Integer> itemIDMapping : factorization.getItemIDMappings()) {
+        itemY.put((int) itemIDMapping.getKey().longValue(),
+            new DenseVector(itemFeatures[itemIDMapping.getValue()], true));
+      }
+      solver = new FoldInSolver(factorization,
+          new ImplicitFeedbackAlternatingLeastSquaresSolver(factorization.numFeatures(), lambda, alpha, itemY));
+      foldInSolver = solver;
+    }
+    return solver.solver;
+  }
+
+  private static double[] averageUserFeatures(Factorization factorization) {
+    double[] average = new double[factorization.numFeatures()];
+    double[][] userFeatures = factorization.allUserFeatures();
+    for (double[] features : userFeatures) {
+      for (int feature = 0; feature < average.length; feature++) {
+        average[feature] += features[feature] / userFeatures.length;
+      }
+    }
+    return average;
+  }
+
+  private static final class FoldInSolver {
+
+    private final Factorization factorization;
+    private final ImplicitFeedbackAlternatingLeastSquaresSolver solver;
+
+    private FoldInSolver(Factorization factorization, ImplicitFeedbackAlternatingLeastSquaresSolver solver) {
+      this.factorization = factorization;
+      this.solver = solver;
+    }
+  }
+
   protected ExecutorService createQueue() {
     return Executors.newFixedThreadPool(numTrainingThreads);
   }
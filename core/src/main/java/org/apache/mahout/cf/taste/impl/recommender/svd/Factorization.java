@@ -72,6 +72,16 @@ public class Factorization {
     return itemFeatures[index];
   }
 
+  /**
+   * Replaces the feature vector of a user that is already part of this factorization, e.g. after their features have
+   * been recomputed by a {@link FoldInFactorizer}. The row is swapped as a whole, so concurrent readers either see
+   * the old or the new features.
+   */
+  public void setUserFeatures(long userID, double[] features) throws NoSuchUserException {
+    Preconditions.checkArgument(features.length == numFeatures(), "features must have length " + numFeatures());
+    userFeatures[userIndex(userID)] = features;
+  }
+
   public int userIndex(long userID) throws NoSuchUserException {
     Integer index = userIDMapping.get(userID);
     if (index == null) {
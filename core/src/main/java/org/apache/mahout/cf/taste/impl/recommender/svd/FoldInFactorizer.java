@@ -0,0 +1,37 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * A {@link Factorizer} that is able to compute the feature vector of a single user from their preferences while
+ * keeping the item features of an existing {@link Factorization} fixed ("folding in" the user). This allows to serve
+ * new users or users with changed preferences without recomputing the whole factorization.
+ */
+public interface FoldInFactorizer extends Factorizer {
+
+  /**
+   * @param userPrefs the current preferences of the user
+   * @param factorization the factorization whose item features should be used
+   * @return the feature vector of the user, compatible with the item features of the given factorization
+   */
+  double[] foldInUser(PreferenceArray userPrefs, Factorization factorization) throws TasteException;
+
+}
@@ -0,0 +1,424 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.RandomUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Factorizes the rating matrix with the SVD++ model described in Yehuda Koren's paper
+ * <a href="http://research.yahoo.com/files/kdd08koren.pdf">"Factorization Meets the Neighborhood: a Multifaceted
+ * Collaborative Filtering Model"</a>, trained with stochastic gradient descent.</p>
+ *
+ * <p>Besides the explicit ratings and user and item biases, the model uses the implicit information about which items a
+ * user has rated at all: every item j has a second feature vector y(j), and a user u is represented by
+ * p(u) + |N(u)|^-1/2 * sum(y(j), j in N(u)) where N(u) are the items the user has preferences for.</p>
+ *
+ * <p>The model is mapped onto a plain {@link Factorization} so that it can be served by {@link SVDRecommender}. The
+ * first three features hold the global average and the biases (user features are (mean, user bias, 1, ...), item
+ * features are (1, 1, item bias, ...)) and the implicit feedback is added to the user features.</p>
+ *
+ * <p>Users can be folded into an existing factorization via {@link #foldInUser(PreferenceArray, Factorization)}, which
+ * solves a small regularized least squares problem against the fixed item features.</p>
+ */
+public final class SVDPlusPlusFactorizer extends AbstractFactorizer implements FoldInFactorizer {
+
+  private static final Logger log = LoggerFactory.getLogger(SVDPlusPlusFactorizer.class);
+
+  static final int FEATURE_OFFSET = 3;
+  static final int GLOBAL_AVERAGE_INDEX = 0;
+  static final int USER_BIAS_INDEX = 1;
+  static final int ITEM_BIAS_INDEX = 2;
+
+  private final DataModel dataModel;
+  /** number of latent features, the factorization will have {@link #FEATURE_OFFSET} more */
+  private final int numFeatures;
+  private final double learningRate;
+  /** multiplied with the learning rate after each iteration */
+  private final double learningRateDecay;
+  /** parameter used to prevent overfitting */
+  private final double preventOverfitting;
+  /** standard deviation of the random initial feature values */
+  private final double randomNoise;
+  /** number of iterations */
+  private final int numIterations;
+
+  /** items rated by each user, by user index */
+  private int[][] itemIndicesOfUsers;
+  /** ratings of each user, aligned with {@link #itemIndicesOfUsers} */
+  private float[][] ratingsOfUsers;
+  private double[] userBiases;
+  private double[] itemBiases;
+  private double[][] userFactors;
+  private double[][] itemFactors;
+  private double[][] implicitFactors;
+  private double average;
+
+  /** implicit item features and global average of the last factorization, used for folding in users */
+  private volatile TrainedImplicitFeatures trainedImplicitFeatures;
+
+  public SVDPlusPlusFactorizer(DataModel dataModel, int numFeatures, int numIterations) throws TasteException {
+    this(dataModel, numFeatures, 0.01, 0.02, 0.01, numIterations, 1.0);
+  }
+
+  public SVDPlusPlusFactorizer(DataModel dataModel,
+                               int numFeatures,
+                               double learningRate,
+                               double preventOverfitting,
+                               double randomNoise,
+                               int numIterations,
+                               double learningRateDecay) throws TasteException {
+    super(dataModel);
+    this.dataModel = dataModel;
+    this.numFeatures = numFeatures;
+    this.learningRate = learningRate;
+    this.preventOverfitting = preventOverfitting;
+    this.randomNoise = randomNoise;
+    this.numIterations = numIterations;
+    this.learningRateDecay = learningRateDecay;
+  }
+
+  @Override
+  public Factorization factorize() throws TasteException {
+    prepareTraining();
+
+    Random random = RandomUtils.getRandom();
+    int numUsers = itemIndicesOfUsers.length;
+    int[] userOrder = new int[numUsers];
+    for (int n = 0; n < numUsers; n++) {
+      userOrder[n] = n;
+    }
+
+    double[] implicitSum = new double[numFeatures];
+    double[] errorTimesItemFactors = new double[numFeatures];
+    double currentLearningRate = learningRate;
+
+    for (int iteration = 0; iteration < numIterations; iteration++) {
+      shuffle(userOrder, random);
+      double squaredError = 0;
+      int numRatings = 0;
+      for (int userIndex : userOrder) {
+        squaredError += trainUser(userIndex, currentLearningRate, implicitSum, errorTimesItemFactors);
+        numRatings += itemIndicesOfUsers[userIndex].length;
+      }
+      currentLearningRate *= learningRateDecay;
+      log.info("Finished iteration {} with RMSE {}.", iteration, Math.sqrt(squaredError / numRatings));
+    }
+
+    Factorization factorization = createFactorization(toUserFeatures(implicitSum), toItemFeatures());
+    trainedImplicitFeatures = new TrainedImplicitFeatures(implicitFactors, average);
+
+    itemIndicesOfUsers = null;
+    ratingsOfUsers = null;
+    userFactors = null;
+    itemFactors = null;
+    implicitFactors = null;
+
+    return factorization;
+  }
+
+  private void prepareTraining() throws TasteException {
+    Random random = RandomUtils.getRandom();
+    int numUsers = dataModel.getNumUsers();
+    int numItems = dataModel.getNumItems();
+
+    itemIndicesOfUsers = new int[numUsers][];
+    ratingsOfUsers = new float[numUsers][];
+    RunningAverage ratingAverage = new FullRunningAverage();
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+      int[] itemIndices = new int[prefs.length()];
+      float[] ratings = new float[prefs.length()];
+      for (int n = 0; n < prefs.length(); n++) {
+        itemIndices[n] = itemIndex(prefs.getItemID(n));
+        ratings[n] = prefs.getValue(n);
+        ratingAverage.addDatum(ratings[n]);
+      }
+      int userIndex = userIndex(userID);
+      itemIndicesOfUsers[userIndex] = itemIndices;
+      ratingsOfUsers[userIndex] = ratings;
+    }
+    average = ratingAverage.getAverage();
+
+    userBiases = new double[numUsers];
+    itemBiases = new double[numItems];
+    userFactors = randomMatrix(numUsers, random);
+    itemFactors = randomMatrix(numItems, random);
+    implicitFactors = randomMatrix(numItems, random);
+  }
+
+  private double[][] randomMatrix(int rows, Random random) {
+    double[][] matrix = new double[rows][numFeatures];
+    for (double[] row : matrix) {
+      for (int feature = 0; feature < numFeatures; feature++) {
+        row[feature] = random.nextGaussian() * randomNoise;
+      }
+    }
+    return matrix;
+  }
+
+  /**
+   * does one stochastic gradient descent pass over the ratings of a user, the gradient of the implicit features is
+   * accumulated and applied once per user
+   *
+   * @return the sum of squared errors of the user's ratings before the update
+   */
+  private double trainUser(int userIndex, double rate, double[] implicitSum, double[] errorTimesItemFactors) {
+    int[] itemIndices = itemIndicesOfUsers[userIndex];
+    float[] ratings = ratingsOfUsers[userIndex];
+    if (itemIndices.length == 0) {
+      return 0;
+    }
+
+    double normalization = 1.0 / Math.sqrt(itemIndices.length);
+    sumImplicitFactors(itemIndices, implicitFactors, normalization, implicitSum);
+    Arrays.fill(errorTimesItemFactors, 0);
+
+    double[] userFactor = userFactors[userIndex];
+    double squaredError = 0;
+    for (int n = 0; n < itemIndices.length; n++) {
+      int itemIndex = itemIndices[n];
+      double[] itemFactor = itemFactors[itemIndex];
+
+      double prediction = average + userBiases[userIndex] + itemBiases[itemIndex];
+      for (int feature = 0; feature < numFeatures; feature++) {
+        prediction += itemFactor[feature] * (userFactor[feature] + implicitSum[feature]);
+      }
+      double err = ratings[n] - prediction;
+      squaredError += err * err;
+
+      userBiases[userIndex] += rate * (err - preventOverfitting * userBiases[userIndex]);
+      itemBiases[itemIndex] += rate * (err - preventOverfitting * itemBiases[itemIndex]);
+      for (int feature = 0; feature < numFeatures; feature++) {
+        double itemFeature = itemFactor[feature];
+        double userFeature = userFactor[feature];
+        errorTimesItemFactors[feature] += err * itemFeature;
+        itemFactor[feature] += rate * (err * (userFeature + implicitSum[feature]) - preventOverfitting * itemFeature);
+        userFactor[feature] += rate * (err * itemFeature - preventOverfitting * userFeature);
+      }
+    }
+
+    for (int itemIndex : itemIndices) {
+      double[] implicitFactor = implicitFactors[itemIndex];
+      for (int feature = 0; feature < numFeatures; feature++) {
+        implicitFactor[feature] += rate * (normalization * errorTimesItemFactors[feature]
+            - preventOverfitting * implicitFactor[feature]);
+      }
+    }
+    return squaredError;
+  }
+
+  private double[][] toUserFeatures(double[] implicitSum) {
+    double[][] userFeatures = new double[userFactors.length][FEATURE_OFFSET + numFeatures];
+    for (int userIndex = 0; userIndex < userFactors.length; userIndex++) {
+      double[] features = userFeatures[userIndex];
+      features[GLOBAL_AVERAGE_INDEX] = average;
+      features[USER_BIAS_INDEX] = userBiases[userIndex];
+      features[ITEM_BIAS_INDEX] = 1;
+      int[] itemIndices = itemIndicesOfUsers[userIndex];
+      if (itemIndices.length > 0) {
+        sumImplicitFactors(itemIndices, implicitFactors, 1.0 / Math.sqrt(itemIndices.length), implicitSum);
+      } else {
+        Arrays.fill(implicitSum, 0);
+      }
+      for (int feature = 0; feature < numFeatures; feature++) {
+        features[FEATURE_OFFSET + feature] = userFactors[userIndex][feature] + implicitSum[feature];
+      }
+    }
+    return userFeatures;
+  }
+
+  private double[][] toItemFeatures() {
+    double[][] itemFeatures = new double[itemFactors.length][FEATURE_OFFSET + numFeatures];
+    for (int itemIndex = 0; itemIndex < itemFactors.length; itemIndex++) {
+      double[] features = itemFeatures[itemIndex];
+      features[GLOBAL_AVERAGE_INDEX] = 1;
+      features[USER_BIAS_INDEX] = 1;
+      features[ITEM_BIAS_INDEX] = itemBiases[itemIndex];
+      System.arraycopy(itemFactors[itemIndex], 0, features, FEATURE_OFFSET, numFeatures);
+    }
+    return itemFeatures;
+  }
+
+  /**
+   * Computes the features of a user from their preferences: the user bias and the latent user factors are the solution
+   * of a ridge regression against the fixed item features, the implicit features of the rated items are added if
+   * they are known from the last call to {@link #factorize()}. Items unknown to the factorization are ignored.
+   */
+  @Override
+  public double[] foldInUser(PreferenceArray userPrefs, Factorization factorization) throws TasteException {
+    int numLatentFeatures = factorization.numFeatures() - FEATURE_OFFSET;
+    TrainedImplicitFeatures implicit = trainedImplicitFeatures;
+    boolean useImplicitFeatures = implicit != null && implicit.factors.length == factorization.numItems()
+        && (implicit.factors.length == 0 || implicit.factors[0].length == numLatentFeatures);
+
+    int numPrefs = userPrefs.length();
+    double[][] knownItemFeatures = new double[numPrefs][];
+    int[] knownItemIndices = new int[numPrefs];
+    float[] knownRatings = new float[numPrefs];
+    int numKnown = 0;
+    RunningAverage ratingAverage = new FullRunningAverage();
+    for (int n = 0; n < numPrefs; n++) {
+      long itemID = userPrefs.getItemID(n);
+      ratingAverage.addDatum(userPrefs.getValue(n));
+      try {
+        knownItemIndices[numKnown] = factorization.itemIndex(itemID);
+        knownItemFeatures[numKnown] = factorization.getItemFeatures(itemID);
+        knownRatings[numKnown] = userPrefs.getValue(n);
+        numKnown++;
+      } catch (NoSuchItemException nsie) {
+        // the item was added after the factorization was computed, nothing to learn from it
+      }
+    }
+
+    double globalAverage;
+    if (useImplicitFeatures) {
+      globalAverage = implicit.average;
+    } else if (factorization.allUserFeatures().length > 0) {
+      globalAverage = factorization.allUserFeatures()[0][GLOBAL_AVERAGE_INDEX];
+    } else {
+      globalAverage = ratingAverage.getAverage();
+    }
+
+    double[] implicitSum = new double[numLatentFeatures];
+    if (useImplicitFeatures && numKnown > 0) {
+      sumImplicitFactors(Arrays.copyOf(knownItemIndices, numKnown), implicit.factors,
+          1.0 / Math.sqrt(numKnown), implicitSum);
+    }
+
+    /* unknowns are the user bias followed by the latent user factors */
+    int dimension = numLatentFeatures + 1;
+    double[][] lhs = new double[dimension][dimension];
+    double[] rhs = new double[dimension];
+    double[] row = new double[dimension];
+    for (int n = 0; n < numKnown; n++) {
+      double[] itemFeatures = knownItemFeatures[n];
+      double target = knownRatings[n] - globalAverage - itemFeatures[ITEM_BIAS_INDEX];
+      row[0] = 1;
+      for (int feature = 0; feature < numLatentFeatures; feature++) {
+        row[feature + 1] = itemFeatures[FEATURE_OFFSET + feature];
+        target -= itemFeatures[FEATURE_OFFSET + feature] * implicitSum[feature];
+      }
+      for (int i = 0; i < dimension; i++) {
+        rhs[i] += row[i] * target;
+        for (int j = 0; j <= i; j++) {
+          lhs[i][j] += row[i] * row[j];
+        }
+      }
+    }
+    for (int i = 0; i < dimension; i++) {
+      lhs[i][i] += preventOverfitting * Math.max(numKnown, 1);
+      for (int j = 0; j < i; j++) {
+        lhs[j][i] = lhs[i][j];
+      }
+    }
+    double[] solution = numKnown > 0 ? solveSymmetricPositiveDefinite(lhs, rhs) : new double[dimension];
+
+    double[] userFeatures = new double[FEATURE_OFFSET + numLatentFeatures];
+    userFeatures[GLOBAL_AVERAGE_INDEX] = globalAverage;
+    userFeatures[USER_BIAS_INDEX] = solution[0];
+    userFeatures[ITEM_BIAS_INDEX] = 1;
+    for (int feature = 0; feature < numLatentFeatures; feature++) {
+      userFeatures[FEATURE_OFFSET + feature] = solution[feature + 1] + implicitSum[feature];
+    }
+    return userFeatures;
+  }
+
+  private static void sumImplicitFactors(int[] itemIndices, double[][] factors, double normalization,
+                                         double[] result) {
+    Arrays.fill(result, 0);
+    for (int itemIndex : itemIndices) {
+      double[] factor = factors[itemIndex];
+      for (int feature = 0; feature < result.length; feature++) {
+        result[feature] += factor[feature];
+      }
+    }
+    for (int feature = 0; feature < result.length; feature++) {
+      result[feature] *= normalization;
+    }
+  }
+
+  /** solves a * x = b via a Cholesky decomposition, a is overwritten */
+  static double[] solveSymmetricPositiveDefinite(double[][] a, double[] b) {
+    int n = b.length;
+    for (int j = 0; j < n; j++) {
+      double diagonal = a[j][j];
+      for (int k = 0; k < j; k++) {
+        diagonal -= a[j][k] * a[j][k];
+      }
+      a[j][j] = Math.sqrt(diagonal);
+      for (int i = j + 1; i < n; i++) {
+        double value = a[i][j];
+        for (int k = 0; k < j; k++) {
+          value -= a[i][k] * a[j][k];
+        }
+        a[i][j] = value / a[j][j];
+      }
+    }
+    double[] x = new double[n];
+    for (int i = 0; i < n; i++) {
+      double value = b[i];
+      for (int k = 0; k < i; k++) {
+        value -= a[i][k] * x[k];
+      }
+      x[i] = value / a[i][i];
+    }
+    for (int i = n - 1; i >= 0; i--) {
+      double value = x[i];
+      for (int k = i + 1; k < n; k++) {
+        value -= a[k][i] * x[k];
+      }
+      x[i] = value / a[i][i];
+    }
+    return x;
+  }
+
+  private static void shuffle(int[] array, Random random) {
+    for (int i = array.length - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int tmp = array[i];
+      array[i] = array[j];
+      array[j] = tmp;
+    }
+  }
+
+  private static final class TrainedImplicitFeatures {
+
+    private final double[][] factors;
+    private final double average;
+
+    private TrainedImplicitFeatures(double[][] factors, double average) {
+      this.factors = factors;
+      this.average = average;
+    }
+  }
+
+}
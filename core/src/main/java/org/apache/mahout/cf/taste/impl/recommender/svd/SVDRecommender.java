@@ -21,11 +21,20 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.impl.recommender.AbstractRecommender;
 import org.apache.mahout.cf.taste.impl.recommender.TopItems;
@@ -38,15 +47,28 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A {@link org.apache.mahout.cf.taste.recommender.Recommender} that uses matrix factorization (a projection of users
- * and items onto a feature space)
+ * <p>A {@link org.apache.mahout.cf.taste.recommender.Recommender} that uses matrix factorization (a projection of users
+ * and items onto a feature space)</p>
+ *
+ * <p>If the {@link Factorizer} is a {@link FoldInFactorizer}, users that are not part of the current factorization are
+ * folded into it on their first request, and {@link #foldInUser(long)} recomputes the features of a user whose
+ * preferences changed. Neither requires a {@link #refresh(Collection) refresh}. Preferences changed through
+ * {@link #setPreference(long, long, float)} and {@link #removePreference(long, long)} trigger a fold-in
+ * automatically, so that the full factorization only has to be recomputed once in a while, e.g. in the background via
+ * {@link #retrainPeriodically(long, TimeUnit)}.</p>
  */
 public final class SVDRecommender extends AbstractRecommender {
 
-  private Factorization factorization;
+  private volatile Factorization factorization;
   private final Factorizer factorizer;
   private final PersistenceStrategy persistenceStrategy;
   private final RefreshHelper refreshHelper;
+  /** features of users folded in after the current factorization was computed */
+  private final FastByIDMap<double[]> foldedInUserFeatures;
+  private final ReadWriteLock foldInLock;
+  /** users folded in while a new factorization is computed, {@code null} if no computation is in progress */
+  private FastIDSet usersFoldedInDuringTraining;
+  private ScheduledExecutorService retrainingScheduler;
 
   private static final Logger log = LoggerFactory.getLogger(SVDRecommender.class);
 
@@ -94,6 +116,8 @@ public final class SVDRecommender extends AbstractRecommender {
     super(dataModel, candidateItemsStrategy);
     this.factorizer = Preconditions.checkNotNull(factorizer);
     this.persistenceStrategy = Preconditions.checkNotNull(persistenceStrategy);
+    foldedInUserFeatures = new FastByIDMap<double[]>();
+    foldInLock = new ReentrantReadWriteLock();
     try {
       factorization = persistenceStrategy.load();
     } catch (IOException e) {
@@ -121,7 +145,39 @@ public final class SVDRecommender extends AbstractRecommender {
   }
 
   private void train() throws TasteException {
-    factorization = factorizer.factorize();
+    foldInLock.writeLock().lock();
+    try {
+      usersFoldedInDuringTraining = new FastIDSet();
+    } finally {
+      foldInLock.writeLock().unlock();
+    }
+
+    Factorization newFactorization = null;
+    FastIDSet usersToFoldIn;
+    try {
+      newFactorization = factorizer.factorize();
+    } finally {
+      foldInLock.writeLock().lock();
+      try {
+        if (newFactorization != null) {
+          factorization = newFactorization;
+          foldedInUserFeatures.clear();
+        }
+        usersToFoldIn = usersFoldedInDuringTraining;
+        usersFoldedInDuringTraining = null;
+      } finally {
+        foldInLock.writeLock().unlock();
+      }
+    }
+
+    /* the preferences of these users might have changed after the factorizer read them */
+    if (factorizer instanceof FoldInFactorizer) {
+      LongPrimitiveIterator userIDs = usersToFoldIn.iterator();
+      while (userIDs.hasNext()) {
+        maybeFoldInUser(userIDs.nextLong());
+      }
+    }
+
     try {
       persistenceStrategy.maybePersist(factorization);
     } catch (IOException e) {
@@ -137,7 +193,7 @@ public final class SVDRecommender extends AbstractRecommender {
     PreferenceArray preferencesFromUser = getDataModel().getPreferencesFromUser(userID);
     FastIDSet possibleItemIDs = getAllOtherItems(userID, preferencesFromUser);
 
-    List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
+    List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs, rescorer,
         new Estimator(userID));
     log.debug("Recommendations are: {}", topItems);
 
@@ -149,8 +205,9 @@ public final class SVDRecommender extends AbstractRecommender {
    */
   @Override
   public float estimatePreference(long userID, long itemID) throws TasteException {
-    double[] userFeatures = factorization.getUserFeatures(userID);
-    double[] itemFeatures = factorization.getItemFeatures(itemID);
+    Factorization currentFactorization = factorization;
+    double[] userFeatures = getUserFeatures(currentFactorization, userID);
+    double[] itemFeatures = currentFactorization.getItemFeatures(itemID);
     double estimate = 0;
     for (int feature = 0; feature < userFeatures.length; feature++) {
       estimate += userFeatures[feature] * itemFeatures[feature];
@@ -158,6 +215,124 @@ public final class SVDRecommender extends AbstractRecommender {
     return (float) estimate;
   }
 
+  private double[] getUserFeatures(Factorization currentFactorization, long userID) throws TasteException {
+    try {
+      return currentFactorization.getUserFeatures(userID);
+    } catch (NoSuchUserException nsue) {
+      if (!(factorizer instanceof FoldInFactorizer)) {
+        throw nsue;
+      }
+    }
+    double[] userFeatures;
+    foldInLock.readLock().lock();
+    try {
+      userFeatures = foldedInUserFeatures.get(userID);
+    } finally {
+      foldInLock.readLock().unlock();
+    }
+    return userFeatures != null ? userFeatures : foldInUser(currentFactorization, userID);
+  }
+
+  /**
+   * Recomputes the features of a user from their current preferences in the {@link DataModel}, keeping the item
+   * features of the current factorization fixed. Use this after a user's preferences changed to have them reflected in
+   * the recommendations without a {@link #refresh(Collection) refresh}.
+   *
+   * @throws IllegalStateException if the factorizer is not a {@link FoldInFactorizer}
+   */
+  public void foldInUser(long userID) throws TasteException {
+    Preconditions.checkState(factorizer instanceof FoldInFactorizer, "Factorizer does not support folding in users");
+    foldInUser(factorization, userID);
+  }
+
+  private double[] foldInUser(Factorization currentFactorization, long userID) throws TasteException {
+    PreferenceArray preferencesFromUser = getDataModel().getPreferencesFromUser(userID);
+    double[] userFeatures = ((FoldInFactorizer) factorizer).foldInUser(preferencesFromUser, currentFactorization);
+    boolean knownUser = true;
+    try {
+      currentFactorization.setUserFeatures(userID, userFeatures);
+    } catch (NoSuchUserException nsue) {
+      knownUser = false;
+    }
+    foldInLock.writeLock().lock();
+    try {
+      /* don't keep features computed against a factorization that has been replaced in the meantime */
+      if (!knownUser && currentFactorization == factorization) {
+        foldedInUserFeatures.put(userID, userFeatures);
+      }
+      if (usersFoldedInDuringTraining != null) {
+        usersFoldedInDuringTraining.add(userID);
+      }
+    } finally {
+      foldInLock.writeLock().unlock();
+    }
+    return userFeatures;
+  }
+
+  private void maybeFoldInUser(long userID) throws TasteException {
+    if (factorizer instanceof FoldInFactorizer) {
+      try {
+        foldInUser(factorization, userID);
+      } catch (NoSuchUserException nsue) {
+        log.debug("User {} has no preferences left, not folding in", userID);
+      }
+    }
+  }
+
+  /**
+   * Sets the preference in the {@link DataModel} and folds the user in again if the factorizer supports it.
+   */
+  @Override
+  public void setPreference(long userID, long itemID, float value) throws TasteException {
+    super.setPreference(userID, itemID, value);
+    maybeFoldInUser(userID);
+  }
+
+  /**
+   * Removes the preference from the {@link DataModel} and folds the user in again if the factorizer supports it.
+   */
+  @Override
+  public void removePreference(long userID, long itemID) throws TasteException {
+    super.removePreference(userID, itemID);
+    maybeFoldInUser(userID);
+  }
+
+  /**
+   * Recomputes the factorization on a background thread every {@code period}. Recommendations are served from the
+   * current factorization while the new one is computed, it is swapped in as a whole once it is ready. Calling this
+   * method again replaces the previous schedule.
+   */
+  public synchronized void retrainPeriodically(long period, TimeUnit timeUnit) {
+    Preconditions.checkArgument(period > 0, "period must be positive");
+    stopRetraining();
+    retrainingScheduler = Executors.newScheduledThreadPool(1, new ThreadFactory() {
+      private final ThreadFactory delegate = Executors.defaultThreadFactory();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = delegate.newThread(r);
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    retrainingScheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        refresh(null);
+      }
+    }, period, period, timeUnit);
+  }
+
+  /**
+   * Stops the background recomputation started by {@link #retrainPeriodically(long, TimeUnit)}, if any.
+   */
+  public synchronized void stopRetraining() {
+    if (retrainingScheduler != null) {
+      retrainingScheduler.shutdownNow();
+      retrainingScheduler = null;
+    }
+  }
+
   private final class Estimator implements TopItems.Estimator<Long> {
 
     private final long theUserID;
@@ -180,4 +355,12 @@ public final class SVDRecommender extends AbstractRecommender {
     refreshHelper.refresh(alreadyRefreshed);
   }
 
+  /**
+   * @return helper used to {@link #refresh(Collection)} this recommender; set an executor on it to retrain in the
+   *  background, or query it for refresh duration and staleness
+   */
+  public RefreshHelper getRefreshHelper() {
+    return refreshHelper;
+  }
+
 }
@@ -28,6 +28,7 @@ import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.cf.taste.transforms.BatchPreferenceTransform;
 import org.apache.mahout.cf.taste.transforms.PreferenceTransform;
 import org.apache.mahout.cf.taste.transforms.SimilarityTransform;
 
@@ -156,7 +157,15 @@ abstract class AbstractSimilarity extends AbstractItemSimilarity implements User
     int count = 0;
     
     boolean hasInferrer = inferrer != null;
-    boolean hasPrefTransform = prefTransform != null;
+    float[] xValues = null;
+    float[] yValues = null;
+    // With an inferrer every preference is used, so transform them all at once; otherwise only those of
+    // co-rated items are, and they are transformed one by one
+    if (hasInferrer && prefTransform instanceof BatchPreferenceTransform) {
+      BatchPreferenceTransform batchTransform = (BatchPreferenceTransform) prefTransform;
+      xValues = batchTransform.getTransformedValues(xPrefs);
+      yValues = batchTransform.getTransformedValues(yPrefs);
+    }
     
     while (true) {
       int compare = xIndex < yIndex ? -1 : xIndex > yIndex ? 1 : 0;
@@ -165,29 +174,20 @@ abstract class AbstractSimilarity extends AbstractItemSimilarity implements User
         double y;
         if (xIndex == yIndex) {
           // Both users expressed a preference for the item
-          if (hasPrefTransform) {
-            x = prefTransform.getTransformedValue(xPrefs.get(xPrefIndex));
-            y = prefTransform.getTransformedValue(yPrefs.get(yPrefIndex));
-          } else {
-            x = xPrefs.getValue(xPrefIndex);
-            y = yPrefs.getValue(yPrefIndex);
-          }
+          x = valueAt(xPrefs, xValues, xPrefIndex);
+          y = valueAt(yPrefs, yValues, yPrefIndex);
         } else {
           // Only one user expressed a preference, but infer the other one's preference and tally
           // as if the other user expressed that preference
           if (compare < 0) {
             // X has a value; infer Y's
-            x = hasPrefTransform
-                ? prefTransform.getTransformedValue(xPrefs.get(xPrefIndex))
-                : xPrefs.getValue(xPrefIndex);
+            x = valueAt(xPrefs, xValues, xPrefIndex);
             y = inferrer.inferPreference(userID2, xIndex);
           } else {
             // compare > 0
             // Y has a value; infer X's
             x = inferrer.inferPreference(userID1, yIndex);
-            y = hasPrefTransform
-                ? prefTransform.getTransformedValue(yPrefs.get(yPrefIndex))
-                : yPrefs.getValue(yPrefIndex);
+            y = valueAt(yPrefs, yValues, yPrefIndex);
           }
         }
         sumXY += x * y;
@@ -259,6 +259,17 @@ abstract class AbstractSimilarity extends AbstractItemSimilarity implements User
     return result;
   }
   
+  /** @return the preference's value, transformed if there is a transform, from the batch of values if given */
+  private double valueAt(PreferenceArray prefs, float[] transformedValues, int index) throws TasteException {
+    if (transformedValues != null) {
+      return transformedValues[index];
+    }
+    if (prefTransform != null) {
+      return prefTransform.getTransformedValue(prefs.get(index));
+    }
+    return prefs.getValue(index);
+  }
+  
   @Override
   public final double itemSimilarity(long itemID1, long itemID2) throws TasteException {
     DataModel dataModel = getDataModel();
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.util.Arrays;
+
+/**
+ * Counts of items co-occurring with one item, in an open-addressing table of primitive keys and counts. Counts
+ * which drop to zero keep their slot until the table is next rebuilt. Not thread-safe.
+ */
+final class CooccurrenceCounts {
+
+  private static final long NULL = Long.MIN_VALUE;
+  private static final int INITIAL_CAPACITY = 8;
+
+  private long[] keys;
+  private int[] counts;
+  /** Number of used slots, including those with a count of zero */
+  private int numSlotsUsed;
+  private int numNonZero;
+
+  CooccurrenceCounts() {
+    keys = new long[INITIAL_CAPACITY];
+    Arrays.fill(keys, NULL);
+    counts = new int[INITIAL_CAPACITY];
+  }
+
+  private int find(long key) {
+    int mask = keys.length - 1;
+    int index = hash(key) & mask;
+    long current;
+    while ((current = keys[index]) != NULL && current != key) {
+      index = (index + 1) & mask;
+    }
+    return index;
+  }
+
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  int get(long key) {
+    return key == NULL ? 0 : counts[find(key)];
+  }
+
+  void increment(long key) {
+    int index = find(key);
+    if (keys[index] == NULL) {
+      if (numSlotsUsed + 1 > keys.length - (keys.length >> 2)) {
+        rehash();
+        index = find(key);
+      }
+      keys[index] = key;
+      numSlotsUsed++;
+    }
+    if (counts[index]++ == 0) {
+      numNonZero++;
+    }
+  }
+
+  /** Decrements a count, which must be positive. */
+  void decrement(long key) {
+    int index = find(key);
+    if (--counts[index] == 0) {
+      numNonZero--;
+    }
+  }
+
+  /** @return number of keys with a positive count */
+  int size() {
+    return numNonZero;
+  }
+
+  /** @return keys with a positive count */
+  long[] keys() {
+    long[] result = new long[numNonZero];
+    int i = 0;
+    for (int index = 0; index < keys.length; index++) {
+      if (counts[index] > 0) {
+        result[i++] = keys[index];
+      }
+    }
+    return result;
+  }
+
+  private void rehash() {
+    long[] oldKeys = keys;
+    int[] oldCounts = counts;
+    // At most 3/8 full after dropping zero counts, so that it grows twice as much before the next rehash
+    int capacity = INITIAL_CAPACITY;
+    while ((capacity >> 3) * 3 < numNonZero + 1) {
+      capacity <<= 1;
+    }
+    keys = new long[capacity];
+    Arrays.fill(keys, NULL);
+    counts = new int[capacity];
+    numSlotsUsed = 0;
+    for (int index = 0; index < oldKeys.length; index++) {
+      if (oldCounts[index] > 0) {
+        int newIndex = find(oldKeys[index]);
+        keys[newIndex] = oldKeys[index];
+        counts[newIndex] = oldCounts[index];
+        numSlotsUsed++;
+      }
+    }
+  }
+
+}
@@ -24,6 +24,7 @@ import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.UserItemCountingDataModel;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 import org.apache.mahout.math.stats.LogLikelihood;
@@ -52,13 +53,22 @@ public final class LogLikelihoodSimilarity extends AbstractItemSimilarity implem
   public double userSimilarity(long userID1, long userID2) throws TasteException {
 
     DataModel dataModel = getDataModel();
-    FastIDSet prefs1 = dataModel.getItemIDsFromUser(userID1);
-    FastIDSet prefs2 = dataModel.getItemIDsFromUser(userID2);
-    
-    long prefs1Size = prefs1.size();
-    long prefs2Size = prefs2.size();
-    long intersectionSize =
-        prefs1Size < prefs2Size ? prefs2.intersectionSize(prefs1) : prefs1.intersectionSize(prefs2);
+    long prefs1Size;
+    long prefs2Size;
+    long intersectionSize;
+    if (dataModel instanceof UserItemCountingDataModel) {
+      UserItemCountingDataModel countingModel = (UserItemCountingDataModel) dataModel;
+      prefs1Size = countingModel.getNumItemsWithPreferenceFrom(userID1);
+      prefs2Size = countingModel.getNumItemsWithPreferenceFrom(userID2);
+      intersectionSize = countingModel.getNumItemsWithPreferenceFrom(userID1, userID2);
+    } else {
+      FastIDSet prefs1 = dataModel.getItemIDsFromUser(userID1);
+      FastIDSet prefs2 = dataModel.getItemIDsFromUser(userID2);
+      prefs1Size = prefs1.size();
+      prefs2Size = prefs2.size();
+      intersectionSize =
+          prefs1Size < prefs2Size ? prefs2.intersectionSize(prefs1) : prefs1.intersectionSize(prefs2);
+    }
     if (intersectionSize == 0) {
       return Double.NaN;
     }
@@ -0,0 +1,292 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.stats.LogLikelihood;
+
+/**
+ * <p>
+ * A log-likelihood {@link ItemSimilarity}, like {@link LogLikelihoodSimilarity}, over counts of users and of
+ * co-occurring items which are updated as each interaction arrives through {@link #addInteraction(long, long)},
+ * rather than read from a {@link DataModel}. A new interaction is reflected in similarities as soon as the call
+ * returns, so new items have similarities without recomputing anything.
+ * </p>
+ *
+ * <p>
+ * Interactions are down-sampled so that each one costs a bounded amount of work: an item with
+ * {@code maxUsersPerItem} users ignores further interactions, and each user's history holds at most
+ * {@code maxItemsPerUser} items, a uniform sample of the user's interactions kept by reservoir sampling. An item
+ * replaced in a user's history no longer counts as co-occurring with the rest of it.
+ * </p>
+ *
+ * <p>
+ * Interactions are binary; repeating one has no effect. Refreshing does nothing. This class is thread-safe;
+ * similarities are read concurrently, and interactions are added one at a time.
+ * </p>
+ */
+public final class OnlineLogLikelihoodSimilarity implements ItemSimilarity {
+
+  public static final int DEFAULT_MAX_ITEMS_PER_USER = 500;
+  public static final int DEFAULT_MAX_USERS_PER_ITEM = 500;
+
+  private final int maxItemsPerUser;
+  private final int maxUsersPerItem;
+  private final FastByIDMap<UserHistory> userHistories;
+  private final FastByIDMap<ItemCounts> itemCounts;
+  private final Random random;
+  private final Lock readLock;
+  private final Lock writeLock;
+
+  public OnlineLogLikelihoodSimilarity() {
+    this(DEFAULT_MAX_ITEMS_PER_USER, DEFAULT_MAX_USERS_PER_ITEM);
+  }
+
+  /**
+   * @param maxItemsPerUser
+   *          maximum number of items in each user's sampled history
+   * @param maxUsersPerItem
+   *          number of users of an item after which its interactions are ignored
+   */
+  public OnlineLogLikelihoodSimilarity(int maxItemsPerUser, int maxUsersPerItem) {
+    Preconditions.checkArgument(maxItemsPerUser > 0, "maxItemsPerUser must be positive");
+    Preconditions.checkArgument(maxUsersPerItem > 0, "maxUsersPerItem must be positive");
+    this.maxItemsPerUser = maxItemsPerUser;
+    this.maxUsersPerItem = maxUsersPerItem;
+    this.userHistories = new FastByIDMap<UserHistory>();
+    this.itemCounts = new FastByIDMap<ItemCounts>();
+    this.random = RandomUtils.getRandom();
+    ReadWriteLock lock = new ReentrantReadWriteLock();
+    this.readLock = lock.readLock();
+    this.writeLock = lock.writeLock();
+  }
+
+  /** Adds an interaction for every preference in the model, for example to start from historical data. */
+  public void addInteractions(DataModel dataModel) throws TasteException {
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      LongPrimitiveIterator itemIDs = dataModel.getItemIDsFromUser(userID).iterator();
+      while (itemIDs.hasNext()) {
+        addInteraction(userID, itemIDs.nextLong());
+      }
+    }
+  }
+
+  /**
+   * Records that the user interacted with the item.
+   *
+   * @return true if the interaction is now part of the user's sampled history; false if it was already, or it
+   *         was sampled out
+   */
+  public boolean addInteraction(long userID, long itemID) {
+    Preconditions.checkArgument(itemID != Long.MIN_VALUE && itemID != Long.MAX_VALUE, "Reserved item ID");
+    writeLock.lock();
+    try {
+      UserHistory history = userHistories.get(userID);
+      if (history != null && history.contains(itemID)) {
+        return false;
+      }
+      ItemCounts counts = itemCounts.get(itemID);
+      if (counts != null && counts.numUsers >= maxUsersPerItem) {
+        return false;
+      }
+      if (history == null) {
+        history = new UserHistory();
+        userHistories.put(userID, history);
+      }
+      history.numSampled++;
+      if (history.size == maxItemsPerUser) {
+        // Reservoir sampling: keep the new item with probability maxItemsPerUser / numSampled
+        long replaced = (long) (random.nextDouble() * history.numSampled);
+        if (replaced >= maxItemsPerUser) {
+          return false;
+        }
+        removeFromHistory(history, (int) replaced);
+      }
+      if (counts == null) {
+        counts = new ItemCounts();
+        itemCounts.put(itemID, counts);
+      }
+      for (int i = 0; i < history.size; i++) {
+        long otherItemID = history.itemIDs[i];
+        counts.cooccurrences.increment(otherItemID);
+        itemCounts.get(otherItemID).cooccurrences.increment(itemID);
+      }
+      counts.numUsers++;
+      history.add(itemID);
+      return true;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void removeFromHistory(UserHistory history, int index) {
+    long itemID = history.remove(index);
+    ItemCounts counts = itemCounts.get(itemID);
+    for (int i = 0; i < history.size; i++) {
+      long otherItemID = history.itemIDs[i];
+      counts.cooccurrences.decrement(otherItemID);
+      itemCounts.get(otherItemID).cooccurrences.decrement(itemID);
+    }
+    if (--counts.numUsers == 0) {
+      itemCounts.remove(itemID);
+    }
+  }
+
+  @Override
+  public double itemSimilarity(long itemID1, long itemID2) {
+    readLock.lock();
+    try {
+      return doItemSimilarity(itemCounts.get(itemID1), itemID2);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public double[] itemSimilarities(long itemID1, long[] itemID2s) {
+    double[] result = new double[itemID2s.length];
+    readLock.lock();
+    try {
+      ItemCounts counts1 = itemCounts.get(itemID1);
+      for (int i = 0; i < itemID2s.length; i++) {
+        result[i] = doItemSimilarity(counts1, itemID2s[i]);
+      }
+    } finally {
+      readLock.unlock();
+    }
+    return result;
+  }
+
+  private double doItemSimilarity(ItemCounts counts1, long itemID2) {
+    if (counts1 == null) {
+      return Double.NaN;
+    }
+    long preferring1and2 = counts1.cooccurrences.get(itemID2);
+    if (preferring1and2 == 0) {
+      return Double.NaN;
+    }
+    long preferring1 = counts1.numUsers;
+    long preferring2 = itemCounts.get(itemID2).numUsers;
+    long numUsers = userHistories.size();
+    double logLikelihood =
+        LogLikelihood.logLikelihoodRatio(preferring1and2,
+                                         preferring2 - preferring1and2,
+                                         preferring1 - preferring1and2,
+                                         numUsers - preferring1 - preferring2 + preferring1and2);
+    return 1.0 - 1.0 / (1.0 + logLikelihood);
+  }
+
+  /** @return items co-occurring with the item, which are those with a similarity to it */
+  @Override
+  public long[] allSimilarItemIDs(long itemID) {
+    readLock.lock();
+    try {
+      ItemCounts counts = itemCounts.get(itemID);
+      return counts == null ? new long[0] : counts.cooccurrences.keys();
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /** @return number of users with the item in their sampled history */
+  public int getNumUsers(long itemID) {
+    readLock.lock();
+    try {
+      ItemCounts counts = itemCounts.get(itemID);
+      return counts == null ? 0 : counts.numUsers;
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /** @return number of users with both items in their sampled history */
+  public int getNumUsers(long itemID1, long itemID2) {
+    readLock.lock();
+    try {
+      ItemCounts counts = itemCounts.get(itemID1);
+      return counts == null ? 0 : counts.cooccurrences.get(itemID2);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // Nothing to do; counts are always current
+  }
+
+  @Override
+  public String toString() {
+    return "OnlineLogLikelihoodSimilarity[maxItemsPerUser:" + maxItemsPerUser + ", maxUsersPerItem:"
+        + maxUsersPerItem + ']';
+  }
+
+  private static final class ItemCounts {
+    private int numUsers;
+    private final CooccurrenceCounts cooccurrences = new CooccurrenceCounts();
+  }
+
+  private static final class UserHistory {
+
+    private long[] itemIDs = new long[4];
+    private int size;
+    /** Number of interactions sampled from, including those in the history */
+    private long numSampled;
+
+    boolean contains(long itemID) {
+      for (int i = 0; i < size; i++) {
+        if (itemIDs[i] == itemID) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    void add(long itemID) {
+      if (size == itemIDs.length) {
+        long[] newItemIDs = new long[2 * size];
+        System.arraycopy(itemIDs, 0, newItemIDs, 0, size);
+        itemIDs = newItemIDs;
+      }
+      itemIDs[size++] = itemID;
+    }
+
+    long remove(int index) {
+      long itemID = itemIDs[index];
+      itemIDs[index] = itemIDs[--size];
+      return itemID;
+    }
+  }
+
+}
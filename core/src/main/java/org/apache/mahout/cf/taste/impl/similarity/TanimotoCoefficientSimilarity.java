@@ -24,6 +24,7 @@ import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.UserItemCountingDataModel;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 
@@ -62,20 +63,34 @@ public final class TanimotoCoefficientSimilarity extends AbstractItemSimilarity
   public double userSimilarity(long userID1, long userID2) throws TasteException {
 
     DataModel dataModel = getDataModel();
+    if (dataModel instanceof UserItemCountingDataModel) {
+      UserItemCountingDataModel countingModel = (UserItemCountingDataModel) dataModel;
+      return doUserSimilarity(countingModel.getNumItemsWithPreferenceFrom(userID1),
+                              countingModel.getNumItemsWithPreferenceFrom(userID2),
+                              countingModel.getNumItemsWithPreferenceFrom(userID1, userID2));
+    }
+
     FastIDSet xPrefs = dataModel.getItemIDsFromUser(userID1);
     FastIDSet yPrefs = dataModel.getItemIDsFromUser(userID2);
 
     int xPrefsSize = xPrefs.size();
     int yPrefsSize = yPrefs.size();
+    if (xPrefsSize == 0 || yPrefsSize == 0) {
+      return doUserSimilarity(xPrefsSize, yPrefsSize, 0);
+    }
+    
+    int intersectionSize =
+        xPrefsSize < yPrefsSize ? yPrefs.intersectionSize(xPrefs) : xPrefs.intersectionSize(yPrefs);
+    return doUserSimilarity(xPrefsSize, yPrefsSize, intersectionSize);
+  }
+
+  private static double doUserSimilarity(int xPrefsSize, int yPrefsSize, int intersectionSize) {
     if (xPrefsSize == 0 && yPrefsSize == 0) {
       return Double.NaN;
     }
     if (xPrefsSize == 0 || yPrefsSize == 0) {
       return 0.0;
     }
-    
-    int intersectionSize =
-        xPrefsSize < yPrefsSize ? yPrefs.intersectionSize(xPrefs) : xPrefs.intersectionSize(yPrefs);
     if (intersectionSize == 0) {
       return Double.NaN;
     }
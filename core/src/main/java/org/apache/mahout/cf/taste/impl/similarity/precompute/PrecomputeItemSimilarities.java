@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.similarity.precompute;
+
+import java.io.File;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
+import org.apache.mahout.cf.taste.impl.similarity.LogLikelihoodSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.common.AbstractJob;
+import org.apache.mahout.common.ClassUtils;
+
+/**
+ * <p>Computes the most similar items of each item in a file of preferences on one machine, with
+ * {@link TopItemSimilarities}, and writes them to a file which
+ * {@link org.apache.mahout.cf.taste.impl.similarity.file.FileItemSimilarity} reads. Unlike
+ * {@link org.apache.mahout.cf.taste.hadoop.similarity.item.ItemSimilarityJob} it needs no Hadoop cluster, but the
+ * preferences must fit in memory.</p>
+ *
+ * <p>Command line arguments specific to this class are:</p>
+ *
+ * <ol>
+ * <li>--input (path): file of preferences, as read by {@link FileDataModel}</li>
+ * <li>--output (path): file to write similarities to</li>
+ * <li>--similarityClassname (classname): {@link ItemSimilarity} with a constructor taking a {@link DataModel}
+ *  ({@link LogLikelihoodSimilarity})</li>
+ * <li>--maxSimilaritiesPerItem (integer): number of most similar items to write per item (100)</li>
+ * <li>--maxUsersPerItem (integer): maximum number of users of each item to find co-occurring items from (1000)</li>
+ * <li>--maxItemsPerUser (integer): maximum number of items of each of those users to consider (1000)</li>
+ * <li>--numThreads (integer): number of threads to compute similarities on (number of processors)</li>
+ * </ol>
+ */
+public final class PrecomputeItemSimilarities extends AbstractJob {
+
+  private static final int DEFAULT_MAX_SIMILAR_ITEMS_PER_ITEM = 100;
+
+  public static void main(String[] args) throws Exception {
+    ToolRunner.run(new PrecomputeItemSimilarities(), args);
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    addInputOption();
+    addOutputOption();
+    addOption("similarityClassname", "s", "Name of the ItemSimilarity class to instantiate",
+        LogLikelihoodSimilarity.class.getName());
+    addOption("maxSimilaritiesPerItem", "m", "number of most similar items to write per item",
+        String.valueOf(DEFAULT_MAX_SIMILAR_ITEMS_PER_ITEM));
+    addOption("maxUsersPerItem", "mupi", "maximum number of users of each item to find co-occurring items from",
+        String.valueOf(TopItemSimilarities.DEFAULT_MAX_USERS_PER_ITEM));
+    addOption("maxItemsPerUser", "mipu", "maximum number of items of each of those users to consider",
+        String.valueOf(TopItemSimilarities.DEFAULT_MAX_ITEMS_PER_USER));
+    addOption("numThreads", "nt", "number of threads to compute similarities on",
+        String.valueOf(Runtime.getRuntime().availableProcessors()));
+
+    Map<String,List<String>> parsedArgs = parseArguments(args);
+    if (parsedArgs == null) {
+      return -1;
+    }
+
+    DataModel dataModel = new FileDataModel(new File(getInputPath().toString()));
+    ItemSimilarity similarity = ClassUtils.instantiateAs(getOption("similarityClassname"), ItemSimilarity.class,
+        new Class<?>[] {DataModel.class}, new Object[] {dataModel});
+    int maxSimilarItemsPerItem = Integer.parseInt(getOption("maxSimilaritiesPerItem"));
+    int maxUsersPerItem = Integer.parseInt(getOption("maxUsersPerItem"));
+    int maxItemsPerUser = Integer.parseInt(getOption("maxItemsPerUser"));
+    int numThreads = Integer.parseInt(getOption("numThreads"));
+
+    ExecutorService executor = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+    Writer out = Files.newWriter(new File(getOutputPath().toString()), Charsets.UTF_8);
+    try {
+      new TopItemSimilarities(dataModel, similarity, maxSimilarItemsPerItem, maxUsersPerItem, maxItemsPerUser,
+          executor).writeTo(out);
+      out.flush();
+    } finally {
+      Closeables.closeQuietly(out);
+      if (executor != null) {
+        executor.shutdown();
+      }
+    }
+    return 0;
+  }
+
+}
@@ -0,0 +1,242 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.similarity.precompute;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.SamplingLongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.common.iterator.FixedSizeSamplingIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Computes the most similar items of every item in a {@link DataModel} on one machine, and writes them as lines
+ * of {@code itemID,similarItemID,similarity} that
+ * {@link org.apache.mahout.cf.taste.impl.similarity.file.FileItemSimilarity} reads.
+ * </p>
+ *
+ * <p>
+ * Only items which co-occur with an item, that is which one of its users also prefers, are compared with it, and
+ * all of them at once through {@link ItemSimilarity#itemSimilarities(long, long[])}. Co-occurring items are found
+ * from at most {@code maxUsersPerItem} users of each item, and at most {@code maxItemsPerUser} items of each of
+ * those users, sampled at random. Items are processed in ranges, in parallel if given an executor, and each
+ * item's most similar items are written as soon as they are known, so memory use does not grow with the number
+ * of items beyond that of the model itself.
+ * </p>
+ */
+public final class TopItemSimilarities {
+
+  private static final Logger log = LoggerFactory.getLogger(TopItemSimilarities.class);
+
+  public static final int DEFAULT_MAX_USERS_PER_ITEM = 1000;
+  public static final int DEFAULT_MAX_ITEMS_PER_USER = 1000;
+
+  private static final int ITEMS_PER_TASK = 1000;
+  private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+  private final DataModel dataModel;
+  private final ItemSimilarity similarity;
+  private final int similarItemsPerItem;
+  private final int maxUsersPerItem;
+  private final int maxItemsPerUser;
+  private final ExecutorService executor;
+
+  public TopItemSimilarities(DataModel dataModel, ItemSimilarity similarity, int similarItemsPerItem) {
+    this(dataModel, similarity, similarItemsPerItem, DEFAULT_MAX_USERS_PER_ITEM, DEFAULT_MAX_ITEMS_PER_USER, null);
+  }
+
+  /**
+   * @param similarItemsPerItem
+   *          number of most similar items to write for each item
+   * @param maxUsersPerItem
+   *          maximum number of users of each item to find co-occurring items from
+   * @param maxItemsPerUser
+   *          maximum number of items of each of those users to compare with the item
+   * @param executor
+   *          executor to process items on in parallel, or {@code null} to process them on the caller's thread
+   */
+  public TopItemSimilarities(DataModel dataModel,
+                             ItemSimilarity similarity,
+                             int similarItemsPerItem,
+                             int maxUsersPerItem,
+                             int maxItemsPerUser,
+                             ExecutorService executor) {
+    Preconditions.checkArgument(dataModel != null, "dataModel is null");
+    Preconditions.checkArgument(similarity != null, "similarity is null");
+    Preconditions.checkArgument(similarItemsPerItem > 0, "similarItemsPerItem must be positive");
+    Preconditions.checkArgument(maxUsersPerItem > 0, "maxUsersPerItem must be positive");
+    Preconditions.checkArgument(maxItemsPerUser > 0, "maxItemsPerUser must be positive");
+    this.dataModel = dataModel;
+    this.similarity = similarity;
+    this.similarItemsPerItem = similarItemsPerItem;
+    this.maxUsersPerItem = maxUsersPerItem;
+    this.maxItemsPerUser = maxItemsPerUser;
+    this.executor = executor;
+  }
+
+  /**
+   * Writes the most similar items of every item, most similar first. Lines of one item are written together, but
+   * items are in no particular order.
+   *
+   * @return number of lines written
+   */
+  public long writeTo(final Writer out) throws TasteException, IOException {
+    long start = System.currentTimeMillis();
+    final long[] itemIDs = new long[dataModel.getNumItems()];
+    LongPrimitiveIterator it = dataModel.getItemIDs();
+    for (int i = 0; i < itemIDs.length && it.hasNext(); i++) {
+      itemIDs[i] = it.nextLong();
+    }
+    final AtomicLong numItemsDone = new AtomicLong();
+    final AtomicLong numLines = new AtomicLong();
+    List<Callable<Object>> callables = Lists.newArrayList();
+    for (int from = 0; from < itemIDs.length; from += ITEMS_PER_TASK) {
+      final int taskFrom = from;
+      final int taskTo = Math.min(itemIDs.length, from + ITEMS_PER_TASK);
+      callables.add(new Callable<Object>() {
+        @Override
+        public Object call() throws TasteException, IOException {
+          TopSimilarItemsHeap heap = new TopSimilarItemsHeap(similarItemsPerItem);
+          StringBuilder buffer = new StringBuilder(WRITE_BUFFER_SIZE + 1024);
+          int lines = 0;
+          for (int i = taskFrom; i < taskTo; i++) {
+            lines += appendSimilarItems(itemIDs[i], heap, buffer);
+            if (buffer.length() >= WRITE_BUFFER_SIZE) {
+              write(out, buffer);
+            }
+          }
+          write(out, buffer);
+          numLines.addAndGet(lines);
+          long done = numItemsDone.addAndGet(taskTo - taskFrom);
+          log.debug("Processed {} of {} items", done, itemIDs.length);
+          return null;
+        }
+      });
+    }
+    execute(callables);
+    log.info("Wrote {} similarities of {} items in {}ms",
+        new Object[] {numLines.get(), itemIDs.length, System.currentTimeMillis() - start});
+    return numLines.get();
+  }
+
+  private int appendSimilarItems(long itemID, TopSimilarItemsHeap heap, StringBuilder buffer)
+    throws TasteException {
+    long[] candidateIDs = getCooccurringItems(itemID);
+    if (candidateIDs.length == 0) {
+      return 0;
+    }
+    double[] similarities = similarity.itemSimilarities(itemID, candidateIDs);
+    heap.clear();
+    for (int i = 0; i < candidateIDs.length; i++) {
+      heap.offer(candidateIDs[i], similarities[i]);
+    }
+    heap.sortDescending();
+    int size = heap.size();
+    long[] topItemIDs = heap.getItemIDs();
+    double[] topSimilarities = heap.getSimilarities();
+    for (int i = 0; i < size; i++) {
+      buffer.append(itemID).append(',').append(topItemIDs[i]).append(',').append(topSimilarities[i]).append('\n');
+    }
+    return size;
+  }
+
+  /** @return items that some sampled users of this item also prefer, without the item itself */
+  long[] getCooccurringItems(long itemID) throws TasteException {
+    PreferenceArray prefs = dataModel.getPreferencesForItem(itemID);
+    Iterator<Preference> users = prefs.length() > maxUsersPerItem
+        ? new FixedSizeSamplingIterator<Preference>(maxUsersPerItem, prefs.iterator())
+        : prefs.iterator();
+    FastIDSet cooccurring = new FastIDSet();
+    while (users.hasNext()) {
+      FastIDSet userItemIDs = dataModel.getItemIDsFromUser(users.next().getUserID());
+      if (userItemIDs.size() <= maxItemsPerUser) {
+        cooccurring.addAll(userItemIDs);
+      } else {
+        LongPrimitiveIterator it =
+            new SamplingLongPrimitiveIterator(userItemIDs.iterator(), (double) maxItemsPerUser / userItemIDs.size());
+        while (it.hasNext()) {
+          cooccurring.add(it.nextLong());
+        }
+      }
+    }
+    cooccurring.remove(itemID);
+    return cooccurring.toArray();
+  }
+
+  private static void write(Writer out, StringBuilder buffer) throws IOException {
+    if (buffer.length() > 0) {
+      synchronized (out) {
+        out.append(buffer);
+      }
+      buffer.setLength(0);
+    }
+  }
+
+  private void execute(List<Callable<Object>> callables) throws TasteException, IOException {
+    if (executor == null) {
+      for (Callable<Object> callable : callables) {
+        try {
+          callable.call();
+        } catch (TasteException te) {
+          throw te;
+        } catch (IOException ioe) {
+          throw ioe;
+        } catch (Exception e) {
+          throw new TasteException(e);
+        }
+      }
+      return;
+    }
+    try {
+      for (Future<Object> future : executor.invokeAll(callables)) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof TasteException) {
+        throw (TasteException) cause;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new TasteException(cause);
+    }
+  }
+
+}
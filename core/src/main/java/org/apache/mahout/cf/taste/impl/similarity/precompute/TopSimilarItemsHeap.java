@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.similarity.precompute;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Keeps the items with the highest similarities offered to it, in a min-heap of primitive arrays so that no
+ * object is created per item. One instance is reused for many items by calling {@link #clear()}.
+ */
+final class TopSimilarItemsHeap {
+
+  private final long[] itemIDs;
+  private final double[] similarities;
+  private int size;
+
+  TopSimilarItemsHeap(int capacity) {
+    Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+    itemIDs = new long[capacity];
+    similarities = new double[capacity];
+  }
+
+  void clear() {
+    size = 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /** Keeps the item if its similarity is among the highest so far. {@link Double#NaN} is ignored. */
+  void offer(long itemID, double similarity) {
+    if (Double.isNaN(similarity)) {
+      return;
+    }
+    if (size < itemIDs.length) {
+      int i = size++;
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (similarities[parent] <= similarity) {
+          break;
+        }
+        itemIDs[i] = itemIDs[parent];
+        similarities[i] = similarities[parent];
+        i = parent;
+      }
+      itemIDs[i] = itemID;
+      similarities[i] = similarity;
+    } else if (similarity > similarities[0]) {
+      siftDown(itemID, similarity, size);
+    }
+  }
+
+  private void siftDown(long itemID, double similarity, int length) {
+    int i = 0;
+    int child;
+    while ((child = 2 * i + 1) < length) {
+      if (child + 1 < length && similarities[child + 1] < similarities[child]) {
+        child++;
+      }
+      if (similarity <= similarities[child]) {
+        break;
+      }
+      itemIDs[i] = itemIDs[child];
+      similarities[i] = similarities[child];
+      i = child;
+    }
+    itemIDs[i] = itemID;
+    similarities[i] = similarity;
+  }
+
+  /**
+   * Sorts the kept items by descending similarity, after which they are the first {@link #size()} entries of
+   * {@link #getItemIDs()} and {@link #getSimilarities()}. Nothing may be offered after this until {@link #clear()}.
+   */
+  void sortDescending() {
+    for (int last = size - 1; last > 0; last--) {
+      // Moves the least similar remaining item to the end
+      long itemID = itemIDs[last];
+      double similarity = similarities[last];
+      itemIDs[last] = itemIDs[0];
+      similarities[last] = similarities[0];
+      siftDown(itemID, similarity, last);
+    }
+  }
+
+  long[] getItemIDs() {
+    return itemIDs;
+  }
+
+  double[] getSimilarities() {
+    return similarities;
+  }
+
+}
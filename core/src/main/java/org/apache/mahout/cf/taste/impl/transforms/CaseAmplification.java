@@ -66,7 +66,21 @@ public final class CaseAmplification implements SimilarityTransform {
    */
   @Override
   public double transformSimilarity(long id1, long id2, double value) {
-    return value < 0.0 ? -Math.pow(-value, factor) : Math.pow(value, factor);
+    double magnitude = value < 0.0 ? -value : value;
+    double amplified;
+    // Common factors are computed without Math.pow, which is many times slower
+    if (factor == 2.0) {
+      amplified = magnitude * magnitude;
+    } else if (factor == 0.5) {
+      amplified = Math.sqrt(magnitude);
+    } else if (factor == 3.0) {
+      amplified = magnitude * magnitude * magnitude;
+    } else if (factor == 1.0) {
+      amplified = magnitude;
+    } else {
+      amplified = Math.pow(magnitude, factor);
+    }
+    return value < 0.0 ? -amplified : amplified;
   }
   
   @Override
@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.transforms;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+
+/** Computes something for each of many IDs, in parallel on an executor if there is one. */
+final class IDTasks {
+
+  private static final int IDS_PER_TASK = 1000;
+
+  interface Task {
+    void process(int index, long id) throws TasteException;
+  }
+
+  private IDTasks() {
+  }
+
+  /** @return the IDs in ascending order */
+  static long[] sortedIDs(LongPrimitiveIterator it, int size) {
+    long[] ids = new long[size];
+    int i = 0;
+    while (it.hasNext()) {
+      if (i == ids.length) {
+        ids = Arrays.copyOf(ids, 2 * ids.length + 1);
+      }
+      ids[i++] = it.nextLong();
+    }
+    if (i < ids.length) {
+      ids = Arrays.copyOf(ids, i);
+    }
+    Arrays.sort(ids);
+    return ids;
+  }
+
+  /**
+   * Calls the task for each ID and its index. With an executor, ranges of IDs are processed concurrently, so
+   * the task must be safe to call from several threads for different indices.
+   */
+  static void forEach(ExecutorService executor, final long[] ids, final Task task) throws TasteException {
+    if (executor == null || ids.length <= IDS_PER_TASK) {
+      for (int i = 0; i < ids.length; i++) {
+        task.process(i, ids[i]);
+      }
+      return;
+    }
+    List<Callable<Object>> callables = Lists.newArrayList();
+    for (int start = 0; start < ids.length; start += IDS_PER_TASK) {
+      final int from = start;
+      final int to = Math.min(ids.length, start + IDS_PER_TASK);
+      callables.add(new Callable<Object>() {
+        @Override
+        public Object call() throws TasteException {
+          for (int i = from; i < to; i++) {
+            task.process(i, ids[i]);
+          }
+          return null;
+        }
+      });
+    }
+    try {
+      for (Future<Object> future : executor.invokeAll(callables)) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof TasteException) {
+        throw (TasteException) cause;
+      }
+      throw new TasteException(cause);
+    }
+  }
+
+}
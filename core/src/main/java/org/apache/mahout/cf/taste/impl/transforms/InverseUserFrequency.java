@@ -17,19 +17,18 @@
 
 package org.apache.mahout.cf.taste.impl.transforms;
 
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
-import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
-import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
-import org.apache.mahout.cf.taste.transforms.PreferenceTransform;
+import org.apache.mahout.cf.taste.transforms.BatchPreferenceTransform;
 
 import com.google.common.base.Preconditions;
 
@@ -50,13 +49,19 @@ import com.google.common.base.Preconditions;
  * number of users who express a preference for each item in your model. If each item has about 100
  * preferences on average, 100.0 is a good log base.
  * </p>
+ *
+ * <p>
+ * Factors are computed for all items when this is created and when it is refreshed, in parallel if given an
+ * executor.
+ * </p>
  */
-public final class InverseUserFrequency implements PreferenceTransform {
+public final class InverseUserFrequency implements BatchPreferenceTransform {
   
   private final DataModel dataModel;
   private final RefreshHelper refreshHelper;
   private final double logBase;
-  private FastByIDMap<Double> iufFactors;
+  private final ExecutorService executor;
+  private volatile ItemFactors iufFactors;
   
   /**
    * <p>
@@ -71,10 +76,18 @@ public final class InverseUserFrequency implements PreferenceTransform {
    *           if dataModel is {@code null} or logBase is {@link Double#NaN} or &lt;= 1.0
    */
   public InverseUserFrequency(DataModel dataModel, double logBase) throws TasteException {
+    this(dataModel, logBase, null);
+  }
+
+  /**
+   * @param executor
+   *          executor to compute factors on in parallel, or {@code null} to compute them on the caller's thread
+   */
+  public InverseUserFrequency(DataModel dataModel, double logBase, ExecutorService executor) throws TasteException {
     Preconditions.checkArgument(logBase > 1.0, "logBase should be > 1.0");
     this.dataModel = Preconditions.checkNotNull(dataModel);
     this.logBase = logBase;
-    this.iufFactors = new FastByIDMap<Double>();
+    this.executor = executor;
     this.refreshHelper = new RefreshHelper(new Callable<Object>() {
       @Override
       public Object call() throws TasteException {
@@ -93,12 +106,41 @@ public final class InverseUserFrequency implements PreferenceTransform {
   
   @Override
   public float getTransformedValue(Preference pref) {
-    Double factor = iufFactors.get(pref.getItemID());
-    if (factor != null) {
-      return (float) (pref.getValue() * factor);
+    ItemFactors factors = iufFactors;
+    int index = Arrays.binarySearch(factors.itemIDs, pref.getItemID());
+    if (index >= 0) {
+      return (float) (pref.getValue() * factors.factors[index]);
     }
     return pref.getValue();
   }
+
+  @Override
+  public float[] getTransformedValues(PreferenceArray prefs) {
+    ItemFactors factors = iufFactors;
+    long[] itemIDs = factors.itemIDs;
+    int length = prefs.length();
+    float[] values = new float[length];
+    int from = 0;
+    long previousItemID = Long.MIN_VALUE;
+    for (int i = 0; i < length; i++) {
+      long itemID = prefs.getItemID(i);
+      if (itemID < previousItemID) {
+        from = 0;
+      }
+      previousItemID = itemID;
+      // Item IDs of a user's preferences are usually ascending, so the search can start after the last one
+      int index = Arrays.binarySearch(itemIDs, from, itemIDs.length, itemID);
+      float value = prefs.getValue(i);
+      if (index >= 0) {
+        values[i] = (float) (value * factors.factors[index]);
+        from = index;
+      } else {
+        values[i] = value;
+        from = -index - 1;
+      }
+    }
+    return values;
+  }
   
   @Override
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
@@ -106,24 +148,31 @@ public final class InverseUserFrequency implements PreferenceTransform {
   }
   
   private void recompute() throws TasteException {
-    Counters itemPreferenceCounts = new Counters();
-    int numUsers = 0;
-    LongPrimitiveIterator it = dataModel.getUserIDs();
-    while (it.hasNext()) {
-      PreferenceArray prefs = dataModel.getPreferencesFromUser(it.nextLong());
-      int size = prefs.length();
-      for (int i = 0; i < size; i++) {
-        itemPreferenceCounts.increment(prefs.getItemID(i));
+    long[] itemIDs = IDTasks.sortedIDs(dataModel.getItemIDs(), dataModel.getNumItems());
+    final double numUsers = dataModel.getNumUsers();
+    final double logFactor = Math.log(logBase);
+    final double[] factors = new double[itemIDs.length];
+    IDTasks.forEach(executor, itemIDs, new IDTasks.Task() {
+      @Override
+      public void process(int index, long itemID) throws TasteException {
+        int numUsersWithPreference = dataModel.getNumUsersWithPreferenceFor(itemID);
+        // An item nobody has a preference for, such as one whose preferences were all removed, gets no factor
+        factors[index] = numUsersWithPreference == 0
+            ? Double.NaN
+            : Math.log(numUsers / numUsersWithPreference) / logFactor;
+      }
+    });
+    int numFactors = 0;
+    for (int i = 0; i < factors.length; i++) {
+      if (!Double.isNaN(factors[i])) {
+        itemIDs[numFactors] = itemIDs[i];
+        factors[numFactors] = factors[i];
+        numFactors++;
       }
-      numUsers++;
-    }
-    FastByIDMap<Double> newIufFactors = new FastByIDMap<Double>(itemPreferenceCounts.size());
-    double logFactor = Math.log(logBase);
-    for (Map.Entry<Long,int[]> entry : itemPreferenceCounts.getEntrySet()) {
-      newIufFactors.put(entry.getKey(), Math.log((double) numUsers / (double) entry.getValue()[0])
-                                        / logFactor);
     }
-    iufFactors = newIufFactors;
+    iufFactors = numFactors == factors.length
+        ? new ItemFactors(itemIDs, factors)
+        : new ItemFactors(Arrays.copyOf(itemIDs, numFactors), Arrays.copyOf(factors, numFactors));
   }
   
   @Override
@@ -131,4 +180,15 @@ public final class InverseUserFrequency implements PreferenceTransform {
     return "InverseUserFrequency[logBase:" + logBase + ']';
   }
   
+  private static final class ItemFactors {
+
+    private final long[] itemIDs;
+    private final double[] factors;
+
+    private ItemFactors(long[] itemIDs, double[] factors) {
+      this.itemIDs = itemIDs;
+      this.factors = factors;
+    }
+  }
+  
 }
@@ -17,20 +17,21 @@
 
 package org.apache.mahout.cf.taste.impl.transforms;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import com.google.common.base.Preconditions;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
-import org.apache.mahout.cf.taste.impl.common.Cache;
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverageAndStdDev;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
-import org.apache.mahout.cf.taste.impl.common.Retriever;
 import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
-import org.apache.mahout.cf.taste.transforms.PreferenceTransform;
+import org.apache.mahout.cf.taste.transforms.BatchPreferenceTransform;
 
 /**
  * <p>
@@ -44,53 +45,129 @@ import org.apache.mahout.cf.taste.transforms.PreferenceTransform;
  * the full one to five star range when assigning ratings. This transform normalizes away the difference in
  * scale used by the two users so that both have a mean preference of 0.0 and a standard deviation of 1.0.
  * </p>
+ *
+ * <p>
+ * The mean and standard deviation of every user's preferences are computed when this is created and when it is
+ * refreshed, in parallel if given an executor.
+ * </p>
  */
-public final class ZScore implements PreferenceTransform {
+public final class ZScore implements BatchPreferenceTransform {
   
   private final DataModel dataModel;
-  private final Cache<Long,RunningAverageAndStdDev> meanAndStdevs;
+  private final ExecutorService executor;
+  private final RefreshHelper refreshHelper;
+  private volatile UserStatistics statistics;
   
-  public ZScore(DataModel dataModel) {
+  public ZScore(DataModel dataModel) throws TasteException {
+    this(dataModel, null);
+  }
+
+  /**
+   * @param executor
+   *          executor to compute users' statistics on in parallel, or {@code null} to compute them on the caller's
+   *          thread
+   */
+  public ZScore(DataModel dataModel, ExecutorService executor) throws TasteException {
     this.dataModel = Preconditions.checkNotNull(dataModel);
-    this.meanAndStdevs = new Cache<Long,RunningAverageAndStdDev>(new MeanStdevRetriever());
-    refresh(null);
+    this.executor = executor;
+    this.refreshHelper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() throws TasteException {
+        recompute();
+        return null;
+      }
+    });
+    this.refreshHelper.addDependency(dataModel);
+    recompute();
   }
   
   @Override
   public float getTransformedValue(Preference pref) throws TasteException {
-    RunningAverageAndStdDev meanAndStdev = meanAndStdevs.get(pref.getUserID());
-    if (meanAndStdev.getCount() > 1) {
-      double stdev = meanAndStdev.getStandardDeviation();
-      if (stdev > 0.0) {
-        return (float) ((pref.getValue() - meanAndStdev.getAverage()) / stdev);
+    double[] meanAndStdev = getMeanAndStdev(pref.getUserID());
+    return transform(pref.getValue(), meanAndStdev[0], meanAndStdev[1]);
+  }
+
+  @Override
+  public float[] getTransformedValues(PreferenceArray prefs) throws TasteException {
+    int length = prefs.length();
+    float[] values = new float[length];
+    if (length == 0) {
+      return values;
+    }
+    long userID = prefs.getUserID(0);
+    double[] meanAndStdev = getMeanAndStdev(userID);
+    for (int i = 0; i < length; i++) {
+      long prefUserID = prefs.getUserID(i);
+      if (prefUserID != userID) {
+        userID = prefUserID;
+        meanAndStdev = getMeanAndStdev(userID);
       }
+      values[i] = transform(prefs.getValue(i), meanAndStdev[0], meanAndStdev[1]);
     }
-    return 0.0f;
+    return values;
   }
-  
+
+  private static float transform(float value, double mean, double stdev) {
+    return stdev > 0.0 ? (float) ((value - mean) / stdev) : 0.0f;
+  }
+
+  /** @return mean and standard deviation of the user's preferences, or a standard deviation of 0 if undefined */
+  private double[] getMeanAndStdev(long userID) throws TasteException {
+    UserStatistics theStatistics = statistics;
+    int index = Arrays.binarySearch(theStatistics.userIDs, userID);
+    if (index >= 0) {
+      return new double[] {theStatistics.means[index], theStatistics.stdevs[index]};
+    }
+    // A user added since the last refresh
+    return computeMeanAndStdev(userID);
+  }
+
+  private double[] computeMeanAndStdev(long userID) throws TasteException {
+    RunningAverageAndStdDev running = new FullRunningAverageAndStdDev();
+    PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+    int size = prefs.length();
+    for (int i = 0; i < size; i++) {
+      running.addDatum(prefs.getValue(i));
+    }
+    double stdev = running.getCount() > 1 ? running.getStandardDeviation() : 0.0;
+    return new double[] {running.getAverage(), stdev};
+  }
+
+  private void recompute() throws TasteException {
+    long[] newUserIDs = IDTasks.sortedIDs(dataModel.getUserIDs(), dataModel.getNumUsers());
+    final double[] means = new double[newUserIDs.length];
+    final double[] stdevs = new double[newUserIDs.length];
+    IDTasks.forEach(executor, newUserIDs, new IDTasks.Task() {
+      @Override
+      public void process(int index, long userID) throws TasteException {
+        double[] meanAndStdev = computeMeanAndStdev(userID);
+        means[index] = meanAndStdev[0];
+        stdevs[index] = meanAndStdev[1];
+      }
+    });
+    statistics = new UserStatistics(newUserIDs, means, stdevs);
+  }
+
   @Override
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
-    meanAndStdevs.clear();
-    alreadyRefreshed = RefreshHelper.buildRefreshed(alreadyRefreshed);
-    RefreshHelper.maybeRefresh(alreadyRefreshed, dataModel);
+    refreshHelper.refresh(alreadyRefreshed);
   }
   
   @Override
   public String toString() {
     return "ZScore";
   }
-  
-  private class MeanStdevRetriever implements Retriever<Long,RunningAverageAndStdDev> {
-    
-    @Override
-    public RunningAverageAndStdDev get(Long userID) throws TasteException {
-      RunningAverageAndStdDev running = new FullRunningAverageAndStdDev();
-      PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
-      int size = prefs.length();
-      for (int i = 0; i < size; i++) {
-        running.addDatum(prefs.getValue(i));
-      }
-      return running;
+
+  private static final class UserStatistics {
+
+    private final long[] userIDs;
+    private final double[] means;
+    private final double[] stdevs;
+
+    private UserStatistics(long[] userIDs, double[] means, double[] stdevs) {
+      this.userIDs = userIDs;
+      this.means = means;
+      this.stdevs = stdevs;
     }
   }
   
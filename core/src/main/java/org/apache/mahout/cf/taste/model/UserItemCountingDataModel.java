@@ -0,0 +1,39 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.model;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+
+/**
+ * A {@link DataModel} which can count the items users have a preference for, and those two users share, without
+ * building their sets of item IDs. Similarities which only need these counts use them when the model offers them.
+ */
+public interface UserItemCountingDataModel extends DataModel {
+
+  /**
+   * @return number of items the user has a preference for
+   */
+  int getNumItemsWithPreferenceFrom(long userID) throws TasteException;
+
+  /**
+   * @return number of items both users have a preference for
+   */
+  int getNumItemsWithPreferenceFrom(long userID1, long userID2) throws TasteException;
+
+}
@@ -0,0 +1,40 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.recommender;
+
+/**
+ * <p>
+ * An {@link IDRescorer} which can also filter many IDs at once. Recommenders pass it all candidate items before
+ * estimating any of them, so filtered items are never estimated and {@link #isFiltered(long)} is not called for
+ * each of them.
+ * </p>
+ */
+public interface BatchIDRescorer extends IDRescorer {
+
+  /**
+   * Moves the IDs which are not filtered to the start of {@code ids}, possibly changing their order.
+   *
+   * @param ids
+   *          IDs to filter
+   * @param length
+   *          number of IDs at the start of {@code ids} to filter
+   * @return number of IDs not filtered
+   */
+  int retainUnfiltered(long[] ids, int length);
+
+}
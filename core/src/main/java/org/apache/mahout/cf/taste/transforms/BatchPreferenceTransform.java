@@ -0,0 +1,39 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.transforms;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * <p>
+ * A {@link PreferenceTransform} which can also transform all values of a {@link PreferenceArray} at once.
+ * Similarities use it to transform each user's preferences once per comparison, without creating a
+ * {@link org.apache.mahout.cf.taste.model.Preference} for each value.
+ * </p>
+ */
+public interface BatchPreferenceTransform extends PreferenceTransform {
+
+  /**
+   * @return transformed values of the preferences in {@code prefs}, in the same order; equal to what
+   *         {@link #getTransformedValue(org.apache.mahout.cf.taste.model.Preference)} returns for each
+   */
+  float[] getTransformedValues(PreferenceArray prefs) throws TasteException;
+
+}
@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+/** <p>Tests {@link CompressedBitmap}.</p> */
+public final class CompressedBitmapTest extends TasteTestCase {
+
+  @Test
+  public void testEmpty() {
+    CompressedBitmap bitmap = CompressedBitmap.of(new int[0], 0);
+    assertEquals(0, bitmap.cardinality());
+    assertFalse(bitmap.contains(0));
+    assertEquals(0, bitmap.toArray().length);
+    assertEquals(0, bitmap.intersectionSize(bitmap));
+  }
+
+  @Test
+  public void testContains() {
+    CompressedBitmap bitmap = CompressedBitmap.of(new int[] {0, 3, 65536, Integer.MAX_VALUE, 5}, 4);
+    assertEquals(4, bitmap.cardinality());
+    assertTrue(bitmap.contains(0));
+    assertTrue(bitmap.contains(65536));
+    assertTrue(bitmap.contains(Integer.MAX_VALUE));
+    assertFalse(bitmap.contains(5));
+    assertFalse(bitmap.contains(-1));
+    assertFalse(bitmap.contains(1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnsorted() {
+    CompressedBitmap.of(new int[] {2, 1}, 2);
+  }
+
+  @Test
+  public void testVersusBitSet() {
+    Random random = RandomUtils.getRandom();
+    // Densities from sparse arrays to full bitmaps
+    double[] densities = {0.0001, 0.01, 0.05, 0.1, 0.5, 1.0};
+    int range = 200000;
+    for (double density1 : densities) {
+      for (double density2 : densities) {
+        boolean[] in1 = new boolean[range];
+        boolean[] in2 = new boolean[range];
+        CompressedBitmap bitmap1 = randomBitmap(random, density1, in1);
+        CompressedBitmap bitmap2 = randomBitmap(random, density2, in2);
+        int expected = 0;
+        for (int i = 0; i < range; i++) {
+          if (in1[i] && in2[i]) {
+            expected++;
+          }
+          assertEquals(in1[i], bitmap1.contains(i));
+        }
+        assertEquals(expected, bitmap1.intersectionSize(bitmap2));
+        assertEquals(expected, bitmap2.intersectionSize(bitmap1));
+      }
+    }
+  }
+
+  private static CompressedBitmap randomBitmap(Random random, double density, boolean[] in) {
+    int[] values = new int[in.length];
+    int size = 0;
+    for (int i = 0; i < in.length; i++) {
+      if (random.nextDouble() < density) {
+        in[i] = true;
+        values[size++] = i;
+      }
+    }
+    CompressedBitmap bitmap = CompressedBitmap.of(values, size);
+    assertEquals(size, bitmap.cardinality());
+    assertTrue(Arrays.equals(Arrays.copyOf(values, size), bitmap.toArray()));
+    return bitmap;
+  }
+
+}
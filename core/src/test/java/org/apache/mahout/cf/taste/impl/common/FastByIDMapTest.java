@@ -122,6 +122,35 @@ public final class FastByIDMapTest extends TasteTestCase {
     }
   }
   
+  @Test
+  public void testEquals() {
+    FastByIDMap<String> map = buildTestFastMap();
+    FastByIDMap<String> other = new FastByIDMap<String>(100);
+    other.put(2L, "beta");
+    other.put(47L, "bang");
+    other.put(500000L, "alpha");
+    assertEquals(map, other);
+    assertEquals(map.hashCode(), other.hashCode());
+    other.put(47L, "buzz");
+    assertFalse(map.equals(other));
+  }
+
+  @Test
+  public void testRemoveAndRehash() {
+    FastByIDMap<String> map = new FastByIDMap<String>();
+    for (long i = 0; i < 1000; i++) {
+      map.put(i, String.valueOf(i));
+    }
+    for (long i = 0; i < 990; i++) {
+      assertEquals(String.valueOf(i), map.remove(i));
+    }
+    map.rehash();
+    assertEquals(10, map.size());
+    for (long i = 0; i < 1000; i++) {
+      assertEquals(i < 990 ? null : String.valueOf(i), map.get(i));
+    }
+  }
+
   @Test
   public void testMaxSize() {
     FastByIDMap<String> map = new FastByIDMap<String>();
@@ -150,6 +150,148 @@ public final class FastIDSetTest extends TasteTestCase {
     }
   }
 
+  @Test
+  public void testGrowFromSortedAndShrink() {
+    FastIDSet set = new FastIDSet();
+    for (long i = 20; i > 0; i--) {
+      set.add(i);
+    }
+    assertEquals(20, set.size());
+    for (long i = 1; i <= 20; i++) {
+      assertTrue(set.contains(i));
+    }
+    for (long i = 4; i <= 20; i++) {
+      assertTrue(set.remove(i));
+    }
+    set.rehash();
+    assertEquals(3, set.size());
+    assertEquals("[1,2,3]", set.toString());
+    assertFalse(set.contains(4));
+  }
+
+  @Test
+  public void testIteratorRemove() {
+    for (int size : new int[] {5, 50}) {
+      FastIDSet set = new FastIDSet();
+      for (long i = 0; i < size; i++) {
+        set.add(i);
+      }
+      LongPrimitiveIterator it = set.iterator();
+      int seen = 0;
+      while (it.hasNext()) {
+        long id = it.nextLong();
+        if (id % 2 == 0) {
+          it.remove();
+        }
+        seen++;
+      }
+      assertEquals(size, seen);
+      assertEquals(size / 2, set.size());
+      for (long i = 0; i < size; i++) {
+        assertEquals(i % 2 != 0, set.contains(i));
+      }
+    }
+  }
+
+  @Test
+  public void testAddAll() {
+    FastIDSet set = buildTestFastSet();
+    assertTrue(set.addAll(new long[] {3L, 4L, 100L, 5L, 6L, 7L, 8L, 9L}));
+    assertFalse(set.addAll(new long[] {1L, 100L}));
+    assertEquals(10, set.size());
+    FastIDSet other = new FastIDSet();
+    assertTrue(other.addAll(set));
+    assertEquals(10, other.size());
+    assertTrue(other.contains(100L));
+    assertTrue(other.addAll(new FastIDSet(new long[] {1L, 200L})));
+    assertEquals(11, other.size());
+  }
+
+  @Test
+  public void testRetainAll() {
+    FastIDSet small = buildTestFastSet();
+    FastIDSet large = new FastIDSet();
+    for (long i = 2; i < 100; i++) {
+      large.add(i);
+    }
+    assertTrue(small.retainAll(large));
+    assertEquals(2, small.size());
+    assertFalse(small.contains(1L));
+    assertTrue(large.retainAll(buildTestFastSet()));
+    assertEquals(2, large.size());
+    assertTrue(large.contains(2L));
+    assertTrue(large.contains(3L));
+    assertFalse(large.retainAll(large.clone()));
+  }
+
+  @Test
+  public void testRemoveAllSelf() {
+    FastIDSet sorted = buildTestFastSet();
+    assertTrue(sorted.removeAll(sorted));
+    assertTrue(sorted.isEmpty());
+    assertFalse(sorted.removeAll(sorted));
+    FastIDSet hashed = new FastIDSet(100);
+    for (long i = 0; i < 50; i++) {
+      hashed.add(i);
+    }
+    assertTrue(hashed.removeAll(hashed));
+    assertTrue(hashed.isEmpty());
+  }
+
+  @Test
+  public void testIntersectionSize() {
+    FastIDSet small = buildTestFastSet();
+    FastIDSet otherSmall = new FastIDSet(new long[] {2L, 3L, 4L, 5L});
+    FastIDSet large = new FastIDSet();
+    for (long i = 3; i < 1000; i++) {
+      large.add(i);
+    }
+    FastIDSet otherLarge = new FastIDSet();
+    for (long i = 500; i < 2000; i++) {
+      otherLarge.add(i);
+    }
+    assertEquals(2, small.intersectionSize(otherSmall));
+    assertEquals(1, small.intersectionSize(large));
+    assertEquals(1, large.intersectionSize(small));
+    assertEquals(500, large.intersectionSize(otherLarge));
+    assertEquals(0, small.intersectionSize(new FastIDSet()));
+  }
+
+  @Test
+  public void testEquals() {
+    FastIDSet sorted = buildTestFastSet();
+    FastIDSet hashed = new FastIDSet(100);
+    hashed.add(3L);
+    hashed.add(2L);
+    hashed.add(1L);
+    assertEquals(sorted, hashed);
+    assertEquals(sorted.hashCode(), hashed.hashCode());
+    hashed.add(4L);
+    assertFalse(sorted.equals(hashed));
+  }
+
+  @Test
+  public void testVersusHashSetLarge() {
+    FastIDSet actual = new FastIDSet();
+    Collection<Long> expected = new HashSet<Long>();
+    Random r = RandomUtils.getRandom();
+    for (int i = 0; i < 1000000; i++) {
+      double d = r.nextDouble();
+      long key = r.nextInt(20000) * 1024L;
+      if (d < 0.4) {
+        assertEquals(expected.contains(key), actual.contains(key));
+      } else if (d < 0.75) {
+        assertEquals(expected.add(key), actual.add(key));
+      } else {
+        assertEquals(expected.remove(key), actual.remove(key));
+      }
+    }
+    assertEquals(expected.size(), actual.size());
+    for (long key : actual.toArray()) {
+      assertTrue(expected.contains(key));
+    }
+  }
+
   private static FastIDSet buildTestFastSet() {
     FastIDSet set = new FastIDSet();
     set.add(1);
@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.mahout.cf.taste.impl.common;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.junit.Test;
+
+/** Tests {@link Histogram}. */
+public final class HistogramTest extends TasteTestCase {
+
+  @Test
+  public void testSmallValuesExact() {
+    Histogram histogram = new Histogram();
+    for (long value = 1; value <= 100; value++) {
+      histogram.recordValue(value);
+    }
+    assertEquals(100, histogram.getCount());
+    assertEquals(50, histogram.getValueAtPercentile(50.0));
+    assertEquals(99, histogram.getValueAtPercentile(99.0));
+    assertEquals(100, histogram.getValueAtPercentile(100.0));
+    assertEquals(1, histogram.getValueAtPercentile(0.0));
+    assertEquals(50.5, histogram.getMean(), EPSILON);
+    assertEquals(100, histogram.getMax());
+  }
+
+  @Test
+  public void testLargeValuesWithinPrecision() {
+    Histogram histogram = new Histogram();
+    for (long value = 1; value <= 10000; value++) {
+      histogram.recordValue(value * 1000L);
+    }
+    assertEquals(5000000.0, histogram.getValueAtPercentile(50.0), 5000000.0 / 64);
+    assertEquals(9990000.0, histogram.getValueAtPercentile(99.9), 9990000.0 / 64);
+    assertEquals(10000000L, histogram.getValueAtPercentile(100.0));
+  }
+
+  @Test
+  public void testBuckets() {
+    for (long value : new long[] {0L, 127L, 128L, 129L, 1000L, 123456789L, Long.MAX_VALUE}) {
+      long highest = Histogram.highestEquivalentValue(Histogram.indexOf(value));
+      assertTrue(highest >= value);
+      assertTrue(highest - value <= value / 64);
+    }
+  }
+
+  @Test
+  public void testEmpty() {
+    Histogram histogram = new Histogram();
+    assertEquals(0, histogram.getValueAtPercentile(99.0));
+    assertTrue(Double.isNaN(histogram.getMean()));
+  }
+
+}
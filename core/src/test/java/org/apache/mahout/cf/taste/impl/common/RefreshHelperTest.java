@@ -23,6 +23,11 @@ import org.junit.Test;
 
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /** Tests {@link RefreshHelper} */
 public final class RefreshHelperTest extends TasteTestCase {
@@ -67,4 +72,66 @@ public final class RefreshHelperTest extends TasteTestCase {
     assertEquals(1, mock2.getCallCount());
   }
 
+  @Test
+  public void testMetrics() {
+    RefreshHelper helper = new RefreshHelper(new MockRefreshable());
+    assertEquals(-1L, helper.getLastRefreshDurationMillis());
+    assertTrue(helper.getStalenessMillis() >= 0L);
+    long before = System.currentTimeMillis();
+    helper.refresh(null);
+    assertTrue(helper.getLastRefreshDurationMillis() >= 0L);
+    assertTrue(helper.getLastRefreshTime() >= before);
+    assertFalse(helper.isRefreshing());
+  }
+
+  @Test
+  public void testFailedRefreshNotRecorded() {
+    RefreshHelper helper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() {
+        throw new IllegalStateException();
+      }
+    });
+    long created = helper.getLastRefreshTime();
+    helper.refresh(null);
+    assertEquals(-1L, helper.getLastRefreshDurationMillis());
+    assertEquals(created, helper.getLastRefreshTime());
+  }
+
+  @Test
+  public void testBackground() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final MockRefreshable mock = new MockRefreshable();
+    RefreshHelper helper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() throws InterruptedException {
+        started.countDown();
+        release.await();
+        return mock.call();
+      }
+    });
+    MockRefreshable dependency = new MockRefreshable();
+    helper.addDependency(dependency);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      helper.setExecutor(executor);
+      helper.refresh(null);
+      assertTrue(started.await(10L, TimeUnit.SECONDS));
+      assertTrue(helper.isRefreshing());
+      // skipped, as a refresh is still running
+      helper.refresh(null);
+      assertEquals(0, mock.getCallCount());
+      release.countDown();
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(10L, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, mock.getCallCount());
+    assertEquals(1, dependency.getCallCount());
+    assertFalse(helper.isRefreshing());
+    assertTrue(helper.getLastRefreshDurationMillis() >= 0L);
+  }
+
 }
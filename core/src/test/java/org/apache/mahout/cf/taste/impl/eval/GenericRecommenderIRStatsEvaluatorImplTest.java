@@ -25,6 +25,7 @@ import org.apache.mahout.cf.taste.eval.RecommenderIRStatsEvaluator;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.model.GenericBooleanPrefDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
 import org.apache.mahout.cf.taste.impl.recommender.GenericBooleanPrefItemBasedRecommender;
 import org.apache.mahout.cf.taste.impl.recommender.slopeone.SlopeOneRecommender;
 import org.apache.mahout.cf.taste.impl.similarity.LogLikelihoodSimilarity;
@@ -81,6 +82,40 @@ public final class GenericRecommenderIRStatsEvaluatorImplTest extends TasteTestC
     assertEquals(0.666666666, stats.getNormalizedDiscountedCumulativeGain(), EPSILON);
   }
 
+  @Test
+  public void testViewSameAsCopy() throws Exception {
+    DataModel model = getDataModel(
+        new long[] {1, 2, 3, 4, 5},
+        new Double[][] {
+            {0.1, 0.3, 0.9, null, 0.6},
+            {0.2, 0.3, 0.3, 0.5},
+            {0.4, 0.3, 0.5, 0.1, 0.2},
+            {0.7, 0.3, 0.8, null, 0.4},
+            {0.9, null, 0.1, 0.6, 0.7},
+        });
+    RecommenderBuilder builder = new RecommenderBuilder() {
+      @Override
+      public Recommender buildRecommender(DataModel dataModel) throws TasteException {
+        return new SlopeOneRecommender(dataModel);
+      }
+    };
+    DataModelBuilder dataModelBuilder = new DataModelBuilder() {
+      @Override
+      public DataModel buildDataModel(FastByIDMap<PreferenceArray> trainingData) {
+        return new GenericDataModel(trainingData);
+      }
+    };
+    RecommenderIRStatsEvaluator evaluator = new GenericRecommenderIRStatsEvaluator();
+    IRStatistics copied = evaluator.evaluate(builder, dataModelBuilder, model, null, 2, 0.3, 1.0);
+    IRStatistics viewed = evaluator.evaluate(builder, null, model, null, 2, 0.3, 1.0);
+    assertEquals(copied.getPrecision(), viewed.getPrecision(), EPSILON);
+    assertEquals(copied.getRecall(), viewed.getRecall(), EPSILON);
+    assertEquals(copied.getFallOut(), viewed.getFallOut(), EPSILON);
+    assertEquals(copied.getNormalizedDiscountedCumulativeGain(),
+                 viewed.getNormalizedDiscountedCumulativeGain(), EPSILON);
+    assertEquals(copied.getReach(), viewed.getReach(), EPSILON);
+  }
+
   @Test
   public void testIRStats() {
     IRStatistics stats = new IRStatisticsImpl(0.3, 0.1, 0.2, 0.05, 0.15);
@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+/** Tests {@link LeaveOutDataModel}. */
+public final class LeaveOutDataModelTest extends TasteTestCase {
+
+  private static DataModel getBaseModel() {
+    return getDataModel(
+        new long[] {1, 2, 3},
+        new Double[][] {
+            {0.1, 0.3, null, 0.9},
+            {0.2, 0.3, 0.3},
+            {0.4, null, 0.5},
+        });
+  }
+
+  private static LeaveOutDataModel leaveOut(long userID, long... itemIDs) throws Exception {
+    FastIDSet hidden = new FastIDSet();
+    for (long itemID : itemIDs) {
+      hidden.add(itemID);
+    }
+    return new LeaveOutDataModel(getBaseModel(), userID, hidden);
+  }
+
+  @Test
+  public void testHiddenPreferences() throws Exception {
+    LeaveOutDataModel model = leaveOut(1, 1, 3);
+    assertTrue(model.hasUser());
+    PreferenceArray prefs = model.getPreferencesFromUser(1);
+    assertEquals(1, prefs.length());
+    assertEquals(0, prefs.getItemID(0));
+    assertEquals(1, model.getItemIDsFromUser(1).size());
+    assertNull(model.getPreferenceValue(1, 1));
+    assertNull(model.getPreferenceTime(1, 1));
+    assertEquals(0.1f, model.getPreferenceValue(1, 0), EPSILON);
+    assertEquals(0.3f, model.getPreferenceValue(2, 1), EPSILON);
+    assertEquals(3, model.getNumUsers());
+  }
+
+  @Test
+  public void testItems() throws Exception {
+    LeaveOutDataModel model = leaveOut(1, 1, 3);
+    // only user 1 had item 3
+    assertEquals(3, model.getNumItems());
+    LongPrimitiveIterator it = model.getItemIDs();
+    for (long expected = 0; expected < 3; expected++) {
+      assertEquals(expected, it.nextLong());
+    }
+    assertFalse(it.hasNext());
+    PreferenceArray prefs = model.getPreferencesForItem(1);
+    assertEquals(1, prefs.length());
+    assertEquals(2, prefs.getUserID(0));
+    assertEquals(3, model.getPreferencesForItem(0).length());
+    assertEquals(1, model.getNumUsersWithPreferenceFor(1));
+    assertEquals(1, model.getNumUsersWithPreferenceFor(0, 1));
+    assertEquals(2, model.getNumUsersWithPreferenceFor(0, 2));
+  }
+
+  @Test(expected = NoSuchItemException.class)
+  public void testRemovedItem() throws Exception {
+    leaveOut(1, 1, 3).getPreferencesForItem(3);
+  }
+
+  @Test
+  public void testAllHidden() throws Exception {
+    LeaveOutDataModel model = leaveOut(3, 0, 2);
+    assertFalse(model.hasUser());
+    assertEquals(2, model.getNumUsers());
+    LongPrimitiveIterator it = model.getUserIDs();
+    assertEquals(1, it.nextLong());
+    assertEquals(2, it.nextLong());
+    assertFalse(it.hasNext());
+    try {
+      model.getPreferencesFromUser(3);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // good
+    }
+  }
+
+}
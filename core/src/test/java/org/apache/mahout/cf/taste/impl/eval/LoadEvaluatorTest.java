@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.mahout.cf.taste.impl.eval;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.recommender.slopeone.SlopeOneRecommender;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.junit.Test;
+
+/** Tests {@link LoadEvaluator}. */
+public final class LoadEvaluatorTest extends TasteTestCase {
+
+  @Test
+  public void testClosedLoop() throws Exception {
+    Recommender recommender = new SlopeOneRecommender(getDataModel());
+    LoadStatistics stats = LoadEvaluator.runLoad(recommender, 2, new long[] {1, 2, 3, 4}, 2, 4, 20, 0.0);
+    assertEquals(20, stats.getLatencies().getCount());
+    assertEquals(20, stats.getTiming().getCount());
+    assertTrue(stats.getThroughput() > 0.0);
+    assertTrue(stats.toString().startsWith("{\"requests\":20,"));
+  }
+
+  @Test
+  public void testOpenLoop() throws Exception {
+    Recommender recommender = new SlopeOneRecommender(getDataModel());
+    long start = System.nanoTime();
+    LoadStatistics stats = LoadEvaluator.runLoad(recommender, 2, new long[] {1, 2, 3, 4}, 2, 0, 10, 100.0);
+    // the last request is due after 90ms
+    assertTrue(System.nanoTime() - start >= 90000000L);
+    assertEquals(10, stats.getLatencies().getCount());
+    assertTrue(stats.getThroughput() <= 10 / 0.09);
+  }
+
+  @Test
+  public void testDefault() throws Exception {
+    LoadStatistics stats = LoadEvaluator.runLoad(new SlopeOneRecommender(getDataModel()));
+    assertEquals(3, stats.getLatencies().getCount());
+  }
+
+}
@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.recommender.slopeone.SlopeOneRecommender;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.junit.Test;
+
+/** Tests {@link PreferenceFolds} and its training views. */
+public final class PreferenceFoldsTest extends TasteTestCase {
+
+  private static DataModel getLargerDataModel() {
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+    for (long userID = 0; userID < 50; userID++) {
+      PreferenceArray prefs = new GenericUserPreferenceArray(20);
+      prefs.setUserID(0, userID);
+      for (int i = 0; i < 20; i++) {
+        prefs.setItemID(i, i);
+        prefs.setValue(i, (userID * 7 + i * 3) % 5 + 1);
+      }
+      userData.put(userID, prefs);
+    }
+    return new GenericDataModel(userData);
+  }
+
+  @Test
+  public void testFoldsPartitionPreferences() throws Exception {
+    DataModel model = getLargerDataModel();
+    PreferenceFolds folds = PreferenceFolds.kFold(model, 5, 1.0, 1234L);
+    assertEquals(50, folds.getEvaluatedUserIDs().length);
+    int[] foldSizes = new int[5];
+    LongPrimitiveIterator it = model.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      int total = 0;
+      for (int fold = 0; fold < 5; fold++) {
+        PreferenceArray inFold = folds.getPreferencesInFold(userID, fold);
+        int numInFold = inFold == null ? 0 : inFold.length();
+        int numInTraining = folds.getTrainingModel(fold).getPreferencesFromUser(userID).length();
+        assertEquals(20, numInFold + numInTraining);
+        total += numInFold;
+        foldSizes[fold] += numInFold;
+      }
+      assertEquals(20, total);
+    }
+    for (int foldSize : foldSizes) {
+      // 1000 preferences in 5 folds
+      assertTrue(foldSize > 150 && foldSize < 250);
+    }
+  }
+
+  @Test
+  public void testDeterministic() throws Exception {
+    DataModel model = getLargerDataModel();
+    PreferenceFolds folds1 = PreferenceFolds.split(model, 0.7, 1.0, 42L);
+    PreferenceFolds folds2 = PreferenceFolds.split(model, 0.7, 1.0, 42L);
+    for (long userID = 0; userID < 50; userID++) {
+      for (long itemID = 0; itemID < 20; itemID++) {
+        assertEquals(folds1.foldOf(userID, itemID), folds2.foldOf(userID, itemID));
+      }
+    }
+  }
+
+  @Test
+  public void testTrainingModel() throws Exception {
+    DataModel model = getLargerDataModel();
+    PreferenceFolds folds = PreferenceFolds.split(model, 0.7, 0.5, 42L);
+    DataModel training = folds.getTrainingModel(1);
+    int numEvaluated = folds.getEvaluatedUserIDs().length;
+    assertTrue(numEvaluated > 10 && numEvaluated < 40);
+    assertEquals(numEvaluated, training.getNumUsers());
+    int numPrefs = 0;
+    LongPrimitiveIterator it = training.getItemIDs();
+    while (it.hasNext()) {
+      long itemID = it.nextLong();
+      PreferenceArray prefs = training.getPreferencesForItem(itemID);
+      assertEquals(prefs.length(), training.getNumUsersWithPreferenceFor(itemID));
+      for (int i = 0; i < prefs.length(); i++) {
+        long userID = prefs.getUserID(i);
+        assertTrue(folds.isEvaluated(userID));
+        assertEquals(0, folds.foldOf(userID, itemID));
+        assertEquals(model.getPreferenceValue(userID, itemID), training.getPreferenceValue(userID, itemID));
+      }
+      numPrefs += prefs.length();
+    }
+    int numUserPrefs = 0;
+    int numWithBoth = 0;
+    it = training.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      numUserPrefs += training.getPreferencesFromUser(userID).length();
+      if (training.getPreferenceValue(userID, 0) != null && training.getPreferenceValue(userID, 1) != null) {
+        numWithBoth++;
+      }
+    }
+    assertEquals(numPrefs, numUserPrefs);
+    assertEquals(numWithBoth, training.getNumUsersWithPreferenceFor(0, 1));
+  }
+
+  @Test
+  public void testUserIDsInFold() throws Exception {
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+    DataModel larger = getLargerDataModel();
+    LongPrimitiveIterator it = larger.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      userData.put(userID, larger.getPreferencesFromUser(userID));
+    }
+    // All of this user's preferences are in one fold
+    PreferenceArray singlePref = new GenericUserPreferenceArray(1);
+    singlePref.setUserID(0, 100L);
+    singlePref.setItemID(0, 0L);
+    singlePref.setValue(0, 3.0f);
+    userData.put(100L, singlePref);
+    DataModel model = new GenericDataModel(userData);
+    PreferenceFolds folds = PreferenceFolds.kFold(model, 5, 1.0, 1234L);
+
+    for (int fold = 0; fold < 5; fold++) {
+      FastIDSet inFold = new FastIDSet(folds.getUserIDsInFold(fold));
+      for (long userID : folds.getEvaluatedUserIDs()) {
+        assertEquals(folds.getPreferencesInFold(userID, fold) != null, inFold.contains(userID));
+      }
+    }
+    int fold = folds.foldOf(100L, 0L);
+    assertTrue(new FastIDSet(folds.getUserIDsInFold(fold)).contains(100L));
+    DataModel training = folds.getTrainingModel(fold);
+    it = training.getUserIDs();
+    while (it.hasNext()) {
+      assertTrue(it.nextLong() != 100L);
+    }
+  }
+
+  @Test(expected = NoSuchUserException.class)
+  public void testUnevaluatedUser() throws Exception {
+    DataModel model = getLargerDataModel();
+    PreferenceFolds folds = PreferenceFolds.split(model, 0.7, 0.5, 42L);
+    for (long userID = 0; userID < 50; userID++) {
+      if (!folds.isEvaluated(userID)) {
+        folds.getTrainingModel(1).getPreferencesFromUser(userID);
+      }
+    }
+  }
+
+  @Test
+  public void testEvaluate() throws Exception {
+    DataModel model = getLargerDataModel();
+    RecommenderBuilder builder = new RecommenderBuilder() {
+      @Override
+      public Recommender buildRecommender(DataModel dataModel) throws TasteException {
+        return new SlopeOneRecommender(dataModel);
+      }
+    };
+    PreferenceFolds folds = PreferenceFolds.kFold(model, 4, 1.0, 42L);
+    AbstractDifferenceRecommenderEvaluator evaluator = new RMSRecommenderEvaluator();
+    double crossValidated = evaluator.crossValidate(builder, folds);
+    assertFalse(Double.isNaN(crossValidated));
+    assertTrue(crossValidated > 0.0);
+    assertEquals(crossValidated, evaluator.crossValidate(builder, folds), EPSILON);
+    double oneFold = evaluator.evaluate(builder, folds, 0);
+    assertFalse(Double.isNaN(oneFold));
+    assertEquals(oneFold, evaluator.evaluate(builder, folds, 0), EPSILON);
+  }
+
+}
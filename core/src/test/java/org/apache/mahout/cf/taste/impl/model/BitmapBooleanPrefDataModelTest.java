@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.similarity.LogLikelihoodSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+/** <p>Tests {@link BitmapBooleanPrefDataModel}.</p> */
+public final class BitmapBooleanPrefDataModelTest extends TasteTestCase {
+
+  @Test
+  public void testSameAsGenericBooleanPrefDataModel() throws Exception {
+    FastByIDMap<FastIDSet> userData = randomUserData();
+    DataModel expected = new GenericBooleanPrefDataModel(userData);
+    BitmapBooleanPrefDataModel model = new BitmapBooleanPrefDataModel(userData);
+    assertEquals(expected.getNumUsers(), model.getNumUsers());
+    assertEquals(expected.getNumItems(), model.getNumItems());
+
+    LongPrimitiveIterator userIDs = expected.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      FastIDSet itemIDs = expected.getItemIDsFromUser(userID);
+      FastIDSet modelItemIDs = model.getItemIDsFromUser(userID);
+      assertEquals(itemIDs.size(), modelItemIDs.size());
+      assertEquals(itemIDs.size(), modelItemIDs.intersectionSize(itemIDs));
+      assertEquals(itemIDs.size(), model.getNumItemsWithPreferenceFrom(userID));
+      PreferenceArray prefs = model.getPreferencesFromUser(userID);
+      assertEquals(itemIDs.size(), prefs.length());
+      for (int i = 0; i < prefs.length(); i++) {
+        assertEquals(userID, prefs.getUserID(i));
+        assertTrue(itemIDs.contains(prefs.getItemID(i)));
+        assertEquals(1.0f, model.getPreferenceValue(userID, prefs.getItemID(i)), EPSILON);
+      }
+    }
+
+    LongPrimitiveIterator itemIDs = expected.getItemIDs();
+    while (itemIDs.hasNext()) {
+      long itemID = itemIDs.nextLong();
+      assertEquals(expected.getNumUsersWithPreferenceFor(itemID), model.getNumUsersWithPreferenceFor(itemID));
+      assertEquals(expected.getPreferencesForItem(itemID).length(), model.getPreferencesForItem(itemID).length());
+      for (long itemID2 = 0; itemID2 < 50; itemID2++) {
+        assertEquals(expected.getNumUsersWithPreferenceFor(itemID, itemID2),
+                     model.getNumUsersWithPreferenceFor(itemID, itemID2));
+      }
+    }
+    assertEquals(0, model.getNumUsersWithPreferenceFor(-1L));
+    assertNull(model.getPreferenceValue(0, -1L));
+  }
+
+  @Test
+  public void testUserSimilarities() throws Exception {
+    FastByIDMap<FastIDSet> userData = randomUserData();
+    DataModel expected = new GenericBooleanPrefDataModel(userData);
+    DataModel model = new BitmapBooleanPrefDataModel(userData);
+    UserSimilarity[] expectedSimilarities =
+        {new LogLikelihoodSimilarity(expected), new TanimotoCoefficientSimilarity(expected)};
+    UserSimilarity[] similarities = {new LogLikelihoodSimilarity(model), new TanimotoCoefficientSimilarity(model)};
+    for (int s = 0; s < similarities.length; s++) {
+      for (long userID1 = 0; userID1 < 20; userID1++) {
+        for (long userID2 = 0; userID2 < 20; userID2++) {
+          assertEquals(expectedSimilarities[s].userSimilarity(userID1, userID2),
+                       similarities[s].userSimilarity(userID1, userID2), EPSILON);
+        }
+      }
+    }
+  }
+
+  @Test(expected = NoSuchUserException.class)
+  public void testNoSuchUser() throws Exception {
+    new BitmapBooleanPrefDataModel(randomUserData()).getPreferencesFromUser(-1L);
+  }
+
+  @Test(expected = NoSuchItemException.class)
+  public void testNoSuchItem() throws Exception {
+    new BitmapBooleanPrefDataModel(randomUserData()).getPreferencesForItem(-1L);
+  }
+
+  private static FastByIDMap<FastIDSet> randomUserData() {
+    Random random = RandomUtils.getRandom();
+    FastByIDMap<FastIDSet> userData = new FastByIDMap<FastIDSet>();
+    for (long userID = 0; userID < 100; userID++) {
+      FastIDSet itemIDs = new FastIDSet();
+      itemIDs.add(random.nextInt(50));
+      for (long itemID = 0; itemID < 50; itemID++) {
+        if (random.nextInt(5) == 0) {
+          itemIDs.add(itemID);
+        }
+      }
+      userData.put(userID, itemIDs);
+    }
+    return userData;
+  }
+
+}
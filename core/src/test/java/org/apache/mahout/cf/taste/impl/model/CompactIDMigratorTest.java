@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.junit.Test;
+
+public final class CompactIDMigratorTest extends TasteTestCase {
+
+  private static final String DUMMY_STRING = "Mahout";
+  private static final long DUMMY_ID = -6311185995763544451L;
+
+  @Test
+  public void testStore() throws Exception {
+    CompactIDMigrator migrator = new CompactIDMigrator();
+    assertEquals(DUMMY_ID, migrator.toLongID(DUMMY_STRING));
+    assertNull(migrator.toStringID(DUMMY_ID));
+    migrator.storeMapping(DUMMY_ID, DUMMY_STRING);
+    assertEquals(DUMMY_STRING, migrator.toStringID(DUMMY_ID));
+    assertEquals(0, migrator.size());
+    migrator.compact();
+    assertEquals(1, migrator.size());
+    assertEquals(DUMMY_STRING, migrator.toStringID(DUMMY_ID));
+  }
+
+  @Test
+  public void testInitialize() throws Exception {
+    CompactIDMigrator migrator = new CompactIDMigrator();
+    List<String> stringIDs = Lists.newArrayList();
+    for (int i = 0; i < 10000; i++) {
+      stringIDs.add("user-" + i + (i % 7 == 0 ? "é中" : ""));
+    }
+    // Duplicates are kept once
+    stringIDs.add("user-1");
+    migrator.initialize(stringIDs);
+    assertEquals(10000, migrator.size());
+    for (String stringID : stringIDs) {
+      assertEquals(stringID, migrator.toStringID(migrator.toLongID(stringID)));
+    }
+    assertNull(migrator.toStringID(migrator.toLongID("user-10000")));
+
+    migrator.storeMapping(migrator.toLongID("user-10000"), "user-10000");
+    migrator.storeMapping(migrator.toLongID("user-1"), "replaced");
+    migrator.compact();
+    assertEquals(10001, migrator.size());
+    assertEquals("user-10000", migrator.toStringID(migrator.toLongID("user-10000")));
+    assertEquals("replaced", migrator.toStringID(migrator.toLongID("user-1")));
+    assertEquals("user-2", migrator.toStringID(migrator.toLongID("user-2")));
+  }
+
+  @Test
+  public void testNewMappingReplacesCompacted() throws Exception {
+    CompactIDMigrator migrator = new CompactIDMigrator();
+    migrator.storeMapping(DUMMY_ID, DUMMY_STRING);
+    migrator.compact();
+    migrator.storeMapping(DUMMY_ID, "replaced");
+    assertEquals("replaced", migrator.toStringID(DUMMY_ID));
+    migrator.compact();
+    assertEquals(1, migrator.size());
+    assertEquals("replaced", migrator.toStringID(DUMMY_ID));
+  }
+
+  @Test
+  public void testCompactsAtThreshold() throws Exception {
+    CompactIDMigrator migrator = new CompactIDMigrator(10);
+    migrator.initialize(Lists.newArrayList("a", "c", "e"));
+    for (int i = 0; i < 25; i++) {
+      String stringID = "user-" + i;
+      migrator.storeMapping(migrator.toLongID(stringID), stringID);
+    }
+    assertEquals(23, migrator.size());
+    migrator.compact();
+    assertEquals(28, migrator.size());
+    for (int i = 0; i < 25; i++) {
+      assertEquals("user-" + i, migrator.toStringID(migrator.toLongID("user-" + i)));
+    }
+    assertEquals("c", migrator.toStringID(migrator.toLongID("c")));
+    assertNull(migrator.toStringID(migrator.toLongID("b")));
+  }
+
+  @Test
+  public void testWriteAndMap() throws Exception {
+    CompactIDMigrator migrator = new CompactIDMigrator();
+    migrator.initialize(Lists.newArrayList("a", "b", ""));
+    migrator.storeMapping(DUMMY_ID, DUMMY_STRING);
+    File file = getTestTempFile("ids.bin");
+    migrator.writeTo(file);
+
+    CompactIDMigrator mapped = new CompactIDMigrator(file);
+    assertEquals(4, mapped.size());
+    assertEquals("a", mapped.toStringID(mapped.toLongID("a")));
+    assertEquals("", mapped.toStringID(mapped.toLongID("")));
+    assertEquals(DUMMY_STRING, mapped.toStringID(DUMMY_ID));
+    assertNull(mapped.toStringID(mapped.toLongID("c")));
+
+    mapped.initialize(Collections.singleton("c"));
+    assertEquals("c", mapped.toStringID(mapped.toLongID("c")));
+    assertEquals("b", mapped.toStringID(mapped.toLongID("b")));
+  }
+
+  @Test
+  public void testManyCompactions() throws Exception {
+    CompactIDMigrator migrator = new CompactIDMigrator(1);
+    for (int i = 0; i < 1000; i++) {
+      String stringID = "user-" + i;
+      migrator.storeMapping(migrator.toLongID(stringID), stringID);
+    }
+    for (int i = 0; i < 1000; i += 3) {
+      migrator.storeMapping(migrator.toLongID("user-" + i), "replaced-" + i);
+    }
+    assertEquals(1000, migrator.size());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals((i % 3 == 0 ? "replaced-" : "user-") + i, migrator.toStringID(migrator.toLongID("user-" + i)));
+    }
+  }
+
+  @Test
+  public void testRefreshKeepsUnwrittenMappings() throws Exception {
+    File file = getTestTempFile("ids.bin");
+    CompactIDMigrator writer = new CompactIDMigrator();
+    writer.initialize(Lists.newArrayList("a", "b"));
+    writer.writeTo(file);
+
+    CompactIDMigrator mapped = new CompactIDMigrator(file);
+    mapped.storeMapping(mapped.toLongID("c"), "c");
+    mapped.storeMapping(mapped.toLongID("a"), "replaced");
+    mapped.compact();
+
+    writer.initialize(Collections.singleton("d"));
+    writer.writeTo(file);
+    assertTrue(file.setLastModified(file.lastModified() - 10000L));
+    mapped.refresh(null);
+
+    assertEquals(4, mapped.size());
+    assertEquals("replaced", mapped.toStringID(mapped.toLongID("a")));
+    assertEquals("b", mapped.toStringID(mapped.toLongID("b")));
+    assertEquals("c", mapped.toStringID(mapped.toLongID("c")));
+    assertEquals("d", mapped.toStringID(mapped.toLongID("d")));
+  }
+
+}
@@ -310,4 +310,60 @@ public final class PlusAnonymousConcurrentUserDataModelTest extends MahoutTestCa
 		assertEquals(1, instance.getNumUsersWithPreferenceFor(sampleItemID, sampleItemID3));
 	}
 
+	/**
+	 * Test that anonymous preferences for items are gone once users are cleared or released
+	 */
+	@Test
+	public void testPreferencesForItemAfterRelease() throws TasteException {
+		PreferenceArray prefs = new GenericUserPreferenceArray(1);
+		prefs.setUserID(0, 4);
+		prefs.setItemID(0, 11);
+		FastByIDMap<PreferenceArray> delegatePreferences = new FastByIDMap<PreferenceArray>();
+		delegatePreferences.put(4, prefs);
+		PlusAnonymousConcurrentUserDataModel instance = getTestableWithDelegateData(10, delegatePreferences);
+
+		Long anonymousUserID1 = instance.takeAvailableUser();
+		Long anonymousUserID2 = instance.takeAvailableUser();
+		instance.setTempPrefs(getTempPrefs(anonymousUserID1, 11, 33), anonymousUserID1);
+		instance.setTempPrefs(getTempPrefs(anonymousUserID2, 11, 33), anonymousUserID2);
+		assertEquals(3, instance.getNumUsersWithPreferenceFor(11));
+		assertEquals(2, instance.getNumUsersWithPreferenceFor(11, 33));
+
+		// Replacing preferences drops the old ones
+		instance.setTempPrefs(getTempPrefs(anonymousUserID1, 22), anonymousUserID1);
+		assertEquals(2, instance.getPreferencesForItem(11).length());
+		assertEquals(1, instance.getNumUsersWithPreferenceFor(11, 33));
+		assertEquals(anonymousUserID2.longValue(), instance.getPreferencesForItem(33).getUserID(0));
+
+		instance.clearTempPrefs(anonymousUserID1);
+		assertTrue(instance.releaseUser(anonymousUserID2));
+		assertEquals(1, instance.getPreferencesForItem(11).length());
+		assertEquals(1, instance.getNumUsersWithPreferenceFor(11));
+		assertEquals(0, instance.getNumUsersWithPreferenceFor(11, 33));
+	}
+
+	/**
+	 * Test that the pool grows as users are taken and reuses released users
+	 */
+	@Test
+	public void testElasticPool() {
+		PlusAnonymousConcurrentUserDataModel instance =
+				new PlusAnonymousConcurrentUserDataModel(new GenericDataModel(new FastByIDMap<PreferenceArray>()));
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(PlusAnonymousUserDataModel.TEMP_USER_ID + i, instance.takeAvailableUser().longValue());
+		}
+		assertTrue(instance.releaseUser(PlusAnonymousUserDataModel.TEMP_USER_ID + 500));
+		assertEquals(PlusAnonymousUserDataModel.TEMP_USER_ID + 500, instance.takeAvailableUser().longValue());
+		assertEquals(PlusAnonymousUserDataModel.TEMP_USER_ID + 1000, instance.takeAvailableUser().longValue());
+	}
+
+	private static PreferenceArray getTempPrefs(long anonymousUserID, long... itemIDs) {
+		PreferenceArray tempPrefs = new GenericUserPreferenceArray(itemIDs.length);
+		tempPrefs.setUserID(0, anonymousUserID);
+		for (int i = 0; i < itemIDs.length; i++) {
+			tempPrefs.setItemID(i, itemIDs[i]);
+		}
+		return tempPrefs;
+	}
+
 }
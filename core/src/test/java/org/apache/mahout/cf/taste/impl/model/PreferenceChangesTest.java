@@ -0,0 +1,79 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+public final class PreferenceChangesTest extends TasteTestCase {
+
+  @Test
+  public void testApply() {
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+    PreferenceArray prefs1 = new GenericUserPreferenceArray(2);
+    prefs1.setUserID(0, 1L);
+    prefs1.setItemID(0, 10L);
+    prefs1.setValue(0, 1.0f);
+    prefs1.setItemID(1, 11L);
+    prefs1.setValue(1, 2.0f);
+    userData.put(1L, prefs1);
+    PreferenceArray prefs2 = new GenericUserPreferenceArray(1);
+    prefs2.setUserID(0, 2L);
+    prefs2.setItemID(0, 10L);
+    prefs2.setValue(0, 3.0f);
+    userData.put(2L, prefs2);
+
+    PreferenceChanges changes = new PreferenceChanges();
+    changes.add(1L, 12L, 4.0f);
+    changes.add(1L, 10L, 5.0f);
+    changes.remove(1L, 11L);
+    changes.remove(2L, 10L);
+    changes.add(3L, 10L, 6.0f);
+    changes.remove(3L, 10L);
+    changes.add(3L, 10L, 7.0f);
+    assertEquals(7, changes.size());
+
+    FastByIDMap<PreferenceArray> result = changes.applyTo(userData);
+
+    assertEquals(2, result.size());
+    PreferenceArray newPrefs1 = result.get(1L);
+    assertEquals(2, newPrefs1.length());
+    assertEquals(10L, newPrefs1.getItemID(0));
+    assertEquals(5.0f, newPrefs1.getValue(0), EPSILON);
+    assertEquals(12L, newPrefs1.getItemID(1));
+    assertEquals(4.0f, newPrefs1.getValue(1), EPSILON);
+    assertNull(result.get(2L));
+    assertEquals(7.0f, result.get(3L).getValue(0), EPSILON);
+
+    // The original data is left as it was
+    assertEquals(2, userData.size());
+    assertSame(prefs1, userData.get(1L));
+    assertEquals(1.0f, prefs1.getValue(0), EPSILON);
+    assertEquals(11L, prefs1.getItemID(1));
+  }
+
+  @Test
+  public void testRemoveMissing() {
+    PreferenceChanges changes = new PreferenceChanges();
+    changes.remove(1L, 10L);
+    assertTrue(changes.applyTo(new FastByIDMap<PreferenceArray>()).isEmpty());
+  }
+
+}
@@ -20,6 +20,7 @@ package org.apache.mahout.cf.taste.impl.model.file;
 import org.apache.commons.lang.mutable.MutableBoolean;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
 import org.apache.mahout.cf.taste.impl.recommender.GenericUserBasedRecommender;
@@ -176,6 +177,43 @@ public final class FileDataModelTest extends TasteTestCase {
     assertEquals(5.0f, dataModel.getPreferenceValue(123L, 456L), EPSILON);
   }
 
+  @Test
+  public void testIncrementalReloadLeavesCurrentModelAlone() throws Exception {
+    PreferenceArray oldPrefs = model.getPreferencesFromUser(123L);
+    writeLines(getTestTempFile("test.1.txt"), "123,456,0.9", "123,789,", "234,555,0.3");
+    model.refresh(null);
+
+    assertEquals(3, oldPrefs.length());
+    for (int i = 0; i < oldPrefs.length(); i++) {
+      if (oldPrefs.getItemID(i) == 456L) {
+        assertEquals(0.1f, oldPrefs.getValue(i), EPSILON);
+      }
+    }
+    assertEquals(0.9f, model.getPreferenceValue(123L, 456L), EPSILON);
+    assertNull(model.getPreferenceValue(123L, 789L));
+    assertEquals(2, model.getPreferencesFromUser(123L).length());
+    assertEquals(0.3f, model.getPreferenceValue(234L, 555L), EPSILON);
+  }
+
+  @Test
+  public void testIncrementalReloadLeavesCurrentBooleanModelAlone() throws Exception {
+    File file = getTestTempFile("bool.txt");
+    writeLines(file, "123,456", "123,789", "234,123");
+    DataModel booleanModel = new FileDataModel(file);
+    FastIDSet oldItemIDs = booleanModel.getItemIDsFromUser(123L);
+    writeLines(getTestTempFile("bool.1.txt"), "123,789,", "123,999", "234,555");
+    booleanModel.refresh(null);
+
+    assertEquals(2, oldItemIDs.size());
+    assertTrue(oldItemIDs.contains(789L));
+    assertFalse(oldItemIDs.contains(999L));
+    FastIDSet newItemIDs = booleanModel.getItemIDsFromUser(123L);
+    assertEquals(2, newItemIDs.size());
+    assertTrue(newItemIDs.contains(456L));
+    assertTrue(newItemIDs.contains(999L));
+    assertEquals(2, booleanModel.getItemIDsFromUser(234L).size());
+  }
+
   @Test
   public void testToString() {
     assertFalse(model.toString().isEmpty());
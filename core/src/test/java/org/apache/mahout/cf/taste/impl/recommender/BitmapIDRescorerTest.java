@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.util.BitSet;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.junit.Test;
+
+/** <p>Tests {@link BitmapIDRescorer}.</p> */
+public final class BitmapIDRescorerTest extends TasteTestCase {
+
+  private static BitmapIDRescorer getRescorer() {
+    BitSet filtered = new BitSet();
+    filtered.set(1);
+    filtered.set(3);
+    return new BitmapIDRescorer(new long[] {10, 20, 30, 40}, filtered, new float[] {1.0f, 1.0f, 2.0f, 1.0f});
+  }
+
+  @Test
+  public void testIsFiltered() {
+    BitmapIDRescorer rescorer = getRescorer();
+    assertFalse(rescorer.isFiltered(10));
+    assertTrue(rescorer.isFiltered(20));
+    assertFalse(rescorer.isFiltered(30));
+    assertTrue(rescorer.isFiltered(40));
+    assertFalse(rescorer.isFiltered(50));
+  }
+
+  @Test
+  public void testRescore() {
+    BitmapIDRescorer rescorer = getRescorer();
+    assertEquals(1.0, rescorer.rescore(10, 1.0), EPSILON);
+    assertEquals(3.0, rescorer.rescore(30, 1.5), EPSILON);
+    assertEquals(1.5, rescorer.rescore(35, 1.5), EPSILON);
+    assertEquals(1.5, new BitmapIDRescorer(new long[] {30}, new BitSet(), null).rescore(30, 1.5), EPSILON);
+  }
+
+  @Test
+  public void testRetainUnfiltered() {
+    long[] ids = {50, 40, 30, 20, 10, 5, 99};
+    int numUnfiltered = getRescorer().retainUnfiltered(ids, 6);
+    assertEquals(4, numUnfiltered);
+    assertEquals(5, ids[0]);
+    assertEquals(10, ids[1]);
+    assertEquals(30, ids[2]);
+    assertEquals(50, ids[3]);
+    assertEquals(99, ids[6]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnsortedIDs() {
+    new BitmapIDRescorer(new long[] {2, 1}, new BitSet(), null);
+  }
+
+}
@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.ClusteringRecommender;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.junit.Test;
+
+/** <p>Tests {@link CentroidTreeClusteringRecommender}.</p> */
+public final class CentroidTreeClusteringRecommenderTest extends TasteTestCase {
+
+  @Test
+  public void testNoRecommendations() throws Exception {
+    DataModel dataModel = getDataModel(
+            new long[] {1, 2, 3},
+            new Double[][] {
+                    {0.1},
+                    {0.2, 0.6},
+                    {0.4, 0.9},
+            });
+    Recommender recommender = new CentroidTreeClusteringRecommender(dataModel, 2);
+    List<RecommendedItem> recommended = recommender.recommend(1, 1);
+    assertNotNull(recommended);
+    assertEquals(0, recommended.size());
+    recommender.refresh(null);
+    recommended = recommender.recommend(1, 1);
+    assertNotNull(recommended);
+    assertEquals(0, recommended.size());
+  }
+
+  @Test
+  public void testHowMany() throws Exception {
+    DataModel dataModel = getDataModel(
+            new long[] {1, 2, 3, 4, 5},
+            new Double[][] {
+                    {0.1, 0.2},
+                    {0.2, 0.3, 0.3, 0.6},
+                    {0.4, 0.4, 0.5, 0.9},
+                    {0.1, 0.4, 0.5, 0.8, 0.9, 1.0},
+                    {0.2, 0.3, 0.6, 0.7, 0.1, 0.2},
+            });
+    Recommender recommender = new CentroidTreeClusteringRecommender(dataModel, 2);
+    List<RecommendedItem> fewRecommended = recommender.recommend(1, 2);
+    List<RecommendedItem> moreRecommended = recommender.recommend(1, 4);
+    assertEquals(2, fewRecommended.size());
+    assertEquals(4, moreRecommended.size());
+    for (int i = 0; i < fewRecommended.size(); i++) {
+      assertEquals(fewRecommended.get(i).getItemID(), moreRecommended.get(i).getItemID());
+    }
+  }
+
+  @Test
+  public void testRescorer() throws Exception {
+    DataModel dataModel = getDataModel(
+            new long[] {1, 2, 3},
+            new Double[][] {
+                    {0.1, 0.2},
+                    {0.2, 0.3, 0.3, 0.6},
+                    {0.4, 0.4, 0.5, 0.9},
+            });
+    Recommender recommender = new CentroidTreeClusteringRecommender(dataModel, 2);
+    List<RecommendedItem> originalRecommended = recommender.recommend(1, 2);
+    List<RecommendedItem> rescoredRecommended = recommender.recommend(1, 2, new ReversingRescorer<Long>());
+    assertEquals(2, originalRecommended.size());
+    assertEquals(2, rescoredRecommended.size());
+    assertEquals(originalRecommended.get(0).getItemID(), rescoredRecommended.get(1).getItemID());
+    assertEquals(originalRecommended.get(1).getItemID(), rescoredRecommended.get(0).getItemID());
+  }
+
+  @Test
+  public void testClusters() throws Exception {
+    ClusteringRecommender recommender = new CentroidTreeClusteringRecommender(getTwoGroupsDataModel(), 2);
+    assertTwoGroups(recommender);
+    assertEquals(0.5f, recommender.estimatePreference(3, 2), EPSILON);
+    assertTrue(Float.isNaN(recommender.estimatePreference(3, 5)));
+  }
+
+  @Test
+  public void testFewSeedsInParallel() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      // Only the two pairs of users with the same items are seeds; the others join them
+      ClusteringRecommender recommender =
+          new CentroidTreeClusteringRecommender(getTwoGroupsDataModel(), 2, 2, executor, null);
+      assertTwoGroups(recommender);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testClusteringFile() throws Exception {
+    File file = getTestTempFile("clusters.bin");
+    DataModel dataModel = getTwoGroupsDataModel();
+    Recommender recommender = new CentroidTreeClusteringRecommender(dataModel, 2, 10, null, file);
+    assertTrue(file.exists());
+    ClusteringRecommender loaded = new CentroidTreeClusteringRecommender(dataModel, 2, 10, null, file);
+    assertTwoGroups(loaded);
+    assertEquals(recommender.recommend(3, 2), loaded.recommend(3, 2));
+  }
+
+  private static DataModel getTwoGroupsDataModel() {
+    return getDataModel(
+            new long[] {1, 2, 3, 4, 5, 6},
+            new Double[][] {
+                    {0.5, 0.4, 0.5},
+                    {0.3, 0.4, 0.5},
+                    {0.4, 0.5},
+                    {null, null, null, 0.1, 0.2, 0.3},
+                    {null, null, null, 0.3, 0.2, 0.1},
+                    {null, null, null, null, 0.2, 0.3},
+            });
+  }
+
+  private static void assertTwoGroups(ClusteringRecommender recommender) throws Exception {
+    FastIDSet[] clusters = recommender.getClusters();
+    assertEquals(2, clusters.length);
+    FastIDSet cluster = recommender.getCluster(1);
+    assertEquals(3, cluster.size());
+    assertTrue(cluster.contains(2));
+    assertTrue(cluster.contains(3));
+    cluster = recommender.getCluster(4);
+    assertEquals(3, cluster.size());
+    assertTrue(cluster.contains(5));
+    assertTrue(cluster.contains(6));
+  }
+
+}
@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+/**
+ * Tests {@link CooccurrenceCandidateItemsStrategy}
+ */
+public final class CooccurrenceCandidateItemsStrategyTest extends TasteTestCase {
+
+  @Test
+  public void testStrategy() throws Exception {
+    DataModel dataModel = getDataModel(
+            new long[] {1, 2, 3, 4},
+            new Double[][] {
+                    {1.0},
+                    {1.0, 1.0, 1.0},
+                    {1.0, 1.0, null, 1.0},
+                    {null, null, null, null, 1.0},
+            });
+    CooccurrenceCandidateItemsStrategy strategy = new CooccurrenceCandidateItemsStrategy(dataModel, 10, 10);
+    PreferenceArray prefs = dataModel.getPreferencesFromUser(1);
+    FastIDSet candidates = strategy.getCandidateItems(1, prefs, dataModel);
+    assertEquals(3, candidates.size());
+    assertTrue(candidates.contains(1));
+    assertTrue(candidates.contains(2));
+    assertTrue(candidates.contains(3));
+    assertEquals(1, strategy.getCandidateCounts().getCount());
+    assertEquals(3, strategy.getCandidateCounts().getMax());
+  }
+
+  @Test
+  public void testBudget() throws Exception {
+    DataModel dataModel = getDataModel(
+            new long[] {1, 2, 3, 4},
+            new Double[][] {
+                    {1.0},
+                    {1.0, 1.0, 1.0},
+                    {1.0, 1.0, null, 1.0},
+                    {1.0, 1.0},
+            });
+    // Item 1 co-occurs with item 0 for three users of four, items 2 and 3 for one each
+    CooccurrenceCandidateItemsStrategy strategy = new CooccurrenceCandidateItemsStrategy(dataModel, 10, 1);
+    FastIDSet candidates = strategy.getCandidateItems(1, dataModel.getPreferencesFromUser(1), dataModel);
+    assertEquals(1, candidates.size());
+    assertTrue(candidates.contains(1));
+  }
+
+  @Test
+  public void testItemsPerIndex() throws Exception {
+    DataModel dataModel = getDataModel(
+            new long[] {1, 2, 3},
+            new Double[][] {
+                    {1.0},
+                    {1.0, 1.0, 1.0},
+                    {1.0, 1.0},
+            });
+    CooccurrenceCandidateItemsStrategy strategy = new CooccurrenceCandidateItemsStrategy(dataModel, 1, 10);
+    FastIDSet candidates = strategy.getCandidateItems(new long[] {0}, dataModel);
+    assertEquals(1, candidates.size());
+    assertTrue(candidates.contains(1));
+  }
+
+}
@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.lang.mutable.MutableInt;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.junit.Test;
+
+/** <p>Tests {@link OffHeapCachingRecommender}.</p> */
+public final class OffHeapCachingRecommenderTest extends TasteTestCase {
+
+  @Test
+  public void testRecommender() throws Exception {
+    MutableInt recommendCount = new MutableInt();
+    Recommender cachingRecommender = new OffHeapCachingRecommender(new MockRecommender(recommendCount));
+    List<RecommendedItem> recommended = cachingRecommender.recommend(1, 1);
+    assertEquals(1, recommended.size());
+    assertEquals(1L, recommended.get(0).getItemID());
+    assertEquals(1.0f, recommended.get(0).getValue(), EPSILON);
+    assertEquals(1, recommendCount.intValue());
+    cachingRecommender.recommend(2, 1);
+    assertEquals(2, recommendCount.intValue());
+    cachingRecommender.recommend(1, 1);
+    cachingRecommender.recommend(2, 1);
+    assertEquals(2, recommendCount.intValue());
+
+    // Without an executor, stale recommendations are computed again right away
+    cachingRecommender.refresh(null);
+    cachingRecommender.recommend(1, 1);
+    assertEquals(3, recommendCount.intValue());
+    cachingRecommender.recommend(1, 1);
+    assertEquals(3, recommendCount.intValue());
+
+    // Switching rescorers clears everything
+    IDRescorer rescorer = NullRescorer.getItemInstance();
+    cachingRecommender.recommend(1, 1, rescorer);
+    assertEquals(4, recommendCount.intValue());
+    cachingRecommender.recommend(1, 1, rescorer);
+    assertEquals(4, recommendCount.intValue());
+    cachingRecommender.recommend(1, 1);
+    assertEquals(5, recommendCount.intValue());
+
+    // Changing preferences clears the user
+    cachingRecommender.setPreference(1, 2, 3.0f);
+    cachingRecommender.recommend(1, 1);
+    assertEquals(6, recommendCount.intValue());
+
+    // More than fit are not cached
+    int maxItems = OffHeapCachingRecommender.DEFAULT_MAX_ITEMS;
+    cachingRecommender.recommend(1, maxItems + 1);
+    cachingRecommender.recommend(1, maxItems + 1);
+    assertEquals(8, recommendCount.intValue());
+
+    cachingRecommender.estimatePreference(1, 1);
+    assertEquals(9, recommendCount.intValue());
+    cachingRecommender.estimatePreference(1, 1);
+    assertEquals(9, recommendCount.intValue());
+  }
+
+  @Test
+  public void testServeStaleWhileComputing() throws Exception {
+    MutableInt recommendCount = new MutableInt();
+    QueueingExecutor executor = new QueueingExecutor();
+    Recommender cachingRecommender = new OffHeapCachingRecommender(new MockRecommender(recommendCount), 10, 5,
+        OffHeapCachingRecommender.NO_TTL, executor);
+    cachingRecommender.recommend(1, 1);
+    assertEquals(1, recommendCount.intValue());
+    assertTrue(executor.tasks.isEmpty());
+
+    cachingRecommender.refresh(null);
+    assertEquals(1, cachingRecommender.recommend(1, 1).size());
+    cachingRecommender.recommend(1, 1);
+    assertEquals(1, recommendCount.intValue());
+    // only one computation is scheduled per user
+    assertEquals(1, executor.tasks.size());
+
+    executor.runAll();
+    assertEquals(2, recommendCount.intValue());
+    cachingRecommender.recommend(1, 1);
+    assertEquals(2, recommendCount.intValue());
+    assertTrue(executor.tasks.isEmpty());
+  }
+
+  @Test
+  public void testTimeToLive() throws Exception {
+    MutableInt recommendCount = new MutableInt();
+    Recommender cachingRecommender = new OffHeapCachingRecommender(new MockRecommender(recommendCount), 10, 5,
+        0L, null);
+    cachingRecommender.recommend(1, 1);
+    assertEquals(1, recommendCount.intValue());
+    Thread.sleep(10L);
+    cachingRecommender.recommend(1, 1);
+    assertEquals(2, recommendCount.intValue());
+  }
+
+  private static final class QueueingExecutor implements Executor {
+
+    private final List<Runnable> tasks = Lists.newArrayList();
+
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    void runAll() {
+      for (Runnable task : tasks) {
+        task.run();
+      }
+      tasks.clear();
+    }
+  }
+
+}
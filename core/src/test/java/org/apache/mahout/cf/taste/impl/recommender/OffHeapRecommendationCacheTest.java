@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.junit.Test;
+
+/** <p>Tests {@link OffHeapRecommendationCache}.</p> */
+public final class OffHeapRecommendationCacheTest extends TasteTestCase {
+
+  @Test
+  public void testPutAndGet() {
+    OffHeapRecommendationCache cache = new OffHeapRecommendationCache(10, 3);
+    assertNull(cache.get(1L));
+    cache.put(1L, items(4), false, 100L, 2, cache.getEpoch());
+    cache.put(2L, items(2), true, 200L, 3, cache.getEpoch());
+
+    OffHeapRecommendationCache.Entry entry = cache.get(1L);
+    assertEquals(3, entry.getItems().size());
+    assertFalse(entry.isNoMoreRecommendableItems());
+    assertEquals(100L, entry.getComputedAt());
+    assertEquals(2, entry.getGeneration());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(10L + i, entry.getItems().get(i).getItemID());
+      assertEquals(3.0f - i, entry.getItems().get(i).getValue(), EPSILON);
+    }
+
+    entry = cache.get(2L);
+    assertEquals(2, entry.getItems().size());
+    assertTrue(entry.isNoMoreRecommendableItems());
+    assertEquals(3, entry.getGeneration());
+
+    cache.remove(1L);
+    assertNull(cache.get(1L));
+    assertNotNull(cache.get(2L));
+  }
+
+  @Test
+  public void testClear() {
+    OffHeapRecommendationCache cache = new OffHeapRecommendationCache(10, 3);
+    int epoch = cache.getEpoch();
+    cache.put(1L, items(1), false, 100L, 0, epoch);
+    cache.clear();
+    assertNull(cache.get(1L));
+    // Results computed before clearing are not stored
+    cache.put(1L, items(1), false, 100L, 0, epoch);
+    assertNull(cache.get(1L));
+    cache.put(1L, items(1), false, 100L, 0, cache.getEpoch());
+    assertNotNull(cache.get(1L));
+    // Slots which were never written are empty, including for user 0
+    assertNull(cache.get(0L));
+  }
+
+  @Test
+  public void testEviction() {
+    OffHeapRecommendationCache cache = new OffHeapRecommendationCache(100, 2);
+    for (long userID = 0; userID < 1000; userID++) {
+      cache.put(userID, items(2), false, userID, 0, cache.getEpoch());
+    }
+    int present = 0;
+    for (long userID = 0; userID < 1000; userID++) {
+      OffHeapRecommendationCache.Entry entry = cache.get(userID);
+      if (entry != null) {
+        assertEquals(userID, entry.getComputedAt());
+        present++;
+      }
+    }
+    assertTrue(present > 0);
+    assertTrue(present <= 2 * 100);
+    // The most recent ones are always kept
+    assertNotNull(cache.get(999L));
+  }
+
+  private static List<RecommendedItem> items(int howMany) {
+    List<RecommendedItem> items = Lists.newArrayList();
+    for (int i = 0; i < howMany; i++) {
+      items.add(new GenericRecommendedItem(10L + i, 3.0f - i));
+    }
+    return items;
+  }
+
+}
@@ -18,15 +18,19 @@
 package org.apache.mahout.cf.taste.impl.recommender;
 
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
 import org.apache.mahout.cf.taste.impl.similarity.GenericUserSimilarity;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.common.RandomUtils;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Random;
 
@@ -155,4 +159,29 @@ public final class TopItemsTest extends TasteTestCase {
     }
   }
 
+  @Test
+  public void testTopItemsBatchFiltered() throws Exception {
+    FastIDSet possibleItemIDs = new FastIDSet();
+    for (long id = 0; id < 100; id++) {
+      possibleItemIDs.add(id);
+    }
+    BitSet filtered = new BitSet();
+    filtered.set(90, 100);
+    long[] ids = possibleItemIDs.toArray();
+    Arrays.sort(ids);
+    IDRescorer rescorer = new BitmapIDRescorer(ids, filtered, null);
+    TopItems.Estimator<Long> estimator = new TopItems.Estimator<Long>() {
+      @Override
+      public double estimate(Long thing) {
+        assertTrue(thing < 90);
+        return thing;
+      }
+    };
+    List<RecommendedItem> topItems = TopItems.getTopItems(10, possibleItemIDs, rescorer, estimator);
+    int gold = 89;
+    for (RecommendedItem topItem : topItems) {
+      assertEquals(gold--, topItem.getItemID());
+    }
+  }
+
 }
@@ -19,6 +19,7 @@ package org.apache.mahout.cf.taste.impl.recommender.knn;
 
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.recommender.AllUnknownItemsCandidateItemsStrategy;
 import org.apache.mahout.cf.taste.impl.recommender.ReversingRescorer;
 import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
@@ -28,6 +29,8 @@ import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
 import org.junit.Test;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public final class KnnItemBasedRecommenderTest extends TasteTestCase {
 
@@ -111,6 +114,44 @@ public final class KnnItemBasedRecommenderTest extends TasteTestCase {
     assertEquals(0.1f, firstRecommended.getValue(), EPSILON);
   }
 
+  @Test
+  public void testCachedAndParallel() throws Exception {
+    DataModel dataModel = getDataModel(
+            new long[] {1, 2, 3, 4, 5},
+            new Double[][] {
+                    {0.1, 0.2},
+                    {0.2, 0.3, 0.3, 0.6},
+                    {0.4, 0.4, 0.5, 0.9},
+                    {0.1, 0.4, 0.5, 0.8, 0.9, 1.0},
+                    {0.2, 0.3, 0.6, 0.7, 0.1, 0.2},
+            });
+    ItemSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
+    Recommender plain = new KnnItemBasedRecommender(dataModel, similarity, new ConjugateGradientOptimizer(), 5);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      AllUnknownItemsCandidateItemsStrategy strategy = new AllUnknownItemsCandidateItemsStrategy();
+      Recommender cached = new KnnItemBasedRecommender(dataModel, similarity, new ConjugateGradientOptimizer(),
+          strategy, strategy, 5, 100, executor);
+      for (int round = 0; round < 2; round++) {
+        for (long userID = 1; userID <= 5; userID++) {
+          for (long itemID = 0; itemID < 6; itemID++) {
+            assertEquals(plain.estimatePreference(userID, itemID), cached.estimatePreference(userID, itemID),
+                EPSILON);
+          }
+          List<RecommendedItem> expected = plain.recommend(userID, 3);
+          List<RecommendedItem> actual = cached.recommend(userID, 3);
+          assertEquals(expected.size(), actual.size());
+          for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getValue(), actual.get(i).getValue(), EPSILON);
+          }
+        }
+        cached.refresh(null);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   private static Recommender buildRecommender() throws TasteException {
     DataModel dataModel = getDataModel();
     ItemSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
@@ -0,0 +1,194 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.slopeone;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.junit.Test;
+
+/** Tests {@link CompactMemoryDiffStorage}. */
+public final class CompactMemoryDiffStorageTest extends TasteTestCase {
+
+  @Test
+  public void testRecommendableIDsVariedWeighted() throws Exception {
+    DataModel model = MemoryDiffStorageTest.getDataModelVaried();
+    CompactMemoryDiffStorage storage = new CompactMemoryDiffStorage(model, Weighting.WEIGHTED);
+    FastIDSet recommendableItemIDs = storage.getRecommendableItemIDs(1);
+    assertEquals(3, recommendableItemIDs.size());
+    assertTrue(recommendableItemIDs.contains(1));
+    recommendableItemIDs = storage.getRecommendableItemIDs(2);
+    assertEquals(2, recommendableItemIDs.size());
+    assertTrue(recommendableItemIDs.contains(2));
+    assertTrue(recommendableItemIDs.contains(3));
+    assertEquals(0, storage.getRecommendableItemIDs(4).size());
+  }
+
+  @Test(expected = NoSuchUserException.class)
+  public void testUnRecommendableID() throws Exception {
+    new CompactMemoryDiffStorage(getDataModel(), Weighting.WEIGHTED).getRecommendableItemIDs(0);
+  }
+
+  @Test
+  public void testSameAsMemoryDiffStorage() throws Exception {
+    DataModel model = MemoryDiffStorageTest.getDataModelLarge();
+    MemoryDiffStorage expected = new MemoryDiffStorage(model, Weighting.WEIGHTED, Long.MAX_VALUE);
+    CompactMemoryDiffStorage actual = new CompactMemoryDiffStorage(model, Weighting.WEIGHTED);
+    LongPrimitiveIterator it1 = model.getItemIDs();
+    while (it1.hasNext()) {
+      long itemID1 = it1.nextLong();
+      LongPrimitiveIterator it2 = model.getItemIDs();
+      while (it2.hasNext()) {
+        long itemID2 = it2.nextLong();
+        if (itemID1 == itemID2) {
+          continue;
+        }
+        RunningAverageAndStdDev expectedDiff = (RunningAverageAndStdDev) expected.getDiff(itemID1, itemID2);
+        RunningAverageAndStdDev actualDiff = (RunningAverageAndStdDev) actual.getDiff(itemID1, itemID2);
+        assertEquals(expectedDiff.getCount(), actualDiff.getCount());
+        assertEquals(expectedDiff.getAverage(), actualDiff.getAverage(), EPSILON);
+        assertEquals(expectedDiff.getStandardDeviation(), actualDiff.getStandardDeviation(), EPSILON);
+      }
+    }
+  }
+
+  @Test
+  public void testAdd() throws Exception {
+    CompactMemoryDiffStorage storage = new CompactMemoryDiffStorage(getDataModel(), Weighting.UNWEIGHTED);
+
+    storage.addItemPref(1, 2, 0.8f);
+
+    RunningAverage average1 = storage.getDiff(0, 2);
+    assertEquals(0.25, average1.getAverage(), EPSILON);
+    assertEquals(4, average1.getCount());
+    RunningAverage average2 = storage.getDiff(1, 2);
+    assertEquals(0.3, average2.getAverage(), EPSILON);
+    assertEquals(4, average2.getCount());
+    RunningAverage inverted = storage.getDiff(2, 1);
+    assertEquals(-0.3, inverted.getAverage(), EPSILON);
+  }
+
+  @Test
+  public void testUpdate() throws Exception {
+    CompactMemoryDiffStorage storage = new CompactMemoryDiffStorage(getDataModel(), Weighting.UNWEIGHTED);
+    storage.updateItemPref(1, 0.5f);
+    RunningAverage average = storage.getDiff(1, 2);
+    assertEquals(0.06666666666666668, average.getAverage(), EPSILON);
+    assertEquals(3, average.getCount());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testUpdateWeighted() throws Exception {
+    new CompactMemoryDiffStorage(getDataModel(), Weighting.WEIGHTED).updateItemPref(2, 0.8f);
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    CompactMemoryDiffStorage storage = new CompactMemoryDiffStorage(getDataModel(), Weighting.UNWEIGHTED);
+
+    storage.removeItemPref(4, 2, 0.8f);
+
+    RunningAverage average1 = storage.getDiff(0, 2);
+    assertEquals(0.1, average1.getAverage(), EPSILON);
+    assertEquals(2, average1.getCount());
+    RunningAverage average2 = storage.getDiff(1, 2);
+    assertEquals(0.1, average2.getAverage(), EPSILON);
+    assertEquals(2, average2.getCount());
+  }
+
+  @Test
+  public void testRemovePref() throws Exception {
+    double eps = 0.0001;
+    DataModel model = MemoryDiffStorageTest.getDataModelPocked();
+    CompactMemoryDiffStorage storage = new CompactMemoryDiffStorage(model, Weighting.WEIGHTED);
+
+    RunningAverageAndStdDev average = (RunningAverageAndStdDev) storage.getDiff(0, 1);
+    assertEquals(-0.033333, average.getAverage(), eps);
+    assertEquals(0.32145, average.getStandardDeviation(), eps);
+    assertEquals(3, average.getCount());
+
+    storage.removeItemPref(2, 1, 0.1f);
+    average = (RunningAverageAndStdDev) storage.getDiff(0, 1);
+    assertEquals(0.0, average.getAverage(), eps);
+    assertEquals(0.44721, average.getStandardDeviation(), eps);
+    assertEquals(2, average.getCount());
+  }
+
+  @Test
+  public void testMaxDiffsPerItem() throws Exception {
+    DataModel model = MemoryDiffStorageTest.getDataModelVaried();
+    CompactMemoryDiffStorage storage = new CompactMemoryDiffStorage(model, Weighting.UNWEIGHTED, 1);
+    // item 0 was co-rated 4 times with item 1, but only 3 times with item 2
+    assertEquals(4, storage.getDiff(0, 1).getCount());
+    assertNull(storage.getDiff(0, 2));
+    // new pairs are not added to full rows, existing ones are still updated
+    storage.addItemPref(2, 2, 0.5f);
+    assertNull(storage.getDiff(0, 2));
+    assertEquals(4, storage.getDiff(1, 2).getCount());
+  }
+
+  @Test
+  public void testAddReusesRemovedSlot() throws Exception {
+    DataModel model = getDataModel(
+        new long[] {1, 2, 3},
+        new Double[][] {
+            {0.1, 0.3},
+            {0.2, 0.4},
+            {0.5, null, 0.6},
+        });
+    CompactMemoryDiffStorage storage = new CompactMemoryDiffStorage(model, Weighting.UNWEIGHTED, 1);
+    assertEquals(2, storage.getDiff(0, 1).getCount());
+    assertTrue(storage.getRecommendableItemIDs(1).isEmpty());
+
+    storage.removeItemPref(1, 1, 0.3f);
+    storage.removeItemPref(2, 1, 0.4f);
+    assertNull(storage.getDiff(0, 1));
+    // the full row takes the new pair in the unused slot, and the new item becomes recommendable
+    storage.addItemPref(3, 2, 0.6f);
+    RunningAverage average = storage.getDiff(0, 2);
+    assertEquals(1, average.getCount());
+    assertEquals(0.1, average.getAverage(), EPSILON);
+    FastIDSet recommendableItemIDs = storage.getRecommendableItemIDs(1);
+    assertEquals(1, recommendableItemIDs.size());
+    assertTrue(recommendableItemIDs.contains(2));
+  }
+
+  @Test
+  public void testAverageItemPref() throws Exception {
+    CompactMemoryDiffStorage storage = new CompactMemoryDiffStorage(getDataModel(), Weighting.UNWEIGHTED);
+    RunningAverage average = storage.getAverageItemPref(1);
+    assertEquals(4, average.getCount());
+    assertEquals(0.3, average.getAverage(), EPSILON);
+    assertNull(storage.getAverageItemPref(99));
+  }
+
+  @Test
+  public void testRefresh() throws Exception {
+    CompactMemoryDiffStorage storage = new CompactMemoryDiffStorage(getDataModel(), Weighting.UNWEIGHTED);
+    storage.addItemPref(1, 2, 0.8f);
+    storage.refresh(null);
+    // rebuilt from the data model, which never contained the added preference
+    assertEquals(3, storage.getDiff(0, 2).getCount());
+  }
+
+}
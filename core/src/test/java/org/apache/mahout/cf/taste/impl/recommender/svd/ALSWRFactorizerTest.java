@@ -202,4 +202,72 @@ public class ALSWRFactorizerTest extends TasteTestCase {
 
     assertTrue(rmse < 0.4);
   }
+
+  @Test
+  public void foldInUser() throws Exception {
+    Factorization factorization = factorizer.factorize();
+
+    /* a new user with the same ratings as the dog */
+    PreferenceArray prefs = new GenericUserPreferenceArray(Arrays.asList(new GenericPreference(5L, 1L, 5.0f),
+                                                                         new GenericPreference(5L, 2L, 5.0f),
+                                                                         new GenericPreference(5L, 3L, 2.0f)));
+    double[] userFeatures = factorizer.foldInUser(prefs, factorization);
+
+    assertEquals(factorization.numFeatures(), userFeatures.length);
+    RunningAverage avg = new FullRunningAverage();
+    for (Preference pref : prefs) {
+      double err = pref.getValue() - dot(userFeatures, factorization.getItemFeatures(pref.getItemID()));
+      avg.addDatum(err * err);
+    }
+    assertTrue(Math.sqrt(avg.getAverage()) < 0.2);
+  }
+
+  @Test
+  public void foldInUserWithUnknownItems() throws Exception {
+    Factorization factorization = factorizer.factorize();
+
+    PreferenceArray prefs = new GenericUserPreferenceArray(Arrays.asList(new GenericPreference(5L, 17L, 5.0f)));
+    double[] userFeatures = factorizer.foldInUser(prefs, factorization);
+
+    for (int feature = 0; feature < factorization.numFeatures(); feature++) {
+      double average = 0;
+      for (double[] features : factorization.allUserFeatures()) {
+        average += features[feature] / factorization.numUsers();
+      }
+      assertEquals(average, userFeatures[feature], EPSILON);
+    }
+  }
+
+  @Test
+  public void foldInUserImplicit() throws Exception {
+    ALSWRFactorizer factorizer = new ALSWRFactorizer(dataModel, 3, 0.065, 5, true, 20);
+    Factorization factorization = factorizer.factorize();
+
+    double[] userFeatures = factorizer.foldInUser(dataModel.getPreferencesFromUser(3L), factorization);
+
+    /* cow prefers hotdog and icecream */
+    double hotdog = dot(userFeatures, factorization.getItemFeatures(2L));
+    double icecream = dot(userFeatures, factorization.getItemFeatures(4L));
+    double burger = dot(userFeatures, factorization.getItemFeatures(1L));
+    double berries = dot(userFeatures, factorization.getItemFeatures(3L));
+    assertTrue(Math.min(hotdog, icecream) > Math.max(burger, berries));
+  }
+
+  @Test
+  public void recommenderFoldsInUser() throws Exception {
+    SVDRecommender svdRecommender = new SVDRecommender(dataModel, factorizer);
+
+    svdRecommender.foldInUser(3L);
+
+    assertEquals(5.0, svdRecommender.estimatePreference(3L, 2L), 0.3);
+    assertEquals(3.0, svdRecommender.estimatePreference(3L, 4L), 0.3);
+  }
+
+  private static double dot(double[] a, double[] b) {
+    double result = 0;
+    for (int n = 0; n < a.length; n++) {
+      result += a[n] * b[n];
+    }
+    return result;
+  }
 }
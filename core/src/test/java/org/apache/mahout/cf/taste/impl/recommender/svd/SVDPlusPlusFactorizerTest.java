@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericPreference;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SVDPlusPlusFactorizerTest extends TasteTestCase {
+
+  private FastByIDMap<PreferenceArray> userData;
+  private DataModel dataModel;
+
+  /**
+   *  rating-matrix
+   *
+   *          burger  hotdog  berries  icecream
+   *  dog       5       5        2        -
+   *  rabbit    2       -        3        5
+   *  cow       -       5        -        3
+   *  donkey    3       -        -        5
+   */
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    userData = new FastByIDMap<PreferenceArray>();
+
+    userData.put(1L, new GenericUserPreferenceArray(Arrays.asList(new GenericPreference(1L, 1L, 5.0f),
+                                                                  new GenericPreference(1L, 2L, 5.0f),
+                                                                  new GenericPreference(1L, 3L, 2.0f))));
+
+    userData.put(2L, new GenericUserPreferenceArray(Arrays.asList(new GenericPreference(2L, 1L, 2.0f),
+                                                                  new GenericPreference(2L, 3L, 3.0f),
+                                                                  new GenericPreference(2L, 4L, 5.0f))));
+
+    userData.put(3L, new GenericUserPreferenceArray(Arrays.asList(new GenericPreference(3L, 2L, 5.0f),
+                                                                  new GenericPreference(3L, 4L, 3.0f))));
+
+    userData.put(4L, new GenericUserPreferenceArray(Arrays.asList(new GenericPreference(4L, 1L, 3.0f),
+                                                                  new GenericPreference(4L, 4L, 5.0f))));
+
+    dataModel = new GenericDataModel(userData);
+  }
+
+  @Test
+  public void toyExample() throws Exception {
+    SVDPlusPlusFactorizer factorizer = new SVDPlusPlusFactorizer(dataModel, 3, 0.01, 0.01, 0.01, 500, 1.0);
+    SVDRecommender svdRecommender = new SVDRecommender(dataModel, factorizer);
+
+    RunningAverage avg = new FullRunningAverage();
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      for (Preference pref : dataModel.getPreferencesFromUser(userID)) {
+        double err = pref.getValue() - svdRecommender.estimatePreference(userID, pref.getItemID());
+        avg.addDatum(err * err);
+      }
+    }
+
+    double rmse = Math.sqrt(avg.getAverage());
+    assertTrue(rmse < 0.3);
+  }
+
+  @Test
+  public void factorizationLayout() throws Exception {
+    SVDPlusPlusFactorizer factorizer = new SVDPlusPlusFactorizer(dataModel, 2, 20);
+    Factorization factorization = factorizer.factorize();
+
+    assertEquals(SVDPlusPlusFactorizer.FEATURE_OFFSET + 2, factorization.numFeatures());
+    double[] userFeatures = factorization.getUserFeatures(1L);
+    double[] itemFeatures = factorization.getItemFeatures(1L);
+    assertEquals(3.8, userFeatures[SVDPlusPlusFactorizer.GLOBAL_AVERAGE_INDEX], EPSILON);
+    assertEquals(1, userFeatures[SVDPlusPlusFactorizer.ITEM_BIAS_INDEX], EPSILON);
+    assertEquals(1, itemFeatures[SVDPlusPlusFactorizer.GLOBAL_AVERAGE_INDEX], EPSILON);
+    assertEquals(1, itemFeatures[SVDPlusPlusFactorizer.USER_BIAS_INDEX], EPSILON);
+  }
+
+  @Test
+  public void foldInUser() throws Exception {
+    SVDPlusPlusFactorizer factorizer = new SVDPlusPlusFactorizer(dataModel, 3, 0.01, 0.01, 0.01, 500, 1.0);
+    Factorization factorization = factorizer.factorize();
+
+    /* a new user with the same taste as the dog */
+    PreferenceArray newUserPrefs = new GenericUserPreferenceArray(Arrays.asList(new GenericPreference(5L, 1L, 5.0f),
+                                                                               new GenericPreference(5L, 3L, 2.0f)));
+    double[] userFeatures = factorizer.foldInUser(newUserPrefs, factorization);
+
+    assertEquals(factorization.numFeatures(), userFeatures.length);
+    assertTrue(dot(userFeatures, factorization.getItemFeatures(1L))
+        > dot(userFeatures, factorization.getItemFeatures(3L)));
+    assertEquals(5.0, dot(userFeatures, factorization.getItemFeatures(1L)), 1.0);
+    assertEquals(2.0, dot(userFeatures, factorization.getItemFeatures(3L)), 1.0);
+  }
+
+  @Test
+  public void foldInUserWithoutPreferences() throws Exception {
+    SVDPlusPlusFactorizer factorizer = new SVDPlusPlusFactorizer(dataModel, 2, 20);
+    Factorization factorization = factorizer.factorize();
+
+    double[] userFeatures = factorizer.foldInUser(new GenericUserPreferenceArray(0), factorization);
+
+    /* only the global average and the item bias remain */
+    double[] itemFeatures = factorization.getItemFeatures(2L);
+    assertEquals(3.8 + itemFeatures[SVDPlusPlusFactorizer.ITEM_BIAS_INDEX], dot(userFeatures, itemFeatures), EPSILON);
+  }
+
+  @Test
+  public void newUserIsFoldedInByRecommender() throws Exception {
+    SVDPlusPlusFactorizer factorizer = new SVDPlusPlusFactorizer(dataModel, 3, 0.01, 0.01, 0.01, 500, 1.0);
+    final Factorization factorization = factorizer.factorize();
+
+    userData.put(5L, new GenericUserPreferenceArray(Arrays.asList(new GenericPreference(5L, 1L, 5.0f),
+                                                                  new GenericPreference(5L, 3L, 2.0f))));
+    DataModel dataModelWithNewUser = new GenericDataModel(userData);
+
+    SVDRecommender svdRecommender = new SVDRecommender(dataModelWithNewUser, factorizer, new PersistenceStrategy() {
+      @Override
+      public Factorization load() {
+        return factorization;
+      }
+      @Override
+      public void maybePersist(Factorization factorization) throws IOException {}
+    });
+
+    assertTrue(svdRecommender.estimatePreference(5L, 1L) > svdRecommender.estimatePreference(5L, 3L));
+    assertEquals(1, svdRecommender.recommend(5L, 1).size());
+  }
+
+  @Test
+  public void solveSymmetricPositiveDefinite() {
+    double[][] a = { { 4, 2 }, { 2, 3 } };
+    double[] x = SVDPlusPlusFactorizer.solveSymmetricPositiveDefinite(a, new double[] { 2, 5 });
+    assertEquals(-0.5, x[0], EPSILON);
+    assertEquals(2.0, x[1], EPSILON);
+  }
+
+  private static double dot(double[] a, double[] b) {
+    double result = 0;
+    for (int n = 0; n < a.length; n++) {
+      result += a[n] * b[n];
+    }
+    return result;
+  }
+
+}
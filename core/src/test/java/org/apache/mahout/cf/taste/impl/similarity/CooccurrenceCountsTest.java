@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.util.Arrays;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.junit.Test;
+
+public final class CooccurrenceCountsTest extends TasteTestCase {
+
+  @Test
+  public void testCounts() {
+    CooccurrenceCounts counts = new CooccurrenceCounts();
+    counts.increment(-5L);
+    counts.increment(7L);
+    counts.increment(7L);
+    assertEquals(1, counts.get(-5L));
+    assertEquals(2, counts.get(7L));
+    assertEquals(0, counts.get(8L));
+    assertEquals(2, counts.size());
+    counts.decrement(-5L);
+    assertEquals(0, counts.get(-5L));
+    assertEquals(1, counts.size());
+    assertArrayEquals(new long[] {7L}, counts.keys());
+  }
+
+  @Test
+  public void testGrowAndDropZeros() {
+    CooccurrenceCounts counts = new CooccurrenceCounts();
+    for (long key = 0L; key < 1000L; key++) {
+      counts.increment(key * 31L);
+      if (key % 2L == 1L) {
+        counts.decrement(key * 31L);
+      }
+    }
+    assertEquals(500, counts.size());
+    for (long key = 0L; key < 1000L; key++) {
+      assertEquals(key % 2L == 0L ? 1 : 0, counts.get(key * 31L));
+    }
+    long[] keys = counts.keys();
+    Arrays.sort(keys);
+    assertEquals(500, keys.length);
+    assertEquals(62L, keys[1]);
+  }
+
+}
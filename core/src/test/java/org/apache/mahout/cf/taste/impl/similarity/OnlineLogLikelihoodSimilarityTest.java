@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.util.Arrays;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.junit.Test;
+
+public final class OnlineLogLikelihoodSimilarityTest extends TasteTestCase {
+
+  @Test
+  public void testSameAsLogLikelihoodSimilarity() throws Exception {
+    DataModel dataModel = getBooleanDataModel(new long[] {1, 2, 3, 4, 5},
+        new boolean[][] {
+            {false, false, true, true, true, false},
+            {true, true, true, true, true, false},
+            {true, true, false, true, false, false},
+            {true, false, true, false, true, true},
+            {false, true, true, false, true, false},
+        });
+    LogLikelihoodSimilarity expected = new LogLikelihoodSimilarity(dataModel);
+    OnlineLogLikelihoodSimilarity similarity = new OnlineLogLikelihoodSimilarity();
+    similarity.addInteractions(dataModel);
+    long[] itemIDs = {0L, 1L, 2L, 3L, 4L, 5L};
+    for (long itemID1 : itemIDs) {
+      double[] similarities = similarity.itemSimilarities(itemID1, itemIDs);
+      for (int i = 0; i < itemIDs.length; i++) {
+        long itemID2 = itemIDs[i];
+        if (itemID1 == itemID2) {
+          continue;
+        }
+        assertEquals(expected.itemSimilarity(itemID1, itemID2), similarity.itemSimilarity(itemID1, itemID2),
+            EPSILON);
+        assertEquals(similarity.itemSimilarity(itemID1, itemID2), similarities[i], EPSILON);
+      }
+    }
+    // Item 5 only co-occurs with 0, 2 and 4
+    long[] similarItemIDs = similarity.allSimilarItemIDs(5L);
+    Arrays.sort(similarItemIDs);
+    assertArrayEquals(new long[] {0L, 2L, 4L}, similarItemIDs);
+  }
+
+  @Test
+  public void testNewItemsAreSimilarImmediately() {
+    OnlineLogLikelihoodSimilarity similarity = new OnlineLogLikelihoodSimilarity();
+    assertTrue(Double.isNaN(similarity.itemSimilarity(1L, 2L)));
+    assertEquals(0, similarity.allSimilarItemIDs(1L).length);
+    assertTrue(similarity.addInteraction(10L, 1L));
+    assertTrue(similarity.addInteraction(10L, 2L));
+    assertFalse(similarity.addInteraction(10L, 2L));
+    assertTrue(similarity.addInteraction(11L, 3L));
+    assertEquals(1, similarity.getNumUsers(1L, 2L));
+    assertEquals(1, similarity.getNumUsers(2L));
+    assertFalse(Double.isNaN(similarity.itemSimilarity(1L, 2L)));
+    assertTrue(Double.isNaN(similarity.itemSimilarity(1L, 3L)));
+  }
+
+  @Test
+  public void testUserHistoryIsSampled() {
+    OnlineLogLikelihoodSimilarity similarity = new OnlineLogLikelihoodSimilarity(3, 100);
+    for (long itemID = 0L; itemID < 50L; itemID++) {
+      similarity.addInteraction(1L, itemID);
+    }
+    int numItems = 0;
+    int numCooccurrences = 0;
+    for (long itemID = 0L; itemID < 50L; itemID++) {
+      int numUsers = similarity.getNumUsers(itemID);
+      numItems += numUsers;
+      for (long otherItemID = 0L; otherItemID < 50L; otherItemID++) {
+        numCooccurrences += similarity.getNumUsers(itemID, otherItemID);
+      }
+      assertEquals(numUsers == 0 ? 0 : 2, similarity.allSimilarItemIDs(itemID).length);
+    }
+    // 3 items in the history, each co-occurring with the other 2
+    assertEquals(3, numItems);
+    assertEquals(6, numCooccurrences);
+  }
+
+  @Test
+  public void testItemUsersAreCapped() {
+    OnlineLogLikelihoodSimilarity similarity = new OnlineLogLikelihoodSimilarity(100, 2);
+    assertTrue(similarity.addInteraction(1L, 1L));
+    assertTrue(similarity.addInteraction(2L, 1L));
+    assertFalse(similarity.addInteraction(3L, 1L));
+    assertTrue(similarity.addInteraction(3L, 2L));
+    assertEquals(2, similarity.getNumUsers(1L));
+    assertEquals(0, similarity.getNumUsers(1L, 2L));
+  }
+
+}
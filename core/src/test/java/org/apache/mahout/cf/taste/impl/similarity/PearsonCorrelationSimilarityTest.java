@@ -20,11 +20,15 @@ package org.apache.mahout.cf.taste.impl.similarity;
 import java.util.Collection;
 
 import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.transforms.ZScore;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.cf.taste.transforms.PreferenceTransform;
 import org.junit.Test;
 
 /** <p>Tests {@link PearsonCorrelationSimilarity}.</p> */
@@ -262,4 +266,46 @@ public final class PearsonCorrelationSimilarityTest extends SimilarityTestCase {
     assertEquals(-0.435285750066007, similarity.userSimilarity(1L, 2L), EPSILON);
   }
 
+  @Test
+  public void testBatchPrefTransform() throws Exception {
+    DataModel dataModel = getDataModel(
+      new long[] {1, 2},
+      new Double[][] {
+              {null, 1.0, 2.0,  5.0, null, 6.0},
+              {1.0, 8.0, null, 3.0,  4.0,  1.0},
+      });
+    final ZScore zScore = new ZScore(dataModel);
+    // Hides the batch method, so that values are transformed one at a time
+    PreferenceTransform oneAtATime = new PreferenceTransform() {
+      @Override
+      public float getTransformedValue(Preference pref) throws TasteException {
+        return zScore.getTransformedValue(pref);
+      }
+      @Override
+      public void refresh(Collection<Refreshable> alreadyRefreshed) {
+      }
+    };
+    PreferenceInferrer inferrer = new PreferenceInferrer() {
+      @Override
+      public float inferPreference(long userID, long itemID) {
+        return 0.5f;
+      }
+      @Override
+      public void refresh(Collection<Refreshable> alreadyRefreshed) {
+      }
+    };
+
+    PearsonCorrelationSimilarity batch = new PearsonCorrelationSimilarity(dataModel);
+    batch.setPrefTransform(zScore);
+    PearsonCorrelationSimilarity single = new PearsonCorrelationSimilarity(dataModel);
+    single.setPrefTransform(oneAtATime);
+    double correlation = batch.userSimilarity(1L, 2L);
+    assertFalse(Double.isNaN(correlation));
+    assertEquals(single.userSimilarity(1L, 2L), correlation, EPSILON);
+
+    batch.setPreferenceInferrer(inferrer);
+    single.setPreferenceInferrer(inferrer);
+    assertEquals(single.userSimilarity(1L, 2L), batch.userSimilarity(1L, 2L), EPSILON);
+  }
+
 }
@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.similarity.precompute;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.file.FileItemSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.junit.Test;
+
+public final class TopItemSimilaritiesTest extends TasteTestCase {
+
+  @Test
+  public void testWritesMostSimilarCooccurringItems() throws Exception {
+    DataModel dataModel = getDataModel(
+        new long[] {1, 2, 3, 4},
+        new Double[][] {
+            {1.0, 2.0, null, null, null},
+            {2.0, 4.0, 1.0, null, null},
+            {3.0, null, 5.0, 2.0, null},
+            {null, null, null, null, 1.0},
+        });
+    ItemSimilarity similarity = new TanimotoCoefficientSimilarity(dataModel);
+    StringWriter out = new StringWriter();
+    long numLines = new TopItemSimilarities(dataModel, similarity, 2).writeTo(out);
+    String[] lines = out.toString().split("\n");
+    assertEquals(numLines, lines.length);
+    // Items 0 to 3 each co-occur with two or three others, of which two are kept; 4 co-occurs with nothing
+    assertEquals(8, lines.length);
+    int linesOfItem0 = 0;
+    for (String line : lines) {
+      String[] tokens = line.split(",");
+      long itemID = Long.parseLong(tokens[0]);
+      long similarItemID = Long.parseLong(tokens[1]);
+      assertTrue(itemID != similarItemID);
+      assertTrue(itemID != 4L && similarItemID != 4L);
+      assertEquals(similarity.itemSimilarity(itemID, similarItemID), Double.parseDouble(tokens[2]), EPSILON);
+      if (itemID == 0L) {
+        // 1 and 2 (2/3) are more similar to 0 than 3 (1/3)
+        assertTrue(similarItemID == 1L || similarItemID == 2L);
+        linesOfItem0++;
+      }
+    }
+    assertEquals(2, linesOfItem0);
+  }
+
+  @Test
+  public void testCooccurringItems() throws Exception {
+    DataModel dataModel = getDataModel(
+        new long[] {1, 2},
+        new Double[][] {
+            {1.0, 2.0, null, null},
+            {null, 4.0, 1.0, null},
+        });
+    TopItemSimilarities similarities =
+        new TopItemSimilarities(dataModel, new TanimotoCoefficientSimilarity(dataModel), 10);
+    long[] cooccurring = similarities.getCooccurringItems(0L);
+    assertEquals(1, cooccurring.length);
+    assertEquals(1L, cooccurring[0]);
+    assertEquals(2, similarities.getCooccurringItems(1L).length);
+  }
+
+  @Test
+  public void testParallelOutputIsReadable() throws Exception {
+    Double[][] prefs = new Double[40][60];
+    for (int user = 0; user < prefs.length; user++) {
+      for (int item = 0; item < prefs[user].length; item++) {
+        if ((user * 7 + item * 3) % 5 < 2) {
+          prefs[user][item] = (double) ((user + item) % 5 + 1);
+        }
+      }
+    }
+    long[] userIDs = new long[prefs.length];
+    for (int user = 0; user < userIDs.length; user++) {
+      userIDs[user] = user;
+    }
+    DataModel dataModel = getDataModel(userIDs, prefs);
+    ItemSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
+
+    StringWriter serialOut = new StringWriter();
+    long serialLines = new TopItemSimilarities(dataModel, similarity, 5).writeTo(serialOut);
+    File file = getTestTempFile("similarities.csv");
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    Writer out = Files.newWriter(file, Charsets.UTF_8);
+    long parallelLines;
+    try {
+      parallelLines = new TopItemSimilarities(dataModel, similarity, 5, 100, 100, executor).writeTo(out);
+    } finally {
+      out.close();
+      executor.shutdown();
+    }
+    assertEquals(serialLines, parallelLines);
+    assertTrue(parallelLines > 0L);
+
+    ItemSimilarity fileSimilarity = new FileItemSimilarity(file);
+    for (String line : serialOut.toString().split("\n")) {
+      String[] tokens = line.split(",");
+      assertEquals(Double.parseDouble(tokens[2]),
+          fileSimilarity.itemSimilarity(Long.parseLong(tokens[0]), Long.parseLong(tokens[1])), EPSILON);
+    }
+  }
+
+}
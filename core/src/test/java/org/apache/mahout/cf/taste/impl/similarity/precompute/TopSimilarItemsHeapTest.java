@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.similarity.precompute;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+public final class TopSimilarItemsHeapTest extends TasteTestCase {
+
+  @Test
+  public void testKeepsMostSimilar() {
+    TopSimilarItemsHeap heap = new TopSimilarItemsHeap(3);
+    heap.offer(1L, 0.5);
+    heap.offer(2L, -0.5);
+    heap.offer(3L, Double.NaN);
+    heap.offer(4L, 0.9);
+    heap.offer(5L, 0.1);
+    heap.offer(6L, 0.7);
+    assertEquals(3, heap.size());
+    heap.sortDescending();
+    assertEquals(4L, heap.getItemIDs()[0]);
+    assertEquals(6L, heap.getItemIDs()[1]);
+    assertEquals(1L, heap.getItemIDs()[2]);
+    assertEquals(0.9, heap.getSimilarities()[0], EPSILON);
+    assertEquals(0.5, heap.getSimilarities()[2], EPSILON);
+
+    heap.clear();
+    heap.offer(7L, 0.2);
+    heap.sortDescending();
+    assertEquals(1, heap.size());
+    assertEquals(7L, heap.getItemIDs()[0]);
+  }
+
+  @Test
+  public void testRandom() {
+    Random random = RandomUtils.getRandom();
+    TopSimilarItemsHeap heap = new TopSimilarItemsHeap(10);
+    for (int round = 0; round < 20; round++) {
+      heap.clear();
+      double[] similarities = new double[random.nextInt(50)];
+      for (int i = 0; i < similarities.length; i++) {
+        similarities[i] = random.nextDouble();
+        heap.offer(i, similarities[i]);
+      }
+      heap.sortDescending();
+      double[] sorted = similarities.clone();
+      Arrays.sort(sorted);
+      assertEquals(Math.min(10, sorted.length), heap.size());
+      for (int i = 0; i < heap.size(); i++) {
+        assertEquals(sorted[sorted.length - 1 - i], heap.getSimilarities()[i], 0.0);
+        assertEquals(sorted[sorted.length - 1 - i], similarities[(int) heap.getItemIDs()[i]], 0.0);
+      }
+    }
+  }
+
+}
@@ -28,6 +28,19 @@ public final class CaseAmplificationTest extends TransformTestCase {
     assertEquals(-2.0, new CaseAmplification(0.5).transformSimilarity(0, 0, -4.0), EPSILON);
   }
 
+  @Test
+  public void testCommonFactors() {
+    double[] factors = {0.5, 1.0, 2.0, 3.0, 1.5};
+    double[] values = {-0.7, -0.1, 0.0, 0.3, 1.0};
+    for (double factor : factors) {
+      CaseAmplification amplification = new CaseAmplification(factor);
+      for (double value : values) {
+        double expected = value < 0.0 ? -Math.pow(-value, factor) : Math.pow(value, factor);
+        assertEquals(expected, amplification.transformSimilarity(0, 0, value), EPSILON);
+      }
+    }
+  }
+
   @Test
   public void testRefresh() {
     // Make sure this doesn't throw an exception
@@ -17,6 +17,12 @@
 
 package org.apache.mahout.cf.taste.impl.transforms;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
@@ -53,4 +59,71 @@ public final class InverseUserFrequencyTest extends TransformTestCase {
     iuf.refresh(null);
   }
 
+  @Test
+  public void testTransformedValues() throws Exception {
+    DataModel dataModel = getDataModel(
+            new long[] {1, 2, 3},
+            new Double[][] {
+                    {0.1, null, 0.3},
+                    {0.2, 0.3},
+                    {0.4, 0.5, 0.6, 0.7},
+            });
+    InverseUserFrequency iuf = new InverseUserFrequency(dataModel, 2.0);
+    for (long userID = 1L; userID <= 3L; userID++) {
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+      float[] values = iuf.getTransformedValues(prefs);
+      assertEquals(prefs.length(), values.length);
+      for (int i = 0; i < values.length; i++) {
+        assertEquals(iuf.getTransformedValue(prefs.get(i)), values[i], EPSILON);
+      }
+    }
+    // Item 3 is only in user 3's preferences: log2(3 / 1)
+    assertEquals(0.7 * Math.log(3.0) / Math.log(2.0),
+        iuf.getTransformedValues(dataModel.getPreferencesFromUser(3L))[3], EPSILON);
+    // Not in ascending order of item ID, and one item the transform does not know
+    PreferenceArray unordered = new GenericUserPreferenceArray(3);
+    unordered.setUserID(0, 1L);
+    unordered.setItemID(0, 3L);
+    unordered.setValue(0, 1.0f);
+    unordered.setItemID(1, 0L);
+    unordered.setValue(1, 1.0f);
+    unordered.setItemID(2, 10L);
+    unordered.setValue(2, 1.0f);
+    float[] values = iuf.getTransformedValues(unordered);
+    assertEquals(Math.log(3.0) / Math.log(2.0), values[0], EPSILON);
+    assertEquals(0.0, values[1], EPSILON);
+    assertEquals(1.0, values[2], EPSILON);
+  }
+
+  @Test
+  public void testParallel() throws Exception {
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+    for (long userID = 0L; userID < 50L; userID++) {
+      int numPrefs = 100 + (int) userID * 40;
+      PreferenceArray prefs = new GenericUserPreferenceArray(numPrefs);
+      prefs.setUserID(0, userID);
+      for (int i = 0; i < numPrefs; i++) {
+        prefs.setItemID(i, i);
+        prefs.setValue(i, 1.0f);
+      }
+      userData.put(userID, prefs);
+    }
+    DataModel dataModel = new GenericDataModel(userData);
+    InverseUserFrequency serial = new InverseUserFrequency(dataModel, 10.0);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      InverseUserFrequency parallel = new InverseUserFrequency(dataModel, 10.0, executor);
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(49L);
+      float[] serialValues = serial.getTransformedValues(prefs);
+      float[] parallelValues = parallel.getTransformedValues(prefs);
+      for (int i = 0; i < prefs.length(); i++) {
+        assertEquals(serialValues[i], parallelValues[i], EPSILON);
+      }
+      assertEquals(0.0, parallelValues[0], EPSILON);
+      assertEquals(Math.log(50.0) / Math.log(10.0), parallelValues[prefs.length() - 1], EPSILON);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
 }
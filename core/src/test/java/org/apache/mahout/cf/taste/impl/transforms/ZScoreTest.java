@@ -17,8 +17,16 @@
 
 package org.apache.mahout.cf.taste.impl.transforms;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
 import org.apache.mahout.cf.taste.impl.model.GenericPreference;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.PlusAnonymousUserDataModel;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.transforms.PreferenceTransform;
 import org.junit.Test;
 
@@ -58,4 +66,63 @@ public final class ZScoreTest extends TransformTestCase {
     assertEquals(1.0, zScore.getTransformedValue(new GenericPreference(1, 2, 9.0f)), EPSILON);
   }
 
+  @Test
+  public void testTransformedValues() throws Exception {
+    DataModel dataModel = getDataModel(new long[] {1, 2}, new Double[][] {{5.0, 7.0, 9.0}, {1.0, null, 2.0}});
+    ZScore zScore = new ZScore(dataModel);
+    for (long userID = 1L; userID <= 2L; userID++) {
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+      float[] values = zScore.getTransformedValues(prefs);
+      assertEquals(prefs.length(), values.length);
+      for (int i = 0; i < values.length; i++) {
+        assertEquals(zScore.getTransformedValue(prefs.get(i)), values[i], EPSILON);
+      }
+    }
+    float[] itemValues = zScore.getTransformedValues(dataModel.getPreferencesForItem(2L));
+    assertEquals(1.0, itemValues[0], EPSILON);
+    assertEquals(Math.sqrt(2.0) / 2.0, itemValues[1], EPSILON);
+  }
+
+  @Test
+  public void testParallel() throws Exception {
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+    for (long userID = 0L; userID < 2500L; userID++) {
+      PreferenceArray prefs = new GenericUserPreferenceArray(3);
+      prefs.setUserID(0, userID);
+      for (int i = 0; i < 3; i++) {
+        prefs.setItemID(i, i);
+        prefs.setValue(i, userID % 7 + i * (userID % 3));
+      }
+      userData.put(userID, prefs);
+    }
+    DataModel dataModel = new GenericDataModel(userData);
+    ZScore serial = new ZScore(dataModel);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      ZScore parallel = new ZScore(dataModel, executor);
+      for (long userID = 0L; userID < 2500L; userID++) {
+        PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+        assertEquals(serial.getTransformedValue(prefs.get(2)), parallel.getTransformedValue(prefs.get(2)), EPSILON);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testUserAddedSinceRefresh() throws Exception {
+    PlusAnonymousUserDataModel dataModel =
+        new PlusAnonymousUserDataModel(getDataModel(new long[] {1}, new Double[][] {{1.0, 3.0}}));
+    ZScore zScore = new ZScore(dataModel);
+    PreferenceArray tempPrefs = new GenericUserPreferenceArray(2);
+    tempPrefs.setUserID(0, PlusAnonymousUserDataModel.TEMP_USER_ID);
+    tempPrefs.setItemID(0, 0L);
+    tempPrefs.setValue(0, 2.0f);
+    tempPrefs.setItemID(1, 1L);
+    tempPrefs.setValue(1, 6.0f);
+    dataModel.setTempPrefs(tempPrefs);
+    assertEquals(-Math.sqrt(2.0) / 2.0, zScore.getTransformedValues(tempPrefs)[0], EPSILON);
+    assertEquals(Math.sqrt(2.0) / 2.0, zScore.getTransformedValue(tempPrefs.get(1)), EPSILON);
+  }
+
 }
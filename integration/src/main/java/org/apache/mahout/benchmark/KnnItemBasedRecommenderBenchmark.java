@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmark;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericPreference;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.recommender.AllUnknownItemsCandidateItemsStrategy;
+import org.apache.mahout.cf.taste.impl.recommender.knn.ConjugateGradientOptimizer;
+import org.apache.mahout.cf.taste.impl.recommender.knn.KnnItemBasedRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.common.TimingStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Times {@link KnnItemBasedRecommender} on random data: single estimates, which compute interpolation weights
+ * every time, and recommendations with cached weights, serially and on a thread pool.
+ *
+ * <p>Arguments, all optional: number of users, number of items, preferences per user, neighborhood size,
+ * number of users to recommend for.</p>
+ */
+public final class KnnItemBasedRecommenderBenchmark {
+
+  private static final Logger log = LoggerFactory.getLogger(KnnItemBasedRecommenderBenchmark.class);
+
+  private final DataModel dataModel;
+  private final ItemSimilarity similarity;
+  private final int neighborhoodSize;
+  private final int numUsersToRecommendFor;
+
+  public KnnItemBasedRecommenderBenchmark(int numUsers,
+                                          int numItems,
+                                          int prefsPerUser,
+                                          int neighborhoodSize,
+                                          int numUsersToRecommendFor) throws TasteException {
+    Random random = RandomUtils.getRandom();
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>(numUsers);
+    for (int userID = 0; userID < numUsers; userID++) {
+      List<Preference> prefs = Lists.newArrayListWithCapacity(prefsPerUser);
+      for (int itemID = 0; itemID < numItems; itemID++) {
+        if (random.nextInt(numItems) < prefsPerUser) {
+          prefs.add(new GenericPreference(userID, itemID, 1 + random.nextInt(5)));
+        }
+      }
+      if (!prefs.isEmpty()) {
+        userData.put(userID, new GenericUserPreferenceArray(prefs));
+      }
+    }
+    this.dataModel = new GenericDataModel(userData);
+    this.similarity = new PearsonCorrelationSimilarity(dataModel);
+    this.neighborhoodSize = neighborhoodSize;
+    this.numUsersToRecommendFor = Math.min(numUsersToRecommendFor, dataModel.getNumUsers());
+  }
+
+  public void estimateBenchmark() throws TasteException {
+    KnnItemBasedRecommender recommender = buildRecommender(0, null);
+    TimingStatistics stats = new TimingStatistics();
+    for (int userID = 0; userID < numUsersToRecommendFor; userID++) {
+      for (int itemID = 0; itemID < dataModel.getNumItems(); itemID++) {
+        TimingStatistics.Call call = stats.newCall();
+        recommender.estimatePreference(userID, itemID);
+        call.end();
+      }
+    }
+    log.info("Estimate, uncached {}", stats);
+  }
+
+  public void recommendBenchmark(String name, int maxCachedInterpolations, ExecutorService executor)
+    throws TasteException {
+    KnnItemBasedRecommender recommender = buildRecommender(maxCachedInterpolations, executor);
+    TimingStatistics stats = new TimingStatistics();
+    for (int userID = 0; userID < numUsersToRecommendFor; userID++) {
+      TimingStatistics.Call call = stats.newCall();
+      recommender.recommend(userID, 10);
+      call.end();
+    }
+    log.info("Recommend, {} {}", name, stats);
+  }
+
+  private KnnItemBasedRecommender buildRecommender(int maxCachedInterpolations, ExecutorService executor) {
+    return new KnnItemBasedRecommender(dataModel, similarity, new ConjugateGradientOptimizer(),
+        new AllUnknownItemsCandidateItemsStrategy(), new AllUnknownItemsCandidateItemsStrategy(), neighborhoodSize,
+        maxCachedInterpolations, executor);
+  }
+
+  public static void main(String[] args) throws TasteException {
+    int numUsers = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int numItems = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+    int prefsPerUser = args.length > 2 ? Integer.parseInt(args[2]) : 40;
+    int neighborhoodSize = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+    int numUsersToRecommendFor = args.length > 4 ? Integer.parseInt(args[4]) : 50;
+
+    KnnItemBasedRecommenderBenchmark benchmark =
+        new KnnItemBasedRecommenderBenchmark(numUsers, numItems, prefsPerUser, neighborhoodSize,
+                                             numUsersToRecommendFor);
+    benchmark.estimateBenchmark();
+    benchmark.recommendBenchmark("uncached", 0, null);
+    benchmark.recommendBenchmark("cached", 100000, null);
+    ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    try {
+      benchmark.recommendBenchmark("cached, parallel", 100000, executor);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+}
@@ -0,0 +1,179 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.cassandra;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+
+/**
+ * Loads many rows with a {@link RowFetcher} in batches of keys. With an {@link ExecutorService}, batches are
+ * fetched concurrently, but no more than a fixed number of requests are outstanding at once over all callers;
+ * callers wait for one of them to complete before submitting another batch, so that a burst of requests does not
+ * overload the cluster, and pool threads never block waiting. Without one, batches are fetched one after the
+ * other on the caller's thread.
+ */
+final class BatchingRowLoader {
+
+  private final RowFetcher fetcher;
+  private final ExecutorService executor;
+  private final int batchSize;
+  private final Semaphore inFlight;
+
+  BatchingRowLoader(RowFetcher fetcher, ExecutorService executor, int batchSize, int maxInFlight) {
+    Preconditions.checkArgument(batchSize >= 1, "batchSize must be at least 1");
+    Preconditions.checkArgument(maxInFlight >= 1, "maxInFlight must be at least 1");
+    this.fetcher = Preconditions.checkNotNull(fetcher);
+    this.executor = executor;
+    this.batchSize = batchSize;
+    this.inFlight = new Semaphore(maxInFlight);
+  }
+
+  /** @return the row with the given key, or {@code null} if it does not exist or has no columns */
+  PreferenceRow load(String columnFamily, long key) throws TasteException {
+    return fetchBatch(columnFamily, new long[] {key}).get(key);
+  }
+
+  /** @return the rows with the given keys which exist and have columns, by key */
+  FastByIDMap<PreferenceRow> load(String columnFamily, long[] keys) throws TasteException {
+    if (executor == null || keys.length <= batchSize) {
+      FastByIDMap<PreferenceRow> rows = new FastByIDMap<PreferenceRow>(keys.length);
+      for (int from = 0; from < keys.length; from += batchSize) {
+        addAll(rows, fetchBatch(columnFamily, Arrays.copyOfRange(keys, from, Math.min(keys.length, from + batchSize))));
+      }
+      return rows;
+    }
+
+    List<Future<FastByIDMap<PreferenceRow>>> futures = Lists.newArrayList();
+    List<BatchTask> tasks = Lists.newArrayList();
+    try {
+      for (int from = 0; from < keys.length; from += batchSize) {
+        long[] batch = Arrays.copyOfRange(keys, from, Math.min(keys.length, from + batchSize));
+        // Wait for a permit here rather than on a pool thread, which could otherwise serve other callers
+        acquire();
+        BatchTask task = new BatchTask(columnFamily, batch);
+        try {
+          futures.add(executor.submit(task));
+        } catch (RejectedExecutionException ree) {
+          task.releaseIfNotStarted();
+          throw ree;
+        }
+        tasks.add(task);
+      }
+      FastByIDMap<PreferenceRow> rows = new FastByIDMap<PreferenceRow>(keys.length);
+      for (Future<FastByIDMap<PreferenceRow>> future : futures) {
+        addAll(rows, future.get());
+      }
+      return rows;
+    } catch (RejectedExecutionException ree) {
+      throw new TasteException(ree);
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof TasteException) {
+        throw (TasteException) cause;
+      }
+      throw new TasteException(cause);
+    } finally {
+      for (int i = 0; i < futures.size(); i++) {
+        if (futures.get(i).cancel(false)) {
+          tasks.get(i).releaseIfNotStarted();
+        }
+      }
+    }
+  }
+
+  private void acquire() throws TasteException {
+    try {
+      inFlight.acquire();
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    }
+  }
+
+  private FastByIDMap<PreferenceRow> fetchBatch(String columnFamily, long[] keys) throws TasteException {
+    acquire();
+    try {
+      return fetcher.fetch(columnFamily, keys);
+    } finally {
+      inFlight.release();
+    }
+  }
+
+  /**
+   * Fetches a batch for which a permit was acquired on submission. The permit is released once, by the task when
+   * it has run, or by the submitter if the task was rejected or cancelled before it started.
+   */
+  private final class BatchTask implements Callable<FastByIDMap<PreferenceRow>> {
+
+    private static final int PENDING = 0;
+    private static final int STARTED = 1;
+    private static final int RELEASED = 2;
+
+    private final String columnFamily;
+    private final long[] keys;
+    private final AtomicInteger state;
+
+    private BatchTask(String columnFamily, long[] keys) {
+      this.columnFamily = columnFamily;
+      this.keys = keys;
+      state = new AtomicInteger(PENDING);
+    }
+
+    @Override
+    public FastByIDMap<PreferenceRow> call() throws TasteException {
+      if (!state.compareAndSet(PENDING, STARTED)) {
+        // Cancelled, and its permit released
+        return null;
+      }
+      try {
+        return fetcher.fetch(columnFamily, keys);
+      } finally {
+        state.set(RELEASED);
+        inFlight.release();
+      }
+    }
+
+    void releaseIfNotStarted() {
+      if (state.compareAndSet(PENDING, RELEASED)) {
+        inFlight.release();
+      }
+    }
+
+  }
+
+  private static void addAll(FastByIDMap<PreferenceRow> rows, FastByIDMap<PreferenceRow> batchRows) {
+    for (Map.Entry<Long,PreferenceRow> entry : batchRows.entrySet()) {
+      rows.put(entry.getKey(), entry.getValue());
+    }
+  }
+
+}
@@ -27,7 +27,6 @@ import me.prettyprint.hector.api.Cluster;
 import me.prettyprint.hector.api.ConsistencyLevelPolicy;
 import me.prettyprint.hector.api.HConsistencyLevel;
 import me.prettyprint.hector.api.Keyspace;
-import me.prettyprint.hector.api.beans.ColumnSlice;
 import me.prettyprint.hector.api.beans.HColumn;
 import me.prettyprint.hector.api.factory.HFactory;
 import me.prettyprint.hector.api.mutation.Mutator;
@@ -38,18 +37,16 @@ import org.apache.mahout.cf.taste.common.NoSuchItemException;
 import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
-import org.apache.mahout.cf.taste.impl.common.Cache;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
-import org.apache.mahout.cf.taste.impl.common.Retriever;
-import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
-import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 
 import java.io.Closeable;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -78,10 +75,20 @@ import java.util.concurrent.atomic.AtomicReference;
  * must {@link #close()} this implementation when done or the JVM will not terminate.</p>
  *
  * <p>This implementation still relies heavily on reading data into memory and caching,
- * as it remains too data-intensive to be effective even against Cassandra. It will take some time to
- * "warm up" as the first few requests will block loading user and item data into caches. This is still going
- * to send a great deal of query traffic to Cassandra. It would be advisable to employ caching wrapper
- * classes in your implementation, like {@link org.apache.mahout.cf.taste.impl.recommender.CachingRecommender}
+ * as it remains too data-intensive to be effective even against Cassandra. Rows of "users" and "items" are
+ * cached as primitive arrays in caches which are locked in stripes, and preferences set or removed through
+ * this model are written through to cached rows. {@link #prefetchUsers(long[])} and
+ * {@link #prefetchItems(long[])} load many rows with multi-key queries in batches; given an
+ * {@link ExecutorService}, batches are sent concurrently with a bound on the number of outstanding requests.</p>
+ *
+ * <p>Methods of {@link DataModel} which read one row, like {@link #getPreferencesFromUser(long)} or
+ * {@link #getPreferencesForItem(long)}, send one query for each row which is not cached, and wait for it.
+ * {@link #getNumUsersWithPreferenceFor(long, long)} fetches both rows in one query. Code which goes on to read
+ * many known rows should prefetch them first: for example, before recommending to a user with an item-based
+ * recommender, prefetch the rows of the items in {@link #getItemIDsFromUser(long)}. Prefetching also serves to
+ * warm up the caches. It would still be advisable to employ
+ * caching wrapper classes in your implementation, like
+ * {@link org.apache.mahout.cf.taste.impl.recommender.CachingRecommender}
  * or {@link org.apache.mahout.cf.taste.impl.similarity.CachingItemSimilarity}.</p>
  */
 public final class CassandraDataModel implements DataModel, Closeable {
@@ -95,6 +102,15 @@ public final class CassandraDataModel implements DataModel, Closeable {
   /** Default Cassandra keyspace. Default: recommender */
   private static final String DEFAULT_KEYSPACE = "recommender";
 
+  /** Default maximum number of cached rows of each of "users" and "items". Default: 2^20 */
+  public static final int DEFAULT_CACHE_SIZE = 1 << 20;
+
+  /** Default number of keys per multi-key query. Default: 100 */
+  public static final int DEFAULT_BATCH_SIZE = 100;
+
+  /** Default maximum number of outstanding multi-key queries. Default: 8 */
+  public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
   static final String USERS_CF = "users";
   static final String ITEMS_CF = "items";
   static final String USER_IDS_CF = "userIDs";
@@ -104,10 +120,9 @@ public final class CassandraDataModel implements DataModel, Closeable {
 
   private final Cluster cluster;
   private final Keyspace keyspace;
-  private final Cache<Long,PreferenceArray> userCache;
-  private final Cache<Long,PreferenceArray> itemCache;
-  private final Cache<Long,FastIDSet> itemIDsFromUserCache;
-  private final Cache<Long,FastIDSet> userIDsFromItemCache;
+  private final BatchingRowLoader loader;
+  private final PreferenceRowCache userRows;
+  private final PreferenceRowCache itemRows;
   private final AtomicReference<Integer> userCountCache;
   private final AtomicReference<Integer> itemCountCache;
 
@@ -124,6 +139,26 @@ public final class CassandraDataModel implements DataModel, Closeable {
    * @param keyspaceName name of Cassandra keyspace to use
    */
   public CassandraDataModel(String host, int port, String keyspaceName) {
+    this(host, port, keyspaceName, DEFAULT_CACHE_SIZE, DEFAULT_BATCH_SIZE, DEFAULT_MAX_IN_FLIGHT, null);
+  }
+
+  /**
+   * @param host Cassandra server host name
+   * @param port Cassandra server port
+   * @param keyspaceName name of Cassandra keyspace to use
+   * @param cacheSize maximum number of cached rows of each of "users" and "items"
+   * @param batchSize number of keys per multi-key query
+   * @param maxInFlight maximum number of outstanding multi-key queries
+   * @param executor executor on which to send the queries of one prefetch concurrently, or {@code null}
+   *  to send them one after the other
+   */
+  public CassandraDataModel(String host,
+                            int port,
+                            String keyspaceName,
+                            int cacheSize,
+                            int batchSize,
+                            int maxInFlight,
+                            ExecutorService executor) {
     
     Preconditions.checkNotNull(host);
     Preconditions.checkArgument(port > 0);
@@ -133,10 +168,9 @@ public final class CassandraDataModel implements DataModel, Closeable {
     keyspace = HFactory.createKeyspace(keyspaceName, cluster);
     keyspace.setConsistencyLevelPolicy(new OneConsistencyLevelPolicy());
 
-    userCache = new Cache<Long,PreferenceArray>(new UserPrefArrayRetriever(), 1 << 20);
-    itemCache = new Cache<Long,PreferenceArray>(new ItemPrefArrayRetriever(), 1 << 20);
-    itemIDsFromUserCache = new Cache<Long,FastIDSet>(new ItemIDsFromUserRetriever(), 1 << 20);
-    userIDsFromItemCache = new Cache<Long,FastIDSet>(new UserIDsFromItemRetriever(), 1 << 20);
+    loader = new BatchingRowLoader(new HectorRowFetcher(keyspace), executor, batchSize, maxInFlight);
+    userRows = new PreferenceRowCache(cacheSize);
+    itemRows = new PreferenceRowCache(cacheSize);
     userCountCache = new AtomicReference<Integer>(null);
     itemCountCache = new AtomicReference<Integer>(null);
   }
@@ -154,12 +188,68 @@ public final class CassandraDataModel implements DataModel, Closeable {
 
   @Override
   public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
-    return userCache.get(userID);
+    return getUserRow(userID).toUserPreferences(userID);
   }
 
   @Override
   public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
-    return itemIDsFromUserCache.get(userID);
+    return getUserRow(userID).toIDSet();
+  }
+
+  private PreferenceRow getUserRow(long userID) throws TasteException {
+    PreferenceRow row = getRow(USERS_CF, userRows, userID);
+    if (row == null) {
+      throw new NoSuchUserException(userID);
+    }
+    return row;
+  }
+
+  private PreferenceRow getRow(String columnFamily, PreferenceRowCache rows, long key) throws TasteException {
+    PreferenceRow row = rows.get(key);
+    if (row == null) {
+      long version = rows.getVersion(key);
+      row = loader.load(columnFamily, key);
+      if (row != null) {
+        // Not over a row written through meanwhile, which is fresher
+        row = rows.putIfUnchanged(key, row, version);
+      }
+    }
+    return row;
+  }
+
+  /**
+   * Loads the preferences of those of the given users which are not cached yet, with multi-key queries.
+   */
+  public void prefetchUsers(long[] userIDs) throws TasteException {
+    prefetch(USERS_CF, userRows, userIDs);
+  }
+
+  /**
+   * Loads the preferences for those of the given items which are not cached yet, with multi-key queries.
+   */
+  public void prefetchItems(long[] itemIDs) throws TasteException {
+    prefetch(ITEMS_CF, itemRows, itemIDs);
+  }
+
+  private void prefetch(String columnFamily, PreferenceRowCache rows, long[] keys) throws TasteException {
+    long[] missing = new long[keys.length];
+    long[] versions = new long[keys.length];
+    int numMissing = 0;
+    for (long key : keys) {
+      if (rows.get(key) == null) {
+        versions[numMissing] = rows.getVersion(key);
+        missing[numMissing++] = key;
+      }
+    }
+    if (numMissing > 0) {
+      FastByIDMap<PreferenceRow> loaded = loader.load(columnFamily, Arrays.copyOf(missing, numMissing));
+      for (int i = 0; i < numMissing; i++) {
+        PreferenceRow row = loaded.get(missing[i]);
+        if (row != null) {
+          rows.putIfUnchanged(missing[i], row, versions[i]);
+        }
+      }
+    }
   }
 
   @Override
@@ -175,11 +265,19 @@ public final class CassandraDataModel implements DataModel, Closeable {
 
   @Override
   public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
-    return itemCache.get(itemID);
+    PreferenceRow row = getRow(ITEMS_CF, itemRows, itemID);
+    if (row == null) {
+      throw new NoSuchItemException(itemID);
+    }
+    return row.toItemPreferences(itemID);
   }
 
   @Override
   public Float getPreferenceValue(long userID, long itemID) {
+    PreferenceRow row = userRows.get(userID);
+    if (row != null) {
+      return row.getValue(itemID);
+    }
     ColumnQuery<Long,Long,Float> query =
         HFactory.createColumnQuery(keyspace, LongSerializer.get(), LongSerializer.get(), FloatSerializer.get());
     query.setColumnFamily(USERS_CF);
@@ -232,23 +330,17 @@ public final class CassandraDataModel implements DataModel, Closeable {
 
   @Override
   public int getNumUsersWithPreferenceFor(long itemID) throws TasteException {
-    /*
-    CountQuery<Long,Long> query = HFactory.createCountQuery(keyspace, LongSerializer.get(), LongSerializer.get());
-    query.setColumnFamily(ITEMS_CF);
-    query.setKey(itemID);
-    query.setRange(null, null, Integer.MAX_VALUE);
-    return query.execute().get();
-     */
-    return userIDsFromItemCache.get(itemID).size();
+    PreferenceRow row = getRow(ITEMS_CF, itemRows, itemID);
+    return row == null ? 0 : row.size();
   }
 
   @Override
   public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) throws TasteException {
-    FastIDSet userIDs1 = userIDsFromItemCache.get(itemID1);
-    FastIDSet userIDs2 = userIDsFromItemCache.get(itemID2);
-    return userIDs1.size() < userIDs2.size() ?
-        userIDs2.intersectionSize(userIDs1) :
-        userIDs1.intersectionSize(userIDs2);
+    // Both rows in one query if neither is cached
+    prefetchItems(new long[] {itemID1, itemID2});
+    PreferenceRow userIDs1 = itemRows.get(itemID1);
+    PreferenceRow userIDs2 = itemRows.get(itemID2);
+    return userIDs1 == null || userIDs2 == null ? 0 : userIDs1.intersectionSize(userIDs2);
   }
 
   @Override
@@ -287,6 +379,9 @@ public final class CassandraDataModel implements DataModel, Closeable {
     mutator.addInsertion(ID_ROW_KEY, ITEM_IDS_CF, itemIDs);
 
     mutator.execute();
+
+    userRows.setValue(userID, itemID, value);
+    itemRows.setValue(itemID, userID, value);
   }
 
   @Override
@@ -296,6 +391,9 @@ public final class CassandraDataModel implements DataModel, Closeable {
     mutator.addDeletion(itemID, ITEMS_CF, userID, LongSerializer.get());
     mutator.execute();
     // Not deleting from userIDs, itemIDs though
+
+    userRows.removeValue(userID, itemID);
+    itemRows.removeValue(itemID, userID);
   }
 
   /**
@@ -324,10 +422,8 @@ public final class CassandraDataModel implements DataModel, Closeable {
 
   @Override
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
-    userCache.clear();
-    itemCache.clear();
-    userIDsFromItemCache.clear();
-    itemIDsFromUserCache.clear();
+    userRows.clear();
+    itemRows.clear();
     userCountCache.set(null);
     itemCountCache.set(null);
   }
@@ -351,15 +447,6 @@ public final class CassandraDataModel implements DataModel, Closeable {
     return query;
   }
 
-  private SliceQuery<Long,Long,Float> buildValueSliceQuery(String cf) {
-    SliceQuery<Long,Long,Float> query =
-        HFactory.createSliceQuery(keyspace, LongSerializer.get(), LongSerializer.get(), FloatSerializer.get());
-    query.setColumnFamily(cf);
-    query.setRange(null, null, false, Integer.MAX_VALUE);
-    return query;
-  }
-
-
   private static final class OneConsistencyLevelPolicy implements ConsistencyLevelPolicy {
     @Override
     public HConsistencyLevel get(OperationType op) {
@@ -372,94 +459,4 @@ public final class CassandraDataModel implements DataModel, Closeable {
     }
   }
 
-  private final class UserPrefArrayRetriever implements Retriever<Long, PreferenceArray> {
-    @Override
-    public PreferenceArray get(Long userID) throws TasteException {
-      SliceQuery<Long,Long,Float> query = buildValueSliceQuery(USERS_CF);
-      query.setKey(userID);
-
-      ColumnSlice<Long,Float> result = query.execute().get();
-      if (result == null) {
-        throw new NoSuchUserException(userID);
-      }
-      List<HColumn<Long,Float>> itemIDColumns = result.getColumns();
-      if (itemIDColumns.isEmpty()) {
-        throw new NoSuchUserException(userID);
-      }
-      int size = itemIDColumns.size();
-      PreferenceArray prefs = new GenericUserPreferenceArray(size);
-      prefs.setUserID(0, userID);
-      for (int i = 0; i < size; i++) {
-        HColumn<Long,Float> itemIDColumn = itemIDColumns.get(i);
-        prefs.setItemID(i, itemIDColumn.getName());
-        prefs.setValue(i, itemIDColumn.getValue());
-      }
-      return prefs;
-    }
-  }
-
-  private final class ItemPrefArrayRetriever implements Retriever<Long, PreferenceArray> {
-    @Override
-    public PreferenceArray get(Long itemID) throws TasteException {
-      SliceQuery<Long,Long,Float> query = buildValueSliceQuery(ITEMS_CF);
-      query.setKey(itemID);
-      ColumnSlice<Long,Float> result = query.execute().get();
-      if (result == null) {
-        throw new NoSuchItemException(itemID);
-      }
-      List<HColumn<Long,Float>> userIDColumns = result.getColumns();
-      if (userIDColumns.isEmpty()) {
-        throw new NoSuchItemException(itemID);
-      }
-      int size = userIDColumns.size();
-      PreferenceArray prefs = new GenericItemPreferenceArray(size);
-      prefs.setItemID(0, itemID);
-      for (int i = 0; i < size; i++) {
-        HColumn<Long,Float> userIDColumn = userIDColumns.get(i);
-        prefs.setUserID(i, userIDColumn.getName());
-        prefs.setValue(i, userIDColumn.getValue());
-      }
-      return prefs;
-    }
-  }
-
-  private final class UserIDsFromItemRetriever implements Retriever<Long, FastIDSet> {
-    @Override
-    public FastIDSet get(Long itemID) throws TasteException {
-      SliceQuery<Long,Long,byte[]> query = buildNoValueSliceQuery(ITEMS_CF);
-      query.setKey(itemID);
-      ColumnSlice<Long,byte[]> result = query.execute().get();
-      if (result == null) {
-        throw new NoSuchItemException(itemID);
-      }
-      List<HColumn<Long,byte[]>> columns = result.getColumns();
-      FastIDSet userIDs = new FastIDSet(columns.size());
-      for (HColumn<Long,?> userIDColumn : columns) {
-        userIDs.add(userIDColumn.getName());
-      }
-      return userIDs;
-    }
-  }
-
-  private final class ItemIDsFromUserRetriever implements Retriever<Long, FastIDSet> {
-    @Override
-    public FastIDSet get(Long userID) throws TasteException {
-      SliceQuery<Long,Long,byte[]> query = buildNoValueSliceQuery(USERS_CF);
-      query.setKey(userID);
-      FastIDSet itemIDs = new FastIDSet();
-      ColumnSlice<Long,byte[]> result = query.execute().get();
-      if (result == null) {
-        throw new NoSuchUserException(userID);
-      }
-      List<HColumn<Long,byte[]>> columns = result.getColumns();
-      if (columns.isEmpty()) {
-        throw new NoSuchUserException(userID);
-      }
-      for (HColumn<Long,?> itemIDColumn : columns) {
-        itemIDs.add(itemIDColumn.getName());
-      }
-      return itemIDs;
-    }
-  }
-
 }
@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.cassandra;
+
+import java.util.List;
+
+import me.prettyprint.cassandra.serializers.FloatSerializer;
+import me.prettyprint.cassandra.serializers.LongSerializer;
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.beans.Row;
+import me.prettyprint.hector.api.beans.Rows;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.query.MultigetSliceQuery;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+
+/**
+ * Fetches rows with one Hector multiget slice query per call.
+ */
+final class HectorRowFetcher implements RowFetcher {
+
+  private final Keyspace keyspace;
+
+  HectorRowFetcher(Keyspace keyspace) {
+    this.keyspace = keyspace;
+  }
+
+  @Override
+  public FastByIDMap<PreferenceRow> fetch(String columnFamily, long[] keys) {
+    MultigetSliceQuery<Long,Long,Float> query =
+        HFactory.createMultigetSliceQuery(keyspace, LongSerializer.get(), LongSerializer.get(), FloatSerializer.get());
+    query.setColumnFamily(columnFamily);
+    Long[] boxedKeys = new Long[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      boxedKeys[i] = keys[i];
+    }
+    query.setKeys(boxedKeys);
+    query.setRange(null, null, false, Integer.MAX_VALUE);
+    Rows<Long,Long,Float> rows = query.execute().get();
+    FastByIDMap<PreferenceRow> result = new FastByIDMap<PreferenceRow>(keys.length);
+    if (rows != null) {
+      for (Row<Long,Long,Float> row : rows) {
+        List<HColumn<Long,Float>> columns = row.getColumnSlice().getColumns();
+        int size = columns.size();
+        if (size > 0) {
+          long[] ids = new long[size];
+          float[] values = new float[size];
+          for (int i = 0; i < size; i++) {
+            HColumn<Long,Float> column = columns.get(i);
+            ids[i] = column.getName();
+            values[i] = column.getValue();
+          }
+          result.put(row.getKey(), new PreferenceRow(ids, values));
+        }
+      }
+    }
+    return result;
+  }
+
+}
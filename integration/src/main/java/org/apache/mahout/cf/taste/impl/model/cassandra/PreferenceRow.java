@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.cassandra;
+
+import java.util.Arrays;
+
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * One row of the "users" or "items" column family as two primitive arrays: column names, which are item or
+ * user IDs, in ascending order, and their preference values. Rows are immutable; changes return new rows.
+ */
+final class PreferenceRow {
+
+  private final long[] ids;
+  private final float[] values;
+
+  /**
+   * @param ids
+   *          column names, in any order, which this row takes ownership of
+   * @param values
+   *          preference values of these columns, which this row takes ownership of
+   */
+  PreferenceRow(long[] ids, float[] values) {
+    if (isSorted(ids)) {
+      this.ids = ids;
+      this.values = values;
+    } else {
+      // Cassandra orders names as unsigned bytes, so negative IDs come last
+      PreferenceArray prefs = new GenericUserPreferenceArray(ids.length);
+      for (int i = 0; i < ids.length; i++) {
+        prefs.setItemID(i, ids[i]);
+        prefs.setValue(i, values[i]);
+      }
+      prefs.sortByItem();
+      this.ids = prefs.getIDs();
+      this.values = new float[ids.length];
+      for (int i = 0; i < ids.length; i++) {
+        this.values[i] = prefs.getValue(i);
+      }
+    }
+  }
+
+  private static boolean isSorted(long[] ids) {
+    for (int i = 1; i < ids.length; i++) {
+      if (ids[i - 1] >= ids[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  int size() {
+    return ids.length;
+  }
+
+  /** @return value of the given column, or {@code null} if there is none */
+  Float getValue(long id) {
+    int index = Arrays.binarySearch(ids, id);
+    return index < 0 ? null : values[index];
+  }
+
+  /** @return a row with the given column set to the given value */
+  PreferenceRow with(long id, float value) {
+    int index = Arrays.binarySearch(ids, id);
+    if (index >= 0) {
+      float[] newValues = values.clone();
+      newValues[index] = value;
+      return new PreferenceRow(ids, newValues);
+    }
+    index = -index - 1;
+    long[] newIDs = new long[ids.length + 1];
+    float[] newValues = new float[ids.length + 1];
+    System.arraycopy(ids, 0, newIDs, 0, index);
+    System.arraycopy(values, 0, newValues, 0, index);
+    newIDs[index] = id;
+    newValues[index] = value;
+    System.arraycopy(ids, index, newIDs, index + 1, ids.length - index);
+    System.arraycopy(values, index, newValues, index + 1, ids.length - index);
+    return new PreferenceRow(newIDs, newValues);
+  }
+
+  /** @return a row without the given column */
+  PreferenceRow without(long id) {
+    int index = Arrays.binarySearch(ids, id);
+    if (index < 0) {
+      return this;
+    }
+    long[] newIDs = new long[ids.length - 1];
+    float[] newValues = new float[ids.length - 1];
+    System.arraycopy(ids, 0, newIDs, 0, index);
+    System.arraycopy(values, 0, newValues, 0, index);
+    System.arraycopy(ids, index + 1, newIDs, index, ids.length - index - 1);
+    System.arraycopy(values, index + 1, newValues, index, ids.length - index - 1);
+    return new PreferenceRow(newIDs, newValues);
+  }
+
+  /** @return number of column names this row has in common with the other */
+  int intersectionSize(PreferenceRow other) {
+    long[] otherIDs = other.ids;
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < ids.length && j < otherIDs.length) {
+      long id = ids[i];
+      long otherID = otherIDs[j];
+      if (id == otherID) {
+        count++;
+        i++;
+        j++;
+      } else if (id < otherID) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+    return count;
+  }
+
+  PreferenceArray toUserPreferences(long userID) {
+    PreferenceArray prefs = new GenericUserPreferenceArray(ids.length);
+    prefs.setUserID(0, userID);
+    for (int i = 0; i < ids.length; i++) {
+      prefs.setItemID(i, ids[i]);
+      prefs.setValue(i, values[i]);
+    }
+    return prefs;
+  }
+
+  PreferenceArray toItemPreferences(long itemID) {
+    PreferenceArray prefs = new GenericItemPreferenceArray(ids.length);
+    prefs.setItemID(0, itemID);
+    for (int i = 0; i < ids.length; i++) {
+      prefs.setUserID(i, ids[i]);
+      prefs.setValue(i, values[i]);
+    }
+    return prefs;
+  }
+
+  FastIDSet toIDSet() {
+    return new FastIDSet(ids);
+  }
+
+}
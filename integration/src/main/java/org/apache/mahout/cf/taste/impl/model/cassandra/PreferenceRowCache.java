@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.cassandra;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+
+/**
+ * A cache of {@link PreferenceRow}s by key, split in stripes which are locked separately so that readers of
+ * different rows rarely wait on each other. Each stripe evicts rows that have not been used recently when full.
+ * Changes to rows are written through to cached rows, and ignored for rows which are not cached.
+ *
+ * <p>
+ * A row loaded while it was being changed may miss the change, which was not written through as the row was not
+ * cached yet. So every change also bumps a version shared by the keys that hash alike, and a loaded row is only
+ * cached if that version is the one read before loading it.
+ * </p>
+ */
+final class PreferenceRowCache {
+
+  private static final int STRIPE_BITS = 4;
+  private static final int VERSION_BITS = 10;
+
+  private final FastByIDMap<PreferenceRow>[] stripes;
+  // Guarded by the stripe of the keys sharing each version
+  private final long[] versions;
+
+  PreferenceRowCache(int maxSize) {
+    int numStripes = 1 << STRIPE_BITS;
+    stripes = (FastByIDMap<PreferenceRow>[]) new FastByIDMap<?>[numStripes];
+    int maxStripeSize = Math.max(1, maxSize / numStripes);
+    for (int i = 0; i < numStripes; i++) {
+      stripes[i] = new FastByIDMap<PreferenceRow>(11, maxStripeSize);
+    }
+    versions = new long[1 << VERSION_BITS];
+  }
+
+  private static long hash(long key) {
+    return key * 0x9E3779B97F4A7C15L;
+  }
+
+  private FastByIDMap<PreferenceRow> stripeFor(long key) {
+    return stripes[(int) (hash(key) >>> (64 - STRIPE_BITS))];
+  }
+
+  /** Versions are indexed by more of the same bits as stripes, so that each lies within one stripe. */
+  private static int versionIndex(long key) {
+    return (int) (hash(key) >>> (64 - VERSION_BITS));
+  }
+
+  /** @return the cached row, or {@code null} if it is not cached */
+  PreferenceRow get(long key) {
+    FastByIDMap<PreferenceRow> stripe = stripeFor(key);
+    synchronized (stripe) {
+      return stripe.get(key);
+    }
+  }
+
+  /** @return version to pass to {@link #putIfUnchanged(long, PreferenceRow, long)} after loading the row */
+  long getVersion(long key) {
+    synchronized (stripeFor(key)) {
+      return versions[versionIndex(key)];
+    }
+  }
+
+  /**
+   * Caches a loaded row unless a row is cached already, or the row may have changed since the given version was
+   * read.
+   *
+   * @return the row now cached, or the given row if it was not cached
+   */
+  PreferenceRow putIfUnchanged(long key, PreferenceRow row, long version) {
+    FastByIDMap<PreferenceRow> stripe = stripeFor(key);
+    synchronized (stripe) {
+      PreferenceRow cached = stripe.get(key);
+      if (cached != null) {
+        return cached;
+      }
+      if (versions[versionIndex(key)] == version) {
+        stripe.put(key, row);
+      }
+      return row;
+    }
+  }
+
+  void setValue(long key, long id, float value) {
+    FastByIDMap<PreferenceRow> stripe = stripeFor(key);
+    synchronized (stripe) {
+      versions[versionIndex(key)]++;
+      PreferenceRow row = stripe.get(key);
+      if (row != null) {
+        stripe.put(key, row.with(id, value));
+      }
+    }
+  }
+
+  void removeValue(long key, long id) {
+    FastByIDMap<PreferenceRow> stripe = stripeFor(key);
+    synchronized (stripe) {
+      versions[versionIndex(key)]++;
+      PreferenceRow row = stripe.get(key);
+      if (row != null) {
+        PreferenceRow newRow = row.without(id);
+        if (newRow.size() == 0) {
+          stripe.remove(key);
+        } else {
+          stripe.put(key, newRow);
+        }
+      }
+    }
+  }
+
+  void clear() {
+    int versionsPerStripe = versions.length / stripes.length;
+    for (int i = 0; i < stripes.length; i++) {
+      synchronized (stripes[i]) {
+        stripes[i].clear();
+        // Rows loaded before clearing are not cached either
+        for (int j = i * versionsPerStripe; j < (i + 1) * versionsPerStripe; j++) {
+          versions[j]++;
+        }
+      }
+    }
+  }
+
+}
@@ -15,48 +15,19 @@
  * limitations under the License.
  */
 
-package org.apache.mahout.cf.taste.impl.transforms;
-
-import java.util.Map;
+package org.apache.mahout.cf.taste.impl.model.cassandra;
 
+import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 
 /**
- * <p>
- * A simple, fast utility class that maps keys to counts.
- * </p>
+ * Reads whole rows of a column family in one request.
  */
-final class Counters {
-  
-  private final FastByIDMap<int[]> counts = new FastByIDMap<int[]>();
-  
-  void increment(long key) {
-    int[] count = counts.get(key);
-    if (count == null) {
-      int[] newCount = new int[1];
-      newCount[0] = 1;
-      counts.put(key, newCount);
-    } else {
-      count[0]++;
-    }
-  }
-  
-  int getCount(long key) {
-    int[] count = counts.get(key);
-    return count == null ? 0 : count[0];
-  }
-  
-  int size() {
-    return counts.size();
-  }
-  
-  Iterable<Map.Entry<Long,int[]>> getEntrySet() {
-    return counts.entrySet();
-  }
-  
-  @Override
-  public String toString() {
-    return "Counters[" + counts + ']';
-  }
-  
+interface RowFetcher {
+
+  /**
+   * @return the rows with the given keys which exist and have columns, by key
+   */
+  FastByIDMap<PreferenceRow> fetch(String columnFamily, long[] keys) throws TasteException;
+
 }
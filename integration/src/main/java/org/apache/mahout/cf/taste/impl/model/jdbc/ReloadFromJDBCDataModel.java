@@ -20,17 +20,26 @@ package org.apache.mahout.cf.taste.impl.model.jdbc;
 import com.google.common.base.Preconditions;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.impl.model.GenericBooleanPrefDataModel;
 import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.PreferenceChanges;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.JDBCDataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.concurrent.Callable;
 
@@ -38,17 +47,57 @@ import java.util.concurrent.Callable;
  * A {@link DataModel} which loads, and can re-load, data from a JDBC-backed {@link JDBCDataModel} into memory, as a
  * {@link GenericDataModel} or {@link GenericBooleanPrefDataModel}. It is intended to provide the speed
  * advantage of in-memory representation but be able to update periodically to pull in new data from a database source.
+ *
+ * <p>
+ * Given a query for the preferences changed since some time, only changed rows are read on refresh, and merged into
+ * a copy of the in-memory data. The query takes the time as its one parameter, and selects user ID, item ID,
+ * preference value if the delegate has them, and the time as a {@code long}, such as:
+ * </p>
+ *
+ * <pre>
+ * SELECT user_id, item_id, preference, timestamp FROM taste_preferences WHERE timestamp &gt;= ?
+ * </pre>
+ *
+ * <p>
+ * Rows with the latest time already seen are read again, so that rows written in the same millisecond as the last
+ * refresh are not missed; those which match the data in memory are skipped, and when no others are left, the data
+ * in memory is kept as it is. Deleted rows cannot be seen this way; they disappear only when all data is reloaded,
+ * which happens every {@code refreshesPerFullReload} refreshes.
+ * </p>
  */
 public final class ReloadFromJDBCDataModel implements DataModel {
 
   private static final Logger log = LoggerFactory.getLogger(ReloadFromJDBCDataModel.class);
 
-  private DataModel delegateInMemory;
+  private static final int FETCH_SIZE = 1000;
+
+  private volatile DataModel delegateInMemory;
   private final JDBCDataModel delegate;
   private final RefreshHelper refreshHelper;
+  private final String getChangedPreferencesSQL;
+  private final int refreshesPerFullReload;
+  private int refreshesSinceFullReload;
+  private long lastTimestamp;
+  // What delegateInMemory was built from, when loading changes
+  private FastByIDMap<PreferenceArray> userData;
+  private FastByIDMap<FastIDSet> userItemIDs;
 
   public ReloadFromJDBCDataModel(JDBCDataModel delegate) throws TasteException {
+    this(delegate, null, 0);
+  }
+
+  /**
+   * @param getChangedPreferencesSQL
+   *          query for preferences changed since a given time, as described above, or null to always reload all data
+   * @param refreshesPerFullReload
+   *          reload all data after this many refreshes that only loaded changes, to drop deleted rows; 0 for never
+   */
+  public ReloadFromJDBCDataModel(JDBCDataModel delegate, String getChangedPreferencesSQL, int refreshesPerFullReload)
+    throws TasteException {
     this.delegate = Preconditions.checkNotNull(delegate);
+    Preconditions.checkArgument(refreshesPerFullReload >= 0, "refreshesPerFullReload is negative");
+    this.getChangedPreferencesSQL = getChangedPreferencesSQL;
+    this.refreshesPerFullReload = refreshesPerFullReload;
     refreshHelper = new RefreshHelper(new Callable<Void>() {
       @Override
       public Void call() {
@@ -70,21 +119,113 @@ public final class ReloadFromJDBCDataModel implements DataModel {
 
   private void reload() {
     try {
-      // Load new in-memory representation,
-      log.info("Loading new JDBC delegate data...");
-      DataModel newDelegateInMemory =
-          delegate.hasPreferenceValues()
-          ? new GenericDataModel(delegate.exportWithPrefs())
-          : new GenericBooleanPrefDataModel(delegate.exportWithIDsOnly());
-      // and then swap to it.
-      log.info("New data loaded.");
-      delegateInMemory = newDelegateInMemory;
+      if (getChangedPreferencesSQL == null) {
+        // Load new in-memory representation,
+        log.info("Loading new JDBC delegate data...");
+        DataModel newDelegateInMemory =
+            delegate.hasPreferenceValues()
+            ? new GenericDataModel(delegate.exportWithPrefs())
+            : new GenericBooleanPrefDataModel(delegate.exportWithIDsOnly());
+        // and then swap to it.
+        log.info("New data loaded.");
+        delegateInMemory = newDelegateInMemory;
+      } else if (delegateInMemory == null
+          || (refreshesPerFullReload > 0 && refreshesSinceFullReload >= refreshesPerFullReload)) {
+        log.info("Loading all JDBC delegate data...");
+        loadChanges(Long.MIN_VALUE, true);
+        refreshesSinceFullReload = 0;
+      } else {
+        log.info("Loading JDBC delegate data changed since {}...", lastTimestamp);
+        loadChanges(lastTimestamp, false);
+        refreshesSinceFullReload++;
+      }
     } catch (TasteException te) {
       log.warn("Error while reloading JDBC delegate data", te);
       // But continue with whatever is loaded
     }
   }
 
+  private void loadChanges(long since, boolean replace) throws TasteException {
+    boolean hasPreferenceValues = delegate.hasPreferenceValues();
+    PreferenceColumns changes = readChanges(since, replace, hasPreferenceValues);
+    log.info("Read {} changed preferences", changes.size);
+    if (!replace && changes.size == 0) {
+      return;
+    }
+    DataModel newDelegateInMemory;
+    if (hasPreferenceValues) {
+      FastByIDMap<PreferenceArray> newUserData;
+      if (replace) {
+        newUserData = changes.toUserData();
+      } else {
+        newUserData = changes.applyTo(userData);
+      }
+      newDelegateInMemory = new GenericDataModel(newUserData);
+      userData = newUserData;
+    } else {
+      FastByIDMap<FastIDSet> newUserItemIDs = replace ? new FastByIDMap<FastIDSet>() : userItemIDs.clone();
+      changes.mergeInto(newUserItemIDs, !replace);
+      newDelegateInMemory = new GenericBooleanPrefDataModel(newUserItemIDs);
+      userItemIDs = newUserItemIDs;
+    }
+    lastTimestamp = replace ? changes.maxTimestamp : Math.max(lastTimestamp, changes.maxTimestamp);
+    delegateInMemory = newDelegateInMemory;
+    log.info("New data loaded.");
+  }
+
+  private PreferenceColumns readChanges(long since, boolean replace, boolean hasPreferenceValues)
+    throws TasteException {
+    Connection conn = null;
+    PreparedStatement stmt = null;
+    ResultSet rs = null;
+    try {
+      conn = delegate.getDataSource().getConnection();
+      stmt = conn.prepareStatement(getChangedPreferencesSQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      stmt.setFetchDirection(ResultSet.FETCH_FORWARD);
+      stmt.setFetchSize(FETCH_SIZE);
+      stmt.setLong(1, since);
+
+      log.debug("Executing SQL query: {}", getChangedPreferencesSQL);
+      rs = stmt.executeQuery();
+
+      PreferenceColumns changes = new PreferenceColumns(hasPreferenceValues);
+      while (rs.next()) {
+        long userID = rs.getLong(1);
+        long itemID = rs.getLong(2);
+        float value = hasPreferenceValues ? rs.getFloat(3) : 1.0f;
+        long timestamp = rs.getLong(hasPreferenceValues ? 4 : 3);
+        // Rows of the last time seen are read again each time; most are already in memory
+        if (!replace && timestamp == since && isInMemory(userID, itemID, value, hasPreferenceValues)) {
+          continue;
+        }
+        changes.add(userID, itemID, value, timestamp);
+      }
+      return changes;
+
+    } catch (SQLException sqle) {
+      log.warn("Exception while loading changed preferences", sqle);
+      throw new TasteException(sqle);
+    } finally {
+      IOUtils.quietClose(rs, stmt, conn);
+    }
+  }
+
+  private boolean isInMemory(long userID, long itemID, float value, boolean hasPreferenceValues) {
+    if (!hasPreferenceValues) {
+      FastIDSet itemIDSet = userItemIDs.get(userID);
+      return itemIDSet != null && itemIDSet.contains(itemID);
+    }
+    PreferenceArray prefs = userData.get(userID);
+    if (prefs != null) {
+      for (int i = 0; i < prefs.length(); i++) {
+        if (prefs.getItemID(i) == itemID) {
+          return prefs.getValue(i) == value;
+        }
+      }
+    }
+    return false;
+  }
+
   public JDBCDataModel getDelegate() {
     return delegate;
   }
@@ -175,4 +316,112 @@ public final class ReloadFromJDBCDataModel implements DataModel {
     return delegateInMemory.getMinPreference();
   }
 
+  /**
+   * Preferences as read from the database, one growable array per column, which is much smaller than a
+   * {@link org.apache.mahout.cf.taste.model.Preference} object per row.
+   */
+  private static final class PreferenceColumns {
+
+    private long[] userIDs;
+    private long[] itemIDs;
+    private float[] values;
+    private int size;
+    private long maxTimestamp;
+
+    private PreferenceColumns(boolean hasPreferenceValues) {
+      userIDs = new long[FETCH_SIZE];
+      itemIDs = new long[FETCH_SIZE];
+      values = hasPreferenceValues ? new float[FETCH_SIZE] : null;
+      maxTimestamp = Long.MIN_VALUE;
+    }
+
+    private void add(long userID, long itemID, float value, long timestamp) {
+      if (size == userIDs.length) {
+        int newCapacity = 2 * size;
+        userIDs = Arrays.copyOf(userIDs, newCapacity);
+        itemIDs = Arrays.copyOf(itemIDs, newCapacity);
+        if (values != null) {
+          values = Arrays.copyOf(values, newCapacity);
+        }
+      }
+      userIDs[size] = userID;
+      itemIDs[size] = itemID;
+      if (values != null) {
+        values[size] = value;
+      }
+      size++;
+      maxTimestamp = Math.max(maxTimestamp, timestamp);
+    }
+
+    /**
+     * @return each user's preferences, built straight from the columns, for when all data was read
+     */
+    private FastByIDMap<PreferenceArray> toUserData() {
+      // First count each user's preferences, then fill arrays of that size
+      FastByIDMap<int[]> counts = new FastByIDMap<int[]>();
+      for (int i = 0; i < size; i++) {
+        int[] count = counts.get(userIDs[i]);
+        if (count == null) {
+          counts.put(userIDs[i], new int[] {1});
+        } else {
+          count[0]++;
+        }
+      }
+      FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>(counts.size());
+      for (int i = 0; i < size; i++) {
+        long userID = userIDs[i];
+        PreferenceArray prefs = userData.get(userID);
+        int[] count = counts.get(userID);
+        if (prefs == null) {
+          prefs = new GenericUserPreferenceArray(count[0]);
+          prefs.setUserID(0, userID);
+          userData.put(userID, prefs);
+        }
+        // Counts down to fill the array from its end
+        int j = --count[0];
+        prefs.setItemID(j, itemIDs[i]);
+        prefs.setValue(j, values[i]);
+      }
+      LongPrimitiveIterator it = userData.keySetIterator();
+      while (it.hasNext()) {
+        userData.get(it.nextLong()).sortByItem();
+      }
+      return userData;
+    }
+
+    /**
+     * @return a copy of the given user data with the changed preferences merged in; the given arrays are left as
+     *  they were, as they may still be in use
+     */
+    private FastByIDMap<PreferenceArray> applyTo(FastByIDMap<PreferenceArray> userData) {
+      PreferenceChanges preferenceChanges = new PreferenceChanges();
+      for (int i = 0; i < size; i++) {
+        preferenceChanges.add(userIDs[i], itemIDs[i], values[i]);
+      }
+      return preferenceChanges.applyTo(userData);
+    }
+
+    /**
+     * Adds the changed item IDs to the given users' sets; sets of changed users are first copied if {@code copy}
+     * is set, as they may still be in use.
+     */
+    private void mergeInto(FastByIDMap<FastIDSet> userItemIDs, boolean copy) {
+      FastIDSet copied = new FastIDSet();
+      for (int i = 0; i < size; i++) {
+        long userID = userIDs[i];
+        FastIDSet itemIDSet = userItemIDs.get(userID);
+        if (itemIDSet == null) {
+          itemIDSet = new FastIDSet();
+          userItemIDs.put(userID, itemIDSet);
+          copied.add(userID);
+        } else if (copy && copied.add(userID)) {
+          itemIDSet = itemIDSet.clone();
+          userItemIDs.put(userID, itemIDSet);
+        }
+        itemIDSet.add(itemIDs[i]);
+      }
+    }
+
+  }
+
 }
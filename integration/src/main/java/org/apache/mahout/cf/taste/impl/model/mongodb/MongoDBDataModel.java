@@ -38,7 +38,7 @@ import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
 import org.apache.mahout.cf.taste.impl.model.GenericPreference;
-import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.PreferenceChanges;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
@@ -102,6 +102,11 @@ import com.mongodb.MongoException;
  * timestamp of the last update. This variable and the fields "created_at"
  * and "deleted_at" help the model to determine if the triple
  * (user, item, preference) must be added or deleted.</p>
+ *
+ * <p>All changes read by one refresh are applied together to a copy of the
+ * changed users' data, and the model is then swapped for the new one, so
+ * reads never wait for a refresh. ID translations are kept in memory and
+ * only written to the mapping collection.</p>
  */
 public final class MongoDBDataModel implements DataModel {
 
@@ -160,6 +165,9 @@ public final class MongoDBDataModel implements DataModel {
 
   private static final Pattern ID_PATTERN = Pattern.compile("[a-f0-9]{24}");
 
+  /** Documents to fetch per round trip, and ID mappings to insert at once */
+  private static final int BATCH_SIZE = 1000;
+
   /** MongoDB host */
   private String mongoHost = DEFAULT_MONGO_HOST;
   /** MongoDB port */
@@ -198,11 +206,15 @@ public final class MongoDBDataModel implements DataModel {
   private DBCollection collectionMap;
   private Date mongoTimestamp;
   private final ReentrantLock reloadLock;
-  private DataModel delegate;
+  private final MongoIDMapping idMapping = new MongoIDMapping();
+  private volatile DataModel delegate;
   private boolean userIsObject;
   private boolean itemIsObject;
   private boolean preferenceIsString;
-  private long idCounter;
+  private volatile Date lastRefreshDate;
+  private volatile long lastRefreshDuration;
+  private volatile int lastRefreshChanges;
+  private volatile long lastRefreshMaxLag;
 
   /**
    * Creates a new MongoDBDataModel
@@ -372,16 +384,15 @@ public final class MongoDBDataModel implements DataModel {
     for (List<String> item : items) {
       item.set(0, fromIdToLong(item.get(0), false));
     }
-    if (reloadLock.tryLock()) {
-      try {
-        if (add) {
-          delegate = addUserItem(id, items);
-        } else {
-          delegate = removeUserItem(id, items);
-        }
-      } finally {
-        reloadLock.unlock();
+    reloadLock.lock();
+    try {
+      if (add) {
+        addUserItem(id, items);
+      } else {
+        removeUserItem(id, items);
       }
+    } finally {
+      reloadLock.unlock();
     }
   }
 
@@ -402,56 +413,106 @@ public final class MongoDBDataModel implements DataModel {
    */
   @Override
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
-    Date ts = new Date(0);
-    BasicDBObject query = new BasicDBObject();
-    query.put("deleted_at", new BasicDBObject("$gt", mongoTimestamp));
-    DBCursor cursor = collection.find(query);
-    while (cursor.hasNext()) {
-      Map<String,Object> user = (Map<String,Object>) cursor.next().toMap();
-      String userID = getID(user.get(mongoUserID), true);
-      Collection<List<String>> items = Lists.newArrayList();
-      List<String> item = Lists.newArrayList();
-      item.add(getID(user.get(mongoItemID), false));
-      item.add(Float.toString(getPreference(user.get(mongoPreference))));
-      items.add(item);
-      try {
-        refreshData(userID, items, false);
-      } catch (NoSuchUserException e) {
-        log.warn("No such user ID: {}", userID);
-      } catch (NoSuchItemException e) {
-        log.warn("No such items: {}", items);
-      }
-      if (ts.compareTo(getDate(user.get("created_at"))) < 0) {
-        ts = getDate(user.get("created_at"));
-      }
+    if (!reloadLock.tryLock()) {
+      // Another refresh or update is running; changes will be picked up by the next refresh
+      return;
     }
-    query = new BasicDBObject();
-    query.put("created_at", new BasicDBObject("$gt", mongoTimestamp));
-    cursor = collection.find(query);
-    while (cursor.hasNext()) {
-      Map<String,Object> user = (Map<String,Object>) cursor.next().toMap();
-      if (!user.containsKey("deleted_at")) {
+    try {
+      long start = System.currentTimeMillis();
+      PreferenceChanges changes = new PreferenceChanges();
+      Date ts = mongoTimestamp;
+      Date oldestChange = null;
+
+      BasicDBObject query = new BasicDBObject();
+      query.put("deleted_at", new BasicDBObject("$gt", mongoTimestamp));
+      DBCursor cursor = collection.find(query).batchSize(BATCH_SIZE);
+      while (cursor.hasNext()) {
+        Map<String,Object> user = (Map<String,Object>) cursor.next().toMap();
         String userID = getID(user.get(mongoUserID), true);
-        Collection<List<String>> items = Lists.newArrayList();
-        List<String> item = Lists.newArrayList();
-        item.add(getID(user.get(mongoItemID), false));
-        item.add(Float.toString(getPreference(user.get(mongoPreference))));
-        items.add(item);
-        try {
-          refreshData(userID, items, true);
-        } catch (NoSuchUserException e) {
+        String itemID = getID(user.get(mongoItemID), false);
+        Long userLongID = idMapping.getLongID(userID);
+        Long itemLongID = idMapping.getLongID(itemID);
+        if (userLongID == null) {
           log.warn("No such user ID: {}", userID);
-        } catch (NoSuchItemException e) {
-          log.warn("No such items: {}", items);
+        } else if (itemLongID == null) {
+          log.warn("No such item ID: {}", itemID);
+        } else {
+          changes.remove(userLongID, itemLongID);
+        }
+        Date deletedAt = getDate(user.get("deleted_at"));
+        if (ts.compareTo(deletedAt) < 0) {
+          ts = deletedAt;
         }
-        if (ts.compareTo(getDate(user.get("created_at"))) < 0) {
-          ts = getDate(user.get("created_at"));
+        if (oldestChange == null || oldestChange.compareTo(deletedAt) > 0) {
+          oldestChange = deletedAt;
         }
       }
+
+      query = new BasicDBObject();
+      query.put("created_at", new BasicDBObject("$gt", mongoTimestamp));
+      cursor = collection.find(query).batchSize(BATCH_SIZE);
+      while (cursor.hasNext()) {
+        Map<String,Object> user = (Map<String,Object>) cursor.next().toMap();
+        if (!user.containsKey("deleted_at")) {
+          long userID = idMapping.toLongID(getID(user.get(mongoUserID), true));
+          long itemID = idMapping.toLongID(getID(user.get(mongoItemID), false));
+          changes.add(userID, itemID, getPreference(user.get(mongoPreference)));
+          Date createdAt = getDate(user.get("created_at"));
+          if (ts.compareTo(createdAt) < 0) {
+            ts = createdAt;
+          }
+          if (oldestChange == null || oldestChange.compareTo(createdAt) > 0) {
+            oldestChange = createdAt;
+          }
+        }
+      }
+
+      saveNewMappings();
+      if (!changes.isEmpty()) {
+        delegate = new GenericDataModel(changes.applyTo(((GenericDataModel) delegate).getRawUserData()));
+      }
+      if (mongoTimestamp.compareTo(ts) < 0) {
+        mongoTimestamp = ts;
+      }
+
+      long end = System.currentTimeMillis();
+      lastRefreshDuration = end - start;
+      lastRefreshChanges = changes.size();
+      lastRefreshMaxLag = oldestChange == null ? 0L : Math.max(0L, end - oldestChange.getTime());
+      lastRefreshDate = new Date(end);
+      log.info("Applied {} changes in {}ms", lastRefreshChanges, lastRefreshDuration);
+    } finally {
+      reloadLock.unlock();
     }
-    if (mongoTimestamp.compareTo(ts) < 0) {
-      mongoTimestamp = ts;
-    }
+  }
+
+  /**
+   * @return when the last {@link #refresh(Collection)} finished, or {@code null} if there has been none
+   */
+  public Date getLastRefreshDate() {
+    return lastRefreshDate;
+  }
+
+  /**
+   * @return how long the last {@link #refresh(Collection)} took, in milliseconds
+   */
+  public long getLastRefreshDuration() {
+    return lastRefreshDuration;
+  }
+
+  /**
+   * @return number of changes read by the last {@link #refresh(Collection)}
+   */
+  public int getLastRefreshChanges() {
+    return lastRefreshChanges;
+  }
+
+  /**
+   * @return longest time, in milliseconds, from a change being made in MongoDB to it being visible in this model,
+   *         over the changes applied by the last {@link #refresh(Collection)}; 0 if there were none
+   */
+  public long getLastRefreshMaxLag() {
+    return lastRefreshMaxLag;
   }
 
   /**
@@ -476,21 +537,9 @@ public final class MongoDBDataModel implements DataModel {
    *      Mongo Object IDs</a>
    */
   public String fromIdToLong(String id, boolean isUser) {
-    DBObject objectIdLong = collectionMap.findOne(new BasicDBObject("element_id", id));
-    if (objectIdLong != null) {
-      Map<String,Object> idLong = (Map<String,Object>) objectIdLong.toMap();
-      Object value = idLong.get("long_value");
-      return value == null ? null : value.toString();
-    } else {
-      objectIdLong = new BasicDBObject();
-      String longValue = Long.toString(idCounter++);
-      objectIdLong.put("element_id", id);
-      objectIdLong.put("long_value", longValue);
-      collectionMap.insert(objectIdLong);
-      log.info("Adding Translation {}: {} long_value: {}",
-               new Object[] {isUser ? "User ID" : "Item ID", id, longValue});
-      return longValue;
-    }
+    long longValue = idMapping.toLongID(id);
+    saveNewMappings();
+    return Long.toString(longValue);
   }
 
   /**
@@ -515,10 +564,7 @@ public final class MongoDBDataModel implements DataModel {
    *      Mongo Object IDs</a>
    */
   public String fromLongToId(long id) {
-    DBObject objectIdLong = collectionMap.findOne(new BasicDBObject("long_value", Long.toString(id)));
-    Map<String,Object> idLong = (Map<String,Object>) objectIdLong.toMap();
-    Object value = idLong.get("element_id");
-    return value == null ? null : value.toString();
+    return idMapping.getMongoID(id);
   }
 
   /**
@@ -530,8 +576,7 @@ public final class MongoDBDataModel implements DataModel {
    * @return true: if ID is into the model; false: if it's not.
    */
   public boolean isIDInModel(String ID) {
-    DBObject objectIdLong = collectionMap.findOne(new BasicDBObject("element_id", ID));
-    return objectIdLong != null;
+    return idMapping.contains(ID);
   }
 
   /**
@@ -548,7 +593,6 @@ public final class MongoDBDataModel implements DataModel {
   private void buildModel() throws UnknownHostException, MongoException {
     userIsObject = false;
     itemIsObject = false;
-    idCounter = 0;
     preferenceIsString = true;
     Mongo mongoDDBB = new Mongo(mongoHost, mongoPort);
     DB db = mongoDDBB.getDB(mongoDB);
@@ -564,12 +608,12 @@ public final class MongoDBDataModel implements DataModel {
       indexObj.put("long_value", 1);
       collectionMap.ensureIndex(indexObj);
       collectionMap.remove(new BasicDBObject());
-      DBCursor cursor = collection.find();
+      DBCursor cursor = collection.find().batchSize(BATCH_SIZE);
       while (cursor.hasNext()) {
         Map<String,Object> user = (Map<String,Object>) cursor.next().toMap();
         if (!user.containsKey("deleted_at")) {
-          long userID = Long.parseLong(fromIdToLong(getID(user.get(mongoUserID), true), true));
-          long itemID = Long.parseLong(fromIdToLong(getID(user.get(mongoItemID), false), false));
+          long userID = idMapping.toLongID(getID(user.get(mongoUserID), true));
+          long itemID = idMapping.toLongID(getID(user.get(mongoItemID), false));
           float ratingValue = getPreference(user.get(mongoPreference));
           Collection<Preference> userPrefs = userIDPrefMap.get(userID);
           if (userPrefs == null) {
@@ -583,10 +627,33 @@ public final class MongoDBDataModel implements DataModel {
           }
         }
       }
+      saveNewMappings();
     }
     delegate = new GenericDataModel(GenericDataModel.toDataMap(userIDPrefMap, true));
   }
 
+  private void saveNewMappings() {
+    FastByIDMap<String> newMappings = idMapping.drainNewMappings();
+    if (newMappings.isEmpty()) {
+      return;
+    }
+    List<DBObject> batch = Lists.newArrayListWithCapacity(Math.min(newMappings.size(), BATCH_SIZE));
+    for (Map.Entry<Long,String> mapping : newMappings.entrySet()) {
+      DBObject objectIdLong = new BasicDBObject();
+      objectIdLong.put("element_id", mapping.getValue());
+      objectIdLong.put("long_value", Long.toString(mapping.getKey()));
+      batch.add(objectIdLong);
+      if (batch.size() == BATCH_SIZE) {
+        collectionMap.insert(batch);
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      collectionMap.insert(batch);
+    }
+    log.info("Added {} ID translations", newMappings.size());
+  }
+
   private void removeMongoUserItem(String userID, String itemID) {
     String userId = fromLongToId(Long.parseLong(userID));
     String itemId = fromLongToId(Long.parseLong(itemID));
@@ -632,74 +699,30 @@ public final class MongoDBDataModel implements DataModel {
     return collection.findOne(query) != null;
   }
 
-  private DataModel removeUserItem(long userID, Iterable<List<String>> items) {
-    FastByIDMap<PreferenceArray> rawData = ((GenericDataModel) delegate).getRawUserData();
+  private void removeUserItem(long userID, Iterable<List<String>> items) {
+    PreferenceChanges changes = new PreferenceChanges();
     for (List<String> item : items) {
-      PreferenceArray prefs = rawData.get(userID);
       long itemID = Long.parseLong(item.get(0));
-      if (prefs != null) {
-        boolean exists = false;
-        int length = prefs.length();
-        for (int i = 0; i < length; i++) {
-          if (prefs.getItemID(i) == itemID) {
-            exists = true;
-            break;
-          }
-        }
-        if (exists) {
-          rawData.remove(userID);
-          if (length > 1) {
-            PreferenceArray newPrefs = new GenericUserPreferenceArray(length - 1);
-            for (int i = 0, j = 0; i < length; i++, j++) {
-              if (prefs.getItemID(i) == itemID) {
-                j--;
-              } else {
-                newPrefs.set(j, prefs.get(i));
-              }
-            }
-            rawData.put(userID, newPrefs);
-          }
-          log.info("Removing userID: {} itemID: {}", userID, itemID);
-          if (mongoManage) {
-            removeMongoUserItem(Long.toString(userID), Long.toString(itemID));
-          }
+      if (findPreferenceValue(userID, itemID) != null) {
+        changes.remove(userID, itemID);
+        log.info("Removing userID: {} itemID: {}", userID, itemID);
+        if (mongoManage) {
+          removeMongoUserItem(Long.toString(userID), Long.toString(itemID));
         }
       }
     }
-    return new GenericDataModel(rawData);
+    applyChanges(changes);
   }
 
-  private DataModel addUserItem(long userID, Iterable<List<String>> items) {
-    FastByIDMap<PreferenceArray> rawData = ((GenericDataModel) delegate).getRawUserData();
-    PreferenceArray prefs = rawData.get(userID);
+  private void addUserItem(long userID, Iterable<List<String>> items) {
+    PreferenceChanges changes = new PreferenceChanges();
     for (List<String> item : items) {
       long itemID = Long.parseLong(item.get(0));
       float preferenceValue = Float.parseFloat(item.get(1));
-      boolean exists = false;
-      if (prefs != null) {
-        for (int i = 0; i < prefs.length(); i++) {
-          if (prefs.getItemID(i) == itemID) {
-            exists = true;
-            prefs.setValue(i, preferenceValue);
-            break;
-          }
-        }
-      }
+      boolean exists = findPreferenceValue(userID, itemID) != null;
+      changes.add(userID, itemID, preferenceValue);
       if (!exists) {
-        if (prefs == null) {
-          prefs = new GenericUserPreferenceArray(1);
-        } else {
-          PreferenceArray newPrefs = new GenericUserPreferenceArray(prefs.length() + 1);
-          for (int i = 0, j = 1; i < prefs.length(); i++, j++) {
-            newPrefs.set(j, prefs.get(i));
-          }
-          prefs = newPrefs;
-        }
-        prefs.setUserID(0, userID);
-        prefs.setItemID(0, itemID);
-        prefs.setValue(0, preferenceValue);
         log.info("Adding userID: {} itemID: {} preferenceValue: {}", new Object[] {userID, itemID, preferenceValue});
-        rawData.put(userID, prefs);
         if (mongoManage) {
           addMongoUserItem(Long.toString(userID),
                            Long.toString(itemID),
@@ -707,7 +730,26 @@ public final class MongoDBDataModel implements DataModel {
         }
       }
     }
-    return new GenericDataModel(rawData);
+    applyChanges(changes);
+  }
+
+  private Float findPreferenceValue(long userID, long itemID) {
+    PreferenceArray prefs = ((GenericDataModel) delegate).getRawUserData().get(userID);
+    if (prefs != null) {
+      int length = prefs.length();
+      for (int i = 0; i < length; i++) {
+        if (prefs.getItemID(i) == itemID) {
+          return prefs.getValue(i);
+        }
+      }
+    }
+    return null;
+  }
+
+  private void applyChanges(PreferenceChanges changes) {
+    if (!changes.isEmpty()) {
+      delegate = new GenericDataModel(changes.applyTo(((GenericDataModel) delegate).getRawUserData()));
+    }
   }
 
   private Date getDate(Object date) {
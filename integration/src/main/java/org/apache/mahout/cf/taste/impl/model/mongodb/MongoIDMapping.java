@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.mongodb;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+
+/**
+ * Maps MongoDB IDs to the {@code long} IDs used in the model and back, in memory, so that translating an ID
+ * needs no query. IDs are numbered in the order they are first seen. Mappings added since they were last
+ * {@link #drainNewMappings() drained} are kept for writing to the mapping collection in one batch.
+ *
+ * <p>
+ * As long IDs are numbered densely, the MongoDB IDs are held in an array indexed by long ID, and the reverse
+ * mapping is an open-addressed hash table of those indexes, so no boxed {@link Long} or map entry is kept per ID.
+ * </p>
+ */
+final class MongoIDMapping {
+
+  private static final int EMPTY = -1;
+  // So that the table, twice as large, still fits in an array
+  private static final int MAX_SIZE = 1 << 29;
+
+  private String[] mongoIDs;
+  // Long IDs of mongoIDs by hash, with linear probing; at most half full
+  private int[] table;
+  private int size;
+  private int numDrained;
+
+  MongoIDMapping() {
+    mongoIDs = new String[16];
+    table = new int[32];
+    Arrays.fill(table, EMPTY);
+  }
+
+  /** @return the long ID for the given MongoDB ID, assigning the next one if it has none */
+  synchronized long toLongID(String mongoID) {
+    int slot = find(mongoID);
+    if (table[slot] != EMPTY) {
+      return table[slot];
+    }
+    Preconditions.checkState(size < MAX_SIZE, "Too many IDs");
+    if (size == mongoIDs.length) {
+      mongoIDs = Arrays.copyOf(mongoIDs, Math.min(MAX_SIZE, 2 * size));
+    }
+    int longID = size++;
+    mongoIDs[longID] = mongoID;
+    table[slot] = longID;
+    if (2 * size > table.length) {
+      rehash();
+    }
+    return longID;
+  }
+
+  /** @return the long ID for the given MongoDB ID, or {@code null} if it has none */
+  synchronized Long getLongID(String mongoID) {
+    int longID = table[find(mongoID)];
+    return longID == EMPTY ? null : Long.valueOf(longID);
+  }
+
+  /** @return the MongoDB ID for the given long ID, or {@code null} if there is none */
+  synchronized String getMongoID(long longID) {
+    return longID >= 0 && longID < size ? mongoIDs[(int) longID] : null;
+  }
+
+  synchronized boolean contains(String mongoID) {
+    return table[find(mongoID)] != EMPTY;
+  }
+
+  /** @return mappings added since the last call, by long ID */
+  synchronized FastByIDMap<String> drainNewMappings() {
+    FastByIDMap<String> drained = new FastByIDMap<String>(size - numDrained);
+    for (int longID = numDrained; longID < size; longID++) {
+      drained.put(longID, mongoIDs[longID]);
+    }
+    numDrained = size;
+    return drained;
+  }
+
+  /** @return slot of the given MongoDB ID in {@link #table}, or of the empty slot where it belongs */
+  private int find(String mongoID) {
+    int mask = table.length - 1;
+    int slot = hash(mongoID) & mask;
+    while (table[slot] != EMPTY && !mongoIDs[table[slot]].equals(mongoID)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void rehash() {
+    int[] newTable = new int[2 * table.length];
+    Arrays.fill(newTable, EMPTY);
+    int mask = newTable.length - 1;
+    for (int longID = 0; longID < size; longID++) {
+      int slot = hash(mongoIDs[longID]) & mask;
+      while (newTable[slot] != EMPTY) {
+        slot = (slot + 1) & mask;
+      }
+      newTable[slot] = longID;
+    }
+    table = newTable;
+  }
+
+  private static int hash(String mongoID) {
+    int h = mongoID.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+}
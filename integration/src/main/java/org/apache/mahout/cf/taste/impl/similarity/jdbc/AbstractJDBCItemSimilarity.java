@@ -27,6 +27,7 @@ import javax.sql.DataSource;
 
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.jdbc.AbstractJDBCComponent;
 import org.apache.mahout.cf.taste.impl.model.jdbc.ConnectionPoolDataSource;
@@ -46,6 +47,9 @@ public abstract class AbstractJDBCItemSimilarity extends AbstractJDBCComponent i
   static final String DEFAULT_ITEM_A_ID_COLUMN = "item_id_a";
   static final String DEFAULT_ITEM_B_ID_COLUMN = "item_id_b";
   static final String DEFAULT_SIMILARITY_COLUMN = "similarity";
+
+  /** Most item IDs to list in one query; some databases accept no more than 1000. */
+  static final int MAX_IN_LIST_SIZE = 512;
   
   private final DataSource dataSource;
   private final String similarityTable;
@@ -54,6 +58,8 @@ public abstract class AbstractJDBCItemSimilarity extends AbstractJDBCComponent i
   private final String similarityColumn;
   private final String getItemItemSimilaritySQL;
   private final String getAllSimilarItemIDsSQL;
+  private final String getSimilarityRowSQL;
+  private final boolean batchable;
 
   protected AbstractJDBCItemSimilarity(DataSource dataSource,
                                        String getItemItemSimilaritySQL,
@@ -67,6 +73,11 @@ public abstract class AbstractJDBCItemSimilarity extends AbstractJDBCComponent i
          getAllSimilarItemIDsSQL);
   }
   
+  /**
+   * Unless {@code getItemItemSimilaritySQL} is the plain query of the similarity column by both item columns,
+   * {@link #itemSimilarities(long, long[])} runs it once per item instead of building batched queries from the
+   * table and column names. {@link CachingJDBCItemSimilarity} always reads rows by table and column names.
+   */
   protected AbstractJDBCItemSimilarity(DataSource dataSource,
                                        String similarityTable,
                                        String itemAIDColumn,
@@ -94,6 +105,11 @@ public abstract class AbstractJDBCItemSimilarity extends AbstractJDBCComponent i
     this.similarityColumn = similarityColumn;
     this.getItemItemSimilaritySQL = getItemItemSimilaritySQL;
     this.getAllSimilarItemIDsSQL = getAllSimilarItemIDsSQL;
+    this.getSimilarityRowSQL = "SELECT " + itemAIDColumn + ", " + itemBIDColumn + ", " + similarityColumn
+        + " FROM " + similarityTable + " WHERE " + itemAIDColumn + "=? OR " + itemBIDColumn + "=?";
+    // Batched queries select the same as this one, only for many items at once
+    this.batchable = getItemItemSimilaritySQL.equals("SELECT " + similarityColumn + " FROM " + similarityTable
+        + " WHERE " + itemAIDColumn + "=? AND " + itemBIDColumn + "=?");
   }
   
   protected String getSimilarityTable() {
@@ -133,8 +149,55 @@ public abstract class AbstractJDBCItemSimilarity extends AbstractJDBCComponent i
     }
   }
 
+  /**
+   * Reads all requested similarities with one query per side of the pair the other items fall on, listing up to
+   * {@link #MAX_IN_LIST_SIZE} items in an {@code IN} list. Lists are padded to a power of two, so that only a few
+   * distinct statements are ever prepared. With a custom item-item similarity query, runs that for each item.
+   */
   @Override
   public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
+    if (!batchable) {
+      return itemSimilaritiesOneByOne(itemID1, itemID2s);
+    }
+    FastIDSet largerItemIDs = new FastIDSet();
+    FastIDSet smallerItemIDs = new FastIDSet();
+    for (long itemID2 : itemID2s) {
+      if (itemID2 > itemID1) {
+        largerItemIDs.add(itemID2);
+      } else if (itemID2 < itemID1) {
+        smallerItemIDs.add(itemID2);
+      }
+    }
+    FastByIDMap<Double> similarities = new FastByIDMap<Double>(itemID2s.length);
+    if (!largerItemIDs.isEmpty() || !smallerItemIDs.isEmpty()) {
+      Connection conn = null;
+      try {
+        conn = dataSource.getConnection();
+        // Pairs are stored with the smaller item ID first
+        readSimilarities(conn, itemID1, largerItemIDs.toArray(), itemAIDColumn, itemBIDColumn, similarities);
+        readSimilarities(conn, itemID1, smallerItemIDs.toArray(), itemBIDColumn, itemAIDColumn, similarities);
+      } catch (SQLException sqle) {
+        log.warn("Exception while retrieving item similarities", sqle);
+        throw new TasteException(sqle);
+      } finally {
+        IOUtils.quietClose(null, null, conn);
+      }
+    }
+    double[] result = new double[itemID2s.length];
+    for (int i = 0; i < itemID2s.length; i++) {
+      if (itemID2s[i] == itemID1) {
+        result[i] = 1.0;
+      } else {
+        Double similarity = similarities.get(itemID2s[i]);
+        // If not found, perhaps the items exist but have no presence in the table,
+        // so NaN is appropriate
+        result[i] = similarity == null ? Double.NaN : similarity;
+      }
+    }
+    return result;
+  }
+
+  private double[] itemSimilaritiesOneByOne(long itemID1, long[] itemID2s) throws TasteException {
     double[] result = new double[itemID2s.length];
     Connection conn = null;
     PreparedStatement stmt = null;
@@ -144,7 +207,7 @@ public abstract class AbstractJDBCItemSimilarity extends AbstractJDBCComponent i
       stmt.setFetchDirection(ResultSet.FETCH_FORWARD);
       stmt.setFetchSize(getFetchSize());
       for (int i = 0; i < itemID2s.length; i++) {
-        result[i] = doItemSimilarity(stmt, itemID1, itemID2s[i]);
+        result[i] = itemID1 == itemID2s[i] ? 1.0 : doItemSimilarity(stmt, itemID1, itemID2s[i]);
       }
     } catch (SQLException sqle) {
       log.warn("Exception while retrieving item similarities", sqle);
@@ -155,6 +218,45 @@ public abstract class AbstractJDBCItemSimilarity extends AbstractJDBCComponent i
     return result;
   }
 
+  private void readSimilarities(Connection conn,
+                                long itemID,
+                                long[] otherItemIDs,
+                                String itemIDColumn,
+                                String otherItemIDColumn,
+                                FastByIDMap<Double> similarities) throws SQLException {
+    for (int from = 0; from < otherItemIDs.length; from += MAX_IN_LIST_SIZE) {
+      int length = Math.min(MAX_IN_LIST_SIZE, otherItemIDs.length - from);
+      int paddedLength = Integer.highestOneBit(length) == length ? length : Integer.highestOneBit(length) << 1;
+      StringBuilder sql = new StringBuilder();
+      sql.append("SELECT ").append(otherItemIDColumn).append(", ").append(similarityColumn)
+          .append(" FROM ").append(similarityTable)
+          .append(" WHERE ").append(itemIDColumn).append("=? AND ").append(otherItemIDColumn).append(" IN (?");
+      for (int i = 1; i < paddedLength; i++) {
+        sql.append(",?");
+      }
+      sql.append(')');
+      PreparedStatement stmt = null;
+      ResultSet rs = null;
+      try {
+        stmt = conn.prepareStatement(sql.toString(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchDirection(ResultSet.FETCH_FORWARD);
+        stmt.setFetchSize(getFetchSize());
+        stmt.setLong(1, itemID);
+        for (int i = 0; i < paddedLength; i++) {
+          // Padding repeats the last item ID
+          stmt.setLong(i + 2, otherItemIDs[from + Math.min(i, length - 1)]);
+        }
+        log.debug("Executing SQL query: {}", sql);
+        rs = stmt.executeQuery();
+        while (rs.next()) {
+          similarities.put(rs.getLong(1), rs.getDouble(2));
+        }
+      } finally {
+        IOUtils.quietClose(rs, stmt, null);
+      }
+    }
+  }
+
   @Override
   public long[] allSimilarItemIDs(long itemID) throws TasteException {
     FastIDSet allSimilarItemIDs = new FastIDSet();
@@ -184,6 +286,40 @@ public abstract class AbstractJDBCItemSimilarity extends AbstractJDBCComponent i
     return allSimilarItemIDs.toArray();
   }
   
+  /**
+   * @return all stored similarities between the given item and others, which is what
+   *  {@link CachingJDBCItemSimilarity} caches
+   */
+  ItemSimilarityRow getSimilarityRow(long itemID) throws TasteException {
+    FastByIDMap<Double> similarities = new FastByIDMap<Double>();
+    Connection conn = null;
+    PreparedStatement stmt = null;
+    ResultSet rs = null;
+    try {
+      conn = dataSource.getConnection();
+      stmt = conn.prepareStatement(getSimilarityRowSQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      stmt.setFetchDirection(ResultSet.FETCH_FORWARD);
+      stmt.setFetchSize(getFetchSize());
+      stmt.setLong(1, itemID);
+      stmt.setLong(2, itemID);
+      log.debug("Executing SQL query: {}", getSimilarityRowSQL);
+      rs = stmt.executeQuery();
+      while (rs.next()) {
+        long itemAID = rs.getLong(1);
+        long otherItemID = itemAID == itemID ? rs.getLong(2) : itemAID;
+        if (otherItemID != itemID) {
+          similarities.put(otherItemID, rs.getDouble(3));
+        }
+      }
+    } catch (SQLException sqle) {
+      log.warn("Exception while retrieving similarities", sqle);
+      throw new TasteException(sqle);
+    } finally {
+      IOUtils.quietClose(rs, stmt, conn);
+    }
+    return new ItemSimilarityRow(similarities);
+  }
+
   @Override
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
   // do nothing
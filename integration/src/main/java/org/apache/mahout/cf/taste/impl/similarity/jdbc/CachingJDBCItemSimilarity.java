@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity.jdbc;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+
+/**
+ * <p>
+ * Caches all stored similarities of recently used items from an {@link AbstractJDBCItemSimilarity}. Each call
+ * for an item not in the cache reads that item's whole row of similarities with one query, after which any
+ * similarity with it is answered from memory. This suits item-based recommenders, which ask for the similarities
+ * between one item and many others at a time.
+ * </p>
+ *
+ * <p>
+ * Memory is bounded by the total number of similarities cached, counting an empty row as one; least recently used
+ * rows are evicted first. Rows longer than a quarter of that are used once and not cached.
+ * </p>
+ */
+public final class CachingJDBCItemSimilarity implements ItemSimilarity {
+
+  private final AbstractJDBCItemSimilarity delegate;
+  private final int maxCachedSimilarities;
+  private final Map<Long,ItemSimilarityRow> rows;
+  private int numCachedSimilarities;
+  private final RefreshHelper refreshHelper;
+
+  /**
+   * @param maxCachedSimilarities
+   *          most similarities to hold in all cached rows together; each takes about 16 bytes
+   */
+  public CachingJDBCItemSimilarity(AbstractJDBCItemSimilarity delegate, int maxCachedSimilarities) {
+    Preconditions.checkArgument(delegate != null, "delegate is null");
+    Preconditions.checkArgument(maxCachedSimilarities > 0, "maxCachedSimilarities must be positive");
+    this.delegate = delegate;
+    this.maxCachedSimilarities = maxCachedSimilarities;
+    this.rows = new LinkedHashMap<Long,ItemSimilarityRow>(16, 0.75f, true);
+    this.refreshHelper = new RefreshHelper(new Callable<Void>() {
+      @Override
+      public Void call() {
+        clear();
+        return null;
+      }
+    });
+    refreshHelper.addDependency(delegate);
+  }
+
+  @Override
+  public double itemSimilarity(long itemID1, long itemID2) throws TasteException {
+    if (itemID1 == itemID2) {
+      return 1.0;
+    }
+    ItemSimilarityRow row = getCachedRow(itemID2);
+    if (row != null) {
+      return row.get(itemID1);
+    }
+    return getRow(itemID1).get(itemID2);
+  }
+
+  @Override
+  public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
+    ItemSimilarityRow row = getRow(itemID1);
+    double[] result = new double[itemID2s.length];
+    for (int i = 0; i < itemID2s.length; i++) {
+      result[i] = itemID2s[i] == itemID1 ? 1.0 : row.get(itemID2s[i]);
+    }
+    return result;
+  }
+
+  @Override
+  public long[] allSimilarItemIDs(long itemID) throws TasteException {
+    return getRow(itemID).getItemIDs();
+  }
+
+  private ItemSimilarityRow getCachedRow(long itemID) {
+    synchronized (rows) {
+      return rows.get(itemID);
+    }
+  }
+
+  private ItemSimilarityRow getRow(long itemID) throws TasteException {
+    ItemSimilarityRow row = getCachedRow(itemID);
+    if (row == null) {
+      // Read without holding the lock; two threads may both read a row, which is harmless
+      row = delegate.getSimilarityRow(itemID);
+      if (row.length() <= maxCachedSimilarities / 4) {
+        synchronized (rows) {
+          ItemSimilarityRow previous = rows.put(itemID, row);
+          numCachedSimilarities += cost(row) - (previous == null ? 0 : cost(previous));
+          Iterator<ItemSimilarityRow> it = rows.values().iterator();
+          while (numCachedSimilarities > maxCachedSimilarities) {
+            numCachedSimilarities -= cost(it.next());
+            it.remove();
+          }
+        }
+      }
+    }
+    return row;
+  }
+
+  /** @return size charged for a cached row; at least 1, so that empty rows are evicted too */
+  private static int cost(ItemSimilarityRow row) {
+    return Math.max(1, row.length());
+  }
+
+  private void clear() {
+    synchronized (rows) {
+      rows.clear();
+      numCachedSimilarities = 0;
+    }
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public String toString() {
+    return "CachingJDBCItemSimilarity[delegate:" + delegate + ", maxCachedSimilarities:" + maxCachedSimilarities
+        + ']';
+  }
+
+}
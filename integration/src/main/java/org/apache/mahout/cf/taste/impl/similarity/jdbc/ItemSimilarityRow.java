@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity.jdbc;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+
+/**
+ * All stored similarities of one item, as parallel arrays sorted by the other item's ID.
+ */
+final class ItemSimilarityRow {
+
+  private final long[] itemIDs;
+  private final double[] similarities;
+
+  ItemSimilarityRow(FastByIDMap<Double> similaritiesByItemID) {
+    itemIDs = new long[similaritiesByItemID.size()];
+    int i = 0;
+    for (Map.Entry<Long,Double> entry : similaritiesByItemID.entrySet()) {
+      itemIDs[i++] = entry.getKey();
+    }
+    Arrays.sort(itemIDs);
+    similarities = new double[itemIDs.length];
+    for (int j = 0; j < itemIDs.length; j++) {
+      similarities[j] = similaritiesByItemID.get(itemIDs[j]);
+    }
+  }
+
+  int length() {
+    return itemIDs.length;
+  }
+
+  /** @return similarity with the given item, or {@link Double#NaN} if none is stored */
+  double get(long itemID) {
+    int index = Arrays.binarySearch(itemIDs, itemID);
+    return index < 0 ? Double.NaN : similarities[index];
+  }
+
+  long[] getItemIDs() {
+    return itemIDs.clone();
+  }
+
+}
@@ -0,0 +1,580 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.web;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.Histogram;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>An embedded HTTP server which returns recommendations for several users per request, as an alternative to
+ * {@link RecommenderServlet} that needs no servlet container. It uses the HTTP server built into the JDK.</p>
+ *
+ * <p>{@code /recommend} accepts GET and POST requests with these parameters:</p>
+ *
+ * <ul>
+ * <li><em>userID</em>: user IDs to produce recommendations for, separated by commas, or given as several
+ * parameters. User IDs may also be posted in the request body, separated by commas or white space.</li>
+ * <li><em>howMany</em>: (optional) the number of recommendations to produce for each user</li>
+ * </ul>
+ *
+ * <p>The response is JSON, written as results arrive rather than built up as a string first:</p>
+ *
+ * <p>{@code {"recommendations":[{"userID":123,"items":[{"id":456,"value":4.5}]},
+ * {"userID":124,"error":"NoSuchUserException"}]}}</p>
+ *
+ * <p>Recommendations are computed on a fixed pool of threads; request threads only parse requests and never
+ * wait. Concurrent requests for the same user and number of recommendations share one computation. Requests
+ * which would take the number of users waiting for recommendations over a limit are rejected with status 503,
+ * so that load beyond capacity fails fast instead of queueing. {@code /metrics} returns request counts and
+ * latency percentiles as JSON.</p>
+ */
+public final class RecommenderServer {
+
+  private static final Logger log = LoggerFactory.getLogger(RecommenderServer.class);
+
+  private static final int DEFAULT_HOW_MANY = 20;
+  private static final int DEFAULT_PORT = 8080;
+  private static final Pattern ID_SEPARATOR = Pattern.compile("[,\\s]+");
+  private static final Charset UTF8 = Charsets.UTF_8;
+  private static final double NANOS_PER_MILLI = 1000000.0;
+
+  private final Recommender recommender;
+  private final int maxPendingUsers;
+  private final int maxBatchSize;
+  private final HttpServer server;
+  private final ExecutorService requestExecutor;
+  private final ExecutorService recommendExecutor;
+  private final Semaphore admissions;
+  private final ConcurrentMap<RequestKey,RecommendTask> inFlight;
+  private final Histogram latencies;
+  private final AtomicLong numRequests;
+  private final AtomicLong numRejected;
+  private final AtomicLong numUsers;
+  private final AtomicLong numCoalesced;
+  private final AtomicLong numErrors;
+
+  /**
+   * @param numThreads
+   *          threads computing recommendations
+   * @param maxPendingUsers
+   *          most users whose recommendations may be waited for at once, over all requests
+   * @param maxBatchSize
+   *          most users in one request
+   */
+  public RecommenderServer(Recommender recommender,
+                           InetSocketAddress address,
+                           int numThreads,
+                           int maxPendingUsers,
+                           int maxBatchSize) throws IOException {
+    Preconditions.checkArgument(recommender != null, "recommender is null");
+    Preconditions.checkArgument(numThreads > 0, "numThreads must be positive");
+    Preconditions.checkArgument(maxBatchSize > 0 && maxBatchSize <= maxPendingUsers,
+        "maxBatchSize must be positive and at most maxPendingUsers");
+    this.recommender = recommender;
+    this.maxPendingUsers = maxPendingUsers;
+    this.maxBatchSize = maxBatchSize;
+    admissions = new Semaphore(maxPendingUsers);
+    inFlight = Maps.newConcurrentMap();
+    latencies = new Histogram();
+    numRequests = new AtomicLong();
+    numRejected = new AtomicLong();
+    numUsers = new AtomicLong();
+    numCoalesced = new AtomicLong();
+    numErrors = new AtomicLong();
+    recommendExecutor = Executors.newFixedThreadPool(numThreads);
+    requestExecutor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+    server = HttpServer.create(address, 0);
+    server.setExecutor(requestExecutor);
+    server.createContext("/recommend", new RecommendHandler());
+    server.createContext("/metrics", new MetricsHandler());
+  }
+
+  public void start() {
+    server.start();
+    log.info("Serving recommendations at {}", server.getAddress());
+  }
+
+  /**
+   * Stops accepting requests, waits up to the given time for requests in progress to finish, and then stops
+   * all threads.
+   */
+  public void stop(int delaySeconds) {
+    server.stop(delaySeconds);
+    recommendExecutor.shutdown();
+    requestExecutor.shutdown();
+    try {
+      recommendExecutor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** @return address the server listens at, with the port chosen if port 0 was given */
+  public InetSocketAddress getAddress() {
+    return server.getAddress();
+  }
+
+  public Recommender getRecommender() {
+    return recommender;
+  }
+
+  /** @return latencies of answered requests, in nanoseconds */
+  public Histogram getLatencies() {
+    return latencies;
+  }
+
+  public long getNumRequests() {
+    return numRequests.get();
+  }
+
+  /** @return requests rejected because too many users were already pending */
+  public long getNumRejected() {
+    return numRejected.get();
+  }
+
+  /** @return user IDs requested in all admitted requests */
+  public long getNumUsers() {
+    return numUsers.get();
+  }
+
+  /** @return user IDs which shared the computation of another request rather than starting one */
+  public long getNumCoalesced() {
+    return numCoalesced.get();
+  }
+
+  public long getNumErrors() {
+    return numErrors.get();
+  }
+
+  /** @return number of users currently waited for */
+  public int getNumPendingUsers() {
+    return maxPendingUsers - admissions.availablePermits();
+  }
+
+  private RecommendTask recommend(long userID, int howMany) {
+    RequestKey key = new RequestKey(userID, howMany);
+    RecommendTask task = inFlight.get(key);
+    if (task == null) {
+      RecommendTask newTask = new RecommendTask(key);
+      task = inFlight.putIfAbsent(key, newTask);
+      if (task == null) {
+        try {
+          recommendExecutor.execute(newTask);
+        } catch (RejectedExecutionException ree) {
+          // Ends it, which drops it from inFlight and answers requests that joined it meanwhile
+          newTask.reject(ree);
+          throw ree;
+        }
+        return newTask;
+      }
+    }
+    numCoalesced.incrementAndGet();
+    return task;
+  }
+
+  private final class RecommendHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      long start = System.nanoTime();
+      numRequests.incrementAndGet();
+      long[] userIDs;
+      int howMany;
+      try {
+        List<String> userIDStrings = Lists.newArrayList();
+        howMany = DEFAULT_HOW_MANY;
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+          for (String param : query.split("&")) {
+            int equals = param.indexOf('=');
+            String name = equals < 0 ? param : param.substring(0, equals);
+            String value = equals < 0 ? "" : param.substring(equals + 1);
+            if ("userID".equals(name)) {
+              userIDStrings.add(URLDecoder.decode(value, "UTF-8"));
+            } else if ("howMany".equals(name)) {
+              howMany = Integer.parseInt(value);
+            }
+          }
+        }
+        if ("POST".equals(exchange.getRequestMethod())) {
+          InputStream in = exchange.getRequestBody();
+          userIDStrings.add(new String(ByteStreams.toByteArray(in), UTF8));
+          in.close();
+        }
+        userIDs = parseUserIDs(userIDStrings);
+        if (userIDs.length == 0) {
+          throw new IllegalArgumentException("userID was not specified");
+        }
+        if (userIDs.length > maxBatchSize) {
+          throw new IllegalArgumentException("At most " + maxBatchSize + " user IDs may be given");
+        }
+        if (howMany <= 0) {
+          throw new IllegalArgumentException("howMany must be positive");
+        }
+      } catch (IllegalArgumentException iae) {
+        // Includes NumberFormatException
+        sendError(exchange, 400, iae.getMessage());
+        return;
+      }
+
+      if (!admissions.tryAcquire(userIDs.length)) {
+        numRejected.incrementAndGet();
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        sendError(exchange, 503, "Too many pending requests");
+        return;
+      }
+      numUsers.addAndGet(userIDs.length);
+      BatchResponse response = new BatchResponse(exchange, start, userIDs.length);
+      for (int i = 0; i < userIDs.length; i++) {
+        RecommendTask task;
+        try {
+          task = recommend(userIDs[i], howMany);
+        } catch (RejectedExecutionException ree) {
+          // Only while stopping; users already added still count down the response
+          numRejected.incrementAndGet();
+          response.reject(userIDs.length - i);
+          return;
+        }
+        task.addWaiter(response, i);
+      }
+      // The response is sent by whichever recommendation thread finishes last
+    }
+  }
+
+  private final class MetricsHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+      exchange.sendResponseHeaders(200, 0);
+      Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), UTF8));
+      try {
+        writer.write("{\"requests\":");
+        writer.write(Long.toString(numRequests.get()));
+        writer.write(",\"rejected\":");
+        writer.write(Long.toString(numRejected.get()));
+        writer.write(",\"users\":");
+        writer.write(Long.toString(numUsers.get()));
+        writer.write(",\"coalesced\":");
+        writer.write(Long.toString(numCoalesced.get()));
+        writer.write(",\"errors\":");
+        writer.write(Long.toString(numErrors.get()));
+        writer.write(",\"pendingUsers\":");
+        writer.write(Integer.toString(getNumPendingUsers()));
+        writer.write(",\"latencyMillis\":{\"mean\":");
+        double mean = latencies.getMean();
+        writer.write(Double.isNaN(mean) ? "null" : Double.toString(mean / NANOS_PER_MILLI));
+        writer.write(",\"p50\":");
+        writer.write(Double.toString(latencies.getValueAtPercentile(50.0) / NANOS_PER_MILLI));
+        writer.write(",\"p99\":");
+        writer.write(Double.toString(latencies.getValueAtPercentile(99.0) / NANOS_PER_MILLI));
+        writer.write(",\"p999\":");
+        writer.write(Double.toString(latencies.getValueAtPercentile(99.9) / NANOS_PER_MILLI));
+        writer.write(",\"max\":");
+        writer.write(Double.toString(latencies.getMax() / NANOS_PER_MILLI));
+        writer.write("}}");
+      } finally {
+        writer.close();
+        exchange.close();
+      }
+    }
+  }
+
+  private static long[] parseUserIDs(Iterable<String> userIDStrings) {
+    List<Long> userIDs = Lists.newArrayList();
+    for (String userIDString : userIDStrings) {
+      for (String token : ID_SEPARATOR.split(userIDString.trim())) {
+        if (!token.isEmpty()) {
+          userIDs.add(Long.parseLong(token));
+        }
+      }
+    }
+    long[] result = new long[userIDs.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = userIDs.get(i);
+    }
+    return result;
+  }
+
+  private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, 0);
+    Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), UTF8));
+    try {
+      writer.write("{\"error\":");
+      writeString(writer, message);
+      writer.write('}');
+    } finally {
+      writer.close();
+      exchange.close();
+    }
+  }
+
+  private static void writeString(Writer writer, String value) throws IOException {
+    writer.write('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        writer.write('\\');
+        writer.write(c);
+      } else if (c < ' ') {
+        writer.write(String.format("\\u%04x", (int) c));
+      } else {
+        writer.write(c);
+      }
+    }
+    writer.write('"');
+  }
+
+  /**
+   * The recommendations of one user, computed once for all requests waiting for them.
+   */
+  private final class RecommendTask extends FutureTask<List<RecommendedItem>> {
+
+    private final RequestKey key;
+    private final List<BatchResponse> waiters;
+    private final List<Integer> waiterIndexes;
+    private boolean finished;
+
+    private RecommendTask(final RequestKey key) {
+      super(new Callable<List<RecommendedItem>>() {
+        @Override
+        public List<RecommendedItem> call() throws TasteException {
+          return recommender.recommend(key.userID, key.howMany);
+        }
+      });
+      this.key = key;
+      waiters = Lists.newArrayListWithCapacity(1);
+      waiterIndexes = Lists.newArrayListWithCapacity(1);
+    }
+
+    void reject(RejectedExecutionException ree) {
+      setException(ree);
+    }
+
+    void addWaiter(BatchResponse response, int index) {
+      synchronized (this) {
+        if (!finished) {
+          waiters.add(response);
+          waiterIndexes.add(index);
+          return;
+        }
+      }
+      response.set(index, key.userID, this);
+    }
+
+    @Override
+    protected void done() {
+      // Later requests must start a new computation, so that they see newer data
+      inFlight.remove(key, this);
+      synchronized (this) {
+        finished = true;
+      }
+      for (int i = 0; i < waiters.size(); i++) {
+        waiters.get(i).set(waiterIndexes.get(i), key.userID, this);
+      }
+    }
+  }
+
+  /**
+   * Collects the recommendations of all users in one request, and writes the response when the last arrives.
+   */
+  private final class BatchResponse {
+
+    private final HttpExchange exchange;
+    private final long start;
+    private final long[] userIDs;
+    private final RecommendTask[] tasks;
+    private final AtomicInteger remaining;
+    private boolean rejected;
+
+    private BatchResponse(HttpExchange exchange, long start, int numUsers) {
+      this.exchange = exchange;
+      this.start = start;
+      userIDs = new long[numUsers];
+      tasks = new RecommendTask[numUsers];
+      remaining = new AtomicInteger(numUsers);
+    }
+
+    void set(int index, long userID, RecommendTask task) {
+      userIDs[index] = userID;
+      tasks[index] = task;
+      // The atomic decrement makes all earlier writes visible to the thread that sees it reach 0
+      if (remaining.decrementAndGet() == 0) {
+        finish();
+      }
+    }
+
+    /**
+     * Answers the request as too busy instead, once the users added so far are done, since the recommendations of
+     * the given number of remaining users could not be started.
+     */
+    void reject(int numNotStarted) {
+      rejected = true;
+      if (remaining.addAndGet(-numNotStarted) == 0) {
+        finish();
+      }
+    }
+
+    private void finish() {
+      if (!rejected) {
+        // Before answering, so that the latency of an answered request is already counted
+        latencies.recordValue(System.nanoTime() - start);
+      }
+      try {
+        if (rejected) {
+          exchange.getResponseHeaders().set("Retry-After", "1");
+          sendError(exchange, 503, "Too many pending requests");
+        } else {
+          write();
+        }
+      } catch (IOException ioe) {
+        log.warn("Error while writing recommendations", ioe);
+      } finally {
+        exchange.close();
+        admissions.release(tasks.length);
+      }
+    }
+
+    private void write() throws IOException {
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+      exchange.sendResponseHeaders(200, 0);
+      Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), UTF8));
+      try {
+        writer.write("{\"recommendations\":[");
+        for (int i = 0; i < tasks.length; i++) {
+          if (i > 0) {
+            writer.write(',');
+          }
+          writer.write("{\"userID\":");
+          writer.write(Long.toString(userIDs[i]));
+          List<RecommendedItem> items;
+          try {
+            items = tasks[i].get();
+          } catch (InterruptedException ie) {
+            throw new IllegalStateException(ie);
+          } catch (ExecutionException ee) {
+            numErrors.incrementAndGet();
+            writer.write(",\"error\":");
+            writeString(writer, ee.getCause().getClass().getSimpleName());
+            writer.write('}');
+            continue;
+          }
+          writer.write(",\"items\":[");
+          for (int j = 0; j < items.size(); j++) {
+            RecommendedItem item = items.get(j);
+            if (j > 0) {
+              writer.write(',');
+            }
+            writer.write("{\"id\":");
+            writer.write(Long.toString(item.getItemID()));
+            writer.write(",\"value\":");
+            float value = item.getValue();
+            writer.write(Float.isNaN(value) || Float.isInfinite(value) ? "null" : Float.toString(value));
+            writer.write('}');
+          }
+          writer.write("]}");
+        }
+        writer.write("]}");
+      } finally {
+        writer.close();
+      }
+    }
+  }
+
+  private static final class RequestKey {
+
+    private final long userID;
+    private final int howMany;
+
+    private RequestKey(long userID, int howMany) {
+      this.userID = userID;
+      this.howMany = howMany;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof RequestKey)) {
+        return false;
+      }
+      RequestKey other = (RequestKey) o;
+      return userID == other.userID && howMany == other.howMany;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (userID ^ (userID >>> 32)) * 31 + howMany;
+    }
+
+  }
+
+  /**
+   * Arguments: name of a class implementing {@link Recommender} with a no-arg constructor, and optionally the
+   * port to listen on, number of threads, most pending users, and most users per request.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println(
+          "Usage: RecommenderServer recommender-class [port [threads [maxPendingUsers [maxBatchSize]]]]");
+      return;
+    }
+    int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+    int numThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+    int maxPendingUsers = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+    int maxBatchSize = args.length > 4 ? Integer.parseInt(args[4]) : 100;
+    RecommenderSingleton.initializeIfNeeded(args[0]);
+    RecommenderServer server = new RecommenderServer(RecommenderSingleton.getInstance().getRecommender(),
+        new InetSocketAddress(port), numThreads, maxPendingUsers, maxBatchSize);
+    server.start();
+  }
+
+}
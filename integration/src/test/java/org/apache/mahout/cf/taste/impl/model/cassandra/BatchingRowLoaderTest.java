@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.model.cassandra;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.junit.Test;
+
+public final class BatchingRowLoaderTest extends TasteTestCase {
+
+  @Test
+  public void testSerialBatches() throws Exception {
+    RecordingFetcher fetcher = new RecordingFetcher();
+    BatchingRowLoader loader = new BatchingRowLoader(fetcher, null, 3, 1);
+    FastByIDMap<PreferenceRow> rows = loader.load("cf", new long[] {1L, 2L, 3L, 4L, 5L, 6L, 7L});
+    // odd keys have no row
+    assertEquals(3, rows.size());
+    assertEquals(6.0f, rows.get(6L).getValue(6L), EPSILON);
+    assertNull(rows.get(5L));
+    assertEquals(Lists.newArrayList(3, 3, 1), fetcher.batchSizes);
+    assertEquals(1, fetcher.maxConcurrentCalls.get());
+    assertNotNull(loader.load("cf", 2L));
+    assertNull(loader.load("cf", 3L));
+  }
+
+  @Test
+  public void testConcurrentBatchesAreBounded() throws Exception {
+    RecordingFetcher fetcher = new RecordingFetcher();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      BatchingRowLoader loader = new BatchingRowLoader(fetcher, executor, 10, 2);
+      long[] keys = new long[1000];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = i;
+      }
+      FastByIDMap<PreferenceRow> rows = loader.load("cf", keys);
+      assertEquals(500, rows.size());
+      for (int i = 0; i < keys.length; i += 2) {
+        assertEquals(i, rows.get(i).getValue(i), EPSILON);
+      }
+      assertEquals(100, fetcher.batchSizes.size());
+      for (int batchSize : fetcher.batchSizes) {
+        assertTrue(batchSize <= 10);
+      }
+      assertTrue(fetcher.maxConcurrentCalls.get() <= 2);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(expected = TasteException.class)
+  public void testFailure() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      RowFetcher fetcher = new RowFetcher() {
+        @Override
+        public FastByIDMap<PreferenceRow> fetch(String columnFamily, long[] keys) throws TasteException {
+          throw new TasteException("unavailable");
+        }
+      };
+      new BatchingRowLoader(fetcher, executor, 1, 2).load("cf", new long[] {1L, 2L, 3L});
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(timeout = 10000L)
+  public void testPermitsReleasedAfterFailure() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final RowFetcher delegate = new RecordingFetcher();
+      RowFetcher fetcher = new RowFetcher() {
+        @Override
+        public FastByIDMap<PreferenceRow> fetch(String columnFamily, long[] keys) throws TasteException {
+          if (keys[0] == 1L) {
+            throw new TasteException("unavailable");
+          }
+          return delegate.fetch(columnFamily, keys);
+        }
+      };
+      BatchingRowLoader loader = new BatchingRowLoader(fetcher, executor, 1, 2);
+      try {
+        loader.load("cf", new long[] {1L, 2L, 3L, 4L, 5L, 6L});
+        fail();
+      } catch (TasteException te) {
+        // expected
+      }
+      // Would wait forever if permits of the failed or cancelled batches were lost
+      assertEquals(3, loader.load("cf", new long[] {2L, 4L, 6L, 7L}).size());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static final class RecordingFetcher implements RowFetcher {
+
+    private final List<Integer> batchSizes = Lists.newArrayList();
+    private final AtomicInteger concurrentCalls = new AtomicInteger();
+    private final AtomicInteger maxConcurrentCalls = new AtomicInteger();
+
+    @Override
+    public FastByIDMap<PreferenceRow> fetch(String columnFamily, long[] keys) {
+      int calls = concurrentCalls.incrementAndGet();
+      int max;
+      while (calls > (max = maxConcurrentCalls.get()) && !maxConcurrentCalls.compareAndSet(max, calls)) {
+        // retry
+      }
+      try {
+        Thread.sleep(1L);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+      synchronized (batchSizes) {
+        batchSizes.add(keys.length);
+      }
+      FastByIDMap<PreferenceRow> rows = new FastByIDMap<PreferenceRow>(keys.length);
+      for (long key : keys) {
+        if (key % 2L == 0L) {
+          rows.put(key, new PreferenceRow(new long[] {key}, new float[] {key}));
+        }
+      }
+      concurrentCalls.decrementAndGet();
+      return rows;
+    }
+  }
+
+}
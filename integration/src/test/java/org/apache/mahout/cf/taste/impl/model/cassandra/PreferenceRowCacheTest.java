@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.model.cassandra;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.junit.Test;
+
+public final class PreferenceRowCacheTest extends TasteTestCase {
+
+  @Test
+  public void testWriteThroughOnlyToCachedRows() {
+    PreferenceRowCache cache = new PreferenceRowCache(100);
+    cache.putIfUnchanged(1L, new PreferenceRow(new long[] {10L}, new float[] {1.0f}), cache.getVersion(1L));
+    cache.setValue(1L, 11L, 2.0f);
+    cache.setValue(2L, 11L, 2.0f);
+    assertEquals(2, cache.get(1L).size());
+    assertEquals(2.0f, cache.get(1L).getValue(11L), EPSILON);
+    // a partial row would be wrong, so nothing is cached for a row that was not loaded
+    assertNull(cache.get(2L));
+  }
+
+  @Test
+  public void testRemoveValue() {
+    PreferenceRowCache cache = new PreferenceRowCache(100);
+    cache.putIfUnchanged(1L, new PreferenceRow(new long[] {10L, 11L}, new float[] {1.0f, 2.0f}), cache.getVersion(1L));
+    cache.removeValue(1L, 10L);
+    assertEquals(1, cache.get(1L).size());
+    assertNull(cache.get(1L).getValue(10L));
+    cache.removeValue(1L, 11L);
+    assertNull(cache.get(1L));
+  }
+
+  @Test
+  public void testLoadedRowNotCachedOverChanges() {
+    PreferenceRowCache cache = new PreferenceRowCache(100);
+    PreferenceRow loaded = new PreferenceRow(new long[] {10L}, new float[] {1.0f});
+
+    // Changed while loading: the loaded row may miss the change
+    long version = cache.getVersion(1L);
+    cache.setValue(1L, 11L, 2.0f);
+    assertSame(loaded, cache.putIfUnchanged(1L, loaded, version));
+    assertNull(cache.get(1L));
+    version = cache.getVersion(1L);
+    cache.removeValue(1L, 10L);
+    cache.putIfUnchanged(1L, loaded, version);
+    assertNull(cache.get(1L));
+
+    // Not over a row cached meanwhile
+    PreferenceRow fresher = new PreferenceRow(new long[] {10L, 11L}, new float[] {1.0f, 2.0f});
+    version = cache.getVersion(1L);
+    cache.putIfUnchanged(1L, fresher, cache.getVersion(1L));
+    assertSame(fresher, cache.putIfUnchanged(1L, loaded, version));
+    assertSame(fresher, cache.get(1L));
+  }
+
+  @Test
+  public void testClear() {
+    PreferenceRowCache cache = new PreferenceRowCache(100);
+    for (long key = 0L; key < 50L; key++) {
+      cache.putIfUnchanged(key, new PreferenceRow(new long[] {key}, new float[] {1.0f}), cache.getVersion(key));
+    }
+    assertNotNull(cache.get(25L));
+    long version = cache.getVersion(25L);
+    cache.clear();
+    assertNull(cache.get(25L));
+    cache.putIfUnchanged(25L, new PreferenceRow(new long[] {25L}, new float[] {1.0f}), version);
+    assertNull(cache.get(25L));
+  }
+
+}
@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.model.cassandra;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+public final class PreferenceRowTest extends TasteTestCase {
+
+  @Test
+  public void testSortsIDs() {
+    PreferenceRow row = new PreferenceRow(new long[] {5L, -3L, 2L}, new float[] {5.0f, -3.0f, 2.0f});
+    assertEquals(3, row.size());
+    assertEquals(-3.0f, row.getValue(-3L), EPSILON);
+    assertEquals(2.0f, row.getValue(2L), EPSILON);
+    assertEquals(5.0f, row.getValue(5L), EPSILON);
+    assertNull(row.getValue(3L));
+    PreferenceArray prefs = row.toUserPreferences(1L);
+    assertEquals(-3L, prefs.getItemID(0));
+    assertEquals(2L, prefs.getItemID(1));
+    assertEquals(5L, prefs.getItemID(2));
+    assertEquals(1L, prefs.getUserID(2));
+    assertEquals(5.0f, prefs.getValue(2), EPSILON);
+  }
+
+  @Test
+  public void testWithAndWithout() {
+    PreferenceRow row = new PreferenceRow(new long[] {1L, 3L}, new float[] {1.0f, 3.0f});
+    PreferenceRow added = row.with(2L, 2.0f);
+    assertEquals(2, row.size());
+    assertEquals(3, added.size());
+    assertEquals(2.0f, added.getValue(2L), EPSILON);
+    PreferenceRow updated = added.with(3L, 4.0f);
+    assertEquals(3, updated.size());
+    assertEquals(4.0f, updated.getValue(3L), EPSILON);
+    PreferenceRow removed = updated.without(1L);
+    assertEquals(2, removed.size());
+    assertNull(removed.getValue(1L));
+    assertSame(removed, removed.without(7L));
+    PreferenceArray prefs = removed.toItemPreferences(9L);
+    assertEquals(2L, prefs.getUserID(0));
+    assertEquals(3L, prefs.getUserID(1));
+    assertEquals(9L, prefs.getItemID(0));
+  }
+
+  @Test
+  public void testIntersectionSize() {
+    PreferenceRow row1 = new PreferenceRow(new long[] {-4L, 1L, 2L, 8L}, new float[4]);
+    PreferenceRow row2 = new PreferenceRow(new long[] {8L, -4L, 3L}, new float[3]);
+    assertEquals(2, row1.intersectionSize(row2));
+    assertEquals(2, row2.intersectionSize(row1));
+    assertEquals(4, row1.intersectionSize(row1));
+    assertTrue(row1.toIDSet().contains(-4L));
+    assertEquals(4, row1.toIDSet().size());
+  }
+
+}
@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.model.jdbc;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.JDBCDataModel;
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Collection;
+import java.util.List;
+
+public final class ReloadFromJDBCDataModelTest extends TasteTestCase {
+
+  private static final String GET_CHANGED_PREFERENCES_SQL =
+      "SELECT user_id, item_id, preference, timestamp FROM taste_preferences WHERE timestamp >= ?";
+  private static final String GET_CHANGED_ITEM_IDS_SQL =
+      "SELECT user_id, item_id, timestamp FROM taste_preferences WHERE timestamp >= ?";
+
+  @Test
+  public void testLoadChanges() throws Exception {
+    DataSource dataSource = EasyMock.createMock(DataSource.class);
+    JDBCDataModel delegate = EasyMock.createMock(JDBCDataModel.class);
+    EasyMock.expect(delegate.hasPreferenceValues()).andReturn(true).anyTimes();
+    EasyMock.expect(delegate.getDataSource()).andReturn(dataSource).anyTimes();
+    delegate.refresh(EasyMock.<Collection<Refreshable>>anyObject());
+    EasyMock.expectLastCall().anyTimes();
+
+    List<Object> mocks = Lists.newArrayList();
+    // Initial full load
+    expectQuery(dataSource, mocks, GET_CHANGED_PREFERENCES_SQL, Long.MIN_VALUE,
+        new Object[] {1L, 10L, 1.0f, 100L},
+        new Object[] {1L, 11L, 2.0f, 100L},
+        new Object[] {2L, 10L, 3.0f, 200L});
+    // Rows of the last time again, one changed and one added; user 1's preference for item 10 was deleted
+    expectQuery(dataSource, mocks, GET_CHANGED_PREFERENCES_SQL, 200L,
+        new Object[] {2L, 10L, 3.0f, 200L},
+        new Object[] {1L, 11L, 4.0f, 300L},
+        new Object[] {3L, 12L, 5.0f, 300L});
+    // Nothing changed; rows of the last time are read again all the same
+    expectQuery(dataSource, mocks, GET_CHANGED_PREFERENCES_SQL, 300L,
+        new Object[] {1L, 11L, 4.0f, 300L},
+        new Object[] {3L, 12L, 5.0f, 300L});
+    // Full reload after two refreshes
+    expectQuery(dataSource, mocks, GET_CHANGED_PREFERENCES_SQL, Long.MIN_VALUE,
+        new Object[] {1L, 11L, 4.0f, 300L},
+        new Object[] {2L, 10L, 3.0f, 200L},
+        new Object[] {3L, 12L, 5.0f, 300L});
+    mocks.add(dataSource);
+    mocks.add(delegate);
+    Object[] allMocks = mocks.toArray();
+    EasyMock.replay(allMocks);
+
+    DataModel model = new ReloadFromJDBCDataModel(delegate, GET_CHANGED_PREFERENCES_SQL, 2);
+    assertEquals(2, model.getNumUsers());
+    assertEquals(1.0f, model.getPreferenceValue(1L, 10L), EPSILON);
+    assertEquals(2.0f, model.getPreferenceValue(1L, 11L), EPSILON);
+    DataModel firstInMemory = ((ReloadFromJDBCDataModel) model).getDelegateInMemory();
+
+    model.refresh(null);
+    assertEquals(3, model.getNumUsers());
+    assertEquals(4.0f, model.getPreferenceValue(1L, 11L), EPSILON);
+    assertEquals(5.0f, model.getPreferenceValue(3L, 12L), EPSILON);
+    assertEquals(3.0f, model.getPreferenceValue(2L, 10L), EPSILON);
+    // Deleted rows are not seen in changes
+    assertEquals(1.0f, model.getPreferenceValue(1L, 10L), EPSILON);
+    assertEquals(2, model.getPreferencesFromUser(1L).length());
+    // Data already served is left as it was
+    assertEquals(2.0f, firstInMemory.getPreferenceValue(1L, 11L), EPSILON);
+    assertEquals(2, firstInMemory.getNumUsers());
+
+    DataModel secondInMemory = ((ReloadFromJDBCDataModel) model).getDelegateInMemory();
+    model.refresh(null);
+    assertSame(secondInMemory, ((ReloadFromJDBCDataModel) model).getDelegateInMemory());
+    assertEquals(3, model.getNumUsers());
+    assertEquals(1.0f, model.getPreferenceValue(1L, 10L), EPSILON);
+
+    model.refresh(null);
+    assertEquals(3, model.getNumUsers());
+    assertNull(model.getPreferenceValue(1L, 10L));
+    assertEquals(1, model.getPreferencesFromUser(1L).length());
+    assertEquals(4.0f, model.getPreferenceValue(1L, 11L), EPSILON);
+
+    EasyMock.verify(allMocks);
+  }
+
+  @Test
+  public void testLoadChangedItemIDs() throws Exception {
+    DataSource dataSource = EasyMock.createMock(DataSource.class);
+    JDBCDataModel delegate = EasyMock.createMock(JDBCDataModel.class);
+    EasyMock.expect(delegate.hasPreferenceValues()).andReturn(false).anyTimes();
+    EasyMock.expect(delegate.getDataSource()).andReturn(dataSource).anyTimes();
+    delegate.refresh(EasyMock.<Collection<Refreshable>>anyObject());
+    EasyMock.expectLastCall().anyTimes();
+
+    List<Object> mocks = Lists.newArrayList();
+    expectQuery(dataSource, mocks, GET_CHANGED_ITEM_IDS_SQL, Long.MIN_VALUE,
+        new Object[] {1L, 10L, 100L},
+        new Object[] {2L, 10L, 100L});
+    expectQuery(dataSource, mocks, GET_CHANGED_ITEM_IDS_SQL, 100L,
+        new Object[] {2L, 10L, 100L},
+        new Object[] {1L, 11L, 200L},
+        new Object[] {3L, 12L, 200L});
+    mocks.add(dataSource);
+    mocks.add(delegate);
+    Object[] allMocks = mocks.toArray();
+    EasyMock.replay(allMocks);
+
+    ReloadFromJDBCDataModel model = new ReloadFromJDBCDataModel(delegate, GET_CHANGED_ITEM_IDS_SQL, 0);
+    DataModel firstInMemory = model.getDelegateInMemory();
+    model.refresh(null);
+    assertEquals(3, model.getNumUsers());
+    assertEquals(2, model.getItemIDsFromUser(1L).size());
+    assertTrue(model.getItemIDsFromUser(3L).contains(12L));
+    assertEquals(1, firstInMemory.getItemIDsFromUser(1L).size());
+
+    EasyMock.verify(allMocks);
+  }
+
+  /**
+   * Expects one run of the query; rows are user ID, item ID, preference value if any, and time.
+   */
+  private static void expectQuery(DataSource dataSource, List<Object> mocks, String sql, long since, Object[]... rows)
+    throws Exception {
+    Connection connection = EasyMock.createMock(Connection.class);
+    PreparedStatement statement = EasyMock.createMock(PreparedStatement.class);
+    ResultSet resultSet = EasyMock.createMock(ResultSet.class);
+
+    EasyMock.expect(dataSource.getConnection()).andReturn(connection);
+    EasyMock.expect(connection.prepareStatement(sql,
+        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).andReturn(statement);
+    statement.setFetchDirection(ResultSet.FETCH_FORWARD);
+    statement.setFetchSize(1000);
+    statement.setLong(1, since);
+    EasyMock.expect(statement.executeQuery()).andReturn(resultSet);
+
+    for (Object[] row : rows) {
+      EasyMock.expect(resultSet.next()).andReturn(true);
+      EasyMock.expect(resultSet.getLong(1)).andReturn((Long) row[0]);
+      EasyMock.expect(resultSet.getLong(2)).andReturn((Long) row[1]);
+      if (row.length == 4) {
+        EasyMock.expect(resultSet.getFloat(3)).andReturn((Float) row[2]);
+      }
+      EasyMock.expect(resultSet.getLong(row.length)).andReturn((Long) row[row.length - 1]);
+    }
+    EasyMock.expect(resultSet.next()).andReturn(false);
+
+    resultSet.close();
+    statement.close();
+    connection.close();
+
+    mocks.add(connection);
+    mocks.add(statement);
+    mocks.add(resultSet);
+  }
+
+}
@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.mongodb;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.junit.Test;
+
+public final class MongoIDMappingTest extends TasteTestCase {
+
+  @Test
+  public void testMapping() {
+    MongoIDMapping mapping = new MongoIDMapping();
+    long id1 = mapping.toLongID("4c2209fef3924d31102bd84b");
+    long id2 = mapping.toLongID("4c2209fef3924d31202bd853");
+    assertTrue(id1 != id2);
+    assertEquals(id1, mapping.toLongID("4c2209fef3924d31102bd84b"));
+    assertEquals(Long.valueOf(id2), mapping.getLongID("4c2209fef3924d31202bd853"));
+    assertNull(mapping.getLongID("foo"));
+    assertFalse(mapping.contains("foo"));
+    assertTrue(mapping.contains("4c2209fef3924d31102bd84b"));
+    assertEquals("4c2209fef3924d31102bd84b", mapping.getMongoID(id1));
+    assertNull(mapping.getMongoID(id2 + 1));
+  }
+
+  @Test
+  public void testDrainNewMappings() {
+    MongoIDMapping mapping = new MongoIDMapping();
+    long id1 = mapping.toLongID("a");
+    FastByIDMap<String> newMappings = mapping.drainNewMappings();
+    assertEquals(1, newMappings.size());
+    assertEquals("a", newMappings.get(id1));
+    mapping.toLongID("a");
+    assertTrue(mapping.drainNewMappings().isEmpty());
+    long id2 = mapping.toLongID("b");
+    newMappings = mapping.drainNewMappings();
+    assertEquals(1, newMappings.size());
+    assertEquals("b", newMappings.get(id2));
+  }
+
+  @Test
+  public void testManyIDs() {
+    MongoIDMapping mapping = new MongoIDMapping();
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(i, mapping.toLongID("id-" + i));
+    }
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(Long.valueOf(i), mapping.getLongID("id-" + i));
+      assertEquals("id-" + i, mapping.getMongoID(i));
+    }
+    assertEquals(10000, mapping.drainNewMappings().size());
+    assertNull(mapping.getMongoID(10000));
+    assertNull(mapping.getMongoID(-1));
+  }
+
+}
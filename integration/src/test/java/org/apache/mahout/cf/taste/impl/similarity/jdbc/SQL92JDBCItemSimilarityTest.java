@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity.jdbc;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+public class SQL92JDBCItemSimilarityTest extends TasteTestCase {
+
+  @Test
+  public void testBatchedItemSimilarities() throws Exception {
+
+    DataSource dataSource = EasyMock.createMock(DataSource.class);
+    Connection connection = EasyMock.createMock(Connection.class);
+    PreparedStatement largerStatement = EasyMock.createMock(PreparedStatement.class);
+    PreparedStatement smallerStatement = EasyMock.createMock(PreparedStatement.class);
+    ResultSet largerResultSet = EasyMock.createMock(ResultSet.class);
+    ResultSet smallerResultSet = EasyMock.createMock(ResultSet.class);
+
+    EasyMock.expect(dataSource.getConnection()).andReturn(connection);
+
+    EasyMock.expect(connection.prepareStatement(
+        "SELECT item_id_b, similarity FROM taste_item_similarity WHERE item_id_a=? AND item_id_b IN (?)",
+        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).andReturn(largerStatement);
+    largerStatement.setFetchDirection(ResultSet.FETCH_FORWARD);
+    largerStatement.setFetchSize(1000);
+    largerStatement.setLong(1, 2L);
+    largerStatement.setLong(2, 3L);
+    EasyMock.expect(largerStatement.executeQuery()).andReturn(largerResultSet);
+    EasyMock.expect(largerResultSet.next()).andReturn(true);
+    EasyMock.expect(largerResultSet.getLong(1)).andReturn(3L);
+    EasyMock.expect(largerResultSet.getDouble(2)).andReturn(0.3);
+    EasyMock.expect(largerResultSet.next()).andReturn(false);
+    largerResultSet.close();
+    largerStatement.close();
+
+    EasyMock.expect(connection.prepareStatement(
+        "SELECT item_id_a, similarity FROM taste_item_similarity WHERE item_id_b=? AND item_id_a IN (?)",
+        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).andReturn(smallerStatement);
+    smallerStatement.setFetchDirection(ResultSet.FETCH_FORWARD);
+    smallerStatement.setFetchSize(1000);
+    smallerStatement.setLong(1, 2L);
+    smallerStatement.setLong(2, 1L);
+    EasyMock.expect(smallerStatement.executeQuery()).andReturn(smallerResultSet);
+    EasyMock.expect(smallerResultSet.next()).andReturn(false);
+    smallerResultSet.close();
+    smallerStatement.close();
+
+    connection.close();
+
+    EasyMock.replay(dataSource, connection, largerStatement, smallerStatement, largerResultSet, smallerResultSet);
+
+    ItemSimilarity similarity = new SQL92JDBCItemSimilarity(dataSource);
+
+    double[] similarities = similarity.itemSimilarities(2L, new long[] {3L, 2L, 1L});
+    assertEquals(0.3, similarities[0], EPSILON);
+    assertEquals(1.0, similarities[1], EPSILON);
+    assertTrue(Double.isNaN(similarities[2]));
+
+    EasyMock.verify(dataSource, connection, largerStatement, smallerStatement, largerResultSet, smallerResultSet);
+  }
+
+  @Test
+  public void testItemSimilaritiesWithCustomSQL() throws Exception {
+
+    String sql = "SELECT similarity FROM taste_item_similarity WHERE item_id_a=? AND item_id_b=? AND valid=1";
+    DataSource dataSource = EasyMock.createMock(DataSource.class);
+    Connection connection = EasyMock.createMock(Connection.class);
+    PreparedStatement statement = EasyMock.createMock(PreparedStatement.class);
+    ResultSet resultSet1 = EasyMock.createMock(ResultSet.class);
+    ResultSet resultSet2 = EasyMock.createMock(ResultSet.class);
+
+    EasyMock.expect(dataSource.getConnection()).andReturn(connection);
+    EasyMock.expect(connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY))
+        .andReturn(statement);
+    statement.setFetchDirection(ResultSet.FETCH_FORWARD);
+    statement.setFetchSize(1000);
+    statement.setLong(1, 2L);
+    statement.setLong(2, 3L);
+    EasyMock.expect(statement.executeQuery()).andReturn(resultSet1);
+    EasyMock.expect(resultSet1.next()).andReturn(true);
+    EasyMock.expect(resultSet1.getDouble(1)).andReturn(0.3);
+    resultSet1.close();
+    statement.setLong(1, 1L);
+    statement.setLong(2, 2L);
+    EasyMock.expect(statement.executeQuery()).andReturn(resultSet2);
+    EasyMock.expect(resultSet2.next()).andReturn(false);
+    resultSet2.close();
+    statement.close();
+    connection.close();
+
+    EasyMock.replay(dataSource, connection, statement, resultSet1, resultSet2);
+
+    ItemSimilarity similarity = new AbstractJDBCItemSimilarity(dataSource, sql, "unused") {};
+
+    double[] similarities = similarity.itemSimilarities(2L, new long[] {3L, 2L, 1L});
+    assertEquals(0.3, similarities[0], EPSILON);
+    assertEquals(1.0, similarities[1], EPSILON);
+    assertTrue(Double.isNaN(similarities[2]));
+
+    EasyMock.verify(dataSource, connection, statement, resultSet1, resultSet2);
+  }
+}
@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.junit.Test;
+
+public final class RecommenderServerTest extends TasteTestCase {
+
+  @Test
+  public void testBatch() throws Exception {
+    DataModel dataModel = getDataModel();
+    Recommender recommender = new GenericItemBasedRecommender(dataModel, new PearsonCorrelationSimilarity(dataModel));
+    RecommenderServer server = new RecommenderServer(recommender, new InetSocketAddress("localhost", 0), 2, 10, 5);
+    server.start();
+    try {
+      String response = get(server, "/recommend?userID=1,2&userID=3&userID=99&howMany=2");
+      StringBuilder expected = new StringBuilder("{\"recommendations\":[");
+      for (long userID = 1; userID <= 3; userID++) {
+        expected.append("{\"userID\":").append(userID).append(",\"items\":[");
+        List<RecommendedItem> items = recommender.recommend(userID, 2);
+        for (int i = 0; i < items.size(); i++) {
+          expected.append(i > 0 ? "," : "").append("{\"id\":").append(items.get(i).getItemID())
+              .append(",\"value\":").append(items.get(i).getValue()).append('}');
+        }
+        expected.append("]},");
+      }
+      expected.append("{\"userID\":99,\"error\":\"NoSuchUserException\"}]}");
+      assertEquals(expected.toString(), response);
+      assertEquals(1, server.getNumRequests());
+      assertEquals(4, server.getNumUsers());
+      assertEquals(1, server.getNumErrors());
+      assertEquals(1, server.getLatencies().getCount());
+      assertEquals(0, server.getNumPendingUsers());
+
+      assertEquals(400, getStatus(server, "/recommend?howMany=2"));
+      assertEquals(400, getStatus(server, "/recommend?userID=1,2,3,4,5,6"));
+      assertEquals(400, getStatus(server, "/recommend?userID=x"));
+      assertTrue(get(server, "/metrics").startsWith("{\"requests\":4,\"rejected\":0,\"users\":4,"));
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void testCoalescingAndAdmission() throws Exception {
+    DataModel dataModel = getDataModel();
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger numCalls = new AtomicInteger();
+    Recommender recommender =
+        new GenericItemBasedRecommender(dataModel, new PearsonCorrelationSimilarity(dataModel)) {
+          @Override
+          public List<RecommendedItem> recommend(long userID, int howMany) throws TasteException {
+            numCalls.incrementAndGet();
+            try {
+              release.await();
+            } catch (InterruptedException ie) {
+              throw new TasteException(ie);
+            }
+            return super.recommend(userID, howMany);
+          }
+        };
+    final RecommenderServer server =
+        new RecommenderServer(recommender, new InetSocketAddress("localhost", 0), 2, 2, 2);
+    server.start();
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Callable<String> request = new Callable<String>() {
+        @Override
+        public String call() throws IOException {
+          return get(server, "/recommend?userID=1");
+        }
+      };
+      Future<String> response1 = executor.submit(request);
+      Future<String> response2 = executor.submit(request);
+      while (server.getNumPendingUsers() < 2) {
+        Thread.sleep(10L);
+      }
+      assertEquals(503, getStatus(server, "/recommend?userID=2"));
+      assertEquals(1, server.getNumRejected());
+      release.countDown();
+      assertEquals(response1.get(), response2.get());
+      assertTrue(response1.get().startsWith("{\"recommendations\":[{\"userID\":1,\"items\":["));
+      assertEquals(1, numCalls.get());
+      assertEquals(1, server.getNumCoalesced());
+    } finally {
+      release.countDown();
+      executor.shutdown();
+      server.stop(0);
+    }
+  }
+
+  private static String get(RecommenderServer server, String path) throws IOException {
+    HttpURLConnection connection = open(server, path);
+    assertEquals(200, connection.getResponseCode());
+    InputStream in = connection.getInputStream();
+    try {
+      return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static int getStatus(RecommenderServer server, String path) throws IOException {
+    HttpURLConnection connection = open(server, path);
+    int status = connection.getResponseCode();
+    connection.disconnect();
+    return status;
+  }
+
+  private static HttpURLConnection open(RecommenderServer server, String path) throws IOException {
+    InetSocketAddress address = server.getAddress();
+    return (HttpURLConnection) new URL("http", address.getHostName(), address.getPort(), path).openConnection();
+  }
+
+}